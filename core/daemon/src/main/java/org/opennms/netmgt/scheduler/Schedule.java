@@ -29,6 +29,8 @@
 package org.opennms.netmgt.scheduler;
 
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +49,8 @@ public class Schedule {
 
 	/** Constant <code>random</code> */
 	private static final Random random = new Random();
+
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
 	
     private final ReadyRunnable m_schedulable;
     private final ScheduleInterval m_interval;
@@ -55,7 +59,7 @@ public class Schedule {
     private volatile boolean m_scheduled = false;
 	
     
-    class ScheduleEntry implements ReadyRunnable {
+    class ScheduleEntry implements AsyncReadyRunnable {
         private final int m_expirationCode;
 
         public ScheduleEntry(int expirationCode) {
@@ -85,13 +89,58 @@ public class Schedule {
                 try {
                     Schedule.this.run();
                 } catch (PostponeNecessary e) {
-                    // Chose a random number of seconds between 5 and 14 to wait before trying again
-                    m_timer.schedule(random.nextInt(10) * 1000L + 5000L, this);
+                    postpone();
                     return;
                 }
             }
-                
 
+            reschedule();
+        }
+
+        /**
+         * Same as {@link #run()}, but the schedule is only moved along once
+         * the schedulable completes, when it runs asynchronously.
+         */
+        @Override
+        public CompletableFuture<Void> runAsync() {
+            if (isExpired()) {
+                LOG.debug("Schedule {} expired.  No need to run.", this);
+                return COMPLETED;
+            }
+
+            if (m_interval.scheduledSuspension()) {
+                reschedule();
+                return COMPLETED;
+            }
+
+            final CompletableFuture<Void> future;
+            try {
+                future = Schedule.this.runAsync();
+            } catch (PostponeNecessary e) {
+                postpone();
+                return COMPLETED;
+            }
+
+            return future.handle((v, t) -> {
+                if (t != null) {
+                    final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (!(cause instanceof PostponeNecessary)) {
+                        throw t instanceof CompletionException ? (CompletionException)t : new CompletionException(t);
+                    }
+                    postpone();
+                    return null;
+                }
+                reschedule();
+                return null;
+            });
+        }
+
+        private void postpone() {
+            // Chose a random number of seconds between 5 and 14 to wait before trying again
+            m_timer.schedule(random.nextInt(10) * 1000L + 5000L, this);
+        }
+
+        private void reschedule() {
             // if it is expired by the current run then don't reschedule
             if (isExpired()) {
                 LOG.debug("Schedule {} expired.  No need to reschedule.", this);
@@ -101,7 +150,6 @@ public class Schedule {
             long interval = m_interval.getInterval();
             if (interval >= 0 && m_scheduled)
                 m_timer.schedule(interval, this);
-
         }
         
         @Override
@@ -127,7 +175,9 @@ public class Schedule {
      */
     public void schedule() {
         m_scheduled = true;
-        schedule(0);
+        // The interval is only looked up by timers that spread the first runs,
+        // since the interval of a pollable service may send a delete event
+        schedule(Math.max(0, m_timer.getInitialDelay(m_interval::getInterval)));
     }
 
     private void schedule(long interval) {
@@ -142,6 +192,20 @@ public class Schedule {
         m_schedulable.run();
     }
 
+    /**
+     * Runs the schedulable, without waiting for it to complete if it is an
+     * {@link AsyncReadyRunnable}.
+     *
+     * @return a future that completes once the schedulable is done
+     */
+    public CompletableFuture<Void> runAsync() {
+        if (m_schedulable instanceof AsyncReadyRunnable) {
+            return ((AsyncReadyRunnable)m_schedulable).runAsync();
+        }
+        m_schedulable.run();
+        return COMPLETED;
+    }
+
     /**
      * <p>adjustSchedule</p>
      */
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.scheduler;
 
+import java.util.function.LongSupplier;
 
 /**
  * Represents a ScheduleTimer
@@ -45,4 +46,16 @@ public interface ScheduleTimer extends Timer {
      */
     public void schedule(long interval, ReadyRunnable schedule);
 
+    /**
+     * Returns the delay to use when something that runs at the given interval
+     * is scheduled for the first time. By default it runs right away, and the
+     * interval, which may be costly to look up, is not asked for.
+     *
+     * @param interval supplies the interval at which it will run afterwards
+     * @return the delay in milliseconds
+     */
+    default long getInitialDelay(LongSupplier interval) {
+        return 0;
+    }
+
 }
@@ -0,0 +1,544 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * A scheduler backed by a hashed timer wheel.
+ *
+ * Unlike the {@link LegacyScheduler}, which scans every scheduled runnable
+ * for readiness in a loop, the runnables are placed in the bucket of the
+ * tick in which they expire, so that only the expiring ones are looked at on
+ * every tick. Runnables that are not ready when they expire are checked again
+ * on the next tick.
+ *
+ * {@link AsyncReadyRunnable}s are started on the thread pool and release
+ * their thread as soon as {@link AsyncReadyRunnable#runAsync()} returns.
+ *
+ * The first time something is scheduled with {@link Schedule#schedule()},
+ * it is delayed by a random amount bounded by its interval, so that a large
+ * number of services is spread over the interval instead of all running at
+ * startup.
+ *
+ * The delay between the time at which the runnables should have run and the
+ * time at which they were run is exposed over JMX.
+ */
+public class TimerWheelScheduler implements PausableFiber, Scheduler, Executor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimerWheelScheduler.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.scheduler.timerWheel";
+    public static final String TICK_PROPERTY = "org.opennms.netmgt.scheduler.timerWheel.tickMs";
+    public static final String MAX_INITIAL_SPREAD_PROPERTY = "org.opennms.netmgt.scheduler.timerWheel.maxInitialSpreadMs";
+
+    private static final String JMX_DOMAIN = "org.opennms.netmgt.scheduler";
+
+    private static final int WHEEL_SIZE = 1024;
+
+    /**
+     * Upper bound on the number of new runnables moved onto the wheel on a
+     * single tick, so that the expiring ones are not held back by a burst.
+     */
+    private static final int MAX_PENDING_PER_TICK = 100000;
+
+    private static class Entry {
+        private final ReadyRunnable runnable;
+        private final long deadline;
+        private long remainingRounds;
+        private Entry next;
+
+        private Entry(ReadyRunnable runnable, long deadline) {
+            this.runnable = runnable;
+            this.deadline = deadline;
+        }
+    }
+
+    private final String m_parent;
+
+    /**
+     * The buckets of the wheel, only ever touched by the worker thread.
+     */
+    private final Entry[] m_wheel = new Entry[WHEEL_SIZE];
+
+    /**
+     * Runnables that were scheduled, but not yet moved onto the wheel.
+     */
+    private final Queue<Entry> m_pending = new ConcurrentLinkedQueue<>();
+
+    private final long m_tickNanos;
+
+    private final long m_maxInitialSpread;
+
+    private final ThreadPoolExecutor m_runner;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final AtomicInteger m_inFlight = new AtomicInteger(0);
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    private final MetricRegistry m_registry = new MetricRegistry();
+
+    private final Timer m_lag;
+
+    private JmxReporter m_reporter;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    private long m_startTime;
+
+    private long m_tick;
+
+    /**
+     * Constructs a new instance of the scheduler using the tick duration
+     * configured with the {@value #TICK_PROPERTY} system property.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimerWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, Long.getLong(TICK_PROPERTY, 100));
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The duration of a tick of the wheel, in milliseconds.
+     */
+    public TimerWheelScheduler(final String parent, final int maxSize, final long tickMillis) {
+        Assert.isTrue(tickMillis > 0, "The tick duration must be positive");
+        m_parent = parent;
+        m_status = START_PENDING;
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        m_maxInitialSpread = Long.getLong(MAX_INITIAL_SPREAD_PROPERTY, TimeUnit.MINUTES.toMillis(5));
+        m_runner = new ThreadPoolExecutor(maxSize, maxSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new LogPreservingThreadFactory(parent, maxSize));
+
+        m_lag = m_registry.timer(MetricRegistry.name(parent, "lag"));
+        m_registry.register(MetricRegistry.name(parent, "scheduled"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_scheduled.get();
+            }
+        });
+        m_registry.register(MetricRegistry.name(parent, "inFlight"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_inFlight.get();
+            }
+        });
+        m_registry.register(MetricRegistry.name(parent, "active"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_runner.getActiveCount();
+            }
+        });
+    }
+
+    /**
+     * Returns true if the daemons should use this scheduler instead of the
+     * {@link LegacyScheduler}.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        m_pending.add(new Entry(runnable, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval))));
+        m_scheduled.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns a random delay, bounded by both the interval and the
+     * {@value #MAX_INITIAL_SPREAD_PROPERTY} system property.
+     */
+    @Override
+    public long getInitialDelay(LongSupplier interval) {
+        if (m_maxInitialSpread <= 0) {
+            return 0;
+        }
+        final long spread = Math.min(interval.getAsLong(), m_maxInitialSpread);
+        return spread > 0 ? ThreadLocalRandom.current().nextLong(spread) : 0;
+    }
+
+    /**
+     * Runs the given task on the thread pool of the scheduler. This is used
+     * to continue the work of the {@link AsyncReadyRunnable}s once their
+     * response is received.
+     */
+    @Override
+    public void execute(Runnable command) {
+        m_runner.execute(command);
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_reporter = JmxReporter.forRegistry(m_registry)
+                .inDomain(JMX_DOMAIN)
+                .build();
+        m_reporter.start();
+
+        m_worker = new Thread(this::run, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+        m_reporter.stop();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_parent + "Scheduler";
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of runnables waiting for their time to run
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the number of asynchronous runnables that were started, but
+     * have not completed yet.
+     */
+    public int getInFlight() {
+        return m_inFlight.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ThreadPoolExecutor getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the registry holding the schedule lag and the gauges of this
+     * scheduler.
+     */
+    public MetricRegistry getMetricRegistry() {
+        return m_registry;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    private void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        m_startTime = System.nanoTime();
+        m_tick = 0;
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                try {
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+            }
+
+            // Wait for the end of the current tick, catching up on the ticks that were missed
+            final long tickEnd = m_startTime + (m_tick + 1) * m_tickNanos;
+            final long sleep = tickEnd - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                if (Thread.currentThread().isInterrupted()) {
+                    continue;
+                }
+                if (System.nanoTime() < tickEnd) {
+                    continue;
+                }
+            }
+
+            try {
+                transferPending();
+                expire();
+            } catch (Throwable t) {
+                LOG.error("run: an unexpected error occured while processing tick {}", m_tick, t);
+            }
+            m_tick++;
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Moves the newly scheduled runnables into the bucket of the tick in
+     * which they expire.
+     */
+    private void transferPending() {
+        for (int i = 0; i < MAX_PENDING_PER_TICK; i++) {
+            final Entry entry = m_pending.poll();
+            if (entry == null) {
+                return;
+            }
+            final long expiresOnTick = Math.max(m_tick, ceilDiv(entry.deadline - m_startTime, m_tickNanos));
+            entry.remainingRounds = (expiresOnTick - m_tick) / WHEEL_SIZE;
+            addToBucket(entry, expiresOnTick);
+        }
+    }
+
+    /**
+     * Hands the runnables expiring on the current tick to the thread pool.
+     */
+    private void expire() {
+        final int bucket = (int)(m_tick & (WHEEL_SIZE - 1));
+        Entry entry = m_wheel[bucket];
+        m_wheel[bucket] = null;
+        while (entry != null) {
+            final Entry next = entry.next;
+            entry.next = null;
+            if (entry.remainingRounds > 0) {
+                entry.remainingRounds--;
+                addToBucket(entry, m_tick);
+            } else {
+                dispatch(entry);
+            }
+            entry = next;
+        }
+    }
+
+    private void dispatch(final Entry entry) {
+        final boolean ready;
+        try {
+            ready = entry.runnable.isReady();
+        } catch (Throwable t) {
+            LOG.error("run: an unexpected error occured checking if {} is ready, it will not be run again", entry.runnable, t);
+            m_scheduled.decrementAndGet();
+            return;
+        }
+
+        if (!ready) {
+            LOG.debug("run: runnable {} is not ready, checking again on the next tick", entry.runnable);
+            addToBucket(entry, m_tick + 1);
+            return;
+        }
+
+        m_scheduled.decrementAndGet();
+        try {
+            m_runner.execute(() -> runEntry(entry));
+            m_numTasksExecuted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            LOG.warn("run: schedule queue rejected runnable {}", entry.runnable, e);
+        }
+    }
+
+    private void runEntry(final Entry entry) {
+        m_lag.update(Math.max(0, System.nanoTime() - entry.deadline), TimeUnit.NANOSECONDS);
+
+        if (!(entry.runnable instanceof AsyncReadyRunnable)) {
+            try {
+                entry.runnable.run();
+            } catch (Throwable t) {
+                LOG.error("run: an unexpected error occured running {}", entry.runnable, t);
+            }
+            return;
+        }
+
+        m_inFlight.incrementAndGet();
+        final CompletableFuture<Void> future;
+        try {
+            future = ((AsyncReadyRunnable)entry.runnable).runAsync();
+        } catch (Throwable t) {
+            m_inFlight.decrementAndGet();
+            LOG.error("run: an unexpected error occured starting {}", entry.runnable, t);
+            return;
+        }
+        if (future == null) {
+            m_inFlight.decrementAndGet();
+            return;
+        }
+        future.whenComplete((v, t) -> {
+            m_inFlight.decrementAndGet();
+            if (t != null) {
+                LOG.error("run: an unexpected error occured running {}", entry.runnable, t);
+            }
+        });
+    }
+
+    private void addToBucket(final Entry entry, final long tick) {
+        final int bucket = (int)(tick & (WHEEL_SIZE - 1));
+        entry.next = m_wheel[bucket];
+        m_wheel[bucket] = entry;
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.fiber.PausableFiber;
+
+public class TimerWheelSchedulerTest {
+
+    private TimerWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new TimerWheelScheduler("Test", 2, 1);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test
+    public void testRunsAfterInterval() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long scheduledAt = System.nanoTime();
+        final long[] ranAt = new long[1];
+        m_scheduler.schedule(200, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                ranAt[0] = System.nanoTime();
+                latch.countDown();
+            }
+        });
+        assertEquals(1, m_scheduler.getScheduled());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(ranAt[0] - scheduledAt) >= 200);
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        assertEquals(1, m_scheduler.getMetricRegistry().timer("Test.lag").getCount());
+    }
+
+    @Test
+    public void testRetriesUntilReady() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger checks = new AtomicInteger(0);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return checks.incrementAndGet() >= 5;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(5, checks.get());
+    }
+
+    @Test
+    public void testRunsInOrderAcrossRounds() throws InterruptedException {
+        // 1ms ticks on a wheel of 1024 buckets, so the first one has to wait for another round
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        final long[] intervals = new long[] { 1500, 100 };
+        for (int i = 0; i < intervals.length; i++) {
+            final int id = i;
+            m_scheduler.schedule(intervals[i], new ReadyRunnable() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void run() {
+                    synchronized (order) {
+                        order.add(id);
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, (int)order.get(0));
+        assertEquals(0, (int)order.get(1));
+    }
+
+    @Test
+    public void testAsyncRunnablesDoNotHoldThreads() throws InterruptedException {
+        // Twice as many tasks as there are threads, none of which complete on their own
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final CountDownLatch started = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            m_scheduler.schedule(0, new AsyncReadyRunnable() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public CompletableFuture<Void> runAsync() {
+                    started.countDown();
+                    return done;
+                }
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(4, m_scheduler.getInFlight());
+
+        done.complete(null);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (m_scheduler.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_scheduler.getInFlight());
+        assertEquals(0, m_scheduler.getRunner().getActiveCount());
+    }
+
+    @Test
+    public void testInitialDelayIsSpread() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            final long delay = m_scheduler.getInitialDelay(() -> 60000);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 0);
+        assertTrue(max < 60000);
+        assertTrue(max - min > 30000);
+        assertEquals(0, m_scheduler.getInitialDelay(() -> 0));
+    }
+
+    @Test
+    public void testPauseAndResume() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        waitForStatus(PausableFiber.RUNNING);
+        m_scheduler.pause();
+        waitForStatus(PausableFiber.PAUSED);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(!latch.await(200, TimeUnit.MILLISECONDS));
+
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(PausableFiber.RUNNING, m_scheduler.getStatus());
+    }
+
+    private void waitForStatus(int status) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (m_scheduler.getStatus() != status && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(status, m_scheduler.getStatus());
+    }
+}
@@ -52,6 +52,21 @@ public interface OffHeapQueue {
      */
     AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName) throws InterruptedException;
 
+    /**
+     * Signals that the message with the given key, previously returned by
+     * {@link #readNextMessage(String)}, was handled and may be discarded.
+     *
+     * Messages that were read, but never acknowledged, are delivered again once
+     * the queue is reopened. Implementations which discard the messages as soon
+     * as they are read may ignore this call.
+     *
+     * @param moduleName Sink Module Name.
+     * @param key unique id for the sink message.
+     */
+    default void acknowledge(String moduleName, String key) {
+        // pass
+    }
+
     /**
      *
      * @return size of OffHeap in bytes.
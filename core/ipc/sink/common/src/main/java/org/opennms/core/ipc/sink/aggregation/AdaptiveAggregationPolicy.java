@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.aggregation;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+import org.opennms.core.sysprops.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * An {@link AggregationPolicy} that decorates the policy of a module, and
+ * continuously adjusts the completion size and completion interval (linger)
+ * within configured bounds.
+ *
+ * The values are derived from the observed arrival rate of the messages, and
+ * from the depth of the queue of the dispatcher, if any:
+ * <ul>
+ * <li>when messages are scarce, buckets are dispatched right away to keep the latency low,</li>
+ * <li>as the rate increases, the buckets are sized to hold the messages received within the maximum linger
+ * and are dispatched as soon as they are expected to be full,</li>
+ * <li>when the queue of the dispatcher is filling up, the biggest buckets are used to keep up.</li>
+ * </ul>
+ * The values grow immediately when a burst is detected, but shrink gradually.
+ *
+ * The {@link Aggregator} feeds the policy with the arrivals and the dispatched buckets,
+ * and periodically calls {@link #adjust(long)}.
+ *
+ * @param <S> type of message that will be sent by the producers
+ * @param <T> type of message that will be received by the consumers
+ * @param <U> intermerdiary accumulator type used to aggregate the messages
+ */
+public class AdaptiveAggregationPolicy<S, T, U> implements AggregationPolicy<S, T, U> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveAggregationPolicy.class);
+
+    /**
+     * System property used to enable adaptive aggregation for all modules.
+     * Append the module id to enable it for a single module.
+     */
+    public static final String ADAPTIVE_SYS_PROP = "org.opennms.ipc.sink.aggregation.adaptive";
+
+    public static final String MIN_SIZE_SYS_PROP = ADAPTIVE_SYS_PROP + ".minSize";
+
+    public static final String MAX_SIZE_SYS_PROP = ADAPTIVE_SYS_PROP + ".maxSize";
+
+    public static final String MIN_LINGER_SYS_PROP = ADAPTIVE_SYS_PROP + ".minLingerMs";
+
+    public static final String MAX_LINGER_SYS_PROP = ADAPTIVE_SYS_PROP + ".maxLingerMs";
+
+    /**
+     * Unless configured otherwise, the biggest buckets hold this many times
+     * the completion size of the module.
+     */
+    public static final int DEFAULT_MAX_SIZE_FACTOR = 4;
+
+    public static final int DEFAULT_MIN_LINGER_MS = 10;
+
+    public static final int DEFAULT_MAX_LINGER_MS = 1000;
+
+    /**
+     * Minimum amount of time over which the arrival rate is measured.
+     */
+    private static final long MIN_ADJUSTMENT_PERIOD_MS = 100;
+
+    /**
+     * Fraction of the dispatcher's queue which must be used before switching to the biggest buckets.
+     */
+    private static final double BACKLOG_RATIO = 0.5;
+
+    private final AggregationPolicy<S, T, U> delegate;
+
+    private final int minCompletionSize;
+
+    private final int maxCompletionSize;
+
+    private final int minCompletionIntervalMs;
+
+    private final int maxCompletionIntervalMs;
+
+    private final LongAdder arrivals = new LongAdder();
+
+    private final Histogram batchSizes;
+
+    private final Histogram lingers;
+
+    private volatile int completionSize;
+
+    private volatile int completionIntervalMs;
+
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    private volatile int queueCapacity = 0;
+
+    private double rate = 0;
+
+    private long lastAdjustmentMs = -1;
+
+    public AdaptiveAggregationPolicy(String id, AggregationPolicy<S, T, U> delegate, int minCompletionSize, int maxCompletionSize,
+            int minCompletionIntervalMs, int maxCompletionIntervalMs, MetricRegistry metrics) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.minCompletionSize = Math.max(1, minCompletionSize);
+        this.maxCompletionSize = Math.max(this.minCompletionSize, maxCompletionSize);
+        this.minCompletionIntervalMs = Math.max(1, minCompletionIntervalMs);
+        this.maxCompletionIntervalMs = Math.max(this.minCompletionIntervalMs, maxCompletionIntervalMs);
+        completionSize = this.minCompletionSize;
+        completionIntervalMs = this.minCompletionIntervalMs;
+
+        // Replace any gauges left behind by a previous dispatcher for the same module
+        metrics.remove(MetricRegistry.name(id, "aggregation", "completion-size"));
+        metrics.remove(MetricRegistry.name(id, "aggregation", "completion-interval"));
+        batchSizes = metrics.histogram(MetricRegistry.name(id, "aggregation", "batch-size"));
+        lingers = metrics.histogram(MetricRegistry.name(id, "aggregation", "linger"));
+        metrics.register(MetricRegistry.name(id, "aggregation", "completion-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return completionSize;
+            }
+        });
+        metrics.register(MetricRegistry.name(id, "aggregation", "completion-interval"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return completionIntervalMs;
+            }
+        });
+    }
+
+    /**
+     * Verifies whether adaptive aggregation was enabled for the given module.
+     */
+    public static boolean isEnabled(String id) {
+        return Boolean.getBoolean(ADAPTIVE_SYS_PROP) || Boolean.getBoolean(ADAPTIVE_SYS_PROP + "." + id);
+    }
+
+    /**
+     * Decorates the given policy using the bounds defined by the system properties.
+     * The bounds default to values derived from the completion size and interval of the given policy.
+     */
+    public static <S, T, U> AdaptiveAggregationPolicy<S, T, U> fromSystemProperties(String id, AggregationPolicy<S, T, U> delegate, MetricRegistry metrics) {
+        final int completionSize = Math.max(1, delegate.getCompletionSize());
+        final int completionIntervalMs = delegate.getCompletionIntervalMs() > 0 ? delegate.getCompletionIntervalMs() : DEFAULT_MAX_LINGER_MS;
+        final AdaptiveAggregationPolicy<S, T, U> policy = new AdaptiveAggregationPolicy<>(id, delegate,
+                SystemProperties.getInteger(MIN_SIZE_SYS_PROP, 1),
+                SystemProperties.getInteger(MAX_SIZE_SYS_PROP, completionSize * DEFAULT_MAX_SIZE_FACTOR),
+                SystemProperties.getInteger(MIN_LINGER_SYS_PROP, Math.min(DEFAULT_MIN_LINGER_MS, completionIntervalMs)),
+                SystemProperties.getInteger(MAX_LINGER_SYS_PROP, completionIntervalMs),
+                metrics);
+        LOG.info("Using adaptive aggregation for module {} with completion sizes in [{}, {}] and completion intervals in [{}, {}] ms.",
+                id, policy.minCompletionSize, policy.maxCompletionSize, policy.minCompletionIntervalMs, policy.maxCompletionIntervalMs);
+        return policy;
+    }
+
+    /**
+     * Sets the queue of the dispatcher which is fed by the aggregated messages.
+     *
+     * @param queueDepth supplies the number of messages currently in the queue
+     * @param queueCapacity maximum number of messages in the queue
+     */
+    public void setQueue(IntSupplier queueDepth, int queueCapacity) {
+        this.queueDepth = Objects.requireNonNull(queueDepth);
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public int getCompletionSize() {
+        return completionSize;
+    }
+
+    @Override
+    public int getCompletionIntervalMs() {
+        return completionIntervalMs;
+    }
+
+    public int getMinCompletionIntervalMs() {
+        return minCompletionIntervalMs;
+    }
+
+    @Override
+    public Object key(S message) {
+        return delegate.key(message);
+    }
+
+    @Override
+    public U aggregate(U accumulator, S newMessage) {
+        arrivals.increment();
+        return delegate.aggregate(accumulator, newMessage);
+    }
+
+    @Override
+    public T build(U accumulator) {
+        return delegate.build(accumulator);
+    }
+
+    /**
+     * Records the size and age of a bucket which is being dispatched.
+     */
+    public void onDispatch(int size, long lingerMs) {
+        batchSizes.update(size);
+        lingers.update(lingerMs);
+    }
+
+    /**
+     * Recomputes the completion size and interval from the messages that arrived since the last call.
+     */
+    public synchronized void adjust(long nowMs) {
+        if (lastAdjustmentMs < 0) {
+            lastAdjustmentMs = nowMs;
+            arrivals.reset();
+            return;
+        }
+        final long elapsedMs = nowMs - lastAdjustmentMs;
+        if (elapsedMs < MIN_ADJUSTMENT_PERIOD_MS) {
+            return;
+        }
+        lastAdjustmentMs = nowMs;
+
+        // Give as much weight to the last period as to all of the previous ones, in order to react quickly to bursts
+        final double currentRate = arrivals.sumThenReset() * 1000d / elapsedMs;
+        rate = (rate + currentRate) / 2;
+
+        final int targetSize;
+        final int targetIntervalMs;
+        final double expectedWithinMaxInterval = rate * maxCompletionIntervalMs / 1000d;
+        if (queueCapacity > 0 && queueDepth.getAsInt() >= queueCapacity * BACKLOG_RATIO) {
+            // We're falling behind, favor throughput
+            targetSize = maxCompletionSize;
+            targetIntervalMs = maxCompletionIntervalMs;
+        } else if (expectedWithinMaxInterval < 2) {
+            // There's nothing to wait for, favor latency
+            targetSize = minCompletionSize;
+            targetIntervalMs = minCompletionIntervalMs;
+        } else {
+            targetSize = clamp((int)Math.round(expectedWithinMaxInterval), minCompletionSize, maxCompletionSize);
+            targetIntervalMs = clamp((int)Math.ceil(targetSize * 1000d / rate), minCompletionIntervalMs, maxCompletionIntervalMs);
+        }
+
+        completionSize = targetSize >= completionSize ? targetSize : (completionSize + targetSize) / 2;
+        completionIntervalMs = targetIntervalMs >= completionIntervalMs ? targetIntervalMs : (completionIntervalMs + targetIntervalMs) / 2;
+        LOG.trace("Arrival rate: {}/s, completion size: {}, completion interval: {} ms.", rate, completionSize, completionIntervalMs);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
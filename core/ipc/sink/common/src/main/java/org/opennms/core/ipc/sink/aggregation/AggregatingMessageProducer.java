@@ -42,10 +42,17 @@ public abstract class AggregatingMessageProducer<S, T> implements MessageDispatc
 
     private final Aggregator<S,T> aggregator;
 
+    private final AggregationPolicy<S,T,?> aggregationPolicy;
+
     public AggregatingMessageProducer(String id, AggregationPolicy<S,T,?> policy) {
+        aggregationPolicy = policy;
         aggregator = new Aggregator<S,T>(id, policy, this);
     }
 
+    public AggregationPolicy<S,T,?> getAggregationPolicy() {
+        return aggregationPolicy;
+    }
+
     @Override
     public void send(S message) {
         final T log = aggregator.aggregate(message);
@@ -43,6 +43,10 @@ import org.opennms.core.ipc.sink.api.SyncDispatcher;
 public abstract class AggregatingSinkMessageProducer<S extends Message, T extends Message> extends AggregatingMessageProducer<S,T> implements SyncDispatcher<S> {
 
     public AggregatingSinkMessageProducer(SinkModule<S, T> module) {
-        super(module.getId(), module.getAggregationPolicy());
+        this(module, module.getAggregationPolicy());
+    }
+
+    public AggregatingSinkMessageProducer(SinkModule<S, T> module, AggregationPolicy<S,T,?> policy) {
+        super(module.getId(), policy);
     }
 }
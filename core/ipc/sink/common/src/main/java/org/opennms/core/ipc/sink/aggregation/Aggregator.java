@@ -79,6 +79,8 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
 
     private final AggregatingMessageProducer<S,T> messageProducer;
 
+    private final AdaptiveAggregationPolicy<S,T,Object> adaptivePolicy;
+
     private final int completionSize;
 
     private final long completionIntervalMs;
@@ -94,8 +96,16 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
         this.messageProducer = Objects.requireNonNull(messageProducer);
         completionSize = aggregationPolicy.getCompletionSize();
         completionIntervalMs = aggregationPolicy.getCompletionIntervalMs();
+        if (policy instanceof AdaptiveAggregationPolicy) {
+            adaptivePolicy = (AdaptiveAggregationPolicy<S,T,Object>)policy;
+        } else {
+            adaptivePolicy = null;
+        }
 
-        if (completionIntervalMs > 0) {
+        if (adaptivePolicy != null || completionIntervalMs > 0) {
+            // The completion interval of an adaptive policy may go as low as its minimum,
+            // so we check the buckets at that rate, and adjust the policy at the same time
+            final long flushIntervalMs = adaptivePolicy != null ? adaptivePolicy.getMinCompletionIntervalMs() : completionIntervalMs;
             // Periodically verify the buckets, and flush those that are older than completionIntervalMs
             flushTimer = new Timer(String.format("AggregatorFlush-%s", id));
             flushTimer.scheduleAtFixedRate(new TimerTask() {
@@ -109,7 +119,7 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
                         LOG.error("An error occurred while flushing one or more aggregates in module '{}'.", id, t);
                     }
                 }
-            }, completionIntervalMs, completionIntervalMs);
+            }, flushIntervalMs, flushIntervalMs);
         } else {
             flushTimer = null;
         }
@@ -170,7 +180,11 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
             locks.forEach(Lock::lock);
             // Determine which buckets are ready to be dispatched
             // and remove these from the map
-            final long cutOff = System.currentTimeMillis() - completionIntervalMs;
+            final long now = System.currentTimeMillis();
+            if (adaptivePolicy != null) {
+                adaptivePolicy.adjust(now);
+            }
+            final long cutOff = now - getCompletionIntervalMs();
             for (final Object key : keys) {
                 final Bucket bucket = buckets.get(key);
                 // The bucket may have been removed between the time we retrieved
@@ -178,6 +192,9 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
                 // it's non-null before accessing it's properties
                 if (bucket != null && bucket.getFirstTimeMillis() != null && bucket.getFirstTimeMillis() <= cutOff) {
                     messagesReadyForDispatch.add(bucket.getValue());
+                    if (adaptivePolicy != null) {
+                        adaptivePolicy.onDispatch(bucket.count, now - bucket.getFirstTimeMillis());
+                    }
                     buckets.remove(key);
                 }
             }
@@ -191,6 +208,10 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
         }
     }
 
+    private long getCompletionIntervalMs() {
+        return adaptivePolicy != null ? adaptivePolicy.getCompletionIntervalMs() : completionIntervalMs;
+    }
+
     @Override
     public void close() throws Exception {
         if (flushTimer != null) {
@@ -206,6 +227,9 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
         public T accumulate(S message) {
             accumulator = aggregationPolicy.aggregate(accumulator, message);
             count++;
+            if (adaptivePolicy != null) {
+                return accumulateAdaptive();
+            }
             if (count >= completionSize) {
                 // We're ready!
                 return aggregationPolicy.build(accumulator);
@@ -222,6 +246,21 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
             return null;
         }
 
+        private T accumulateAdaptive() {
+            // The bucket is always timestamped, so that we can track how long messages linger
+            final long now = System.currentTimeMillis();
+            if (firstTimeMillis == null) {
+                firstTimeMillis = now;
+            }
+            if (count >= adaptivePolicy.getCompletionSize() || now - firstTimeMillis >= adaptivePolicy.getCompletionIntervalMs()) {
+                // We're ready!
+                adaptivePolicy.onDispatch(count, now - firstTimeMillis);
+                return aggregationPolicy.build(accumulator);
+            }
+            // We're NOT ready yet...
+            return null;
+        }
+
         public T getValue() {
             return aggregationPolicy.build(accumulator);
         }
@@ -32,7 +32,9 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Objects;
 
+import org.opennms.core.ipc.sink.aggregation.AdaptiveAggregationPolicy;
 import org.opennms.core.ipc.sink.aggregation.AggregatingSinkMessageProducer;
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
@@ -108,14 +110,26 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         Objects.requireNonNull(module.getAsyncPolicy(), "module must have an AsyncPolicy");
         final DispatcherState<W,S,T> state = new DispatcherState<>(this, module);
         final SyncDispatcher<S> syncDispatcher = createSyncDispatcher(state);
-        return new AsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
+        final AsyncDispatcherImpl<W,S,T> asyncDispatcher = new AsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
+        if (syncDispatcher instanceof AggregatingSinkMessageProducer) {
+            final AggregationPolicy<S,T,?> policy = ((AggregatingSinkMessageProducer<S,T>)syncDispatcher).getAggregationPolicy();
+            if (policy instanceof AdaptiveAggregationPolicy) {
+                // Use bigger buckets when the queue starts backing up
+                ((AdaptiveAggregationPolicy<S,T,?>)policy).setQueue(asyncDispatcher::getQueueSize, module.getAsyncPolicy().getQueueSize());
+            }
+        }
+        return asyncDispatcher;
     }
 
     protected <S extends Message, T extends Message> SyncDispatcher<S> createSyncDispatcher(DispatcherState<W,S,T> state) {
         final SinkModule<S,T> module = state.getModule();
         if (module.getAggregationPolicy() != null) {
+            AggregationPolicy<S,T,?> policy = module.getAggregationPolicy();
+            if (AdaptiveAggregationPolicy.isEnabled(module.getId())) {
+                policy = AdaptiveAggregationPolicy.fromSystemProperties(module.getId(), policy, state.getMetrics());
+            }
             // Aggregate the message before dispatching them
-            return new AggregatingSinkMessageProducer<S,T>(module) {
+            return new AggregatingSinkMessageProducer<S,T>(module, policy) {
                 @Override
                 public void dispatch(T message) {
                     AbstractMessageDispatcherFactory.this.timedDispatch(state, message);
@@ -66,9 +66,11 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
 public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AsyncDispatcherImpl.class);
+    private static final long MIN_RETRY_DELAY_MS = 100;
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
     private final SyncDispatcher<S> syncDispatcher;
-    private OffHeapAdapter offHeapAdapter;
-    private ExecutorService offHeapAdapterExecutor = Executors.newSingleThreadExecutor();
+    private volatile OffHeapAdapter offHeapAdapter;
+    private ExecutorService offHeapAdapterExecutor;
     private final AsyncPolicy asyncPolicy;
     private OffHeapQueue offHeapQueue;
     private SinkModule<S,T> sinkModule;
@@ -136,6 +138,12 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                 new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.AsyncDispatcher." + state.getModule().getId(), Integer.MAX_VALUE),
                 rejectedExecutionHandler
             );
+
+        // Drain any messages left over in the OffHeapQueue by a previous run right away
+        if (useOffHeap && offHeapQueue.getNumOfMessages(sinkModule.getId()) > 0) {
+            startOffHeapAdapter();
+            offHeapAdapter.firstWrite.countDown();
+        }
     }
 
     /**
@@ -185,9 +193,7 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                 ((offHeapAdapter != null) && !offHeapAdapter.isOffHeapEmpty()))) {
             // Start drain thread before the first write to OffHeapQueue.
             if (offHeapAdapter == null) {
-                this.offHeapAdapter = new OffHeapAdapter();
-                offHeapAdapterExecutor.execute(offHeapAdapter);
-                LOG.info("started drain thread for {}", sinkModule.getId());
+                startOffHeapAdapter();
             }
             try {
                 return offHeapAdapter.writeMessage(message);
@@ -207,6 +213,20 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         }
     }
     
+    private synchronized void startOffHeapAdapter() {
+        if (offHeapAdapter != null) {
+            return;
+        }
+        final int numDrainThreads = OffHeapServiceLoader.getNumDrainThreads();
+        offHeapAdapterExecutor = Executors.newFixedThreadPool(numDrainThreads);
+        final OffHeapAdapter adapter = new OffHeapAdapter();
+        for (int i = 0; i < numDrainThreads; i++) {
+            offHeapAdapterExecutor.execute(adapter);
+        }
+        offHeapAdapter = adapter;
+        LOG.info("started {} drain thread(s) for {}", numDrainThreads, sinkModule.getId());
+    }
+
     @Override
     public int getQueueSize() {
         return queue.size();
@@ -227,6 +247,7 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
 
         private Map<String, CompletableFuture<S>> offHeapFutureMap = new ConcurrentHashMap<>();
         private final CountDownLatch firstWrite = new CountDownLatch(1);
+        private final CountDownLatch closing = new CountDownLatch(1);
         private final AtomicBoolean closed = new AtomicBoolean(false);
 
         public OffHeapAdapter() {
@@ -251,14 +272,7 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                     AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = offHeapQueue
                             .readNextMessage(sinkModule.getId());
                     if (keyValue != null) {
-                        queue.put(() -> {
-                            S message = sinkModule.unmarshalSingleMessage(keyValue.getValue());
-                            syncDispatcher.send(message);
-                            CompletableFuture<S> future = offHeapFutureMap.get(keyValue.getKey());
-                            future.complete(message);
-                            offHeapFutureMap.remove(keyValue.getKey());
-                        });
-
+                        queue.put(() -> dispatch(keyValue.getKey(), keyValue.getValue()));
                     }
                 } catch (InterruptedException e) {
                    LOG.warn("Interrupted while retrieving OffHeap Message for {} ", sinkModule.getId(), e);
@@ -266,6 +280,54 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
             }
         }
         
+        /** Sends a message read from the OffHeapQueue, retrying with an increasing delay until it was sent, and only acknowledges it then. **/
+        private void dispatch(String key, byte[] bytes) {
+            // Messages recovered from a previous run have no future
+            final CompletableFuture<S> future = offHeapFutureMap.remove(key);
+            final S message;
+            try {
+                message = sinkModule.unmarshalSingleMessage(bytes);
+            } catch (RuntimeException e) {
+                // It will never be readable, so there is no point in keeping it
+                offHeapQueue.acknowledge(sinkModule.getId(), key);
+                rateLimittedLogger.error("Failed to unmarshal OffHeap message for {}", sinkModule.getId(), e);
+                if (future != null) {
+                    future.completeExceptionally(e);
+                }
+                return;
+            }
+
+            // Keep trying, the message is only stored off-heap because it couldn't be dispatched right away
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    syncDispatcher.send(message);
+                    break;
+                } catch (RuntimeException e) {
+                    final long delay = Math.min(MAX_RETRY_DELAY_MS, MIN_RETRY_DELAY_MS << Math.min(attempt, 16));
+                    rateLimittedLogger.warn("Failed to dispatch OffHeap message for {}, retrying in {}ms", sinkModule.getId(), delay, e);
+                    boolean shutdown;
+                    try {
+                        shutdown = closing.await(delay, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        shutdown = true;
+                    }
+                    if (shutdown) {
+                        // Not acknowledged, so that the message is delivered again when the OffHeapQueue is reopened
+                        if (future != null) {
+                            future.completeExceptionally(e);
+                        }
+                        return;
+                    }
+                }
+            }
+
+            offHeapQueue.acknowledge(sinkModule.getId(), key);
+            if (future != null) {
+                future.complete(message);
+            }
+        }
+
         /** writeMessage will marshal sink message and write to OffHeapQueue and return a future that is cached in map. **/
         public CompletableFuture<S> writeMessage(S message) throws WriteFailedException {
             final CompletableFuture<S> future = new CompletableFuture<>();
@@ -285,6 +347,7 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         public void shutdown() {
             firstWrite.countDown();
             closed.set(true);
+            closing.countDown();
         }
 
     }
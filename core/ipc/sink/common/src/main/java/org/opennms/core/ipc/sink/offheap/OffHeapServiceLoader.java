@@ -42,8 +42,10 @@ public class OffHeapServiceLoader {
     private static BundleContext context;
     private static Boolean offHeapEnabled;
     private static OffHeapQueue offHeapQueue;
+    private static Integer numDrainThreads;
     public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
     public static final String ENABLE_OFFHEAP = "enableOffHeap";
+    public static final String DRAIN_THREADS = "drainThreads";
 
     public BundleContext getBundleContext() {
         return context;
@@ -76,6 +78,29 @@ public class OffHeapServiceLoader {
         return false;
     }
     
+    /**
+     * @return the number of threads used to drain the messages of each sink module from the off-heap queue
+     */
+    public static int getNumDrainThreads() {
+        if (numDrainThreads != null) {
+            return numDrainThreads;
+        }
+        if (context != null) {
+            try {
+                ConfigurationAdmin configAdmin = context
+                        .getService(context.getServiceReference(ConfigurationAdmin.class));
+                Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+                if (properties != null && properties.get(DRAIN_THREADS) instanceof String) {
+                    numDrainThreads = Math.max(1, Integer.parseInt((String) properties.get(DRAIN_THREADS)));
+                    return numDrainThreads;
+                }
+            } catch (Exception e) {
+                LOG.error("Exception while retrieving the number of drain threads from Configuration Admin", e);
+            }
+        }
+        return 1;
+    }
+
     public static OffHeapQueue getOffHeapQueue() {
         if (offHeapQueue != null) {
             return offHeapQueue;
@@ -99,4 +124,8 @@ public class OffHeapServiceLoader {
         offHeapEnabled = enabled;
     }
 
+    protected static void setNumDrainThreads(int threads) {
+        numDrainThreads = threads;
+    }
+
 }
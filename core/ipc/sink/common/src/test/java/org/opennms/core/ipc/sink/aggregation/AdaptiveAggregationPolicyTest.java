@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.aggregation;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class AdaptiveAggregationPolicyTest {
+
+    private static final int MIN_SIZE = 1;
+    private static final int MAX_SIZE = 400;
+    private static final int MIN_LINGER_MS = 10;
+    private static final int MAX_LINGER_MS = 1000;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private AdaptiveAggregationPolicy<Integer, List<Integer>, List<Integer>> policy;
+
+    private long now = 0;
+
+    @Before
+    public void setUp() {
+        policy = new AdaptiveAggregationPolicy<>("test", new ListAggregationPolicy(), MIN_SIZE, MAX_SIZE, MIN_LINGER_MS, MAX_LINGER_MS, metrics);
+        policy.adjust(now);
+    }
+
+    @Test
+    public void favorsLatencyWhenIdle() {
+        receive(1, 1000);
+        assertEquals(MIN_SIZE, policy.getCompletionSize());
+        assertEquals(MIN_LINGER_MS, policy.getCompletionIntervalMs());
+    }
+
+    @Test
+    public void growsWithArrivalRate() {
+        // 200 messages/s
+        for (int i = 0; i < 5; i++) {
+            receive(20, 100);
+        }
+        assertThat(policy.getCompletionSize(), allOf(greaterThan(100), lessThan(MAX_SIZE)));
+        assertThat(policy.getCompletionIntervalMs(), allOf(greaterThan(MIN_LINGER_MS), lessThan(MAX_LINGER_MS + 1)));
+
+        // Saturate
+        receive(1000, 100);
+        assertEquals(MAX_SIZE, policy.getCompletionSize());
+    }
+
+    @Test
+    public void shrinksGraduallyOnceIdle() {
+        receive(1000, 100);
+        assertEquals(MAX_SIZE, policy.getCompletionSize());
+
+        boolean sawIntermediateSize = false;
+        int previousSize = policy.getCompletionSize();
+        for (int i = 0; i < 30; i++) {
+            receive(0, 100);
+            final int size = policy.getCompletionSize();
+            assertThat(size, lessThan(previousSize + 1));
+            sawIntermediateSize |= size > MIN_SIZE && size < MAX_SIZE;
+            previousSize = size;
+        }
+        assertTrue(sawIntermediateSize);
+        assertEquals(MIN_SIZE, policy.getCompletionSize());
+        assertEquals(MIN_LINGER_MS, policy.getCompletionIntervalMs());
+    }
+
+    @Test
+    public void favorsThroughputWhenQueueBacksUp() {
+        final AtomicInteger queueDepth = new AtomicInteger(0);
+        policy.setQueue(queueDepth::get, 100);
+
+        receive(0, 100);
+        assertEquals(MIN_SIZE, policy.getCompletionSize());
+
+        queueDepth.set(60);
+        receive(0, 100);
+        assertEquals(MAX_SIZE, policy.getCompletionSize());
+        assertEquals(MAX_LINGER_MS, policy.getCompletionIntervalMs());
+    }
+
+    @Test
+    public void recordsDispatchedBuckets() {
+        policy.onDispatch(5, 20);
+        policy.onDispatch(15, 40);
+        assertEquals(2, metrics.histogram("test.aggregation.batch-size").getCount());
+        assertEquals(10d, metrics.histogram("test.aggregation.batch-size").getSnapshot().getMean(), 0.1);
+        assertEquals(30d, metrics.histogram("test.aggregation.linger").getSnapshot().getMean(), 0.1);
+    }
+
+    private void receive(int numMessages, long elapsedMs) {
+        List<Integer> accumulator = null;
+        for (int i = 0; i < numMessages; i++) {
+            accumulator = policy.aggregate(accumulator, i);
+        }
+        now += elapsedMs;
+        policy.adjust(now);
+    }
+
+    private static class ListAggregationPolicy implements AggregationPolicy<Integer, List<Integer>, List<Integer>> {
+        @Override
+        public int getCompletionSize() {
+            return 100;
+        }
+
+        @Override
+        public int getCompletionIntervalMs() {
+            return MAX_LINGER_MS;
+        }
+
+        @Override
+        public Object key(Integer message) {
+            return message;
+        }
+
+        @Override
+        public List<Integer> aggregate(List<Integer> accumulator, Integer newMessage) {
+            if (accumulator == null) {
+                accumulator = new ArrayList<>();
+            }
+            accumulator.add(newMessage);
+            return accumulator;
+        }
+
+        @Override
+        public List<Integer> build(List<Integer> accumulator) {
+            return accumulator;
+        }
+    }
+}
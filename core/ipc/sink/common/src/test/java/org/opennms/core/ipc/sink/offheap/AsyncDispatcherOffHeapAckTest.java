@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.opennms.core.ipc.sink.common.AsyncDispatcherImpl;
+import org.opennms.core.ipc.sink.common.DispatcherState;
+import org.opennms.core.ipc.sink.common.ThreadLockingDispatcherFactory;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Verifies that the messages read from the OffHeapQueue are only acknowledged
+ * once they were successfully dispatched, and that the dispatch is retried
+ * until then.
+ */
+public class AsyncDispatcherOffHeapAckTest {
+
+    private static final int NUM_FAILURES = 3;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final CountDownLatch dispatching = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+    private final SyncDispatcher<MockMessage> syncDispatcher = new SyncDispatcher<MockMessage>() {
+        @Override
+        public void send(MockMessage message) {
+            if ("block".equals(message.getId())) {
+                dispatching.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else if (message.getId().startsWith("fail")
+                    && attempts.computeIfAbsent(message.getId(), id -> new AtomicInteger()).incrementAndGet() <= NUM_FAILURES) {
+                throw new IllegalStateException("Broker unavailable");
+            }
+        }
+
+        @Override
+        public void close() {
+            // pass
+        }
+    };
+
+    private final AsyncPolicy asyncPolicy = new AsyncPolicy() {
+        @Override
+        public int getQueueSize() {
+            return 1;
+        }
+
+        @Override
+        public int getNumThreads() {
+            return 1;
+        }
+
+        @Override
+        public boolean isBlockWhenFull() {
+            return false;
+        }
+    };
+
+    private static class MemoryOffHeapQueue implements OffHeapQueue {
+        private final BlockingQueue<AbstractMap.SimpleImmutableEntry<String, byte[]>> messages = new LinkedBlockingQueue<>();
+        private final Map<String, String> keysByMessage = new ConcurrentHashMap<>();
+        private final Set<String> acknowledged = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public boolean writeMessage(byte[] message, String moduleName, String key) {
+            keysByMessage.put(new String(message), key);
+            return messages.add(new AbstractMap.SimpleImmutableEntry<>(key, message));
+        }
+
+        @Override
+        public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName) throws InterruptedException {
+            return messages.take();
+        }
+
+        @Override
+        public void acknowledge(String moduleName, String key) {
+            acknowledged.add(key);
+        }
+
+        @Override
+        public long getSize() {
+            return 0;
+        }
+
+        @Override
+        public int getNumOfMessages(String moduleName) {
+            return messages.size();
+        }
+
+        private boolean isAcknowledged(String message) {
+            return acknowledged.contains(keysByMessage.get(message));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        OffHeapServiceLoader.setOffHeapEnabled(true);
+        OffHeapServiceLoader.setNumDrainThreads(1);
+    }
+
+    @After
+    public void tearDown() {
+        OffHeapServiceLoader.setOffHeapEnabled(false);
+        OffHeapServiceLoader.setOffHeapQueue(null);
+    }
+
+    @Test(timeout=30*1000)
+    public void testAcknowledgeOnlyAfterSuccessfulSend() throws Exception {
+        final MemoryOffHeapQueue offHeapQueue = new MemoryOffHeapQueue();
+        OffHeapServiceLoader.setOffHeapQueue(offHeapQueue);
+        final AsyncDispatcher<MockMessage> asyncDispatcher = createAsyncDispatcher();
+
+        // These go to the OffHeapQueue
+        final CompletableFuture<MockMessage> retried = asyncDispatcher.send(new MockMessage("fail"));
+        final CompletableFuture<MockMessage> succeeded = asyncDispatcher.send(new MockMessage("ok"));
+        assertFalse(offHeapQueue.isAcknowledged("fail"));
+        release.countDown();
+
+        // The message is sent once the dispatcher recovers
+        assertEquals("fail", retried.get().getId());
+        assertEquals(NUM_FAILURES + 1, attempts.get("fail").get());
+        assertEquals("ok", succeeded.get().getId());
+        await().atMost(10, SECONDS).until(() -> offHeapQueue.isAcknowledged("fail") && offHeapQueue.isAcknowledged("ok"), equalTo(true));
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=30*1000)
+    public void testSegmentsAreFreedOnceFailedMessagesAreSent() throws Exception {
+        final SegmentedOffHeapStore store = createStore();
+        OffHeapServiceLoader.setOffHeapQueue(store);
+        try {
+            final AsyncDispatcher<MockMessage> asyncDispatcher = createAsyncDispatcher();
+
+            // Spread the messages over several segments, with a failing one in the first
+            final List<CompletableFuture<MockMessage>> futures = new ArrayList<>();
+            futures.add(asyncDispatcher.send(new MockMessage("fail")));
+            for (int i = 0; i < 1000; i++) {
+                futures.add(asyncDispatcher.send(new MockMessage(String.format("message %04d", i))));
+            }
+            final long sizeBefore = store.getSize();
+            assertTrue(sizeBefore > 16 * 1024);
+            release.countDown();
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+            assertEquals(NUM_FAILURES + 1, attempts.get("fail").get());
+            assertEquals(0, store.getNumOfMessages("Mock"));
+            // Only the segment that is still written to is left
+            await().atMost(10, SECONDS).until(() -> store.getSize() < 16 * 1024, equalTo(true));
+
+            asyncDispatcher.close();
+        } finally {
+            store.destroy();
+        }
+    }
+
+    private AsyncDispatcher<MockMessage> createAsyncDispatcher() throws InterruptedException {
+        final AsyncDispatcher<MockMessage> asyncDispatcher = new AsyncDispatcherImpl<>(
+                new DispatcherState<>(new ThreadLockingDispatcherFactory<MockMessage>(), new MockModule()), asyncPolicy, syncDispatcher);
+
+        // Occupy the only dispatcher thread and fill up the queue, so that the next messages go off-heap
+        asyncDispatcher.send(new MockMessage("block"));
+        dispatching.await();
+        asyncDispatcher.send(new MockMessage("queued"));
+        assertEquals(1, asyncDispatcher.getQueueSize());
+        return asyncDispatcher;
+    }
+
+    private SegmentedOffHeapStore createStore() throws IOException {
+        final Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put("offHeapSize", "1MB");
+        configProperties.put("segmentSize", "16KB");
+        configProperties.put("offHeapPath", tempFolder.getRoot().getAbsolutePath());
+        final ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(OffHeapServiceLoader.OFFHEAP_CONFIG).getProperties()).thenReturn(configProperties);
+        final SegmentedOffHeapStore store = new SegmentedOffHeapStore(configAdmin);
+        store.init();
+        return store;
+    }
+}
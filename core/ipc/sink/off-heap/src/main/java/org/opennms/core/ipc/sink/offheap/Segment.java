@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A segment of a {@link SegmentLog}, made of two memory-mapped files.
+ *
+ * The data file holds the records, appended one after the other:
+ * <pre>
+ * | length (int) | crc32 (int) | key length (short) | key (UTF-8) | message |
+ * </pre>
+ * where the length covers the whole record, and the checksum covers the key and the message.
+ *
+ * The index file holds one fixed-size entry for every record of the data file:
+ * <pre>
+ * | offset (int) | length (int) |
+ * </pre>
+ * The entry is written once the record itself was written, and its length is negated
+ * when the record is acknowledged, so that acknowledged records are not replayed when
+ * the segment is opened again.
+ *
+ * Appends must be serialized by the caller, reads and acknowledgements may happen concurrently.
+ */
+class Segment {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Segment.class);
+
+    static final String DATA_SUFFIX = ".log";
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 2;
+
+    static final int INDEX_ENTRY_SIZE = 4 + 4;
+
+    static final int MAX_KEY_SIZE = 0xFFFF;
+
+    private final long baseSequence;
+
+    private final Path dataFile;
+
+    private final Path indexFile;
+
+    private final MappedByteBuffer data;
+
+    private final MappedByteBuffer index;
+
+    private final int maxRecords;
+
+    private final AtomicInteger numAcknowledged = new AtomicInteger(0);
+
+    private volatile int writePosition = 0;
+
+    private volatile int numRecords = 0;
+
+    private volatile boolean sealed = false;
+
+    private Segment(Path directory, long baseSequence, int segmentSize, int maxRecords) throws IOException {
+        this.baseSequence = baseSequence;
+        this.dataFile = directory.resolve(getFileName(baseSequence, DATA_SUFFIX));
+        this.indexFile = directory.resolve(getFileName(baseSequence, INDEX_SUFFIX));
+        // The mappings stay valid once the channels are closed
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            data = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max((long)maxRecords * INDEX_ENTRY_SIZE, channel.size()));
+        }
+        this.maxRecords = index.capacity() / INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * Creates a new, empty segment.
+     */
+    static Segment create(Path directory, long baseSequence, int segmentSize, int maxRecords) throws IOException {
+        return new Segment(directory, baseSequence, segmentSize, maxRecords);
+    }
+
+    /**
+     * Opens an existing segment, keeping all the records up to the first one
+     * which is incomplete or fails its checksum.
+     */
+    static Segment open(Path directory, long baseSequence) throws IOException {
+        final Segment segment = new Segment(directory, baseSequence, 0, 0);
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() {
+        int position = 0;
+        int recovered = 0;
+        int acknowledged = 0;
+        for (int i = 0; i < maxRecords; i++) {
+            final int offset = index.getInt(i * INDEX_ENTRY_SIZE);
+            final int length = index.getInt(i * INDEX_ENTRY_SIZE + 4);
+            if (length == 0 || offset != position || !isValid(offset, Math.abs(length))) {
+                break;
+            }
+            position += Math.abs(length);
+            recovered++;
+            if (length < 0) {
+                acknowledged++;
+            }
+        }
+        if (recovered < maxRecords && index.getInt(recovered * INDEX_ENTRY_SIZE + 4) != 0) {
+            LOG.warn("Discarding the torn or corrupted records after record #{} of {}.", recovered, dataFile);
+            // Clear the remaining entries so that they can be appended again
+            for (int i = recovered; i < maxRecords; i++) {
+                index.putLong(i * INDEX_ENTRY_SIZE, 0L);
+            }
+        }
+        writePosition = position;
+        numRecords = recovered;
+        numAcknowledged.set(acknowledged);
+    }
+
+    private boolean isValid(int offset, int length) {
+        if (length < RECORD_HEADER_SIZE || offset + length > data.capacity() || data.getInt(offset) != length) {
+            return false;
+        }
+        return data.getInt(offset + 4) == checksum(offset, length);
+    }
+
+    private int checksum(int offset, int length) {
+        final ByteBuffer buffer = data.duplicate();
+        buffer.limit(offset + length);
+        buffer.position(offset + 8);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Appends a record to the segment.
+     *
+     * @return false if the segment has no room left for the record
+     */
+    boolean append(byte[] key, byte[] message) {
+        final int length = getRecordSize(key, message);
+        if (sealed || numRecords >= maxRecords || writePosition + length > data.capacity()) {
+            return false;
+        }
+
+        final int offset = writePosition;
+        final ByteBuffer buffer = data.duplicate();
+        buffer.position(offset);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putShort((short)key.length);
+        buffer.put(key);
+        buffer.put(message);
+        data.putInt(offset + 4, checksum(offset, length));
+
+        // Only publish the record once it was fully written
+        index.putInt(numRecords * INDEX_ENTRY_SIZE, offset);
+        index.putInt(numRecords * INDEX_ENTRY_SIZE + 4, length);
+        writePosition = offset + length;
+        numRecords++;
+        return true;
+    }
+
+    static int getRecordSize(byte[] key, byte[] message) {
+        return RECORD_HEADER_SIZE + key.length + message.length;
+    }
+
+    /**
+     * Reads the record at the given position in this segment.
+     *
+     * @return the key and the message of the record, or null if it fails its checksum
+     */
+    AbstractMap.SimpleImmutableEntry<String, byte[]> read(int record) {
+        final int offset = index.getInt(record * INDEX_ENTRY_SIZE);
+        final int length = Math.abs(index.getInt(record * INDEX_ENTRY_SIZE + 4));
+        if (!isValid(offset, length)) {
+            LOG.error("Record #{} of {} is corrupted, skipping it.", record, dataFile);
+            return null;
+        }
+
+        final ByteBuffer buffer = data.duplicate();
+        buffer.position(offset + 8);
+        final byte[] key = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(key);
+        final byte[] message = new byte[length - RECORD_HEADER_SIZE - key.length];
+        buffer.get(message);
+        return new AbstractMap.SimpleImmutableEntry<>(new String(key, StandardCharsets.UTF_8), message);
+    }
+
+    boolean isAcknowledged(int record) {
+        return index.getInt(record * INDEX_ENTRY_SIZE + 4) < 0;
+    }
+
+    /**
+     * Acknowledges the given record, this is called by both the readers and the dispatchers.
+     */
+    synchronized void acknowledge(int record) {
+        final int position = record * INDEX_ENTRY_SIZE + 4;
+        final int length = index.getInt(position);
+        if (length > 0) {
+            index.putInt(position, -length);
+            numAcknowledged.incrementAndGet();
+        }
+    }
+
+    /**
+     * Marks the segment as complete, no more records will be appended to it.
+     */
+    void seal() {
+        sealed = true;
+        data.force();
+        index.force();
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    boolean isFullyAcknowledged() {
+        return numAcknowledged.get() >= numRecords;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    int getNumRecords() {
+        return numRecords;
+    }
+
+    long getBytesOnDisk() {
+        return writePosition + (long)numRecords * INDEX_ENTRY_SIZE;
+    }
+
+    void close() {
+        data.force();
+        index.force();
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(indexFile);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete segment {}.", dataFile, e);
+        }
+    }
+
+    static String getFileName(long baseSequence, String suffix) {
+        return String.format("%020d%s", baseSequence, suffix);
+    }
+
+    @Override
+    public String toString() {
+        return dataFile.toString();
+    }
+}
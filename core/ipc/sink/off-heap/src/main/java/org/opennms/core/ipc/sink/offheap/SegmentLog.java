@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * An append-only log of the messages of a single sink module, stored in a
+ * sequence of {@link Segment}s in a dedicated directory.
+ *
+ * Messages are read back in the order in which they were written, by any number
+ * of threads. A segment is deleted once it was rolled over and all of its messages
+ * were acknowledged.
+ */
+class SegmentLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentLog.class);
+
+    private final String moduleName;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxRecordsPerSegment;
+
+    private final Meter drained;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * All of the segments that still hold unacknowledged messages, the last one being written to.
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * Location of the messages that were read, but not yet acknowledged.
+     */
+    private final Map<String, Location> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Number of messages that were written, but not yet read.
+     */
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    private int readSegment = 0;
+
+    private int readRecord = 0;
+
+    private static class Location {
+        private final Segment segment;
+        private final int record;
+
+        private Location(Segment segment, int record) {
+            this.segment = segment;
+            this.record = record;
+        }
+    }
+
+    SegmentLog(String moduleName, Path directory, int segmentSize, Meter drained) throws IOException {
+        this.moduleName = moduleName;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        // Leave room for records with an average size of 64 bytes
+        this.maxRecordsPerSegment = Math.max(1, segmentSize / 64);
+        this.drained = drained;
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        final List<Long> baseSequences = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + Segment.DATA_SUFFIX)) {
+            for (Path file : stream) {
+                final String fileName = file.getFileName().toString();
+                try {
+                    baseSequences.add(Long.parseLong(fileName.substring(0, fileName.length() - Segment.DATA_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file {} in {}.", fileName, directory);
+                }
+            }
+        }
+        Collections.sort(baseSequences);
+
+        for (Long baseSequence : baseSequences) {
+            final Segment segment = Segment.open(directory, baseSequence);
+            if (segment.getNumRecords() == 0) {
+                segment.delete();
+                continue;
+            }
+            for (int i = 0; i < segment.getNumRecords(); i++) {
+                if (!segment.isAcknowledged(i)) {
+                    pending.incrementAndGet();
+                }
+            }
+            segments.add(segment);
+        }
+        // Only the last segment may still be appended to
+        for (int i = 0; i < segments.size() - 1; i++) {
+            segments.get(i).seal();
+        }
+        deleteAcknowledgedSegments();
+
+        if (pending.get() > 0) {
+            LOG.info("Recovered {} messages for module {} from {}.", pending.get(), moduleName, directory);
+        }
+    }
+
+    void write(String key, byte[] message) throws WriteFailedException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > Segment.MAX_KEY_SIZE) {
+            throw new WriteFailedException("Key is too long: " + key);
+        }
+        if (Segment.getRecordSize(keyBytes, message) > segmentSize) {
+            throw new WriteFailedException("Message of " + message.length + " bytes does not fit in a segment of " + segmentSize + " bytes");
+        }
+
+        lock.lock();
+        try {
+            Segment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (current == null || !current.append(keyBytes, message)) {
+                current = roll(current);
+                if (!current.append(keyBytes, message)) {
+                    throw new WriteFailedException("Failed to append message to " + current);
+                }
+            }
+            pending.incrementAndGet();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Segment roll(Segment current) throws WriteFailedException {
+        final long baseSequence;
+        if (current != null) {
+            current.seal();
+            baseSequence = current.getBaseSequence() + current.getNumRecords();
+        } else {
+            baseSequence = 0;
+        }
+        try {
+            final Segment segment = Segment.create(directory, baseSequence, segmentSize, maxRecordsPerSegment);
+            segments.add(segment);
+            LOG.debug("Rolled over to segment {} for module {}.", segment, moduleName);
+            deleteAcknowledgedSegments();
+            return segment;
+        } catch (IOException e) {
+            throw new WriteFailedException("Failed to create new segment in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves the next message which was not read yet, waiting for up to the given
+     * amount of time for one to become available.
+     *
+     * @return the key and the message, or null if none became available in time
+     */
+    AbstractMap.SimpleImmutableEntry<String, byte[]> readNext(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        while (true) {
+            final Location location;
+            lock.lock();
+            try {
+                Location next;
+                while ((next = nextUnread()) == null) {
+                    if (nanos <= 0L) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                location = next;
+                pending.decrementAndGet();
+            } finally {
+                lock.unlock();
+            }
+
+            // The segment can't go away before the record is acknowledged, so it can safely be read without the lock
+            final AbstractMap.SimpleImmutableEntry<String, byte[]> entry = location.segment.read(location.record);
+            if (entry == null) {
+                // Corrupted, there's no point in trying it again
+                acknowledge(location);
+                continue;
+            }
+            inFlight.put(entry.getKey(), location);
+            drained.mark();
+            return entry;
+        }
+    }
+
+    private Location nextUnread() {
+        while (readSegment < segments.size()) {
+            final Segment segment = segments.get(readSegment);
+            while (readRecord < segment.getNumRecords()) {
+                final int record = readRecord++;
+                if (!segment.isAcknowledged(record)) {
+                    return new Location(segment, record);
+                }
+            }
+            if (!segment.isSealed()) {
+                return null;
+            }
+            readSegment++;
+            readRecord = 0;
+        }
+        return null;
+    }
+
+    /**
+     * Acknowledges a message that was read, allowing the space it uses to be reclaimed.
+     */
+    void acknowledge(String key) {
+        final Location location = inFlight.remove(key);
+        if (location != null) {
+            acknowledge(location);
+        }
+    }
+
+    private void acknowledge(Location location) {
+        location.segment.acknowledge(location.record);
+        if (location.segment.isSealed() && location.segment.isFullyAcknowledged()) {
+            lock.lock();
+            try {
+                deleteAcknowledgedSegments();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void deleteAcknowledgedSegments() {
+        while (!segments.isEmpty()) {
+            final Segment segment = segments.get(0);
+            if (!segment.isSealed() || !segment.isFullyAcknowledged()) {
+                break;
+            }
+            segments.remove(0);
+            segment.delete();
+            if (readSegment > 0) {
+                readSegment--;
+            } else {
+                readRecord = 0;
+            }
+            LOG.debug("Deleted segment {} for module {}.", segment, moduleName);
+        }
+    }
+
+    int getNumOfMessages() {
+        return pending.get();
+    }
+
+    long getBytesOnDisk() {
+        lock.lock();
+        try {
+            long bytes = 0;
+            for (Segment segment : segments) {
+                bytes += segment.getBytesOnDisk();
+            }
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
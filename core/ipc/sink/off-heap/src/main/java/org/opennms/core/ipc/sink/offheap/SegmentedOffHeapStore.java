@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
+/**
+ * An {@link OffHeapQueue} which stores the messages on disk, in append-only
+ * memory-mapped segment files, using a separate {@link SegmentLog} for every
+ * sink module.
+ *
+ * Messages are kept on disk until they are acknowledged, and the messages that were
+ * not acknowledged yet are recovered when the store is restarted.
+ */
+public class SegmentedOffHeapStore implements OffHeapQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedOffHeapStore.class);
+    private static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+    private final static String OFFHEAP_SIZE = "offHeapSize";
+    private final static String OFFHEAP_PATH = "offHeapPath";
+    private final static String SEGMENT_SIZE = "segmentSize";
+    private final static String DEFAULT_OFFHEAP_SIZE = "10MB";
+    private final static String DEFAULT_SEGMENT_SIZE = "8MB";
+    // Default wait time for each poll is 1000msec.
+    private final static long DEFAULT_WAIT_FOR_POLL = 1000L;
+
+    private JmxReporter reporter = null;
+    private MetricRegistry offheapMetrics = new MetricRegistry();
+    private long maxSizeInBytes;
+    private int segmentSize;
+    private Path path;
+    private final ConfigurationAdmin configAdmin;
+    // Map of (sanitized) ModuleName and corresponding log.
+    private final Map<String, SegmentLog> logs = new ConcurrentHashMap<>();
+
+    public SegmentedOffHeapStore(ConfigurationAdmin configAdmin) {
+        this.configAdmin = configAdmin;
+    }
+
+    public void init() throws IOException {
+        maxSizeInBytes = ByteSizes.parse(DEFAULT_OFFHEAP_SIZE);
+        segmentSize = (int)ByteSizes.parse(DEFAULT_SEGMENT_SIZE);
+        path = Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")), "offheap");
+
+        Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+        if (properties != null) {
+            if (properties.get(OFFHEAP_SIZE) instanceof String) {
+                maxSizeInBytes = ByteSizes.parse((String)properties.get(OFFHEAP_SIZE), DEFAULT_OFFHEAP_SIZE);
+            }
+            if (properties.get(SEGMENT_SIZE) instanceof String) {
+                segmentSize = (int)Math.min(Integer.MAX_VALUE, ByteSizes.parse((String)properties.get(SEGMENT_SIZE), DEFAULT_SEGMENT_SIZE));
+            }
+            if (properties.get(OFFHEAP_PATH) instanceof String) {
+                path = Paths.get((String)properties.get(OFFHEAP_PATH));
+            }
+        }
+        // A single segment can't be bigger than the whole store
+        segmentSize = (int)Math.min(segmentSize, maxSizeInBytes);
+
+        reporter = JmxReporter.forRegistry(offheapMetrics).inDomain(this.getClass().getPackage().getName()).build();
+        offheapMetrics.register(MetricRegistry.name("offHeapSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getSize();
+            }
+        });
+        reporter.start();
+
+        // Pick up the messages left over by a previous run
+        final File[] directories = path.toFile().listFiles(File::isDirectory);
+        if (directories != null) {
+            for (File directory : directories) {
+                getLog(directory.getName());
+            }
+        }
+        LOG.info("initializing segmented OffHeapStore in {} with max size : {}, segment size : {}", path, maxSizeInBytes, segmentSize);
+    }
+
+    private SegmentLog getLog(String moduleName) throws IOException {
+        final String name = toDirectoryName(moduleName);
+        SegmentLog log = logs.get(name);
+        if (log != null) {
+            return log;
+        }
+        synchronized (logs) {
+            log = logs.get(name);
+            if (log == null) {
+                final Meter drained = offheapMetrics.meter(MetricRegistry.name(name, "drained"));
+                log = new SegmentLog(moduleName, path.resolve(name), segmentSize, drained);
+                final SegmentLog moduleLog = log;
+                offheapMetrics.register(MetricRegistry.name(name, "bytesOnDisk"), new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return moduleLog.getBytesOnDisk();
+                    }
+                });
+                logs.put(name, log);
+                LOG.info("initialized segment log for module : {} ", moduleName);
+            }
+            return log;
+        }
+    }
+
+    @Override
+    public boolean writeMessage(byte[] message, String moduleName, String key) throws WriteFailedException {
+        if (message == null || Strings.isNullOrEmpty(moduleName) || key == null) {
+            throw new WriteFailedException("Invalid message");
+        }
+        if (getSize() + message.length > maxSizeInBytes) {
+            throw new WriteFailedException("Offheap storage exhausted, size = " + maxSizeInBytes);
+        }
+        try {
+            getLog(moduleName).write(key, message);
+        } catch (IOException e) {
+            throw new WriteFailedException("Failed to open segment log for module " + moduleName + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName)
+            throws InterruptedException {
+        final SegmentLog log = logs.get(toDirectoryName(moduleName));
+        if (log == null) {
+            LOG.warn("No data was ever written for this module {}", moduleName);
+            return null;
+        }
+        // Poll for an item to be available, max wait is 1 second.
+        return log.readNext(DEFAULT_WAIT_FOR_POLL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void acknowledge(String moduleName, String key) {
+        final SegmentLog log = logs.get(toDirectoryName(moduleName));
+        if (log != null) {
+            log.acknowledge(key);
+        }
+    }
+
+    public void destroy() {
+        logs.forEach((module, log) -> log.close());
+        LOG.info("closing segmented OffHeapStore, size = {} ", getSize());
+        if (reporter != null) {
+            reporter.stop();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        long size = 0;
+        for (SegmentLog log : logs.values()) {
+            size += log.getBytesOnDisk();
+        }
+        return size;
+    }
+
+    @Override
+    public int getNumOfMessages(String moduleName) {
+        final SegmentLog log = logs.get(toDirectoryName(moduleName));
+        if (log != null) {
+            return log.getNumOfMessages();
+        }
+        return 0;
+    }
+
+    MetricRegistry getMetrics() {
+        return offheapMetrics;
+    }
+
+    private static String toDirectoryName(String moduleName) {
+        return moduleName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
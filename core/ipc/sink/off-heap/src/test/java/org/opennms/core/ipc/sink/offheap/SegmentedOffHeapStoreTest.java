@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractMap;
+import java.util.Hashtable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+public class SegmentedOffHeapStoreTest {
+
+    private final static String OFFHEAP_SIZE = "offHeapSize";
+    private final static String OFFHEAP_PATH = "offHeapPath";
+    private final static String SEGMENT_SIZE = "segmentSize";
+    public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SegmentedOffHeapStore queue;
+
+    @Before
+    public void setup() throws IOException {
+        queue = createStore();
+    }
+
+    @After
+    public void destroy() {
+        queue.destroy();
+    }
+
+    private SegmentedOffHeapStore createStore() throws IOException {
+        Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put(OFFHEAP_SIZE, "1MB");
+        configProperties.put(SEGMENT_SIZE, "16KB");
+        configProperties.put(OFFHEAP_PATH, tempFolder.getRoot().getAbsolutePath());
+        ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties()).thenReturn(configProperties);
+        SegmentedOffHeapStore store = new SegmentedOffHeapStore(configAdmin);
+        store.init();
+        return store;
+    }
+
+    @Test
+    public void testMessagesAreReadInOrderPerModule() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            queue.writeMessage(("This is " + i + " trap message").getBytes(), "traps-test", Integer.toString(i));
+            queue.writeMessage(("This is " + i + " syslog message").getBytes(), "syslog-test", Integer.toString(i));
+        }
+        assertEquals(1000, queue.getNumOfMessages("traps-test"));
+
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("traps-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " trap message", new String(keyValue.getValue()));
+            queue.acknowledge("traps-test", keyValue.getKey());
+        }
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("syslog-test");
+            assertEquals("This is " + i + " syslog message", new String(keyValue.getValue()));
+            queue.acknowledge("syslog-test", keyValue.getKey());
+        }
+        assertEquals(0, queue.getNumOfMessages("traps-test"));
+        assertNull(queue.readNextMessage("traps-test"));
+        assertEquals(1000, queue.getMetrics().meter("traps-test.drained").getCount());
+    }
+
+    @Test
+    public void testSegmentsAreDeletedOnceAcknowledged() throws Exception {
+        final byte[] message = new byte[1024];
+        for (int i = 0; i < 64; i++) {
+            queue.writeMessage(message, "traps-test", Integer.toString(i));
+        }
+        final File directory = new File(tempFolder.getRoot(), "traps-test");
+        assertTrue(countSegments(directory) > 1);
+        final long bytesOnDisk = queue.getSize();
+        assertTrue(bytesOnDisk >= 64 * 1024);
+
+        // Reading isn't enough, the messages need to be acknowledged
+        for (int i = 0; i < 64; i++) {
+            queue.readNextMessage("traps-test");
+        }
+        assertEquals(bytesOnDisk, queue.getSize());
+
+        for (int i = 0; i < 64; i++) {
+            queue.acknowledge("traps-test", Integer.toString(i));
+        }
+        // Only the segment that is still being written to remains
+        assertEquals(1, countSegments(directory));
+        assertTrue(queue.getSize() < bytesOnDisk);
+    }
+
+    @Test
+    public void testWritesFailWhenFull() throws Exception {
+        final byte[] message = new byte[1024];
+        try {
+            for (int i = 0; i < 2048; i++) {
+                queue.writeMessage(message, "traps-test", Integer.toString(i));
+            }
+            fail("The store should have been exhausted.");
+        } catch (WriteFailedException e) {
+            // expected
+        }
+        assertTrue(queue.getSize() <= 1024 * 1024);
+    }
+
+    @Test
+    public void testUnacknowledgedMessagesAreRecovered() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            queue.writeMessage(("message " + i).getBytes(), "traps-test", Integer.toString(i));
+        }
+        for (int i = 0; i < 40; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("traps-test");
+            queue.acknowledge("traps-test", keyValue.getKey());
+        }
+        // Read, but never acknowledged
+        queue.readNextMessage("traps-test");
+        queue.destroy();
+
+        queue = createStore();
+        assertEquals(60, queue.getNumOfMessages("traps-test"));
+        for (int i = 40; i < 100; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("traps-test");
+            assertEquals("message " + i, new String(keyValue.getValue()));
+        }
+    }
+
+    @Test
+    public void testCorruptedRecordsAreDiscardedOnRecovery() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            queue.writeMessage(("message " + i).getBytes(), "traps-test", Integer.toString(i));
+        }
+        queue.destroy();
+
+        // Flip a byte in the payload of the 6th record
+        final File segment = new File(new File(tempFolder.getRoot(), "traps-test"), Segment.getFileName(0, Segment.DATA_SUFFIX));
+        final int recordSize = Segment.RECORD_HEADER_SIZE + 1 + "message 0".length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(5 * recordSize + recordSize - 1);
+            file.write('x');
+        }
+
+        queue = createStore();
+        assertEquals(5, queue.getNumOfMessages("traps-test"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("message " + i, new String(queue.readNextMessage("traps-test").getValue()));
+        }
+        // New messages are appended after the last valid record
+        queue.writeMessage("message 10".getBytes(), "traps-test", "10");
+        assertEquals("message 10", new String(queue.readNextMessage("traps-test").getValue()));
+    }
+
+    @Test
+    public void testConcurrentDrain() throws Exception {
+        final int numMessages = 5000;
+        for (int i = 0; i < numMessages; i++) {
+            queue.writeMessage(("message " + i).getBytes(), "traps-test", Integer.toString(i));
+        }
+
+        final Set<String> keys = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                try {
+                    AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue;
+                    while ((keyValue = queue.readNextMessage("traps-test")) != null) {
+                        assertTrue(keys.add(keyValue.getKey()));
+                        queue.acknowledge("traps-test", keyValue.getKey());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(numMessages, keys.size());
+        assertEquals(0, queue.getNumOfMessages("traps-test"));
+    }
+
+    private static int countSegments(File directory) {
+        return directory.listFiles((dir, name) -> name.endsWith(Segment.DATA_SUFFIX)).length;
+    }
+}
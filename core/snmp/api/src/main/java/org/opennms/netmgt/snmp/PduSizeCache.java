@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the PDU sizes that work best for every agent, so that walks
+ * no longer depend on hand-tuned max-vars-per-pdu and max-repetitions values.
+ *
+ * The sizes start from the values configured for the agent and are reduced
+ * when the agent answers with a tooBig error, answers slowly or does not
+ * answer at all, so that the next requests (and walks) stay within its
+ * limits. They are grown after every response that arrives quickly, up to
+ * the global maxVarsPerPdu and maxRepetitions, so that agents which can
+ * handle larger PDUs than the conservative defaults in snmp-config.xml are
+ * walked with fewer requests. When capAtConfigured is set, the values
+ * configured for the agent remain the upper bound instead.
+ *
+ * The least recently used agents are forgotten once more than maxAgents
+ * agents are known.
+ */
+public class PduSizeCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PduSizeCache.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.snmp.adaptivePduSize";
+    public static final String MAX_VARS_PER_PDU_PROPERTY = "org.opennms.netmgt.snmp.adaptivePduSize.maxVarsPerPdu";
+    public static final String MAX_REPETITIONS_PROPERTY = "org.opennms.netmgt.snmp.adaptivePduSize.maxRepetitions";
+    public static final String FAST_RESPONSE_PROPERTY = "org.opennms.netmgt.snmp.adaptivePduSize.fastResponseMs";
+    public static final String SLOW_RESPONSE_PROPERTY = "org.opennms.netmgt.snmp.adaptivePduSize.slowResponseMs";
+    public static final String MAX_AGENTS_PROPERTY = "org.opennms.netmgt.snmp.adaptivePduSize.maxAgents";
+    public static final String CAP_AT_CONFIGURED_PROPERTY = "org.opennms.netmgt.snmp.adaptivePduSize.capAtConfigured";
+
+    private static PduSizeCache s_instance;
+
+    private static boolean s_initialized = false;
+
+    private final Map<InetAddress, PduSize> m_sizes;
+
+    private final int m_maxVarsPerPdu;
+    private final int m_maxRepetitions;
+    private final long m_fastResponseNanos;
+    private final long m_slowResponseNanos;
+    private final int m_maxAgents;
+    private final boolean m_capAtConfigured;
+
+    public PduSizeCache(int maxVarsPerPdu, int maxRepetitions, long fastResponseMs, long slowResponseMs, int maxAgents) {
+        this(maxVarsPerPdu, maxRepetitions, fastResponseMs, slowResponseMs, maxAgents, false);
+    }
+
+    /**
+     * @param maxVarsPerPdu the largest number of variables to request in a single PDU
+     * @param maxRepetitions the largest number of repetitions to request in a single GETBULK PDU
+     * @param fastResponseMs the sizes are grown after responses that take less than this
+     * @param slowResponseMs the sizes are reduced after responses that take longer than this
+     * @param maxAgents the number of agents to remember, the least recently used ones are evicted first
+     * @param capAtConfigured whether the sizes may not grow beyond the values configured for the agent
+     */
+    public PduSizeCache(int maxVarsPerPdu, int maxRepetitions, long fastResponseMs, long slowResponseMs, int maxAgents, boolean capAtConfigured) {
+        if (fastResponseMs > slowResponseMs) {
+            throw new IllegalArgumentException("The fast response threshold must not exceed the slow response threshold.");
+        }
+        m_maxVarsPerPdu = Math.max(1, maxVarsPerPdu);
+        m_maxRepetitions = Math.max(1, maxRepetitions);
+        m_fastResponseNanos = fastResponseMs * 1000000L;
+        m_slowResponseNanos = slowResponseMs * 1000000L;
+        m_maxAgents = Math.max(1, maxAgents);
+        m_capAtConfigured = capAtConfigured;
+        m_sizes = new LinkedHashMap<InetAddress, PduSize>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetAddress, PduSize> eldest) {
+                return size() > m_maxAgents;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all of the walkers in this JVM, or null if
+     * adaptive PDU sizing is disabled.
+     */
+    public static synchronized PduSizeCache getInstance() {
+        if (!s_initialized) {
+            if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+                s_instance = new PduSizeCache(Integer.getInteger(MAX_VARS_PER_PDU_PROPERTY, 50),
+                        Integer.getInteger(MAX_REPETITIONS_PROPERTY, 25),
+                        Long.getLong(FAST_RESPONSE_PROPERTY, 250),
+                        Long.getLong(SLOW_RESPONSE_PROPERTY, 1000),
+                        Integer.getInteger(MAX_AGENTS_PROPERTY, 100000),
+                        Boolean.getBoolean(CAP_AT_CONFIGURED_PROPERTY));
+            }
+            s_initialized = true;
+        }
+        return s_instance;
+    }
+
+    /**
+     * Replaces the shared cache, or disables adaptive PDU sizing when null.
+     */
+    public static synchronized void setInstance(PduSizeCache instance) {
+        s_instance = instance;
+        s_initialized = true;
+    }
+
+    /**
+     * Returns the sizes learned for the given agent, starting from the
+     * configured values if the agent was not seen before.
+     *
+     * When capAtConfigured is set, the configured values also limit the
+     * learned sizes, so that changes made to snmp-config.xml apply to agents
+     * which were already seen as well.
+     */
+    public synchronized PduSize getPduSize(InetAddress address, int maxVarsPerPdu, int maxRepetitions) {
+        final int initialMaxVarsPerPdu = Math.max(1, Math.min(maxVarsPerPdu, m_maxVarsPerPdu));
+        final int initialMaxRepetitions = Math.max(1, Math.min(maxRepetitions, m_maxRepetitions));
+        PduSize pduSize = m_sizes.get(address);
+        if (pduSize == null) {
+            pduSize = new PduSize(address, initialMaxVarsPerPdu, initialMaxRepetitions);
+            if (m_capAtConfigured) {
+                pduSize.setLimits(initialMaxVarsPerPdu, initialMaxRepetitions);
+            }
+            m_sizes.put(address, pduSize);
+        } else if (m_capAtConfigured) {
+            pduSize.setLimits(initialMaxVarsPerPdu, initialMaxRepetitions);
+        }
+        return pduSize;
+    }
+
+    public synchronized PduSize getPduSize(InetAddress address) {
+        return m_sizes.get(address);
+    }
+
+    public synchronized void remove(InetAddress address) {
+        m_sizes.remove(address);
+    }
+
+    public synchronized int size() {
+        return m_sizes.size();
+    }
+
+    public class PduSize {
+        private final InetAddress m_address;
+        private int m_maxVarsPerPdu;
+        private int m_maxRepetitions;
+        private int m_maxVarsPerPduLimit;
+        private int m_maxRepetitionsLimit;
+
+        private PduSize(InetAddress address, int maxVarsPerPdu, int maxRepetitions) {
+            m_address = address;
+            m_maxVarsPerPdu = maxVarsPerPdu;
+            m_maxRepetitions = maxRepetitions;
+            m_maxVarsPerPduLimit = PduSizeCache.this.m_maxVarsPerPdu;
+            m_maxRepetitionsLimit = PduSizeCache.this.m_maxRepetitions;
+        }
+
+        /**
+         * Updates the upper bound of the learned sizes, shrinking them if the
+         * configured values were lowered.
+         */
+        private synchronized void setLimits(int maxVarsPerPdu, int maxRepetitions) {
+            m_maxVarsPerPduLimit = maxVarsPerPdu;
+            m_maxRepetitionsLimit = maxRepetitions;
+            m_maxVarsPerPdu = Math.min(m_maxVarsPerPdu, maxVarsPerPdu);
+            m_maxRepetitions = Math.min(m_maxRepetitions, maxRepetitions);
+        }
+
+        public synchronized int getMaxVarsPerPdu() {
+            return m_maxVarsPerPdu;
+        }
+
+        public synchronized int getMaxRepetitions() {
+            return m_maxRepetitions;
+        }
+
+        /**
+         * Grows the sizes after a fast response, up to their limits, and
+         * shrinks them after a slow one.
+         */
+        public synchronized void onResponse(long latencyNanos) {
+            if (latencyNanos < m_fastResponseNanos) {
+                m_maxRepetitions = Math.min(m_maxRepetitions + Math.max(1, m_maxRepetitions / 4), m_maxRepetitionsLimit);
+                m_maxVarsPerPdu = Math.min(m_maxVarsPerPdu + Math.max(1, m_maxVarsPerPdu / 4), m_maxVarsPerPduLimit);
+            } else if (latencyNanos > m_slowResponseNanos) {
+                shrink("slow response");
+            }
+        }
+
+        /**
+         * Called when the agent could not fit its response in a single message.
+         */
+        public synchronized void onTooBig() {
+            shrink("tooBig error");
+        }
+
+        /**
+         * Called when the agent did not respond at all.
+         */
+        public synchronized void onTimeout() {
+            shrink("timeout");
+        }
+
+        /**
+         * Halves the number of repetitions first, since these make up most
+         * of the response, and only then the number of variables.
+         */
+        private void shrink(String reason) {
+            if (m_maxRepetitions > 1) {
+                m_maxRepetitions = m_maxRepetitions / 2;
+            } else {
+                m_maxVarsPerPdu = Math.max(1, m_maxVarsPerPdu / 2);
+            }
+            LOG.debug("Reduced PDU size for {} to maxVarsPerPdu={}, maxRepetitions={} after {}.", m_address, m_maxVarsPerPdu, m_maxRepetitions, reason);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "PduSize[address=" + m_address + ", maxVarsPerPdu=" + m_maxVarsPerPdu + ", maxRepetitions=" + m_maxRepetitions + "]";
+        }
+    }
+}
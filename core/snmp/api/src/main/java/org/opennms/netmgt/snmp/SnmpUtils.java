@@ -33,11 +33,15 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +52,15 @@ public abstract class SnmpUtils {
 
     private static final ClassBasedStrategyResolver s_classBasedStrategyResolver = new ClassBasedStrategyResolver();
 
+    private static final Executor REAPER_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "SNMP-Walker-Reaper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private static Properties sm_config;
     private static StrategyResolver s_strategyResolver;
     private static final boolean canUseClassBasedStrategy = checkIfClassBasedStrategyIsInstantiable();
@@ -134,6 +147,39 @@ public abstract class SnmpUtils {
         return results;
     }
 
+    /**
+     * Walks the given column without waiting for the walk to complete.
+     *
+     * Like {@link #getColumns(SnmpAgentConfig, String, SnmpObjId)}, the
+     * future completes with the values retrieved before the walk ended,
+     * even if it failed.
+     */
+    public static CompletableFuture<List<SnmpValue>> getColumnsAsync(final SnmpAgentConfig agentConfig, final String name, final SnmpObjId oid) {
+        final CompletableFuture<List<SnmpValue>> future = new CompletableFuture<>();
+        final List<SnmpValue> results = Collections.synchronizedList(new ArrayList<>());
+
+        final SnmpWalker walker = SnmpUtils.createWalker(agentConfig, name, new ColumnTracker(oid) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                results.add(res.getValue());
+            }
+        });
+        walker.setCallback(new SnmpWalkCallback() {
+            @Override
+            public void complete(SnmpWalker tracker, Throwable t) {
+                try {
+                    future.complete(results);
+                } finally {
+                    // Close the walker using a separate thread, instead of
+                    // interrupting it while it is executing the callback
+                    REAPER_EXECUTOR.execute(tracker::close);
+                }
+            }
+        });
+        walker.start();
+        return future;
+    }
+
     public static Map<SnmpInstId, SnmpValue> getOidValues(SnmpAgentConfig agentConfig, String name, SnmpObjId oid) 
 	throws InterruptedException {
 
@@ -57,12 +57,23 @@ public abstract class SnmpWalker implements AutoCloseable {
 
     private SnmpWalkCallback m_callback;
 
+    private final PduSizeCache.PduSize m_pduSize;
+    private volatile long m_sentAt;
+
     protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
         m_address = address;
         m_signal = new CountDownLatch(1);
         
         m_name = name;
 
+        // Start from the sizes learned on previous walks of this agent, if any
+        final PduSizeCache pduSizeCache = PduSizeCache.getInstance();
+        m_pduSize = (pduSizeCache == null || address == null) ? null : pduSizeCache.getPduSize(address, maxVarsPerPdu, maxRepetitions);
+        if (m_pduSize != null) {
+            maxVarsPerPdu = m_pduSize.getMaxVarsPerPdu();
+            maxRepetitions = m_pduSize.getMaxRepetitions();
+        }
+
         m_tracker = tracker;
         m_tracker.setMaxRepetitions(maxRepetitions);
         m_tracker.setMaxRetries(maxRetries);
@@ -101,6 +112,7 @@ public abstract class SnmpWalker implements AutoCloseable {
         } else {
             m_pduBuilder.reset();
             m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            m_sentAt = System.nanoTime();
             sendNextPdu(m_pduBuilder);
         }
     }
@@ -147,6 +159,9 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
     
     protected void handleTimeout(String msg) {
+        if (m_pduSize != null) {
+            m_pduSize.onTimeout();
+        }
         m_tracker.setTimedOut(true);
         processError("Timeout retrieving", msg, new SnmpAgentTimeoutException(getName(), m_address));
     }
@@ -208,6 +223,22 @@ public abstract class SnmpWalker implements AutoCloseable {
     
     // processErrors returns true if we need to retry the request and false otherwise
     protected boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
+        if (m_pduSize == null) {
+            return m_responseProcessor.processErrors(errorStatus, errorIndex);
+        }
+
+        if (errorStatus == ErrorStatus.TOO_BIG.ordinal()) {
+            m_pduSize.onTooBig();
+            final boolean retry = m_responseProcessor.processErrors(errorStatus, errorIndex);
+            // Keep the reduction made by the tracker for the retry, if it is smaller
+            m_pduBuilder.setMaxVarsPerPdu(Math.min(m_pduBuilder.getMaxVarsPerPdu(), m_pduSize.getMaxVarsPerPdu()));
+            m_tracker.setMaxRepetitions(m_pduSize.getMaxRepetitions());
+            return retry;
+        }
+
+        m_pduSize.onResponse(System.nanoTime() - m_sentAt);
+        m_pduBuilder.setMaxVarsPerPdu(m_pduSize.getMaxVarsPerPdu());
+        m_tracker.setMaxRepetitions(m_pduSize.getMaxRepetitions());
         return m_responseProcessor.processErrors(errorStatus, errorIndex);
     }
     
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.PduSizeCache.PduSize;
+
+public class PduSizeCacheTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long NORMAL = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(5000);
+
+    private final PduSizeCache m_cache = new PduSizeCache(40, 20, 250, 1000, 2);
+
+    private final PduSizeCache m_cappedCache = new PduSizeCache(40, 20, 250, 1000, 2, true);
+
+    @Test
+    public void testGrowsBeyondConfiguredValues() throws Exception {
+        final InetAddress agent = InetAddress.getByName("192.0.2.1");
+        final PduSize pduSize = m_cache.getPduSize(agent, SnmpConfiguration.DEFAULT_MAX_VARS_PER_PDU, SnmpConfiguration.DEFAULT_MAX_REPETITIONS);
+        assertEquals(10, pduSize.getMaxVarsPerPdu());
+        assertEquals(2, pduSize.getMaxRepetitions());
+
+        pduSize.onResponse(FAST);
+        assertEquals(12, pduSize.getMaxVarsPerPdu());
+        assertEquals(3, pduSize.getMaxRepetitions());
+
+        // Up to the ceiling, the configured values are only where the sizes start from
+        for (int i = 0; i < 100; i++) {
+            pduSize.onResponse(FAST);
+        }
+        assertSame(pduSize, m_cache.getPduSize(agent, SnmpConfiguration.DEFAULT_MAX_VARS_PER_PDU, SnmpConfiguration.DEFAULT_MAX_REPETITIONS));
+        assertEquals(40, pduSize.getMaxVarsPerPdu());
+        assertEquals(20, pduSize.getMaxRepetitions());
+    }
+
+    @Test
+    public void testGrowsUpToConfiguredValuesWhenCapped() throws Exception {
+        final PduSize pduSize = m_cappedCache.getPduSize(InetAddress.getByName("192.0.2.1"), 30, 16);
+        assertEquals(30, pduSize.getMaxVarsPerPdu());
+        assertEquals(16, pduSize.getMaxRepetitions());
+
+        pduSize.onTooBig();
+        pduSize.onTooBig();
+        assertEquals(4, pduSize.getMaxRepetitions());
+
+        pduSize.onResponse(FAST);
+        assertEquals(30, pduSize.getMaxVarsPerPdu());
+        assertEquals(5, pduSize.getMaxRepetitions());
+
+        // Neither fast nor slow
+        pduSize.onResponse(NORMAL);
+        assertEquals(30, pduSize.getMaxVarsPerPdu());
+        assertEquals(5, pduSize.getMaxRepetitions());
+
+        // Never beyond the values configured for the agent
+        for (int i = 0; i < 100; i++) {
+            pduSize.onResponse(FAST);
+        }
+        assertEquals(30, pduSize.getMaxVarsPerPdu());
+        assertEquals(16, pduSize.getMaxRepetitions());
+    }
+
+    @Test
+    public void testConfiguredValuesAreCappedByCeiling() throws Exception {
+        final PduSize pduSize = m_cache.getPduSize(InetAddress.getByName("192.0.2.1"), 100, 100);
+        assertEquals(40, pduSize.getMaxVarsPerPdu());
+        assertEquals(20, pduSize.getMaxRepetitions());
+
+        for (int i = 0; i < 100; i++) {
+            pduSize.onResponse(FAST);
+        }
+        assertEquals(40, pduSize.getMaxVarsPerPdu());
+        assertEquals(20, pduSize.getMaxRepetitions());
+    }
+
+    @Test
+    public void testLoweredConfiguredValuesApplyWhenCapped() throws Exception {
+        final InetAddress agent = InetAddress.getByName("192.0.2.1");
+        final PduSize pduSize = m_cappedCache.getPduSize(agent, 30, 16);
+
+        // The learned sizes are kept, but limited by the new values
+        assertSame(pduSize, m_cappedCache.getPduSize(agent, 10, 2));
+        assertEquals(10, pduSize.getMaxVarsPerPdu());
+        assertEquals(2, pduSize.getMaxRepetitions());
+        for (int i = 0; i < 100; i++) {
+            pduSize.onResponse(FAST);
+        }
+        assertEquals(10, pduSize.getMaxVarsPerPdu());
+        assertEquals(2, pduSize.getMaxRepetitions());
+
+        // Raising them again allows the sizes to grow, but does not reset them
+        m_cappedCache.getPduSize(agent, 30, 16);
+        assertEquals(10, pduSize.getMaxVarsPerPdu());
+        assertEquals(2, pduSize.getMaxRepetitions());
+        pduSize.onResponse(FAST);
+        assertEquals(12, pduSize.getMaxVarsPerPdu());
+        assertEquals(3, pduSize.getMaxRepetitions());
+    }
+
+    @Test
+    public void testShrinksRepetitionsFirst() throws Exception {
+        final PduSize pduSize = m_cache.getPduSize(InetAddress.getByName("192.0.2.1"), 10, 8);
+
+        pduSize.onTooBig();
+        assertEquals(10, pduSize.getMaxVarsPerPdu());
+        assertEquals(4, pduSize.getMaxRepetitions());
+
+        pduSize.onResponse(SLOW);
+        pduSize.onTimeout();
+        assertEquals(10, pduSize.getMaxVarsPerPdu());
+        assertEquals(1, pduSize.getMaxRepetitions());
+
+        pduSize.onTooBig();
+        assertEquals(5, pduSize.getMaxVarsPerPdu());
+        for (int i = 0; i < 10; i++) {
+            pduSize.onTimeout();
+        }
+        assertEquals(1, pduSize.getMaxVarsPerPdu());
+        assertEquals(1, pduSize.getMaxRepetitions());
+    }
+
+    @Test
+    public void testSizesAreKeptPerAgent() throws Exception {
+        final InetAddress agent1 = InetAddress.getByName("192.0.2.1");
+        final InetAddress agent2 = InetAddress.getByName("192.0.2.2");
+        final InetAddress agent3 = InetAddress.getByName("192.0.2.3");
+
+        final PduSize pduSize1 = m_cache.getPduSize(agent1, 10, 8);
+        pduSize1.onTimeout();
+
+        // The learned sizes are kept for later walks of the same agent
+        assertSame(pduSize1, m_cache.getPduSize(agent1, 10, 8));
+        assertEquals(4, m_cache.getPduSize(agent1).getMaxRepetitions());
+
+        final PduSize pduSize2 = m_cache.getPduSize(agent2, 10, 2);
+        assertEquals(10, pduSize2.getMaxVarsPerPdu());
+        assertEquals(2, pduSize2.getMaxRepetitions());
+
+        // The cache is full, so the least recently used agent is evicted
+        m_cache.getPduSize(agent1, 10, 8);
+        assertNotNull(m_cache.getPduSize(agent3, 10, 2));
+        assertEquals(2, m_cache.size());
+        assertNull(m_cache.getPduSize(agent2));
+        assertSame(pduSize1, m_cache.getPduSize(agent1));
+
+        m_cache.remove(agent1);
+        assertEquals(1, m_cache.size());
+    }
+}
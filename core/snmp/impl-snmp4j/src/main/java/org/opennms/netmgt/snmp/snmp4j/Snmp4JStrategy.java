@@ -306,6 +306,14 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (expectResponse && Snmp4JTransportPool.supports(agentConfig)) {
+            final Snmp4JTransportPool transportPool = Snmp4JTransportPool.getInstance();
+            if (transportPool != null) {
+                sendShared(transportPool, agentConfig, pdu, future);
+                return;
+            }
+        }
+
         Snmp session;
 
         try {
@@ -370,6 +378,24 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    private static void sendShared(Snmp4JTransportPool transportPool, Snmp4JAgentConfig agentConfig, PDU pdu, CompletableFuture<SnmpValue[]> future) {
+        try {
+            transportPool.send(pdu, agentConfig.getTarget(), new ResponseListener() {
+                @Override
+                public void onResponse(final ResponseEvent responseEvent) {
+                    try {
+                        future.complete(processResponse(agentConfig, responseEvent));
+                    } catch (final Exception e) {
+                        future.completeExceptionally(new SnmpException(e));
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            LOG.error("send: error during SNMP operation", e);
+            future.completeExceptionally(e);
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
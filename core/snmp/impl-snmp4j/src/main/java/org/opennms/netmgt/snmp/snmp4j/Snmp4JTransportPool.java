@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.snmp4j.DefaultTimeoutModel;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.TimeoutModel;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * A fixed set of UDP sockets and dispatcher threads shared by all of the
+ * SNMPv1 and SNMPv2c requests that expect a response.
+ *
+ * Requests are spread across the sockets in a round-robin fashion and the
+ * responses are matched to their requests by request ID by SNMP4J, so the
+ * cost of opening, binding and closing a socket (and starting a listener
+ * thread) is no longer paid for every request.
+ *
+ * SNMPv3 requests are not handled here, since the USM users and engine IDs
+ * are specific to every agent configuration.
+ */
+public class Snmp4JTransportPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JTransportPool.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransport";
+    public static final String SOCKETS_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransport.sockets";
+    public static final String THREADS_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransport.dispatcherThreads";
+
+    private static final String JMX_DOMAIN = "org.opennms.netmgt.snmp.snmp4j";
+
+    private static volatile Snmp4JTransportPool s_instance;
+
+    private final Snmp[] m_sessions;
+
+    private final ThreadPool m_dispatcherThreads;
+
+    private final AtomicInteger m_next = new AtomicInteger(0);
+
+    private final AtomicInteger m_outstanding = new AtomicInteger(0);
+
+    private final MetricRegistry m_registry;
+
+    private final Meter m_requests;
+
+    private final Meter m_timeouts;
+
+    private final Meter m_retries;
+
+    private final Timer m_responseTime;
+
+    private JmxReporter m_reporter;
+
+    public Snmp4JTransportPool(int numSockets, int numDispatcherThreads, MetricRegistry registry) throws IOException {
+        if (numSockets < 1) {
+            throw new IllegalArgumentException("At least one socket is required.");
+        }
+        if (numDispatcherThreads < 1) {
+            throw new IllegalArgumentException("At least one dispatcher thread is required.");
+        }
+        m_registry = Objects.requireNonNull(registry);
+
+        m_requests = registry.meter("requests");
+        m_timeouts = registry.meter("timeouts");
+        m_retries = registry.meter("retries");
+        m_responseTime = registry.timer("responseTime");
+        registry.register("outstanding", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_outstanding.get();
+            }
+        });
+
+        final TimeoutModel timeoutModel = new CountingTimeoutModel();
+        m_dispatcherThreads = ThreadPool.create("SNMP4J-Shared-Dispatcher", numDispatcherThreads);
+        m_sessions = new Snmp[numSockets];
+        try {
+            for (int i = 0; i < numSockets; i++) {
+                final MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+                dispatcher.addMessageProcessingModel(new MPv1());
+                dispatcher.addMessageProcessingModel(new MPv2c());
+
+                final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping();
+                transport.setThreadName("SNMP4J-Shared-Transport-" + i);
+
+                final Snmp session = new Snmp(new MultiThreadedMessageDispatcher(m_dispatcherThreads, dispatcher), transport);
+                session.setTimeoutModel(timeoutModel);
+                session.listen();
+                m_sessions[i] = session;
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+        LOG.info("Started shared SNMP transport with {} sockets and {} dispatcher threads.", numSockets, numDispatcherThreads);
+    }
+
+    /**
+     * Returns the pool shared by all of the strategies in this JVM, creating
+     * it on first use, or null if the shared transport is disabled.
+     */
+    public static Snmp4JTransportPool getInstance() {
+        if (s_instance != null || !Boolean.getBoolean(ENABLED_PROPERTY)) {
+            return s_instance;
+        }
+        synchronized (Snmp4JTransportPool.class) {
+            if (s_instance == null) {
+                final int numSockets = Integer.getInteger(SOCKETS_PROPERTY, 4);
+                final int numThreads = Integer.getInteger(THREADS_PROPERTY, 4);
+                try {
+                    final Snmp4JTransportPool pool = new Snmp4JTransportPool(numSockets, numThreads, new MetricRegistry());
+                    pool.m_reporter = JmxReporter.forRegistry(pool.m_registry)
+                            .inDomain(JMX_DOMAIN)
+                            .build();
+                    pool.m_reporter.start();
+                    s_instance = pool;
+                } catch (final IOException e) {
+                    LOG.error("Failed to create the shared SNMP transport. Falling back to a session per request.", e);
+                }
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * Closes and forgets the shared pool, so that the next call to
+     * {@link #getInstance()} looks at the system property again.
+     */
+    protected static synchronized void resetInstance() {
+        final Snmp4JTransportPool pool = s_instance;
+        s_instance = null;
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Returns true if the request for the given agent can be sent through
+     * the shared transport.
+     */
+    public static boolean supports(Snmp4JAgentConfig agentConfig) {
+        return agentConfig != null && !agentConfig.isSnmpV3();
+    }
+
+    /**
+     * Sends the given request through one of the shared sockets.
+     *
+     * The listener is called exactly once, with a null response if the
+     * request timed out after all of its retries.
+     */
+    public void send(PDU pdu, Target target, ResponseListener listener) throws IOException {
+        final Snmp session = m_sessions[(m_next.getAndIncrement() & Integer.MAX_VALUE) % m_sessions.length];
+        final TrackingResponseListener trackingListener = new TrackingResponseListener(session, listener);
+        m_outstanding.incrementAndGet();
+        m_requests.mark();
+        try {
+            session.send(pdu, target, null, trackingListener);
+        } catch (final IOException|RuntimeException e) {
+            trackingListener.complete();
+            throw e;
+        }
+    }
+
+    public int getOutstandingRequests() {
+        return m_outstanding.get();
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return m_registry;
+    }
+
+    @Override
+    public void close() {
+        // Pending requests are completed with an error when their session is closed
+        for (final Snmp session : m_sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (final IOException e) {
+                LOG.warn("Error closing shared SNMP session.", e);
+            }
+        }
+        m_dispatcherThreads.stop();
+        if (m_reporter != null) {
+            m_reporter.stop();
+        }
+    }
+
+    private class TrackingResponseListener implements ResponseListener {
+        private final Snmp m_session;
+        private final ResponseListener m_delegate;
+        private final Timer.Context m_timerContext = m_responseTime.time();
+        private final AtomicBoolean m_completed = new AtomicBoolean(false);
+
+        private TrackingResponseListener(Snmp session, ResponseListener delegate) {
+            m_session = session;
+            m_delegate = delegate;
+        }
+
+        private boolean complete() {
+            if (!m_completed.compareAndSet(false, true)) {
+                return false;
+            }
+            m_outstanding.decrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void onResponse(ResponseEvent event) {
+            // Stop SNMP4J from retrying the request, now that it is answered
+            m_session.cancel(event.getRequest(), this);
+            if (!complete()) {
+                return;
+            }
+            if (event.getResponse() == null && event.getError() == null) {
+                m_timeouts.mark();
+            } else {
+                m_timerContext.stop();
+            }
+            m_delegate.onResponse(event);
+        }
+    }
+
+    /**
+     * Keeps the default timeouts while counting the retries made by SNMP4J.
+     */
+    private class CountingTimeoutModel implements TimeoutModel {
+        private final TimeoutModel m_delegate = new DefaultTimeoutModel();
+
+        @Override
+        public long getRetryTimeout(int retryCount, int totalNumberOfRetries, long targetTimeout) {
+            if (retryCount > 0) {
+                m_retries.mark();
+            }
+            return m_delegate.getRetryTimeout(retryCount, totalNumberOfRetries, targetTimeout);
+        }
+
+        @Override
+        public long getRequestTimeout(int totalNumberOfRetries, long targetTimeout) {
+            return m_delegate.getRequestTimeout(totalNumberOfRetries, targetTimeout);
+        }
+    }
+}
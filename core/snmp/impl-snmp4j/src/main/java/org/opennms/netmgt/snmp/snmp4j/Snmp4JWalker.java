@@ -163,7 +163,15 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            if (m_session != null) {
+                m_session.cancel(responseEvent.getRequest(), this);
+            }
+
+            // Responses on the shared transport outlive the walker, so drop the late ones
+            if (m_closed) {
+                LOG.debug("Ignoring response for closed walker {} for: {}", getName(), getAddress());
+                return;
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -189,6 +197,8 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    private final Snmp4JTransportPool m_transportPool;
+    private volatile boolean m_closed = false;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
@@ -199,6 +209,7 @@ public class Snmp4JWalker extends SnmpWalker {
         m_agentConfig = agentConfig;
         
         m_tgt = agentConfig.getTarget();
+        m_transportPool = Snmp4JTransportPool.supports(agentConfig) ? Snmp4JTransportPool.getInstance() : null;
         m_listener = new Snmp4JResponseListener();
     }
     
@@ -220,6 +231,18 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
+        if (m_transportPool != null) {
+            LOG.debug("Sending tracker pdu of size {} on the shared transport", snmp4JPduBuilder.getPdu().size());
+            try {
+                m_transportPool.send(snmp4JPduBuilder.getPdu(), m_tgt, m_listener);
+            } catch (final IOException e) {
+                LOG.debug("Failed to send pdu of size {}", snmp4JPduBuilder.getPdu().size(), e);
+                close();
+                throw new SnmpException(e);
+            }
+            return;
+        }
+
         try {
             if (m_session == null) {
                 m_session = m_agentConfig.createSnmpSession();
@@ -247,6 +270,7 @@ public class Snmp4JWalker extends SnmpWalker {
 
     @Override
     public void close() {
+        m_closed = true;
         if (m_session != null) {
             try {
                 m_session.close();
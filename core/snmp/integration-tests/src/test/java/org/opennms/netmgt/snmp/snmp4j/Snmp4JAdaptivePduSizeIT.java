@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.PduSizeCache;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpException;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRowResult;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Verifies that walks of the same agent recover from reduced PDU sizes,
+ * without ever exceeding the sizes configured for the agent.
+ */
+public class Snmp4JAdaptivePduSizeIT extends MockSnmpAgentITCase {
+
+    private static final SnmpObjId IF_ENTRY = SnmpObjId.get(".1.3.6.1.2.1.2.2.1");
+
+    public Snmp4JAdaptivePduSizeIT() {
+        setPropertiesResource(new ClassPathResource("snmpTestData1.properties"));
+    }
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void disableCache() {
+        PduSizeCache.setInstance(null);
+    }
+
+    @Test
+    public void testLearnedSizesGrowBeyondDefaults() throws Exception {
+        PduSizeCache.setInstance(null);
+        final WalkResult baseline = walkIfTable(SnmpAgentConfig.DEFAULT_MAX_VARS_PER_PDU, SnmpAgentConfig.DEFAULT_MAX_REPETITIONS);
+
+        final PduSizeCache cache = new PduSizeCache(50, 25, 250, 1000, 100);
+        PduSizeCache.setInstance(cache);
+        final WalkResult first = walkIfTable(SnmpAgentConfig.DEFAULT_MAX_VARS_PER_PDU, SnmpAgentConfig.DEFAULT_MAX_REPETITIONS);
+        final WalkResult second = walkIfTable(SnmpAgentConfig.DEFAULT_MAX_VARS_PER_PDU, SnmpAgentConfig.DEFAULT_MAX_REPETITIONS);
+
+        // The sizes start from the defaults, but grow beyond them as the agent responds quickly
+        final PduSizeCache.PduSize pduSize = cache.getPduSize(getAgentAddress());
+        assertEquals(baseline.results, first.results);
+        assertEquals(baseline.results, second.results);
+        assertTrue("expected fewer than " + baseline.pdus + " PDUs, got " + second.pdus, second.pdus < baseline.pdus);
+        assertTrue(pduSize.toString(), pduSize.getMaxVarsPerPdu() > SnmpAgentConfig.DEFAULT_MAX_VARS_PER_PDU);
+        assertTrue(pduSize.toString(), pduSize.getMaxRepetitions() > SnmpAgentConfig.DEFAULT_MAX_REPETITIONS);
+        assertTrue(pduSize.getMaxVarsPerPdu() <= 50);
+        assertTrue(pduSize.getMaxRepetitions() <= 25);
+    }
+
+    @Test
+    public void testLearnedSizesRecoverUpToConfiguredValuesWhenCapped() throws Exception {
+        PduSizeCache.setInstance(null);
+        final WalkResult baseline = walkIfTable(20, 10);
+
+        // Start from sizes which were reduced after tooBig errors
+        final PduSizeCache cache = new PduSizeCache(50, 25, 250, 1000, 100, true);
+        PduSizeCache.setInstance(cache);
+        final PduSizeCache.PduSize pduSize = cache.getPduSize(getAgentAddress(), 20, 10);
+        for (int i = 0; i < 5; i++) {
+            pduSize.onTooBig();
+        }
+        assertEquals(1, pduSize.getMaxRepetitions());
+
+        final WalkResult first = walkIfTable(20, 10);
+        final WalkResult second = walkIfTable(20, 10);
+
+        // The same values are collected, with fewer requests as the sizes recover
+        assertEquals(baseline.results, first.results);
+        assertEquals(baseline.results, second.results);
+        assertTrue(first.pdus >= baseline.pdus);
+        assertTrue("expected fewer than " + first.pdus + " PDUs, got " + second.pdus, second.pdus < first.pdus);
+        assertTrue(pduSize.getMaxVarsPerPdu() <= 20);
+        assertTrue(pduSize.getMaxRepetitions() <= 10);
+
+        // Lowering the configured values applies to the learned sizes right away
+        final WalkResult lowered = walkIfTable(10, 2);
+        assertEquals(baseline.results, lowered.results);
+        assertTrue(pduSize.getMaxVarsPerPdu() <= 10);
+        assertTrue(pduSize.getMaxRepetitions() <= 2);
+    }
+
+    private WalkResult walkIfTable(int maxVarsPerPdu, int maxRepetitions) throws Exception {
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setMaxVarsPerPdu(maxVarsPerPdu);
+        config.setMaxRepetitions(maxRepetitions);
+
+        final SnmpObjId[] columns = new SnmpObjId[22];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = SnmpObjId.get(IF_ENTRY, Integer.toString(i + 1));
+        }
+
+        final WalkResult result = new WalkResult();
+        final TableTracker tracker = new TableTracker(columns) {
+            @Override
+            public void rowCompleted(SnmpRowResult row) {
+                result.results += row.getResults().size();
+            }
+        };
+
+        final AtomicInteger pdus = new AtomicInteger(0);
+        try (final Snmp4JWalker walker = new Snmp4JWalker(new Snmp4JAgentConfig(config), "ifTable", new AggregateTracker(new Collectable[] { tracker })) {
+            @Override
+            protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
+                pdus.incrementAndGet();
+                super.sendNextPdu(pduBuilder);
+            }
+        }) {
+            walker.start();
+            walker.waitFor();
+            assertFalse(walker.getErrorMessage(), walker.failed());
+        }
+        result.pdus = pdus.get();
+        System.out.printf("ifTable walk: %d values in %d PDUs%n", result.results, result.pdus);
+        return result;
+    }
+
+    private static class WalkResult {
+        private int results;
+        private int pdus;
+    }
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.snmp4j.PDU;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+import org.springframework.test.annotation.IfProfileValue;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Verifies the shared transport against the mock SNMP agent, both directly
+ * and through {@link Snmp4JStrategy}, and measures the sustained request
+ * rate the strategy achieves with and without it.
+ */
+public class Snmp4JTransportPoolIT extends MockSnmpAgentITCase {
+
+    private static final SnmpObjId[] OIDS = new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") };
+
+    private static final int BENCHMARK_CONCURRENCY = 64;
+
+    private static final long BENCHMARK_DURATION_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    private final MetricRegistry m_registry = new MetricRegistry();
+
+    private Snmp4JTransportPool m_pool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void closePool() {
+        if (m_pool != null) {
+            m_pool.close();
+        }
+        System.clearProperty(Snmp4JTransportPool.ENABLED_PROPERTY);
+        Snmp4JTransportPool.resetInstance();
+    }
+
+    @Test
+    public void testStrategyGetWithSharedTransport() throws Exception {
+        final Snmp4JTransportPool pool = enableSharedTransport();
+
+        final SnmpValue[] values = m_strategy.get(getAgentConfig(), OIDS);
+        assertNotNull(values);
+        assertEquals(1, values.length);
+        assertEquals(42, values[0].toInt());
+
+        final SnmpValue[] asyncValues = m_strategy.getAsync(getAgentConfig(), OIDS).get(30, TimeUnit.SECONDS);
+        assertNotNull(asyncValues);
+        assertEquals(1, asyncValues.length);
+        assertEquals(42, asyncValues[0].toInt());
+
+        assertEquals(2, pool.getMetricRegistry().meter("requests").getCount());
+        assertEquals(0, pool.getOutstandingRequests());
+    }
+
+    @Test
+    public void testStrategyWalkWithSharedTransport() throws Exception {
+        final Snmp4JTransportPool pool = enableSharedTransport();
+
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setMaxRepetitions(2);
+
+        final List<SnmpResult> results = new ArrayList<>();
+        final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.5.1.1")) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                results.add(res);
+            }
+        };
+        try (final SnmpWalker walker = m_strategy.createWalker(config, "shared", tracker)) {
+            walker.start();
+            assertTrue("walk timed out", walker.waitFor(TimeUnit.SECONDS.toMillis(30)));
+            assertFalse(walker.getErrorMessage(), walker.failed());
+        }
+
+        // .1.3.5.1.1.1.0 to .1.3.5.1.1.9.0 in several requests, all of them on the shared transport
+        assertEquals(9, results.size());
+        assertEquals(SnmpObjId.get(".1.3.5.1.1.3.0"), results.get(2).getAbsoluteInstance());
+        assertTrue(pool.getMetricRegistry().meter("requests").getCount() > 1);
+        assertEquals(0, pool.getOutstandingRequests());
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        m_pool = new Snmp4JTransportPool(2, 2, m_registry);
+        final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(getAgentConfig());
+
+        // Keep the burst small enough for the receive buffer of the mock agent
+        final Semaphore inFlight = new Semaphore(50);
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            inFlight.acquire();
+            futures.add(get(m_pool, agentConfig).whenComplete((values, ex) -> inFlight.release()));
+        }
+        for (CompletableFuture<SnmpValue[]> future : futures) {
+            final SnmpValue[] values = future.get(30, TimeUnit.SECONDS);
+            assertNotNull(values);
+            assertEquals(1, values.length);
+            assertEquals(42, values[0].toInt());
+        }
+
+        assertEquals(0, m_pool.getOutstandingRequests());
+        assertEquals(500, m_registry.meter("requests").getCount());
+        assertEquals(0, m_registry.meter("timeouts").getCount());
+        assertEquals(500, m_registry.timer("responseTime").getCount());
+    }
+
+    @Test
+    public void testTimeoutsAndRetries() throws Exception {
+        m_pool = new Snmp4JTransportPool(1, 1, m_registry);
+
+        // Bind a socket that never answers
+        try (DatagramSocket silent = new DatagramSocket(0, InetAddressUtils.getLocalHostAddress())) {
+            final SnmpAgentConfig config = getAgentConfig();
+            config.setAddress(silent.getLocalAddress());
+            config.setPort(silent.getLocalPort());
+            config.setTimeout(100);
+            config.setRetries(2);
+            final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(config);
+
+            final CompletableFuture<ResponseEvent> future = new CompletableFuture<>();
+            m_pool.send(agentConfig.createPdu(PDU.GET), agentConfig.getTarget(), future::complete);
+            assertEquals(1, m_pool.getOutstandingRequests());
+
+            assertNull(future.get(10, TimeUnit.SECONDS).getResponse());
+        }
+
+        assertEquals(0, m_pool.getOutstandingRequests());
+        assertEquals(1, m_registry.meter("timeouts").getCount());
+        assertEquals(2, m_registry.meter("retries").getCount());
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkSessionPerRequest() throws Exception {
+        benchmark("session per request", () -> m_strategy.getAsync(getAgentConfig(), OIDS));
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkSharedTransport() throws Exception {
+        enableSharedTransport();
+        benchmark("shared transport", () -> m_strategy.getAsync(getAgentConfig(), OIDS));
+    }
+
+    private static Snmp4JTransportPool enableSharedTransport() {
+        System.setProperty(Snmp4JTransportPool.ENABLED_PROPERTY, "true");
+        Snmp4JTransportPool.resetInstance();
+        final Snmp4JTransportPool pool = Snmp4JTransportPool.getInstance();
+        assertNotNull(pool);
+        return pool;
+    }
+
+    private static void benchmark(String name, Supplier<CompletableFuture<SnmpValue[]>> request) throws InterruptedException {
+        final Semaphore outstanding = new Semaphore(BENCHMARK_CONCURRENCY);
+        final long start = System.currentTimeMillis();
+        long sent = 0;
+        while (System.currentTimeMillis() - start < BENCHMARK_DURATION_MS) {
+            outstanding.acquire();
+            request.get().whenComplete((values, ex) -> outstanding.release());
+            sent++;
+        }
+        outstanding.acquire(BENCHMARK_CONCURRENCY);
+        final long elapsed = System.currentTimeMillis() - start;
+        System.out.printf("%s: %d requests in %d ms (%.1f requests/second)%n", name, sent, elapsed, sent * 1000.0 / elapsed);
+    }
+
+    private static CompletableFuture<SnmpValue[]> get(Snmp4JTransportPool pool, Snmp4JAgentConfig agentConfig) {
+        final CompletableFuture<SnmpValue[]> future = new CompletableFuture<>();
+        final PDU pdu = agentConfig.createPdu(PDU.GET);
+        pdu.add(new VariableBinding(new OID(OIDS[0].toString())));
+        try {
+            pool.send(pdu, agentConfig.getTarget(), (ResponseEvent event) -> {
+                if (event.getResponse() == null) {
+                    future.completeExceptionally(new IllegalStateException("No response for request " + event.getRequest().getRequestID()));
+                } else {
+                    final SnmpValue[] values = new SnmpValue[event.getResponse().size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = new Snmp4JValue(event.getResponse().get(i).getVariable());
+                    }
+                    future.complete(values);
+                }
+            });
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
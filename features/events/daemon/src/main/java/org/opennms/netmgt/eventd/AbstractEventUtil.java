@@ -37,6 +37,7 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.TimeZone;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -44,6 +45,7 @@ import java.util.regex.Pattern;
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.netmgt.eventd.processor.expandable.EventTemplate;
 import org.opennms.netmgt.eventd.processor.expandable.ExpandableParameterResolver;
+import org.opennms.netmgt.eventd.processor.expandable.ResolvedTokens;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
@@ -55,6 +57,7 @@ import org.springframework.transaction.support.TransactionOperations;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -391,6 +394,12 @@ public abstract class AbstractEventUtil implements EventUtil {
 
 	private final LoadingCache<String, EventTemplate> eventTemplateCache;
 
+	/**
+	 * Values of the tokens resolved from the database, by event. The keys are weak and
+	 * compared by identity, so the entries go away along with the events.
+	 */
+	private final Cache<Event, ResolvedTokens> resolvedTokensCache;
+
 	private final ExpandableParameterResolverRegistry resolverRegistry = new ExpandableParameterResolverRegistry();
 
 	public AbstractEventUtil() {
@@ -411,6 +420,16 @@ public abstract class AbstractEventUtil implements EventUtil {
 	        }
 	    });
 
+	    // Remember the database backed values for a short while, so that all the fields of an event
+	    // (and the different daemons handling it) share a single lookup
+	    final long resolvedTokensCacheSize = Long.getLong("org.opennms.eventd.resolvedTokensCacheSize", 10000);
+	    final long resolvedTokensCacheTtl = Long.getLong("org.opennms.eventd.resolvedTokensCacheTtl", 5000);
+	    resolvedTokensCache = CacheBuilder.newBuilder()
+	            .weakKeys()
+	            .maximumSize(resolvedTokensCacheSize)
+	            .expireAfterWrite(resolvedTokensCacheTtl, TimeUnit.MILLISECONDS)
+	            .build();
+
 	    if (registry != null) {
 	        // Expose the cache statistics via a series of gauges
 	        registry.register(MetricRegistry.name("eventutil.cache.capacity"),
@@ -770,8 +789,14 @@ public abstract class AbstractEventUtil implements EventUtil {
 		}
 		try {
 			final EventTemplate eventTemplate = eventTemplateCache.get(input);
-			Supplier<String> expander = () -> eventTemplate.expand(event, decode);
-			if (eventTemplate.requiresTransaction()) {
+			if (!eventTemplate.requiresTransaction()) {
+				return eventTemplate.expand(event, decode);
+			}
+
+			// Resolve the database backed tokens at most once per event
+			final ResolvedTokens resolvedTokens = resolvedTokensCache.get(event, ResolvedTokens::new);
+			Supplier<String> expander = () -> eventTemplate.expand(event, decode, resolvedTokens);
+			if (!resolvedTokens.containsAll(eventTemplate.getTokensRequiringTransaction(), event)) {
 				Objects.requireNonNull(transactionOperations);
 				return transactionOperations.execute(session -> expander.get());
 			} else {
@@ -52,7 +52,6 @@ import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.events.api.EventProxyException;
-import org.opennms.netmgt.events.api.ThreadAwareEventListener;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
@@ -128,83 +127,6 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     private final MetricRegistry m_registry;
 
-    /**
-     * A thread dedicated to each listener. The events meant for each listener
-     * is added to an execution queue when the 'sendNow()' is called. The
-     * ListenerThread reads events off of this queue and sends them to the
-     * appropriate listener.
-     */
-    private static class EventListenerExecutor {
-        /**
-         * Listener to which this thread is dedicated
-         */
-        private final EventListener m_listener;
-
-        /**
-         * The thread that is running this runnable.
-         */
-        private final ExecutorService m_delegateThread;
-
-        /**
-         * Constructor
-         */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
-            m_listener = listener;
-
-            int numThreads = 1;
-            if (m_listener instanceof ThreadAwareEventListener) {
-                numThreads = ((ThreadAwareEventListener)m_listener).getNumThreads();
-            }
-
-            m_delegateThread = new ThreadPoolExecutor(
-                    numThreads,
-                    numThreads,
-                    0L,
-                    TimeUnit.MILLISECONDS,
-                    handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
-                    // This ThreadFactory will ensure that the log prefix of the calling thread
-                    // is used for all events that this listener handles. Therefore, if Notifd
-                    // registers for an event then all logs for handling that event will end up
-                    // inside notifd.log.
-                    new LogPreservingThreadFactory(m_listener.getName(), numThreads),
-                    new RejectedExecutionHandler() {
-                        @Override
-                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
-                        }
-                    }
-            );
-        }
-
-        public CompletableFuture<Void> addEvent(final Event event) {
-            return CompletableFuture.runAsync(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                         if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
-                        }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
-                    }
-                }
-            }, m_delegateThread);
-        }
-
-        /**
-         * Stops the execution of this listener.
-         */
-        public void stop() {
-            m_delegateThread.shutdown();
-        }
-    }
-
     /**
      * <p>Constructor for EventIpcManagerDefaultImpl.</p>
      */
@@ -494,7 +416,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength, m_registry);
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.ThreadAwareEventListener;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceReportingEventHandler;
+
+/**
+ * Dispatches the events meant for a single listener.
+ *
+ * The events are routed onto one or more partitions, each of which is a
+ * bounded ring buffer drained by a dedicated thread. Events are keyed by
+ * their node ID or, for events without a node, by the reduction key of
+ * their alarm data, so that all of the events for a given node (or alarm)
+ * are delivered in order. Events with neither are spread across the
+ * partitions.
+ *
+ * Listeners get a single partition unless they implement
+ * {@link ThreadAwareEventListener}, in which case they get one partition
+ * per requested thread.
+ *
+ * The ring buffers are sized from the configured queue length, up to
+ * {@link #MAX_RING_BUFFER_SIZE} slots. Events that do not fit in the ring
+ * are held on the heap until the listener catches up. Events are only
+ * dropped, for this listener only, once the configured queue length is
+ * reached; when no queue length is configured the queue is unbounded.
+ * The lag, queue depth and drop count of every listener are exposed in the
+ * given {@link MetricRegistry}.
+ */
+class EventListenerExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(EventListenerExecutor.class);
+
+    /**
+     * Upper bound on the number of slots allocated for each partition, since
+     * the configured queue length defaults to {@link Integer#MAX_VALUE}.
+     * Longer queues spill over onto the heap.
+     */
+    static final int MAX_RING_BUFFER_SIZE = Integer.highestOneBit(Math.max(2, Integer.getInteger("org.opennms.netmgt.eventd.listener.maxRingBufferSize", 8192)));
+
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private final EventListener m_listener;
+
+    private final Partition[] m_partitions;
+
+    private final AtomicInteger m_roundRobin = new AtomicInteger(0);
+
+    private final MetricRegistry m_registry;
+
+    private final Timer m_lag;
+
+    private final Meter m_dropped;
+
+    /**
+     * Holds an event while it is waiting on the ring buffer.
+     */
+    private static class EventSlot {
+        private Event event;
+        private long enqueuedAt;
+        private CompletableFuture<Void> future;
+    }
+
+    private class Partition implements SequenceReportingEventHandler<EventSlot> {
+        private final RingBuffer<EventSlot> ringBuffer;
+        private final BatchEventProcessor<EventSlot> processor;
+        private final Thread thread;
+        private final int capacity;
+
+        /**
+         * Number of events that were published, but not yet handed to the listener.
+         */
+        private final AtomicInteger pending = new AtomicInteger(0);
+
+        /**
+         * Events that did not fit in the ring buffer, in the order in which they
+         * were published. Only accessed while holding its lock.
+         */
+        private final Queue<EventSlot> overflow = new ArrayDeque<>();
+
+        /**
+         * Number of events in the overflow queue that were not yet moved to the
+         * ring buffer. Events bypass the overflow queue only when this is 0, so
+         * that they can never overtake an event that is still waiting there.
+         */
+        private final AtomicInteger overflowed = new AtomicInteger(0);
+
+        private Sequence sequenceCallback;
+
+        private Partition(int queueLength, ThreadFactory threadFactory) {
+            // Leave room for the event that is being handled
+            final int ringBufferSize = queueLength < MAX_RING_BUFFER_SIZE ? nextPowerOfTwo(queueLength + 1) : MAX_RING_BUFFER_SIZE;
+            capacity = queueLength;
+            ringBuffer = RingBuffer.createMultiProducer(EventSlot::new, ringBufferSize, new BlockingWaitStrategy());
+            processor = new BatchEventProcessor<>(ringBuffer, ringBuffer.newBarrier(), this);
+            ringBuffer.addGatingSequences(processor.getSequence());
+            thread = threadFactory.newThread(processor);
+            thread.start();
+        }
+
+        private CompletableFuture<Void> publish(Event event) {
+            if (pending.incrementAndGet() > capacity) {
+                pending.decrementAndGet();
+                return drop(event);
+            }
+
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            final long enqueuedAt = System.nanoTime();
+            if (overflowed.get() == 0 && tryPublish(event, enqueuedAt, future)) {
+                return future;
+            }
+
+            // The ring buffer is full, hold on to the event until the listener frees up a slot
+            final EventSlot waiting = new EventSlot();
+            waiting.event = event;
+            waiting.enqueuedAt = enqueuedAt;
+            waiting.future = future;
+            synchronized (overflow) {
+                overflow.add(waiting);
+                overflowed.incrementAndGet();
+                drainOverflow();
+            }
+            return future;
+        }
+
+        private boolean tryPublish(Event event, long enqueuedAt, CompletableFuture<Void> future) {
+            final long sequence;
+            try {
+                sequence = ringBuffer.tryNext();
+            } catch (InsufficientCapacityException e) {
+                return false;
+            }
+
+            final EventSlot slot = ringBuffer.get(sequence);
+            slot.event = event;
+            slot.enqueuedAt = enqueuedAt;
+            slot.future = future;
+            ringBuffer.publish(sequence);
+            return true;
+        }
+
+        /**
+         * Moves as many of the overflowed events as fit onto the ring buffer.
+         * Must be called while holding the lock on {@link #overflow}.
+         */
+        private void drainOverflow() {
+            EventSlot waiting;
+            while ((waiting = overflow.peek()) != null && tryPublish(waiting.event, waiting.enqueuedAt, waiting.future)) {
+                overflow.poll();
+                overflowed.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void setSequenceCallback(Sequence sequenceCallback) {
+            this.sequenceCallback = sequenceCallback;
+        }
+
+        @Override
+        public void onEvent(EventSlot slot, long sequence, boolean endOfBatch) {
+            final Event event = slot.event;
+            final CompletableFuture<Void> future = slot.future;
+            slot.event = null;
+            slot.future = null;
+
+            pending.decrementAndGet();
+            m_lag.update(System.nanoTime() - slot.enqueuedAt, TimeUnit.NANOSECONDS);
+
+            try {
+                if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
+
+                // Make sure we restore our log4j logging prefix after onEvent is called
+                Map<String,String> mdc = Logging.getCopyOfContextMap();
+                try {
+                    m_listener.onEvent(event);
+                } finally {
+                    Logging.setContextMap(mdc);
+                }
+            } catch (Throwable t) {
+                LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+            } finally {
+                // Release the slot right away instead of waiting for the end of the batch
+                sequenceCallback.set(sequence);
+                future.complete(null);
+            }
+
+            if (overflowed.get() > 0) {
+                synchronized (overflow) {
+                    drainOverflow();
+                }
+            }
+        }
+
+        private void stop() {
+            processor.halt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // Release anyone waiting on events that will never be delivered
+            for (long sequence = processor.getSequence().get() + 1; sequence <= ringBuffer.getCursor(); sequence++) {
+                final EventSlot slot = ringBuffer.get(sequence);
+                if (slot.future != null) {
+                    slot.future.complete(null);
+                }
+                slot.event = null;
+                slot.future = null;
+            }
+            synchronized (overflow) {
+                for (EventSlot waiting : overflow) {
+                    waiting.future.complete(null);
+                }
+                overflow.clear();
+                overflowed.set(0);
+            }
+        }
+    }
+
+    EventListenerExecutor(EventListener listener, Integer handlerQueueLength, MetricRegistry registry) {
+        m_listener = Objects.requireNonNull(listener);
+        m_registry = Objects.requireNonNull(registry);
+
+        int numPartitions = 1;
+        if (m_listener instanceof ThreadAwareEventListener) {
+            numPartitions = Math.max(1, ((ThreadAwareEventListener)m_listener).getNumThreads());
+        }
+        // Only drop events when a queue length was explicitly configured
+        final int queueLength = handlerQueueLength == null ? Integer.MAX_VALUE : Math.max(1, handlerQueueLength);
+        if (queueLength != Integer.MAX_VALUE && queueLength >= MAX_RING_BUFFER_SIZE) {
+            LOG.warn("The queue length of {} for listener {} exceeds the ring buffer size of {}; the events that do not fit are queued on the heap.",
+                    queueLength, m_listener.getName(), MAX_RING_BUFFER_SIZE);
+        }
+
+        m_lag = registry.timer(getMetricName("lag"));
+        m_dropped = registry.meter(getMetricName("dropped"));
+        registry.remove(getMetricName("queued"));
+        registry.register(getMetricName("queued"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int queued = 0;
+                for (Partition partition : m_partitions) {
+                    queued += partition.pending.get();
+                }
+                return queued;
+            }
+        });
+
+        // This ThreadFactory will ensure that the log prefix of the calling thread
+        // is used for all events that this listener handles. Therefore, if Notifd
+        // registers for an event then all logs for handling that event will end up
+        // inside notifd.log.
+        final ThreadFactory threadFactory = new LogPreservingThreadFactory(m_listener.getName(), numPartitions);
+        m_partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            m_partitions[i] = new Partition(queueLength, threadFactory);
+        }
+    }
+
+    public CompletableFuture<Void> addEvent(final Event event) {
+        return m_partitions[getPartition(event)].publish(event);
+    }
+
+    private int getPartition(final Event event) {
+        if (m_partitions.length == 1) {
+            return 0;
+        }
+
+        final int hash;
+        if (event.hasNodeid() && event.getNodeid() > 0) {
+            hash = Long.hashCode(event.getNodeid());
+        } else if (event.getAlarmData() != null && event.getAlarmData().getReductionKey() != null) {
+            hash = event.getAlarmData().getReductionKey().hashCode();
+        } else {
+            // No ordering to preserve
+            hash = m_roundRobin.getAndIncrement();
+        }
+        return (hash & Integer.MAX_VALUE) % m_partitions.length;
+    }
+
+    private CompletableFuture<Void> drop(Event event) {
+        m_dropped.mark();
+        LOG.warn("Listener {}'s event queue is full, discarding event {}", m_listener.getName(), event.getUei());
+        return COMPLETED;
+    }
+
+    private String getMetricName(String name) {
+        return MetricRegistry.name("eventlisteners", m_listener.getName(), name);
+    }
+
+    /**
+     * Stops the execution of this listener.
+     */
+    public void stop() {
+        for (Partition partition : m_partitions) {
+            partition.stop();
+        }
+        m_registry.remove(getMetricName("lag"));
+        m_registry.remove(getMetricName("dropped"));
+        m_registry.remove(getMetricName("queued"));
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -49,6 +49,7 @@ import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.events.api.EventDatabaseConstants;
 import org.opennms.netmgt.events.api.EventProcessorException;
 import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsServiceType;
 import org.opennms.netmgt.model.OnmsSeverity;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Header;
@@ -132,7 +133,7 @@ public class HibernateEventWriter implements EventWriter {
      * @param logPrefix a {@link java.lang.String} object.
      * @return a boolean.
      */
-    private static boolean checkEventSanityAndDoWeProcess(Event event, String logPrefix) {
+    protected static boolean checkEventSanityAndDoWeProcess(Event event, String logPrefix) {
         Assert.notNull(event, "event argument must not be null");
 
         /*
@@ -232,7 +233,7 @@ public class HibernateEventWriter implements EventWriter {
      *                Thrown if a required resource cannot be found in the
      *                properties file.
      */
-    private OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
+    protected OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
 
         OnmsEvent ovent = new OnmsEvent();
 
@@ -287,7 +288,7 @@ public class HibernateEventWriter implements EventWriter {
         ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
 
         // service
-        ovent.setServiceType(serviceTypeDao.findByName(event.getService()));
+        ovent.setServiceType(getServiceType(event.getService()));
 
         // eventSnmp
         ovent.setEventSnmp(event.getSnmp() == null ? null : SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
@@ -402,6 +403,28 @@ public class HibernateEventWriter implements EventWriter {
         return ovent;
     }
 
+    /**
+     * Retrieves the service type referenced by an event.
+     *
+     * @param serviceName the service name of the event
+     * @return the service type, or null if no such service exists
+     */
+    protected OnmsServiceType getServiceType(final String serviceName) {
+        return serviceTypeDao.findByName(serviceName);
+    }
+
+    protected Timer getWriteTimer() {
+        return writeTimer;
+    }
+
+    protected NodeDao getNodeDao() {
+        return nodeDao;
+    }
+
+    protected TransactionOperations getTransactionManager() {
+        return m_transactionManager;
+    }
+
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
@@ -0,0 +1,543 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.persistence.SequenceGenerator;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+
+/**
+ * An {@link EventWriter} that collects the events of several concurrently
+ * processed {@link Log}s into micro-batches and inserts them into the
+ * events and event_parameters tables using JDBC batch statements.
+ *
+ * A batch is flushed once it holds {@link #getBatchSize()} events, once
+ * {@link #getBatchFlushInterval()} milliseconds have passed since its first
+ * event was queued, or as soon as every caller currently blocked in
+ * {@link #process(Log)} is part of it. Callers block until the batch
+ * containing their events is committed, so the database ID of every event
+ * is set before any later event processor (and alarmd) sees it.
+ *
+ * Event IDs are pre-allocated from the eventsNxtId sequence in blocks of
+ * {@link #getIdBlockSize()}, and the nodes referenced by a batch are loaded
+ * with a single query. The IDs are derived from the sequence the same way
+ * Hibernate's hi/lo generator does for {@link OnmsEvent}, so events written
+ * by this writer and by {@link HibernateEventWriter} never share an ID. If a batch fails, every Log in it is retried on its
+ * own through the regular Hibernate path so that a single bad event cannot
+ * fail its neighbours.
+ *
+ * This writer replaces {@link HibernateEventWriter} when the
+ * <code>org.opennms.netmgt.eventd.writer.batch.enable</code> system property
+ * is set to true.
+ */
+public class JdbcBatchingEventWriter extends HibernateEventWriter implements InitializingBean, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcBatchingEventWriter.class);
+
+    public static final String BATCH_SIZE_PROPERTY = "org.opennms.netmgt.eventd.writer.batch.size";
+    public static final String BATCH_FLUSH_INTERVAL_PROPERTY = "org.opennms.netmgt.eventd.writer.batch.flushInterval";
+    public static final String ID_BLOCK_SIZE_PROPERTY = "org.opennms.netmgt.eventd.writer.batch.idBlockSize";
+    public static final String QUEUE_SIZE_PROPERTY = "org.opennms.netmgt.eventd.writer.batch.queueSize";
+
+    private static final String NEXT_EVENT_IDS_SQL = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    /**
+     * Number of event IDs Hibernate derives from each value of the sequence.
+     */
+    private static final int ID_ALLOCATION_SIZE = getIdAllocationSize();
+
+    private static final String INSERT_EVENT_SQL = "INSERT INTO events ("
+            + "eventid, eventuei, nodeid, eventtime, eventhost, eventsource, ipaddr, systemid, eventsnmphost, serviceid, "
+            + "eventsnmp, eventcreatetime, eventdescr, eventloggroup, eventlogmsg, eventseverity, eventpathoutage, "
+            + "eventcorrelation, eventsuppressedcount, eventoperinstruct, eventautoaction, eventoperaction, "
+            + "eventoperactionmenutext, eventnotification, eventtticket, eventtticketstate, eventforward, "
+            + "eventmouseovertext, eventlog, eventdisplay, ifindex, eventackuser, eventacktime"
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_EVENT_PARAMETER_SQL = "INSERT INTO event_parameters (eventid, name, value, type) VALUES (?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    private int m_batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, 500);
+
+    private long m_batchFlushInterval = Long.getLong(BATCH_FLUSH_INTERVAL_PROPERTY, 20L);
+
+    private int m_idBlockSize = Integer.getInteger(ID_BLOCK_SIZE_PROPERTY, 1000);
+
+    private int m_queueSize = Integer.getInteger(QUEUE_SIZE_PROPERTY, 10000);
+
+    private BlockingQueue<PendingLog> m_queue;
+
+    private Thread m_flushThread;
+
+    private volatile boolean m_running = false;
+
+    /**
+     * Number of callers that are currently waiting for their events to be written.
+     */
+    private final AtomicInteger m_pendingCallers = new AtomicInteger(0);
+
+    /**
+     * Pre-allocated event IDs, only ever accessed by the flush thread.
+     */
+    private final Deque<Integer> m_eventIds = new ArrayDeque<>();
+
+    /**
+     * Service types never change at runtime, so successful lookups are kept for good.
+     */
+    private final Map<String, OnmsServiceType> m_serviceTypes = new ConcurrentHashMap<>();
+
+    private final Timer batchWriteTimer;
+
+    private final Histogram batchSizes;
+
+    private final Meter eventsWritten;
+
+    private final Histogram eventWriteLatency;
+
+    private static class PendingLog {
+        private final Log log;
+        private final List<Event> events;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingLog(Log log, List<Event> events) {
+            this.log = log;
+            this.events = events;
+        }
+    }
+
+    public JdbcBatchingEventWriter(MetricRegistry registry) {
+        super(registry);
+        batchWriteTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write.batch");
+        batchSizes = registry.histogram("eventlogs.process.write.batch.sizes");
+        eventsWritten = registry.meter("eventlogs.process.write.events");
+        eventWriteLatency = registry.histogram("eventlogs.process.write.latency");
+        registry.register("eventlogs.process.write.queue", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_queue != null ? m_queue.size() : 0;
+            }
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_running) {
+            return;
+        }
+        m_queue = new LinkedBlockingQueue<>(m_queueSize);
+        m_running = true;
+        m_flushThread = new LogPreservingThreadFactory("JdbcBatchingEventWriter", 1).newThread(this::flushLoop);
+        m_flushThread.setDaemon(true);
+        m_flushThread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        m_running = false;
+        if (m_flushThread != null) {
+            m_flushThread.join();
+            m_flushThread = null;
+        }
+
+        // Anything queued after the flush thread exited is written directly
+        if (m_queue != null) {
+            PendingLog pending;
+            while ((pending = m_queue.poll()) != null) {
+                try {
+                    super.process(pending.log);
+                    pending.future.complete(null);
+                } catch (Throwable t) {
+                    pending.future.completeExceptionally(t);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void process(Log eventLog) throws EventProcessorException {
+        if (eventLog == null || eventLog.getEvents() == null || eventLog.getEvents().getEventCollection() == null) {
+            return;
+        }
+
+        final List<Event> eventsToPersist = eventLog.getEvents().getEventCollection().stream()
+                .filter(e -> checkEventSanityAndDoWeProcess(e, "JdbcBatchingEventWriter"))
+                .collect(Collectors.toList());
+        if (eventsToPersist.size() < 1) {
+            return;
+        }
+
+        if (!m_running) {
+            // Not started yet, or already shutting down
+            super.process(eventLog);
+            return;
+        }
+
+        try (Context context = getWriteTimer().time()) {
+            final PendingLog pending = new PendingLog(eventLog, eventsToPersist);
+            m_pendingCallers.incrementAndGet();
+            try {
+                // Blocks when the queue is full, pushing back on the event handler threads
+                m_queue.put(pending);
+                pending.future.get();
+            } finally {
+                m_pendingCallers.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException("Interrupted while waiting for events to be written", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EventProcessorException) {
+                throw (EventProcessorException)e.getCause();
+            }
+            throw new EventProcessorException("Unexpected exception while storing events", e.getCause());
+        }
+    }
+
+    private void flushLoop() {
+        while (m_running || !m_queue.isEmpty()) {
+            try {
+                final PendingLog first = m_queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                final List<PendingLog> batch = new ArrayList<>();
+                batch.add(first);
+                int eventCount = first.events.size();
+
+                final long deadline = first.enqueuedAt + TimeUnit.MILLISECONDS.toNanos(m_batchFlushInterval);
+                while (eventCount < m_batchSize && batch.size() < m_pendingCallers.get()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    final PendingLog next = m_queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    eventCount += next.events.size();
+                }
+
+                flush(batch, eventCount);
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while waiting for events to write.", e);
+            } catch (Throwable t) {
+                LOG.error("Unexpected exception in the event writer flush loop.", t);
+            }
+        }
+    }
+
+    private void flush(final List<PendingLog> batch, final int eventCount) {
+        try (Context context = batchWriteTimer.time()) {
+            final List<Integer> ids = writeBatch(batch, eventCount);
+
+            // Only expose the database IDs once the transaction was committed
+            int i = 0;
+            for (PendingLog pending : batch) {
+                for (Event event : pending.events) {
+                    event.setDbid(ids.get(i++));
+                }
+            }
+            batchSizes.update(eventCount);
+            eventsWritten.mark(eventCount);
+            for (PendingLog pending : batch) {
+                eventWriteLatency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - pending.enqueuedAt));
+                pending.future.complete(null);
+            }
+        } catch (Throwable t) {
+            LOG.warn("Failed to write a batch of {} events; retrying the {} event logs individually.", eventCount, batch.size(), t);
+            for (PendingLog pending : batch) {
+                try {
+                    super.process(pending.log);
+                    pending.future.complete(null);
+                } catch (Throwable e) {
+                    pending.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private List<Integer> writeBatch(final List<PendingLog> batch, final int eventCount) {
+        final List<Integer> ids = new ArrayList<>(eventCount);
+        final List<OnmsEvent> ovents = new ArrayList<>(eventCount);
+
+        getTransactionManager().execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                preloadNodes(batch);
+
+                for (PendingLog pending : batch) {
+                    for (Event event : pending.events) {
+                        final OnmsEvent ovent = createOnmsEvent(pending.log.getHeader(), event);
+                        ovent.setId(nextEventId(eventCount - ids.size()));
+                        ids.add(ovent.getId());
+                        ovents.add(ovent);
+                    }
+                }
+
+                insertEvents(ovents);
+                insertEventParameters(ovents);
+            }
+        });
+
+        return ids;
+    }
+
+    /**
+     * Loads all of the nodes referenced by the batch with a single query so that
+     * the per-event lookups made by {@link #createOnmsEvent} are served from
+     * the session instead of hitting the database one by one.
+     */
+    private void preloadNodes(final List<PendingLog> batch) {
+        final Set<Integer> nodeIds = batch.stream()
+                .flatMap(pending -> pending.events.stream())
+                .filter(Event::hasNodeid)
+                .map(event -> event.getNodeid().intValue())
+                .collect(Collectors.toSet());
+        if (nodeIds.isEmpty()) {
+            return;
+        }
+
+        getNodeDao().findMatching(new CriteriaBuilder(OnmsNode.class).in("id", nodeIds).toCriteria());
+    }
+
+    private Integer nextEventId(final int needed) {
+        if (m_eventIds.isEmpty()) {
+            final int count = Math.max(needed, m_idBlockSize);
+            final int hiValues = (count + ID_ALLOCATION_SIZE - 1) / ID_ALLOCATION_SIZE;
+            for (Integer hi : m_jdbcTemplate.queryForList(NEXT_EVENT_IDS_SQL, Integer.class, hiValues)) {
+                // Same as Hibernate's SequenceHiLoGenerator: IDs hi * size to hi * size + (size - 1)
+                final int first = hi * ID_ALLOCATION_SIZE;
+                for (int lo = (hi == 0 ? 1 : 0); lo < ID_ALLOCATION_SIZE; lo++) {
+                    m_eventIds.add(first + lo);
+                }
+            }
+        }
+        return m_eventIds.poll();
+    }
+
+    /**
+     * Hibernate 3.6 maps the {@link SequenceGenerator} of {@link OnmsEvent} to a hi/lo
+     * generator with a max_lo of allocationSize - 1, or to the plain sequence
+     * when the allocationSize is 1.
+     */
+    private static int getIdAllocationSize() {
+        try {
+            final SequenceGenerator generator = OnmsEvent.class.getMethod("getId").getAnnotation(SequenceGenerator.class);
+            return generator != null ? Math.max(1, generator.allocationSize()) : 1;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("OnmsEvent has no ID getter.", e);
+        }
+    }
+
+    private void insertEvents(final List<OnmsEvent> ovents) {
+        m_jdbcTemplate.batchUpdate(INSERT_EVENT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                final OnmsEvent ovent = ovents.get(i);
+                ps.setInt(1, ovent.getId());
+                ps.setString(2, ovent.getEventUei());
+                setInteger(ps, 3, ovent.getNode() != null ? ovent.getNodeId() : null);
+                ps.setTimestamp(4, toTimestamp(ovent.getEventTime()));
+                ps.setString(5, ovent.getEventHost());
+                ps.setString(6, ovent.getEventSource());
+                ps.setString(7, ovent.getIpAddr() != null ? InetAddressUtils.str(ovent.getIpAddr()) : null);
+                ps.setString(8, ovent.getDistPoller().getId());
+                ps.setString(9, ovent.getEventSnmpHost());
+                setInteger(ps, 10, ovent.getServiceType() != null ? ovent.getServiceType().getId() : null);
+                ps.setString(11, ovent.getEventSnmp());
+                ps.setTimestamp(12, toTimestamp(ovent.getEventCreateTime()));
+                ps.setString(13, ovent.getEventDescr());
+                ps.setString(14, ovent.getEventLogGroup());
+                ps.setString(15, ovent.getEventLogMsg());
+                ps.setInt(16, ovent.getEventSeverity());
+                ps.setString(17, ovent.getEventPathOutage());
+                ps.setString(18, ovent.getEventCorrelation());
+                setInteger(ps, 19, ovent.getEventSuppressedCount());
+                ps.setString(20, ovent.getEventOperInstruct());
+                ps.setString(21, ovent.getEventAutoAction());
+                ps.setString(22, ovent.getEventOperAction());
+                ps.setString(23, ovent.getEventOperActionMenuText());
+                ps.setString(24, ovent.getEventNotification());
+                ps.setString(25, ovent.getEventTTicket());
+                setInteger(ps, 26, ovent.getEventTTicketState());
+                ps.setString(27, ovent.getEventForward());
+                ps.setString(28, ovent.getEventMouseOverText());
+                ps.setString(29, ovent.getEventLog());
+                ps.setString(30, ovent.getEventDisplay());
+                setInteger(ps, 31, ovent.getIfIndex());
+                ps.setString(32, ovent.getEventAckUser());
+                ps.setTimestamp(33, toTimestamp(ovent.getEventAckTime()));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return ovents.size();
+            }
+        });
+    }
+
+    private void insertEventParameters(final List<OnmsEvent> ovents) {
+        final List<OnmsEventParameter> parameters = ovents.stream()
+                .filter(ovent -> ovent.getEventParameters() != null)
+                .flatMap(ovent -> ovent.getEventParameters().stream())
+                .collect(Collectors.toList());
+        if (parameters.isEmpty()) {
+            return;
+        }
+
+        m_jdbcTemplate.batchUpdate(INSERT_EVENT_PARAMETER_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                final OnmsEventParameter parameter = parameters.get(i);
+                ps.setInt(1, parameter.getEvent().getId());
+                ps.setString(2, parameter.getName());
+                ps.setString(3, parameter.getValue());
+                ps.setString(4, parameter.getType());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return parameters.size();
+            }
+        });
+    }
+
+    private static void setInteger(final PreparedStatement ps, final int index, final Integer value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.INTEGER);
+        } else {
+            ps.setInt(index, value);
+        }
+    }
+
+    private static Timestamp toTimestamp(final Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    @Override
+    protected OnmsServiceType getServiceType(final String serviceName) {
+        if (serviceName == null) {
+            return null;
+        }
+        OnmsServiceType serviceType = m_serviceTypes.get(serviceName);
+        if (serviceType == null) {
+            serviceType = super.getServiceType(serviceName);
+            if (serviceType != null) {
+                m_serviceTypes.put(serviceName, serviceType);
+            }
+        }
+        return serviceType;
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public long getBatchFlushInterval() {
+        return m_batchFlushInterval;
+    }
+
+    public void setBatchFlushInterval(long batchFlushInterval) {
+        m_batchFlushInterval = batchFlushInterval;
+    }
+
+    public int getIdBlockSize() {
+        return m_idBlockSize;
+    }
+
+    public void setIdBlockSize(int idBlockSize) {
+        m_idBlockSize = idBlockSize;
+    }
+
+    public int getQueueSize() {
+        return m_queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        m_queueSize = queueSize;
+    }
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        m_jdbcTemplate = jdbcTemplate;
+    }
+}
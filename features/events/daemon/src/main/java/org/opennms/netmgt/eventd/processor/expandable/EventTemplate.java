@@ -28,25 +28,28 @@
 
 package org.opennms.netmgt.eventd.processor.expandable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Lists;
-
 /**
  * The {@link EventTemplate} represents the event input, containing place-holders, e.g. 'nodeLabel',
  * and support to expand the template.
  *
  * For each placeholder in the {@link EventTemplate#input} a {@link ExpandableToken} is created.
  * The expandable state of the {@link EventTemplate} is the expanded state of all tokens ({@link EventTemplate#tokens}.
+ *
+ * Templates are meant to be parsed once and then shared: adjacent constants are merged
+ * while parsing, so that expanding a template only has to append the constant parts
+ * and the resolved values of its parameters.
  */
 public class EventTemplate implements ExpandableToken {
 
@@ -58,17 +61,41 @@ public class EventTemplate implements ExpandableToken {
 
     private final String input;
 
-    private final List<ExpandableToken> tokens = Lists.newArrayList();
+    private final List<ExpandableToken> tokens = new ArrayList<>();
+
+    private final List<String> tokensRequiringTransaction = new ArrayList<>();
 
     private final EventUtil eventUtil;
 
     private final boolean requiresTransaction;
 
+    /**
+     * The expanded value of the template if it does not contain any parameter, null otherwise.
+     */
+    private final String constant;
+
+    /**
+     * Initial capacity of the buffer used to expand the template.
+     */
+    private final int expectedLength;
+
     public EventTemplate(String input, EventUtil eventUtil) {
         this.input = Objects.requireNonNull(input);
         this.eventUtil = Objects.requireNonNull(eventUtil);
         parse();
-        this.requiresTransaction = tokens.stream().filter(ExpandableToken::requiresTransaction).findAny().isPresent();
+        this.requiresTransaction = !tokensRequiringTransaction.isEmpty();
+
+        final StringBuilder constants = new StringBuilder();
+        boolean onlyConstants = true;
+        for (ExpandableToken token : tokens) {
+            if (token instanceof ExpandableConstant) {
+                constants.append(token.expand(null, null));
+            } else {
+                onlyConstants = false;
+            }
+        }
+        this.constant = onlyConstants ? constants.toString() : null;
+        this.expectedLength = constants.length() + 16 * tokens.size();
     }
 
     /**
@@ -76,63 +103,86 @@ public class EventTemplate implements ExpandableToken {
      */
     private void parse() {
         tokens.clear();
-        String tempInp = input;
-        int inpLen = input.length();
-
-        int index1 = -1;
-        int index2 = -1;
+        tokensRequiringTransaction.clear();
+        final StringBuilder pending = new StringBuilder();
+        final int inpLen = input.length();
 
+        int start = 0;
         // check input string to see if it has any %xxx% substring
-        while ((tempInp != null) && ((index1 = tempInp.indexOf(PERCENT)) != -1)) {
+        while (start < inpLen) {
+            final int index1 = input.indexOf(PERCENT, start);
+            if (index1 == -1) {
+                break;
+            }
 
-            LOG.debug("checking input {}", tempInp);
+            LOG.debug("checking input {} from index {}", input, start);
             // copy till first %
-            tokens.add(new ExpandableConstant(tempInp.substring(0, index1)));
-            tempInp = tempInp.substring(index1);
+            pending.append(input, start, index1);
 
-            index2 = tempInp.indexOf(PERCENT, 1);
+            final int index2 = input.indexOf(PERCENT, index1 + 1);
             // If another % character is the next value
-            if (index2 == 1) {
-                tokens.add(new ExpandableConstant(PERCENT));
-                tempInp = tempInp.substring(index2 + 1);
+            if (index2 == index1 + 1) {
+                pending.append(PERCENT);
+                start = index2 + 1;
                 LOG.debug("Escaped percent %% found in value");
-                continue;
             } else if (index2 != -1) {
                 // Get the value between the %s
-                String parm = tempInp.substring(1, index2);
+                final String parm = input.substring(index1 + 1, index2);
                 LOG.debug("parm: {} found in value", parm);
 
                 // If there's any whitespace in between the % signs, then do not try to
                 // expand it with a parameter value
                 if (WHITESPACE_PATTERN.matcher(parm).matches()) {
-                    tokens.add(new ExpandableConstant(PERCENT));
-                    tempInp = tempInp.substring(1);
+                    pending.append(PERCENT);
+                    start = index1 + 1;
                     LOG.debug("skipping parm: {} because whitespace found in value", parm);
                     continue;
                 }
 
-                tokens.add(new ExpandableParameter(parm, eventUtil));
-
-                if (index2 < (inpLen - 1)) {
-                    tempInp = tempInp.substring(index2 + 1);
-                } else {
-                    tempInp = null;
+                flushConstant(pending);
+                final ExpandableParameter parameter = new ExpandableParameter(parm, eventUtil);
+                tokens.add(parameter);
+                if (parameter.requiresTransaction()) {
+                    tokensRequiringTransaction.add(parameter.getToken());
                 }
+                start = index2 + 1;
             } else {
+                // No closing %, keep the remainder as is
+                start = index1;
                 break;
             }
         }
-        if ((index1 == -1 || index2 == -1) && (tempInp != null)) {
-            tokens.add(new ExpandableConstant(tempInp));
+        if (start < inpLen) {
+            pending.append(input, start, inpLen);
+        }
+        flushConstant(pending);
+    }
+
+    private void flushConstant(StringBuilder pending) {
+        if (pending.length() > 0) {
+            tokens.add(new ExpandableConstant(pending.toString()));
+            pending.setLength(0);
         }
     }
 
     @Override
     public String expand(Event event, Map<String, Map<String, String>> decode) {
-        final String collect = tokens.stream()
-                .map(t -> t.expand(event, decode))
-                .collect(Collectors.joining());
-        return collect;
+        return expand(event, decode, null);
+    }
+
+    @Override
+    public String expand(Event event, Map<String, Map<String, String>> decode, ResolvedTokens resolvedTokens) {
+        if (constant != null) {
+            return constant;
+        }
+        if (tokens.size() == 1) {
+            return tokens.get(0).expand(event, decode, resolvedTokens);
+        }
+        final StringBuilder sb = new StringBuilder(expectedLength);
+        for (int i = 0; i < tokens.size(); i++) {
+            sb.append(tokens.get(i).expand(event, decode, resolvedTokens));
+        }
+        return sb.toString();
     }
 
     // If we find any token which requires a transaction, the template itself requires a transaction as well
@@ -140,4 +190,11 @@ public class EventTemplate implements ExpandableToken {
     public boolean requiresTransaction() {
         return requiresTransaction;
     }
+
+    /**
+     * Returns the tokens which need a transaction in order to be resolved.
+     */
+    public List<String> getTokensRequiringTransaction() {
+        return Collections.unmodifiableList(tokensRequiringTransaction);
+    }
 }
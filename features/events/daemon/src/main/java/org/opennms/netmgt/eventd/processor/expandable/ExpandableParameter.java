@@ -65,7 +65,17 @@ public class ExpandableParameter implements ExpandableToken {
 
     @Override
     public String expand(Event event, Map<String, Map<String, String>> decode) {
-        String value = resolver.getValue(token, parsedToken, event, eventUtil);
+        return expand(event, decode, null);
+    }
+
+    @Override
+    public String expand(Event event, Map<String, Map<String, String>> decode, ResolvedTokens resolvedTokens) {
+        final String value;
+        if (resolvedTokens != null && resolver.requiresTransaction()) {
+            value = resolvedTokens.get(token, event, () -> resolver.getValue(token, parsedToken, event, eventUtil));
+        } else {
+            value = resolver.getValue(token, parsedToken, event, eventUtil);
+        }
         LOG.debug("Value of token {}={}", token, value);
 
         if (value != null) {
@@ -83,6 +93,10 @@ public class ExpandableParameter implements ExpandableToken {
         return "";
     }
 
+    public String getToken() {
+        return token;
+    }
+
     @Override
     public boolean requiresTransaction() {
         return resolver.requiresTransaction();
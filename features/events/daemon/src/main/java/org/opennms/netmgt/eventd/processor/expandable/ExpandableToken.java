@@ -46,6 +46,18 @@ public interface ExpandableToken {
      */
     String expand(Event event, Map<String, Map<String, String>> decode);
 
+    /**
+     * Expands a token, reusing the values which were already resolved for the same event.
+     *
+     * @param event An event, to expand the token from. May not be null.
+     * @param decode A Map, to help expanding the token. May be null.
+     * @param resolvedTokens The values already resolved for the event. May be null.
+     * @return The expanded token.
+     */
+    default String expand(Event event, Map<String, Map<String, String>> decode, ResolvedTokens resolvedTokens) {
+        return expand(event, decode);
+    }
+
     /**
      * Defines if this {@link ExpandableToken} requires a transaction to be expanded.
      *
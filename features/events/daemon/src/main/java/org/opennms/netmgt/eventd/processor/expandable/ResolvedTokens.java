@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor.expandable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Remembers the values of the tokens which had to be resolved from the database
+ * (node label, asset fields, ...) for a single {@link Event}, so that every field
+ * of the event which references them can be expanded without querying them again.
+ *
+ * All of these values depend on the node id and interface of the event only,
+ * so the remembered values are dropped whenever either of these change.
+ */
+public class ResolvedTokens {
+
+    private static final String NULL_VALUE = new String();
+
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    private volatile Long nodeId;
+
+    private volatile String iface;
+
+    /**
+     * Returns the value of the given token, resolving it with the given supplier
+     * if it was not yet resolved for the current state of the event.
+     */
+    public String get(String token, Event event, Supplier<String> resolver) {
+        validate(event);
+        final String value = values.get(token);
+        if (value != null) {
+            return value == NULL_VALUE ? null : value;
+        }
+        final String resolved = resolver.get();
+        values.put(token, resolved == null ? NULL_VALUE : resolved);
+        return resolved;
+    }
+
+    /**
+     * Verifies if all of the given tokens were already resolved for the current state
+     * of the event, in which case no transaction is needed to expand them.
+     */
+    public boolean containsAll(Collection<String> tokens, Event event) {
+        validate(event);
+        for (String token : tokens) {
+            if (!values.containsKey(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void validate(Event event) {
+        final Long currentNodeId = event.getNodeid();
+        final String currentIface = event.getInterface();
+        if (!Objects.equals(nodeId, currentNodeId) || !Objects.equals(iface, currentIface)) {
+            values.clear();
+            nodeId = currentNodeId;
+            iface = currentIface;
+        }
+    }
+}
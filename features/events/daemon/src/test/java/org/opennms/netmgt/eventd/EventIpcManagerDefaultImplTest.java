@@ -37,9 +37,12 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
@@ -623,6 +626,52 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         }
 
         await().pollInterval(1, TimeUnit.SECONDS).untilAtomic(counter, is(equalTo(6)));
+        assertEquals(4, m_registry.meter("eventlisteners.testSlowEventListener.dropped").getCount());
+    }
+
+    /**
+     * Verify that a listener without a configured queue length gets every
+     * event, in order, even when more events are queued than fit in its
+     * ring buffer.
+     */
+    public void testUnboundedQueueDoesNotDropEvents() throws InterruptedException {
+        final int numEvents = EventListenerExecutor.MAX_RING_BUFFER_SIZE * 2 + 10;
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(numEvents);
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+
+        EventListener blockedListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testUnboundedQueueDoesNotDropEvents";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                }
+                received.add(Integer.valueOf(event.getParm("seq").getValue().getContent()));
+                latch.countDown();
+            }
+        };
+        m_manager.addEventListener(blockedListener);
+
+        for (int i = 0; i < numEvents; i++) {
+            EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testUnboundedQueueDoesNotDropEvents");
+            bldr.addParam("seq", i);
+            m_manager.broadcastNow(bldr.getEvent(), false);
+        }
+        blocked.countDown();
+
+        assertTrue("not all events were delivered", latch.await(30, TimeUnit.SECONDS));
+        assertEquals(0, m_registry.meter("eventlisteners.testUnboundedQueueDoesNotDropEvents.dropped").getCount());
+        for (int i = 0; i < numEvents; i++) {
+            assertEquals("events were delivered out of order", i, received.get(i).intValue());
+        }
+
+        m_manager.removeEventListener(blockedListener);
     }
 
     /**
@@ -825,4 +874,63 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         // Release
         locker.release();
     }
+
+    /**
+     * Verify that the events for any given node are delivered in order
+     * to an event listener that receives callbacks over multiple threads.
+     */
+    public void testMultiThreadedEventListenerPreservesNodeOrder() throws InterruptedException {
+        final int numNodes = 7;
+        final int eventsPerNode = 50;
+        final CountDownLatch latch = new CountDownLatch(numNodes * eventsPerNode);
+        final Map<Long, List<Integer>> received = new ConcurrentHashMap<>();
+
+        final EventListener listener = new MultiThreadedOrderedEventListener(4) {
+            @Override
+            public void onEvent(Event e) {
+                received.computeIfAbsent(e.getNodeid(), k -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(Integer.valueOf(e.getParm("seq").getValue().getContent()));
+                latch.countDown();
+            }
+        };
+        m_manager.addEventListener(listener);
+
+        for (int k = 0; k < eventsPerNode; k++) {
+            for (long nodeId = 1; nodeId <= numNodes; nodeId++) {
+                EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testMultiThreadedEventListenerPreservesNodeOrder");
+                bldr.setNodeid(nodeId);
+                bldr.addParam("seq", k);
+                m_manager.broadcastNow(bldr.getEvent(), false);
+            }
+        }
+
+        assertTrue("not all events were delivered", latch.await(30, TimeUnit.SECONDS));
+        for (long nodeId = 1; nodeId <= numNodes; nodeId++) {
+            final List<Integer> sequence = received.get(nodeId);
+            assertEquals(eventsPerNode, sequence.size());
+            for (int k = 0; k < eventsPerNode; k++) {
+                assertEquals("events for node " + nodeId + " were delivered out of order", k, sequence.get(k).intValue());
+            }
+        }
+
+        m_manager.removeEventListener(listener);
+    }
+
+    private abstract static class MultiThreadedOrderedEventListener implements ThreadAwareEventListener, EventListener {
+        private final int numThreads;
+
+        public MultiThreadedOrderedEventListener(int numThreads) {
+            this.numThreads = numThreads;
+        }
+
+        @Override
+        public String getName() {
+            return MultiThreadedOrderedEventListener.class.getCanonicalName();
+        }
+
+        @Override
+        public int getNumThreads() {
+            return numThreads;
+        }
+    }
 }
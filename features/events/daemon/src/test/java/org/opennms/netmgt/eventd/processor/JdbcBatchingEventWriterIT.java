@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Log;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Verifies that the batching JDBC writer and the Hibernate writer can share
+ * the eventsNxtId sequence without handing out the same event ID.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath*:/META-INF/opennms/component-service.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-eventDaemon.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(reuseDatabase=false)
+public class JdbcBatchingEventWriterIT {
+
+    /**
+     * Matches the default allocationSize of the sequence generator of OnmsEvent.
+     */
+    private static final int HIBERNATE_BLOCK_SIZE = 50;
+
+    @Autowired
+    private HibernateEventWriter m_hibernateEventWriter;
+
+    @Autowired
+    private ApplicationContext m_applicationContext;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    private JdbcBatchingEventWriter m_batchingEventWriter;
+
+    @Before
+    public void setUp() {
+        m_batchingEventWriter = new JdbcBatchingEventWriter(new MetricRegistry());
+        m_applicationContext.getAutowireCapableBeanFactory().autowireBean(m_batchingEventWriter);
+        // Small blocks, so that both writers keep going back to the sequence
+        m_batchingEventWriter.setIdBlockSize(10);
+        m_batchingEventWriter.setBatchSize(20);
+        m_batchingEventWriter.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        m_batchingEventWriter.destroy();
+    }
+
+    @Test
+    public void canMixWritersOnTheSameSequence() throws Exception {
+        final Set<Integer> hibernateIds = new HashSet<>();
+        final Set<Integer> batchIds = new HashSet<>();
+
+        for (int round = 0; round < 5; round++) {
+            hibernateIds.addAll(write(m_hibernateEventWriter, 30));
+            batchIds.addAll(write(m_batchingEventWriter, 30));
+        }
+        assertEquals(150, hibernateIds.size());
+        assertEquals(150, batchIds.size());
+
+        // Both writers must draw their IDs from distinct hi/lo blocks
+        final Set<Integer> hibernateBlocks = new HashSet<>();
+        hibernateIds.forEach(id -> hibernateBlocks.add(id / HIBERNATE_BLOCK_SIZE));
+        for (Integer id : batchIds) {
+            assertFalse("Event ID " + id + " is in a block used by the Hibernate writer",
+                    hibernateBlocks.contains(id / HIBERNATE_BLOCK_SIZE));
+        }
+
+        final Set<Integer> allIds = new HashSet<>(hibernateIds);
+        assertTrue(allIds.addAll(batchIds));
+        assertEquals(300, allIds.size());
+        assertEquals(Integer.valueOf(300), m_jdbcTemplate.queryForObject("SELECT COUNT(*) FROM events WHERE eventuei = 'testUei'", Integer.class));
+    }
+
+    private static List<Integer> write(EventWriter writer, int numEvents) throws Exception {
+        final Events events = new Events();
+        for (int i = 0; i < numEvents; i++) {
+            final EventBuilder bldr = new EventBuilder("testUei", "testSource");
+            bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+            bldr.addParam("index", i);
+            events.addEvent(bldr.getEvent());
+        }
+        final Log log = new Log();
+        log.setEvents(events);
+
+        writer.process(log);
+
+        final List<Integer> ids = new ArrayList<>(numEvents);
+        for (Event event : log.getEvents().getEventCollection()) {
+            assertNotNull(event.getDbid());
+            ids.add(event.getDbid());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.ServiceTypeDao;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Log;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Unit tests used to verify the number of transactions and ID allocations
+ * made by the batching event writer.
+ */
+public class JdbcBatchingEventWriterTest {
+
+    private JdbcBatchingEventWriter eventWriter;
+    private TransactionOperations transactionManager;
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        eventWriter = new JdbcBatchingEventWriter(new MetricRegistry());
+
+        transactionManager = mock(TransactionOperations.class);
+        when(transactionManager.execute(any())).thenAnswer(invocation -> {
+            return ((TransactionCallback<?>)invocation.getArguments()[0]).doInTransaction(mock(TransactionStatus.class));
+        });
+        eventWriter.setTransactionManager(transactionManager);
+
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForList(anyString(), eq(Integer.class), anyInt())).thenReturn(Arrays.asList(1));
+        eventWriter.setJdbcTemplate(jdbcTemplate);
+
+        final DistPollerDao distPollerDao = mock(DistPollerDao.class);
+        when(distPollerDao.whoami()).thenReturn(new OnmsDistPoller(DistPollerDao.DEFAULT_DIST_POLLER_ID));
+        ReflectionTestUtils.setField(eventWriter, "distPollerDao", distPollerDao);
+        ReflectionTestUtils.setField(eventWriter, "nodeDao", mock(NodeDao.class));
+        ReflectionTestUtils.setField(eventWriter, "serviceTypeDao", mock(ServiceTypeDao.class));
+        ReflectionTestUtils.setField(eventWriter, "eventUtil", mock(EventUtil.class));
+
+        eventWriter.setBatchSize(2);
+        eventWriter.setBatchFlushInterval(60000);
+        eventWriter.setIdBlockSize(4);
+        eventWriter.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        eventWriter.destroy();
+    }
+
+    @Test
+    public void testNoTransactionOpened() throws EventProcessorException {
+        eventWriter.process(null);
+        eventWriter.process(new Log());
+
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_DO_NOT_PERSIST);
+        eventWriter.process(bldr.getLog());
+
+        verify(transactionManager, never()).execute(any());
+    }
+
+    @Test
+    public void testSingleTransactionPerBatch() throws EventProcessorException {
+        final Log log = createLog(2);
+
+        eventWriter.process(log);
+
+        verify(transactionManager, times(1)).execute(any());
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), any(BatchPreparedStatementSetter.class));
+        assertEquals(Integer.valueOf(50), log.getEvents().getEvent(0).getDbid());
+        assertEquals(Integer.valueOf(51), log.getEvents().getEvent(1).getDbid());
+    }
+
+    @Test
+    public void testEventIdsArePreallocated() throws EventProcessorException {
+        final Log log1 = createLog(1);
+        final Log log2 = createLog(1);
+
+        eventWriter.process(log1);
+        eventWriter.process(log2);
+
+        // Both batches draw from the same block of IDs
+        verify(transactionManager, times(2)).execute(any());
+        verify(jdbcTemplate, times(1)).queryForList(anyString(), eq(Integer.class), eq(1));
+        assertEquals(Integer.valueOf(50), log1.getEvents().getEvent(0).getDbid());
+        assertEquals(Integer.valueOf(51), log2.getEvents().getEvent(0).getDbid());
+    }
+
+    @Test
+    public void canDestroyWithoutStarting() throws InterruptedException {
+        new JdbcBatchingEventWriter(new MetricRegistry()).destroy();
+    }
+
+    private static Log createLog(int numEvents) {
+        final Events events = new Events();
+        for (int i = 0; i < numEvents; i++) {
+            final EventBuilder bldr = new EventBuilder("testUei", "testSource");
+            bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+            events.addEvent(bldr.getEvent());
+        }
+        final Log log = new Log();
+        log.setEvents(events);
+        return log;
+    }
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor.expandable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.eventd.AbstractEventUtil;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Verifies the parsing of the {@link EventTemplate}s and the number of
+ * database lookups made when expanding them.
+ */
+public class EventTemplateTest {
+
+    private CountingEventUtil eventUtil;
+    private TransactionOperations transactionOperations;
+    private final AtomicInteger transactions = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        eventUtil = new CountingEventUtil();
+        final TransactionStatus status = mock(TransactionStatus.class);
+        transactionOperations = new TransactionOperations() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                transactions.incrementAndGet();
+                return action.doInTransaction(status);
+            }
+        };
+        ReflectionTestUtils.setField(eventUtil, AbstractEventUtil.class, "transactionOperations", transactionOperations, TransactionOperations.class);
+    }
+
+    @Test
+    public void testParse() {
+        final Event event = new EventBuilder("testUei", "testSource").getEvent();
+
+        assertEquals("", new EventTemplate("", eventUtil).expand(event, null));
+        assertEquals("100% done", new EventTemplate("100%% done", eventUtil).expand(event, null));
+        assertEquals("testUei %event uei% 50%", new EventTemplate("%uei% %event uei% 50%", eventUtil).expand(event, null));
+        assertEquals("%testUei%", new EventTemplate("%%%uei%%%", eventUtil).expand(event, null));
+        assertEquals("testSource:testUei", new EventTemplate("%source%:%uei%", eventUtil).expand(event, null));
+        assertEquals("50% testUei", new EventTemplate("50% %uei%", eventUtil).expand(event, null));
+
+        final EventTemplate constant = new EventTemplate("no tokens here", eventUtil);
+        assertFalse(constant.requiresTransaction());
+        assertTrue(constant.getTokensRequiringTransaction().isEmpty());
+
+        final EventTemplate transactional = new EventTemplate("%nodelabel% %uei% %asset[building]%", eventUtil);
+        assertTrue(transactional.requiresTransaction());
+        assertEquals(2, transactional.getTokensRequiringTransaction().size());
+    }
+
+    @Test
+    public void testDatabaseTokensAreResolvedOncePerEvent() {
+        final Event event = new EventBuilder("testUei", "testSource").setNodeid(1).getEvent();
+
+        assertEquals("node1 is node1", eventUtil.expandParms("%nodelabel% is %nodelabel%", event));
+        assertEquals("node1 in building1", eventUtil.expandParms("%nodelabel% in %asset[building]%", event));
+        assertEquals("testUei on node1 in building1", eventUtil.expandParms("%uei% on %nodelabel% in %asset[building]%", event));
+
+        assertEquals(1, eventUtil.nodeLabelLookups.get());
+        assertEquals(1, eventUtil.assetLookups.get());
+        // The last expansion didn't need to go to the database at all
+        assertEquals(2, transactions.get());
+
+        // Other events are resolved on their own
+        final Event otherEvent = new EventBuilder("testUei", "testSource").setNodeid(1).getEvent();
+        assertEquals("node1", eventUtil.expandParms("%nodelabel%", otherEvent));
+        assertEquals(2, eventUtil.nodeLabelLookups.get());
+    }
+
+    @Test
+    public void testDatabaseTokensAreResolvedAgainWhenNodeChanges() {
+        final Event event = new EventBuilder("testUei", "testSource").setNodeid(1).getEvent();
+        assertEquals("node1", eventUtil.expandParms("%nodelabel%", event));
+
+        event.setNodeid(2L);
+        assertEquals("node2", eventUtil.expandParms("%nodelabel%", event));
+        assertEquals(2, eventUtil.nodeLabelLookups.get());
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void testExpansionPerformance() {
+        final String[] inputs = new String[] {
+                "<p>Node %nodelabel% (%interface%) is down: %parm[reason]%.</p>",
+                "%uei%:%dpname%:%nodeid%:%interface%",
+                "Node %nodelabel% in %asset[building]% reported %parm[#1]% at %time%",
+        };
+        final int count = 100000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final Event event = createEvent(i);
+            for (String input : inputs) {
+                // What expandParms used to do: tokenize the input, and go to the database for every field
+                final EventTemplate eventTemplate = new EventTemplate(input, eventUtil);
+                if (eventTemplate.requiresTransaction()) {
+                    transactionOperations.execute(status -> eventTemplate.expand(event, null));
+                } else {
+                    eventTemplate.expand(event, null);
+                }
+            }
+        }
+        final long reparsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final Event event = createEvent(i);
+            for (String input : inputs) {
+                eventUtil.expandParms(input, event);
+            }
+        }
+        final long cached = System.nanoTime() - start;
+
+        System.err.printf("Expanded %d events: re-parsed in %dms, cached in %dms%n", count, reparsed / 1000000, cached / 1000000);
+    }
+
+    private static Event createEvent(int i) {
+        return new EventBuilder("uei.opennms.org/nodes/nodeDown", "test")
+                .setNodeid(i % 100 + 1)
+                .setInterface(null)
+                .addParam("reason", "Timeout")
+                .getEvent();
+    }
+
+    private static class CountingEventUtil extends AbstractEventUtil {
+        private final AtomicInteger nodeLabelLookups = new AtomicInteger();
+        private final AtomicInteger assetLookups = new AtomicInteger();
+
+        @Override
+        public String getNodeLabel(long nodeId) {
+            nodeLabelLookups.incrementAndGet();
+            return "node" + nodeId;
+        }
+
+        @Override
+        public String getAssetFieldValue(String parm, long nodeId) {
+            assetLookups.incrementAndGet();
+            return "building" + nodeId;
+        }
+
+        @Override
+        public String getHardwareFieldValue(String parm, long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getHostName(int nodeId, String hostip) {
+            return hostip;
+        }
+
+        @Override
+        public String getIfAlias(long nodeId, String ipAddr) {
+            return null;
+        }
+
+        @Override
+        public String getForeignId(long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getForeignSource(long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getNodeLocation(long nodeId) {
+            return null;
+        }
+    }
+}
@@ -33,12 +33,14 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.opennms.core.utils.InetAddressUtils;
@@ -64,8 +66,9 @@ import com.google.common.cache.LoadingCache;
  * This routine does the majority of Syslogd's work.
  * Improvements are most likely to be made.
  * 
- * TODO: This class is sloooow. It needs to be sped up significantly
- * to handle increased syslog volume.
+ * The ueiMatch and hideMatch expressions are filtered with a
+ * {@link MultiPatternMatcher} so that only the entries that may match a
+ * message are evaluated.
  *
  * @author Seth
  * @author <a href="mailto:joed@opennms.org">Johan Edstrom</a>
@@ -97,6 +100,13 @@ public class ConvertToEvent {
         }
     );
 
+    /**
+     * Matchers built from the last seen ueiMatch and hideMatch lists. These
+     * are rebuilt whenever the configuration changes.
+     */
+    private static volatile MultiPatternMatcher s_ueiMatcher;
+    private static volatile MultiPatternMatcher s_hideMatcher;
+
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
      * 
@@ -346,7 +356,10 @@ public class ConvertToEvent {
         EventBuilder bldr = toEventBuilder(message, systemId, location, receivedTimestamp);
 
         final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
+        // Only consider the entries whose expression may match the message
+        final BitSet ueiCandidates = getUeiMatcher(ueiMatch).getCandidates(message.getMessage() == null ? "" : message.getMessage());
+        for (int i = ueiCandidates.nextSetBit(0); i >= 0; i = ueiCandidates.nextSetBit(i + 1)) {
+            final UeiMatch uei = ueiMatch.get(i);
             final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
                                               containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
                                               matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
@@ -373,7 +386,9 @@ public class ConvertToEvent {
             // Match this regex against the full string of the message
             final String fullText = message.asRfc3164Message();
 
-            for (final HideMatch hide : hideMatch) {
+            final BitSet hideCandidates = getHideMatcher(hideMatch).getCandidates(fullText);
+            for (int i = hideCandidates.nextSetBit(0); i >= 0; i = hideCandidates.nextSetBit(i + 1)) {
+                final HideMatch hide = hideMatch.get(i);
                 if (hide.getMatch().getType().equals("substr")) {
                     if (fullText.contains(hide.getMatch().getExpression())) {
                         // We should hide the message based on this match
@@ -450,6 +465,24 @@ public class ConvertToEvent {
         return CACHED_PATTERNS.getUnchecked(expression);
     }
 
+    private static MultiPatternMatcher getUeiMatcher(final List<UeiMatch> ueiMatch) {
+        MultiPatternMatcher matcher = s_ueiMatcher;
+        if (matcher == null || !matcher.isCompiledFrom(ueiMatch)) {
+            matcher = new MultiPatternMatcher(ueiMatch, ueiMatch.stream().map(UeiMatch::getMatch).collect(Collectors.toList()));
+            s_ueiMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    private static MultiPatternMatcher getHideMatcher(final List<HideMatch> hideMatch) {
+        MultiPatternMatcher matcher = s_hideMatcher;
+        if (matcher == null || !matcher.isCompiledFrom(hideMatch)) {
+            matcher = new MultiPatternMatcher(hideMatch, hideMatch.stream().map(HideMatch::getMatch).collect(Collectors.toList()));
+            s_hideMatcher = matcher;
+        }
+        return matcher;
+    }
+
     /**
      * Checks the message for substring matches to a {@link UeiMatch}. If the message
      * matches, then the UEI is updated (or the event is discarded if the discard
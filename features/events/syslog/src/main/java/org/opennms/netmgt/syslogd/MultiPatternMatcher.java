@@ -0,0 +1,419 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.config.syslogd.Match;
+
+/**
+ * Finds the {@link Match} expressions that may match a message in a single
+ * pass over the message.
+ *
+ * All of the substring expressions, along with the literal strings that must
+ * appear in any text matched by the regular expressions, are compiled into
+ * a single Aho-Corasick automaton. Scanning the message with the automaton
+ * tells us which substring expressions match, and which regular expressions
+ * can be skipped because one of their required literals is missing.
+ *
+ * Regular expressions without any required literals (i.e. those with a
+ * top-level alternation or inline flags) are always returned as candidates,
+ * as are expressions of an unknown type.
+ */
+final class MultiPatternMatcher {
+
+    private final Object[] m_source;
+
+    /**
+     * Indices of the literals that must all be found for each expression, or
+     * an empty array if the expression must always be evaluated.
+     */
+    private final int[][] m_requiredLiterals;
+
+    private final AhoCorasick m_automaton;
+
+    private final int m_numLiterals;
+
+    /**
+     * @param source the configuration objects the matches were extracted from,
+     *      used to tell if the matcher needs to be rebuilt
+     * @param matches the match of every configuration object, in order
+     */
+    MultiPatternMatcher(List<?> source, List<Match> matches) {
+        m_source = source.toArray();
+        m_requiredLiterals = new int[matches.size()][];
+
+        final Map<String, Integer> literalIds = new HashMap<>();
+        for (int i = 0; i < matches.size(); i++) {
+            final List<String> literals = getRequiredLiterals(matches.get(i));
+            final int[] ids = new int[literals.size()];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = literalIds.computeIfAbsent(literals.get(j), l -> literalIds.size());
+            }
+            m_requiredLiterals[i] = ids;
+        }
+        m_numLiterals = literalIds.size();
+        m_automaton = new AhoCorasick(literalIds);
+    }
+
+    /**
+     * Returns true if this matcher was built from the same configuration
+     * objects, in the same order, as those in the given list.
+     */
+    boolean isCompiledFrom(List<?> source) {
+        if (source.size() != m_source.length) {
+            return false;
+        }
+        for (int i = 0; i < m_source.length; i++) {
+            if (source.get(i) != m_source[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the indices of the expressions that may match the given text.
+     * Substring expressions are only returned if they match.
+     */
+    BitSet getCandidates(String text) {
+        final BitSet found = new BitSet(m_numLiterals);
+        if (m_numLiterals > 0) {
+            m_automaton.scan(text, found);
+        }
+        final BitSet candidates = new BitSet(m_requiredLiterals.length);
+        for (int i = 0; i < m_requiredLiterals.length; i++) {
+            boolean candidate = true;
+            for (int id : m_requiredLiterals[i]) {
+                if (!found.get(id)) {
+                    candidate = false;
+                    break;
+                }
+            }
+            if (candidate) {
+                candidates.set(i);
+            }
+        }
+        return candidates;
+    }
+
+    private static List<String> getRequiredLiterals(Match match) {
+        if (match == null || match.getType() == null || match.getExpression() == null) {
+            return new ArrayList<>(0);
+        } else if ("substr".equals(match.getType())) {
+            final List<String> literals = new ArrayList<>(1);
+            if (!match.getExpression().isEmpty()) {
+                literals.add(match.getExpression());
+            }
+            return literals;
+        } else if (match.getType().startsWith("regex")) {
+            return getRequiredLiterals(match.getExpression());
+        }
+        return new ArrayList<>(0);
+    }
+
+    /**
+     * Extracts the runs of literal characters that appear outside of any
+     * group, character class or optional element of the given regular
+     * expression, and must therefore be part of any text that it matches.
+     *
+     * This errs on the side of caution: anything that isn't understood
+     * ends the current run, and expressions with a top-level alternation
+     * or inline flags have no required literals at all.
+     */
+    static List<String> getRequiredLiterals(String regex) {
+        final List<String> literals = new ArrayList<>();
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) {
+                    break;
+                }
+                final char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    // Quoted sections aren't worth the trouble
+                    return new ArrayList<>(0);
+                }
+                if (Character.isLetterOrDigit(escaped)) {
+                    // Character classes, anchors, back-references, etc.
+                    if (depth == 0) {
+                        endRun(run, literals);
+                    }
+                    i = skipEscape(regex, i);
+                } else {
+                    if (depth == 0) {
+                        run.append(escaped);
+                    }
+                    i += 2;
+                }
+                continue;
+            }
+            if (c == '[') {
+                i = skipCharacterClass(regex, i);
+                if (depth == 0) {
+                    endRun(run, literals);
+                }
+                continue;
+            }
+            if (c == '(') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '?'
+                        && (i + 2 >= regex.length() || ":=!<>".indexOf(regex.charAt(i + 2)) < 0)) {
+                    // Inline flags, i.e. (?i), may change the meaning of the literals
+                    return new ArrayList<>(0);
+                }
+                if (depth == 0) {
+                    endRun(run, literals);
+                }
+                depth++;
+                i++;
+                continue;
+            }
+            if (c == ')') {
+                depth = Math.max(0, depth - 1);
+                i++;
+                continue;
+            }
+            if (depth > 0) {
+                i++;
+                continue;
+            }
+            switch (c) {
+                case '|':
+                    return new ArrayList<>(0);
+                case '?':
+                case '*':
+                    // The previous character is optional
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    endRun(run, literals);
+                    break;
+                case '{':
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    endRun(run, literals);
+                    final int end = regex.indexOf('}', i);
+                    i = end < 0 ? regex.length() : end;
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    endRun(run, literals);
+                    break;
+                default:
+                    run.append(c);
+            }
+            i++;
+        }
+        endRun(run, literals);
+        return literals;
+    }
+
+    private static void endRun(StringBuilder run, List<String> literals) {
+        if (run.length() > 0) {
+            literals.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * Returns the index of the first character following the escape
+     * sequence (other than an escaped symbol) that starts at the given index.
+     */
+    private static int skipEscape(String regex, int start) {
+        final char escaped = regex.charAt(start + 1);
+        int i = start + 2;
+        switch (escaped) {
+            case 'x':
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    final int end = regex.indexOf('}', i);
+                    return end < 0 ? regex.length() : end + 1;
+                }
+                return Math.min(regex.length(), i + (escaped == 'x' ? 2 : 1));
+            case 'u':
+                return Math.min(regex.length(), i + 4);
+            case 'c':
+                return Math.min(regex.length(), i + 1);
+            case 'k':
+                final int end = regex.indexOf('>', i);
+                return end < 0 ? regex.length() : end + 1;
+            default:
+                if (Character.isDigit(escaped)) {
+                    // Octal values and back-references
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                        i++;
+                    }
+                }
+                return i;
+        }
+    }
+
+    /**
+     * Returns the index of the first character following the character
+     * class that starts at the given index.
+     */
+    private static int skipCharacterClass(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                // A ']' right after the opening bracket is a literal
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++;
+                } else if (i + 2 < regex.length() && regex.charAt(i + 1) == '^' && regex.charAt(i + 2) == ']') {
+                    i += 2;
+                }
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return regex.length();
+    }
+
+    /**
+     * A minimal Aho-Corasick automaton over chars.
+     */
+    private static final class AhoCorasick {
+        private final char[][] m_keys;
+        private final int[][] m_targets;
+        private final int[] m_fail;
+        private final int[][] m_outputs;
+
+        private AhoCorasick(Map<String, Integer> literalIds) {
+            // Build the trie
+            final List<TreeMap<Character, Integer>> transitions = new ArrayList<>();
+            final List<List<Integer>> outputs = new ArrayList<>();
+            transitions.add(new TreeMap<>());
+            outputs.add(new ArrayList<>());
+            for (Map.Entry<String, Integer> literal : literalIds.entrySet()) {
+                int state = 0;
+                for (char c : literal.getKey().toCharArray()) {
+                    Integer next = transitions.get(state).get(c);
+                    if (next == null) {
+                        next = transitions.size();
+                        transitions.add(new TreeMap<>());
+                        outputs.add(new ArrayList<>());
+                        transitions.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                outputs.get(state).add(literal.getValue());
+            }
+
+            final int numStates = transitions.size();
+            m_keys = new char[numStates][];
+            m_targets = new int[numStates][];
+            for (int state = 0; state < numStates; state++) {
+                final TreeMap<Character, Integer> t = transitions.get(state);
+                m_keys[state] = new char[t.size()];
+                m_targets[state] = new int[t.size()];
+                int k = 0;
+                for (Map.Entry<Character, Integer> e : t.entrySet()) {
+                    m_keys[state][k] = e.getKey();
+                    m_targets[state][k] = e.getValue();
+                    k++;
+                }
+            }
+
+            // Compute the failure links breadth-first, merging the outputs along the way
+            m_fail = new int[numStates];
+            final LinkedList<Integer> queue = new LinkedList<>();
+            for (int target : m_targets[0]) {
+                queue.add(target);
+            }
+            while (!queue.isEmpty()) {
+                final int state = queue.removeFirst();
+                for (int k = 0; k < m_keys[state].length; k++) {
+                    final char c = m_keys[state][k];
+                    final int target = m_targets[state][k];
+                    int fail = m_fail[state];
+                    while (fail != 0 && next(fail, c) < 0) {
+                        fail = m_fail[fail];
+                    }
+                    final int failTarget = next(fail, c);
+                    m_fail[target] = failTarget >= 0 ? failTarget : 0;
+                    outputs.get(target).addAll(outputs.get(m_fail[target]));
+                    queue.add(target);
+                }
+            }
+
+            m_outputs = new int[numStates][];
+            for (int state = 0; state < numStates; state++) {
+                m_outputs[state] = outputs.get(state).stream().distinct().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        private int next(int state, char c) {
+            final int k = Arrays.binarySearch(m_keys[state], c);
+            return k >= 0 ? m_targets[state][k] : -1;
+        }
+
+        private void scan(String text, BitSet found) {
+            Objects.requireNonNull(text);
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                int next;
+                while ((next = next(state, c)) < 0 && state != 0) {
+                    state = m_fail[state];
+                }
+                state = next < 0 ? 0 : next;
+                for (int output : m_outputs[state]) {
+                    found.set(output);
+                }
+            }
+        }
+    }
+}
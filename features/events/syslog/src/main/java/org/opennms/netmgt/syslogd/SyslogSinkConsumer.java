@@ -31,6 +31,10 @@ package org.opennms.netmgt.syslogd;
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.ipc.sink.api.MessageConsumer;
 import org.opennms.core.ipc.sink.api.MessageConsumerManager;
@@ -51,6 +55,7 @@ import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -58,10 +63,21 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
 
-public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean {
+public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(SyslogSinkConsumer.class);
 
+    /**
+     * Number of threads used to parse the messages of a single log in parallel.
+     * When 0, the messages are parsed one at a time on the consumer thread.
+     */
+    public static final String PARSER_THREADS_PROPERTY = "org.opennms.netmgt.syslogd.parser.threads";
+
+    /**
+     * Maximum number of messages parsed by a single task of the parser pool.
+     */
+    public static final String PARSER_BATCH_SIZE_PROPERTY = "org.opennms.netmgt.syslogd.parser.batchSize";
+
     @Autowired
     private MessageConsumerManager messageConsumerManager;
 
@@ -78,12 +94,29 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     private final Timer consumerTimer;
     private final Timer toEventTimer;
     private final Timer broadcastTimer;
+    private final ForkJoinPool parserPool;
+    private final int parserBatchSize;
 
     public SyslogSinkConsumer(MetricRegistry registry) {
+        this(registry, Integer.getInteger(PARSER_THREADS_PROPERTY, 0), Integer.getInteger(PARSER_BATCH_SIZE_PROPERTY, 64));
+    }
+
+    public SyslogSinkConsumer(MetricRegistry registry, int parserThreads, int parserBatchSize) {
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
         localAddr = InetAddressUtils.getLocalHostName();
+        this.parserBatchSize = Math.max(1, parserBatchSize);
+        if (parserThreads > 0) {
+            parserPool = new ForkJoinPool(parserThreads, pool -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("syslogd-parser-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+            LOG.info("Parsing syslog messages with {} threads in batches of {}.", parserThreads, this.parserBatchSize);
+        } else {
+            parserPool = null;
+        }
     }
 
     @Override
@@ -109,12 +142,34 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     }
 
     public Log toEventLog(SyslogMessageLogDTO messageLog) {
+        final List<SyslogMessageDTO> messages = messageLog.getMessages();
+        // Every log holds the messages of a single source, so converting them into
+        // their own slots and adding them back in sequence keeps them in order
+        final Event[] converted = new Event[messages.size()];
+        if (parserPool != null && messages.size() > parserBatchSize) {
+            parserPool.invoke(new ConvertTask(messageLog, converted, 0, converted.length));
+        } else {
+            convert(messageLog, converted, 0, converted.length);
+        }
+
         final Log elog = new Log();
         final Events events = new Events();
         elog.setEvents(events);
-        for (SyslogMessageDTO message : messageLog.getMessages()) {
+        for (Event event : converted) {
+            if (event != null) {
+                events.addEvent(event);
+            }
+        }
+        return elog;
+    }
+
+    private void convert(SyslogMessageLogDTO messageLog, Event[] converted, int from, int to) {
+        final List<SyslogMessageDTO> messages = messageLog.getMessages();
+        for (int i = from; i < to; i++) {
+            final SyslogMessageDTO message = messages.get(i);
             try {
                 LOG.debug("Converting syslog message into event.");
+                // The parsers work on a view of the buffer, so it is shared rather than copied
                 ConvertToEvent re = new ConvertToEvent(
                         messageLog.getSystemId(),
                         messageLog.getLocation(),
@@ -124,14 +179,45 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
                         message.getTimestamp(),
                         syslogdConfig
                     );
-                events.addEvent(re.getEvent());
+                converted[i] = re.getEvent();
             } catch (final MessageDiscardedException e) {
                 LOG.info("Message discarded, returning without enqueueing event.", e);
             } catch (final Throwable e) {
                 LOG.error("Unexpected exception while processing SyslogConnection", e);
             }
         }
-        return elog;
+    }
+
+    /**
+     * Splits the messages of a log in halves until they fit in a single batch.
+     */
+    private class ConvertTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SyslogMessageLogDTO messageLog;
+        private final Event[] converted;
+        private final int from;
+        private final int to;
+
+        private ConvertTask(SyslogMessageLogDTO messageLog, Event[] converted, int from, int to) {
+            this.messageLog = messageLog;
+            this.converted = converted;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= parserBatchSize) {
+                try (MDCCloseable mdc = Logging.withPrefixCloseable(Syslogd.LOG4J_CATEGORY)) {
+                    convert(messageLog, converted, from, to);
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ConvertTask(messageLog, converted, from, middle),
+                        new ConvertTask(messageLog, converted, middle, to));
+            }
+        }
     }
 
     private void broadcast(Log eventLog)  {
@@ -187,6 +273,14 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         messageConsumerManager.registerConsumer(this);
     }
 
+    @Override
+    public void destroy() throws Exception {
+        if (parserPool != null) {
+            parserPool.shutdown();
+            parserPool.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
     public void setEventForwarder(EventForwarder eventForwarder) {
         this.eventForwarder = eventForwarder;
     }
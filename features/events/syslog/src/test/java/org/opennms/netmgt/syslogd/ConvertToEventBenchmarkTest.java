@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.dao.hibernate.InterfaceToNodeCacheDaoImpl;
+import org.opennms.netmgt.dao.mock.MockInterfaceToNodeCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.annotation.IfProfileValue;
+
+/**
+ * Compares the time taken to find the first matching ueiMatch entry by
+ * evaluating every regular expression in turn, and by using the
+ * {@link MultiPatternMatcher}, with the first entries of the load test
+ * configuration and the messages from syslogMessages.txt.
+ */
+public class ConvertToEventBenchmarkTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConvertToEventBenchmarkTest.class);
+
+    private static final int ITERATIONS = 2;
+
+    private static final int NUM_UEI_MATCHES = 400;
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkUeiMatching() throws IOException {
+        final SyslogdConfig config = loadConfig();
+        final List<UeiMatch> ueiMatches = config.getUeiList();
+        final List<Pattern> patterns = ueiMatches.stream()
+                .map(uei -> Pattern.compile(uei.getMatch().getExpression(), Pattern.MULTILINE))
+                .collect(Collectors.toList());
+        final List<String> messages = loadMessages();
+
+        long start = System.nanoTime();
+        int matched = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String message : messages) {
+                for (Pattern pattern : patterns) {
+                    if (pattern.matcher(message).find()) {
+                        matched++;
+                        break;
+                    }
+                }
+            }
+        }
+        logRate("sequential", matched, messages.size() * ITERATIONS, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        matched = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final MultiPatternMatcher matcher = new MultiPatternMatcher(ueiMatches, ueiMatches.stream().map(UeiMatch::getMatch).collect(Collectors.toList()));
+            for (String message : messages) {
+                final BitSet candidates = matcher.getCandidates(message);
+                for (int j = candidates.nextSetBit(0); j >= 0; j = candidates.nextSetBit(j + 1)) {
+                    if (patterns.get(j).matcher(message).find()) {
+                        matched++;
+                        break;
+                    }
+                }
+            }
+        }
+        logRate("multi-pattern (including compilation)", matched, messages.size() * ITERATIONS, System.nanoTime() - start);
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkConvertToEvent() throws Exception {
+        InterfaceToNodeCacheDaoImpl.setInstance(new MockInterfaceToNodeCache());
+        final SyslogdConfig config = loadConfig();
+        final List<String> messages = loadMessages();
+        final InetAddress localhost = InetAddress.getLocalHost();
+
+        final long start = System.nanoTime();
+        int converted = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String message : messages) {
+                try {
+                    new ConvertToEvent(DistPollerDao.DEFAULT_DIST_POLLER_ID, MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID,
+                            localhost, SyslogClient.PORT, ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)), config);
+                    converted++;
+                } catch (MessageDiscardedException e) {
+                    // pass
+                }
+            }
+        }
+        logRate("ConvertToEvent", converted, messages.size() * ITERATIONS, System.nanoTime() - start);
+    }
+
+    private SyslogdConfig loadConfig() throws IOException {
+        try (InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-loadtest-configuration.xml")) {
+            final SyslogdConfig config = new SyslogdConfigFactory(stream);
+            config.getUeiList().subList(NUM_UEI_MATCHES, config.getUeiList().size()).clear();
+            return config;
+        }
+    }
+
+    private List<String> loadMessages() throws IOException {
+        final List<String> messages = new ArrayList<>();
+        Files.lines(ConfigurationTestUtils.getFileForResource(this, "/syslogMessages.txt").toPath())
+            .filter(line -> !line.trim().isEmpty() && !line.trim().startsWith("#"))
+            .forEach(messages::add);
+        // Along with some messages that match the load test configuration
+        for (int i = 0; i < 100; i++) {
+            messages.add(String.format("<6>main: 2010-08-19 localhost foo%d: load test %d on tty1", i * 7 % NUM_UEI_MATCHES, i));
+        }
+        return messages;
+    }
+
+    private static void logRate(String name, int matched, int total, long elapsedNanos) {
+        LOG.info("{}: matched {}/{} messages at {} messages/s", name, matched, total, (long)(total * 1e9 / elapsedNanos));
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.syslogd.Match;
+
+public class MultiPatternMatcherTest {
+
+    @Test
+    public void canExtractRequiredLiterals() {
+        assertEquals(Arrays.asList("foo0: ", "load test ", " on "),
+                MultiPatternMatcher.getRequiredLiterals(".*foo0: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*"));
+        assertEquals(Arrays.asList("a", "c"), MultiPatternMatcher.getRequiredLiterals("ab?c"));
+        assertEquals(Arrays.asList("ab", "c"), MultiPatternMatcher.getRequiredLiterals("ab+c"));
+        assertEquals(Arrays.asList("a", "c"), MultiPatternMatcher.getRequiredLiterals("ab{0,2}c"));
+        assertEquals(Arrays.asList(" packets [x]"), MultiPatternMatcher.getRequiredLiterals("\\d+ packets \\[x\\]"));
+        assertEquals(Arrays.asList("BC"), MultiPatternMatcher.getRequiredLiterals("\\x41BC"));
+        assertEquals(Arrays.asList("%SEC-6-IPACCESSLOGP: list "), MultiPatternMatcher.getRequiredLiterals("%SEC-6-IPACCESSLOGP: list [^ ]+"));
+        assertEquals(Arrays.asList("x", "y"), MultiPatternMatcher.getRequiredLiterals("x[|()]y"));
+
+        // Nothing is required when the expression has top-level alternations or inline flags
+        assertEquals(Collections.emptyList(), MultiPatternMatcher.getRequiredLiterals("foo|bar"));
+        assertEquals(Collections.emptyList(), MultiPatternMatcher.getRequiredLiterals("(?i)foo"));
+        assertEquals(Collections.emptyList(), MultiPatternMatcher.getRequiredLiterals("\\Qfoo\\E"));
+    }
+
+    @Test
+    public void canFindCandidates() {
+        final List<Match> matches = new ArrayList<>();
+        matches.add(match("substr", "denied"));
+        matches.add(match("regex", "foo(\\d+): .*failed"));
+        matches.add(match("regex", "foo|bar"));
+        matches.add(match("substr", "she"));
+        matches.add(match("substr", "he"));
+        matches.add(match("regex", "^\\d+$"));
+        final MultiPatternMatcher matcher = new MultiPatternMatcher(matches, matches);
+
+        assertEquals(bits(2, 5), matcher.getCandidates("nothing to see"));
+        assertEquals(bits(0, 2, 5), matcher.getCandidates("access denied"));
+        assertEquals(bits(1, 2, 3, 4, 5), matcher.getCandidates("foo12: she failed"));
+        assertEquals(bits(2, 4, 5), matcher.getCandidates("the failed foo"));
+    }
+
+    @Test
+    public void candidatesIncludeAllMatches() {
+        final List<String> messages = Arrays.asList(
+                "%SEC-6-IPACCESSLOGP: list in110 denied tcp 192.168.10.100(63923) -> 192.168.11.128(1521), 1 packet",
+                "pam_unix(su:auth): authentication failure; logname=jeffg uid=1004 euid=0 tty=pts/1 ruser=jeffg rhost= user=root",
+                "load test 23 on tty1",
+                "foo23: load test 23 on pts/7");
+        final List<Match> matches = new ArrayList<>();
+        matches.add(match("regex", ".*foo23: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*"));
+        matches.add(match("regex", "%SEC-6-IPACCESSLOGP: list (\\S+) (\\S+) (\\S+) ([\\d.]+)\\((\\d+)\\) -> ([\\d.]+)\\((\\d+)\\)"));
+        matches.add(match("regex", "authentication failure; logname=(\\w*)"));
+        matches.add(match("regex", "\\s(tty|pts)\\d?$"));
+        matches.add(match("regex", "uid=\\d{4} "));
+        final MultiPatternMatcher matcher = new MultiPatternMatcher(matches, matches);
+
+        for (String message : messages) {
+            final BitSet candidates = matcher.getCandidates(message);
+            for (int i = 0; i < matches.size(); i++) {
+                if (Pattern.compile(matches.get(i).getExpression(), Pattern.MULTILINE).matcher(message).find()) {
+                    assertEquals("Missing candidate " + i + " for " + message, true, candidates.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canTellWhenSourceChanged() {
+        final List<Match> matches = new ArrayList<>();
+        matches.add(match("substr", "denied"));
+        final MultiPatternMatcher matcher = new MultiPatternMatcher(matches, matches);
+        assertEquals(true, matcher.isCompiledFrom(matches));
+
+        matches.add(match("substr", "failed"));
+        assertEquals(false, matcher.isCompiledFrom(matches));
+
+        matches.remove(1);
+        matches.set(0, match("substr", "denied"));
+        assertEquals(false, matcher.isCompiledFrom(matches));
+    }
+
+    private static Match match(String type, String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        return match;
+    }
+
+    private static BitSet bits(int... indices) {
+        final BitSet bits = new BitSet();
+        for (int index : indices) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.hibernate.InterfaceToNodeCacheDaoImpl;
+import org.opennms.netmgt.dao.mock.MockInterfaceToNodeCache;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class SyslogSinkConsumerTest {
+
+    private SyslogConfigBean config;
+    private SyslogSinkConsumer parallelConsumer;
+
+    @Before
+    public void setUp() {
+        InterfaceToNodeCacheDaoImpl.setInstance(new MockInterfaceToNodeCache());
+
+        config = new SyslogConfigBean();
+        config.setParser("org.opennms.netmgt.syslogd.RadixTreeSyslogParser");
+        config.setDiscardUei("DISCARD-MATCHING-MESSAGES");
+
+        parallelConsumer = new SyslogSinkConsumer(new MetricRegistry(), 4, 8);
+        parallelConsumer.setSyslogdConfig(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        parallelConsumer.destroy();
+    }
+
+    @Test
+    public void testParallelParsingKeepsMessageOrder() throws Exception {
+        final SyslogMessageLogDTO messageLog = createMessageLog(1000);
+
+        final Log eventLog = parallelConsumer.toEventLog(messageLog);
+
+        final List<Event> events = eventLog.getEvents().getEventCollection();
+        assertEquals(1000, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals("sequence " + i, events.get(i).getLogmsg().getContent());
+        }
+    }
+
+    @Test
+    public void testParallelParsingMatchesSequentialParsing() throws Exception {
+        final SyslogSinkConsumer sequentialConsumer = new SyslogSinkConsumer(new MetricRegistry(), 0, 8);
+        sequentialConsumer.setSyslogdConfig(config);
+
+        final SyslogMessageLogDTO messageLog = createMessageLog(100);
+        // Messages that cannot be parsed are left out without shifting the others
+        messageLog.getMessages().add(50, new SyslogMessageDTO(ByteBuffer.wrap(new byte[0])));
+
+        final List<Event> expected = sequentialConsumer.toEventLog(messageLog).getEvents().getEventCollection();
+        final List<Event> actual = parallelConsumer.toEventLog(messageLog).getEvents().getEventCollection();
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getUei(), actual.get(i).getUei());
+            assertEquals(expected.get(i).getLogmsg().getContent(), actual.get(i).getLogmsg().getContent());
+        }
+    }
+
+    private static SyslogMessageLogDTO createMessageLog(int numMessages) throws Exception {
+        final List<SyslogMessageDTO> messages = new ArrayList<>(numMessages);
+        for (int i = 0; i < numMessages; i++) {
+            final String message = "<34>Oct 11 22:14:15 mymachine su: sequence " + i;
+            messages.add(new SyslogMessageDTO(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII))));
+        }
+        return new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000000000",
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 514), messages);
+    }
+}
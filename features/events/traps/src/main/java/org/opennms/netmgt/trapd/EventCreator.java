@@ -46,6 +46,8 @@ import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.eventconf.LogDestType;
+import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,7 +63,14 @@ class EventCreator {
         this.eventConfDao = Objects.requireNonNull(eventConfDao);
     }
 
-    public Event createEventFrom(final TrapDTO trapDTO, final String systemId, final String location, final InetAddress trapAddress) {
+    /**
+     * Creates the event for a trap sent by an agent whose node ID was already
+     * resolved, so that the traps of a batch, which all come from the same agent,
+     * only need a single lookup.
+     *
+     * @return the event, or null if the matching event definition asks for the trap to be discarded
+     */
+    public Event createEventFrom(final TrapDTO trapDTO, final String systemId, final InetAddress trapAddress, final Optional<Integer> nodeId) {
         LOG.debug("{} trap - trapInterface: {}", trapDTO.getVersion(), trapDTO.getAgentAddress());
 
         // Set event data
@@ -94,8 +103,7 @@ class EventCreator {
         }
 
         // Resolve Node id and set, if known by OpenNMS
-        resolveNodeId(location, trapAddress)
-                .ifPresent(eventBuilder::setNodeid);
+        nodeId.ifPresent(eventBuilder::setNodeid);
 
         // If there was no systemId in the trap message, assume that
         // it was generated by this system. Eventd will fill in the
@@ -104,9 +112,15 @@ class EventCreator {
             eventBuilder.setDistPoller(systemId);
         }
 
-        // Get event template and set uei, if unknown
+        // Get event template, discard the trap if requested and set uei, if unknown
         final Event event = eventBuilder.getEvent();
         final org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
+        if (econf != null) {
+            final Logmsg logmsg = econf.getLogmsg();
+            if (logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest())) {
+                return null;
+            }
+        }
         if (econf == null || econf.getUei() == null) {
             event.setUei("uei.opennms.org/default/trap");
         } else {
@@ -115,7 +129,7 @@ class EventCreator {
         return event;
     }
 
-    private Optional<Integer> resolveNodeId(String location, InetAddress trapAddress) {
+    public Optional<Integer> resolveNodeId(String location, InetAddress trapAddress) {
         // If there was no location in the trap message, assume that
         // it was generated in the default location
         if (location == null) {
@@ -30,6 +30,8 @@ package org.opennms.netmgt.trapd;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
 
+import java.util.Optional;
+
 import javax.annotation.PostConstruct;
 
 import org.opennms.core.ipc.sink.api.MessageConsumer;
@@ -47,8 +49,6 @@ import org.opennms.netmgt.trapd.jmx.TrapdInstrumentation;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
-import org.opennms.netmgt.xml.eventconf.LogDestType;
-import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -121,17 +121,27 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		final Events events = new Events();
 		log.setEvents(events);
 
+		// All of the traps in a batch were sent by the same agent
+		Optional<Integer> nodeId = Optional.empty();
+		try {
+			nodeId = eventCreator.resolveNodeId(messageLog.getLocation(), messageLog.getTrapAddress());
+		} catch (Throwable e) {
+			LOG.error("Unexpected error resolving the node for trap address: {}", messageLog.getTrapAddress(), e);
+		}
+
+		final long batchStart = System.nanoTime();
 		for (TrapDTO eachMessage : messageLog.getMessages()) {
 			try {
 				final Event event = eventCreator.createEventFrom(
 						eachMessage,
 						messageLog.getSystemId(),
-						messageLog.getLocation(),
-						messageLog.getTrapAddress());
-				if (!shouldDiscard(event)) {
+						messageLog.getTrapAddress(),
+						nodeId);
+				if (event != null) {
 					if (event.getSnmp() != null) {
 						trapdInstrumentation.incTrapsReceivedCount(event.getSnmp().getVersion());
 					}
+					trapdInstrumentation.updateTrapToEventLatency(System.currentTimeMillis() - eachMessage.getCreationTime());
 					events.addEvent(event);
 				} else {
 					LOG.debug("Trap discarded due to matching event having logmsg dest == discardtraps");
@@ -142,6 +152,7 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 				trapdInstrumentation.incErrorCount();
 			}
 		}
+		trapdInstrumentation.updateBatch(messageLog.getMessages().size(), System.nanoTime() - batchStart);
 		return log;
 	}
 
@@ -155,13 +166,4 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		// send the event to eventd
 		eventForwarder.sendNow(bldr.getEvent());
 	}
-
-	private boolean shouldDiscard(Event event) {
-		org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
-		if (econf != null) {
-			final Logmsg logmsg = econf.getLogmsg();
-			return logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest());
-		}
-		return false;
-	}
 }
@@ -92,6 +92,42 @@ public class Trapd extends AbstractSpringContextJmxServiceDaemon<org.opennms.net
         return getTrapdInstrumentation().getTrapsErrored();
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public double getTrapToEventLatencyMedian() {
+        return getTrapdInstrumentation().getTrapToEventLatencyMedian();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getTrapToEventLatency99thPercentile() {
+        return getTrapdInstrumentation().getTrapToEventLatency99thPercentile();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTrapToEventLatencyMax() {
+        return getTrapdInstrumentation().getTrapToEventLatencyMax();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getTrapsPerBatchMean() {
+        return getTrapdInstrumentation().getTrapsPerBatchMean();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getBatchConversionTimeMean() {
+        return getTrapdInstrumentation().getBatchConversionTimeMean();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getBatchConversionTime99thPercentile() {
+        return getTrapdInstrumentation().getBatchConversionTime99thPercentile();
+    }
+
     private TrapdInstrumentation getTrapdInstrumentation() {
         return TrapSinkConsumer.trapdInstrumentation;
     }
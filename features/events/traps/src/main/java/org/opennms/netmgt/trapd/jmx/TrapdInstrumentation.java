@@ -31,6 +31,11 @@ package org.opennms.netmgt.trapd.jmx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TrapdInstrumentation {
@@ -45,6 +50,13 @@ public class TrapdInstrumentation {
     private final AtomicLong trapsDiscarded = new AtomicLong();
     private final AtomicLong trapsErrored = new AtomicLong();
 
+    private final MetricRegistry metrics = new MetricRegistry();
+    /** Time in milliseconds between the reception of a trap and the creation of its event */
+    private final Histogram trapToEventLatency = metrics.histogram("trapToEventLatency");
+    private final Histogram batchSize = metrics.histogram("batchSize");
+    /** Time in nanoseconds taken to convert a batch of traps to events */
+    private final Timer batchConversion = metrics.timer("batchConversion");
+
     public void incTrapsReceivedCount(String version) {
         trapsReceived.incrementAndGet();
         if ("v1".equals(version)) {
@@ -67,6 +79,16 @@ public class TrapdInstrumentation {
         trapsErrored.incrementAndGet();
     }
 
+    public void updateTrapToEventLatency(long latencyInMs) {
+        // The trap may have been received by a Minion whose clock is ahead of ours
+        trapToEventLatency.update(Math.max(0, latencyInMs));
+    }
+
+    public void updateBatch(int numTraps, long conversionTimeInNanos) {
+        batchSize.update(numTraps);
+        batchConversion.update(conversionTimeInNanos, TimeUnit.NANOSECONDS);
+    }
+
     public long getV1TrapsReceived() {
         return v1TrapsReceived.get();
     }
@@ -94,4 +116,28 @@ public class TrapdInstrumentation {
     public long getTrapsReceived() {
         return trapsReceived.get();
     }
+
+    public double getTrapToEventLatencyMedian() {
+        return trapToEventLatency.getSnapshot().getMedian();
+    }
+
+    public double getTrapToEventLatency99thPercentile() {
+        return trapToEventLatency.getSnapshot().get99thPercentile();
+    }
+
+    public long getTrapToEventLatencyMax() {
+        return trapToEventLatency.getSnapshot().getMax();
+    }
+
+    public double getTrapsPerBatchMean() {
+        return batchSize.getSnapshot().getMean();
+    }
+
+    public double getBatchConversionTimeMean() {
+        return batchConversion.getSnapshot().getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getBatchConversionTime99thPercentile() {
+        return batchConversion.getSnapshot().get99thPercentile() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
 }
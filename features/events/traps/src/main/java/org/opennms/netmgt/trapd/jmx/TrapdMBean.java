@@ -57,4 +57,22 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The median time, in milliseconds, between the reception of a trap and the creation of its event */
+    public double getTrapToEventLatencyMedian();
+
+    /** @return The 99th percentile of the time, in milliseconds, between the reception of a trap and the creation of its event */
+    public double getTrapToEventLatency99thPercentile();
+
+    /** @return The maximum time, in milliseconds, between the reception of a trap and the creation of its event */
+    public long getTrapToEventLatencyMax();
+
+    /** @return The mean number of traps converted to events in a single batch */
+    public double getTrapsPerBatchMean();
+
+    /** @return The mean time, in milliseconds, taken to convert a batch of traps to events */
+    public double getBatchConversionTimeMean();
+
+    /** @return The 99th percentile of the time, in milliseconds, taken to convert a batch of traps to events */
+    public double getBatchConversionTime99thPercentile();
 }
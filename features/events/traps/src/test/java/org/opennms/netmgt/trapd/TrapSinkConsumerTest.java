@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opennms.core.ipc.sink.api.MessageConsumerManager;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.TrapdConfig;
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.opennms.netmgt.xml.eventconf.LogDestType;
+import org.opennms.netmgt.xml.eventconf.Logmsg;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class TrapSinkConsumerTest {
+
+    private static final InetAddress TRAP_ADDRESS = InetAddressUtils.addr("192.168.1.1");
+
+    private TrapSinkConsumer consumer;
+    private InterfaceToNodeCache interfaceToNodeCache;
+    private EventConfDao eventConfDao;
+    private EventForwarder eventForwarder;
+
+    @Before
+    public void setUp() throws Exception {
+        interfaceToNodeCache = mock(InterfaceToNodeCache.class);
+        when(interfaceToNodeCache.getFirstNodeId(anyString(), any(InetAddress.class))).thenReturn(Optional.of(42));
+
+        final org.opennms.netmgt.xml.eventconf.Event trapDefinition = new org.opennms.netmgt.xml.eventconf.Event();
+        trapDefinition.setUei("uei.opennms.org/test/trap");
+        final Logmsg discard = new Logmsg();
+        discard.setDest(LogDestType.DISCARDTRAPS);
+        final org.opennms.netmgt.xml.eventconf.Event discardDefinition = new org.opennms.netmgt.xml.eventconf.Event();
+        discardDefinition.setUei("uei.opennms.org/test/discard");
+        discardDefinition.setLogmsg(discard);
+
+        eventConfDao = mock(EventConfDao.class);
+        when(eventConfDao.findByEvent(any(Event.class))).thenAnswer(invocation -> {
+            final Event event = (Event)invocation.getArguments()[0];
+            return event.getSnmp().getSpecific() == 2 ? discardDefinition : trapDefinition;
+        });
+
+        eventForwarder = mock(EventForwarder.class);
+
+        consumer = new TrapSinkConsumer();
+        ReflectionTestUtils.setField(consumer, "messageConsumerManager", mock(MessageConsumerManager.class));
+        ReflectionTestUtils.setField(consumer, "eventConfDao", eventConfDao);
+        ReflectionTestUtils.setField(consumer, "eventForwarder", eventForwarder);
+        ReflectionTestUtils.setField(consumer, "interfaceToNodeCache", interfaceToNodeCache);
+        ReflectionTestUtils.setField(consumer, "config", mock(TrapdConfig.class));
+        consumer.init();
+    }
+
+    @Test
+    public void canConvertBatchWithSingleNodeLookup() {
+        final long discardedBefore = TrapSinkConsumer.trapdInstrumentation.getTrapsDiscarded();
+
+        final TrapLogDTO messageLog = new TrapLogDTO("systemId", "location", TRAP_ADDRESS);
+        messageLog.addMessage(createTrap(1));
+        messageLog.addMessage(createTrap(2));
+        messageLog.addMessage(createTrap(3));
+        consumer.handleMessage(messageLog);
+
+        // The node is resolved once for the whole batch
+        verify(interfaceToNodeCache, times(1)).getFirstNodeId("location", TRAP_ADDRESS);
+        // The event definitions are only looked up once per trap
+        verify(eventConfDao, times(3)).findByEvent(any(Event.class));
+
+        final ArgumentCaptor<Log> log = ArgumentCaptor.forClass(Log.class);
+        verify(eventForwarder, times(1)).sendNowSync(log.capture());
+        assertEquals(2, log.getValue().getEvents().getEventCount());
+        for (Event event : log.getValue().getEvents().getEventCollection()) {
+            assertEquals("uei.opennms.org/test/trap", event.getUei());
+            assertEquals(Long.valueOf(42), event.getNodeid());
+        }
+        assertEquals(discardedBefore + 1, TrapSinkConsumer.trapdInstrumentation.getTrapsDiscarded());
+        assertEquals(3, TrapSinkConsumer.trapdInstrumentation.getTrapsPerBatchMean(), 0.0);
+        assertTrue(TrapSinkConsumer.trapdInstrumentation.getBatchConversionTimeMean() > 0);
+    }
+
+    private static TrapDTO createTrap(int specific) {
+        final TrapIdentityDTO trapIdentity = new TrapIdentityDTO();
+        trapIdentity.setEnterpriseId(".1.3.6.1.4.1.5813");
+        trapIdentity.setGeneric(6);
+        trapIdentity.setSpecific(specific);
+
+        final TrapDTO trapDTO = new TrapDTO();
+        trapDTO.setAgentAddress(TRAP_ADDRESS);
+        trapDTO.setCommunity("public");
+        trapDTO.setVersion("v1");
+        trapDTO.setCreationTime(System.currentTimeMillis());
+        trapDTO.setTrapIdentity(trapIdentity);
+        return trapDTO;
+    }
+}
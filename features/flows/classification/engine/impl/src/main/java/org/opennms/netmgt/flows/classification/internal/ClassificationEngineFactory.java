@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Factory to create the {@link ClassificationEngine} implementation from a string.
+ * Should help choosing the implementation from blueprint.xml files.
+ *
+ * The returned engines are thread-safe.
+ */
+public class ClassificationEngineFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClassificationEngineFactory.class);
+
+    public static final String DEFAULT = "default";
+
+    public static final String COMPILED = "compiled";
+
+    public static ClassificationEngine createClassificationEngine(String type, ClassificationRuleProvider ruleProvider, FilterService filterService) {
+        if (COMPILED.equalsIgnoreCase(type)) {
+            LOG.debug("Using compiled classification engine");
+            return new CompiledClassificationEngine(ruleProvider, filterService, false);
+        }
+        if (!DEFAULT.equalsIgnoreCase(type)) {
+            LOG.warn("No classification engine found for key {}, falling back to {}", type, DEFAULT);
+        }
+        return new ThreadSafeClassificationEngine(new DefaultClassificationEngine(ruleProvider, filterService, false));
+    }
+}
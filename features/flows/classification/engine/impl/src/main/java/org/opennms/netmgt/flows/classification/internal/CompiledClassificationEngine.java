@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.index.ClassificationIndex;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Classification engine which compiles the rules into a {@link ClassificationIndex}.
+ *
+ * The rules are loaded and compiled by the thread calling {@link #reload()}, since it may hold the transaction
+ * they must be loaded in, one reload after the other. Flows are classified without locking, against the previous
+ * index, while the rules are reloaded. The engine is thread-safe on its own and must not be wrapped in a
+ * {@link ThreadSafeClassificationEngine}.
+ *
+ * {@link #reload()} returns once the new index is in place, so that changes made to the rules apply as soon as
+ * the call returns.
+ */
+public class CompiledClassificationEngine implements ClassificationEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledClassificationEngine.class);
+
+    private final ClassificationRuleProvider ruleProvider;
+    private final FilterService filterService;
+
+    private volatile ClassificationIndex index = ClassificationIndex.EMPTY;
+
+    public CompiledClassificationEngine(ClassificationRuleProvider ruleProvider, FilterService filterService) {
+        this(ruleProvider, filterService, true);
+    }
+
+    public CompiledClassificationEngine(ClassificationRuleProvider ruleProvider, FilterService filterService, boolean initialize) {
+        this.ruleProvider = Objects.requireNonNull(ruleProvider);
+        this.filterService = Objects.requireNonNull(filterService);
+        if (initialize) {
+            this.reload();
+        }
+    }
+
+    @Override
+    public synchronized void reload() {
+        // Sorting the rules here also loads their groups, which are needed once they left the session
+        final List<Rule> rules = new ArrayList<>(ruleProvider.getRules());
+        rules.sort(new RulePriorityComparator());
+
+        final long start = System.currentTimeMillis();
+        final ClassificationIndex newIndex = ClassificationIndex.compile(rules, filterService);
+        LOG.debug("Compiled {} rules in {}ms.", newIndex.getRuleCount(), System.currentTimeMillis() - start);
+        index = newIndex;
+    }
+
+    @Override
+    public String classify(ClassificationRequest classificationRequest) {
+        // We return null instead of 'Undefined', see DefaultClassificationEngine
+        return index.classify(classificationRequest);
+    }
+}
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+
+/**
+ * Maps an address to the set of rules which accept it.
+ *
+ * Wildcard expressions covering whole IPv4 octets (i.e. "10.1-3.*.*") are compiled into prefixes of a radix
+ * trie with a stride of one octet. Expressions which can not be expressed as prefixes (IPv6, wildcards in the
+ * middle of an address, etc.) are always returned as candidates and must be verified by the caller.
+ */
+class AddressIndex {
+
+    /**
+     * Upper bound on the number of prefixes a single expression may expand into.
+     */
+    private static final int MAX_PREFIXES = 4096;
+
+    enum Kind {
+        /** The rule accepts every address */
+        ANY,
+        /** The rule accepts a single address, which is compared literally */
+        EXACT,
+        /** The rule accepts the addresses of one or more prefixes, if the address is a valid IPv4 address */
+        PREFIX,
+        /** The rule must always be verified */
+        RESIDUAL
+    }
+
+    private static class Node {
+        private BitSet rules;
+        private Node[] children;
+    }
+
+    private final BitSet any;
+    private final Map<String, BitSet> exact;
+    private final BitSet residual;
+    private final BitSet prefixed;
+    private final Node root;
+
+    private AddressIndex(Builder builder) {
+        this.any = builder.any;
+        this.exact = builder.exact;
+        this.residual = builder.residual;
+        this.prefixed = builder.prefixed;
+        this.root = builder.root;
+    }
+
+    /**
+     * @param address the address of the flow
+     * @param ipv4 the address as returned by {@link #parseIPv4(String)}
+     * @return the rules which may accept the given address
+     */
+    BitSet lookup(String address, long ipv4) {
+        final BitSet result = (BitSet) any.clone();
+        result.or(residual);
+
+        final BitSet exactRules = exact.get(address);
+        if (exactRules != null) {
+            result.or(exactRules);
+        }
+
+        if (ipv4 < 0) {
+            // We can not walk the trie, let the caller verify all expressions
+            result.or(prefixed);
+            return result;
+        }
+
+        Node node = root;
+        for (int shift = 24; node != null; shift -= 8) {
+            if (node.rules != null) {
+                result.or(node.rules);
+            }
+            if (shift < 0 || node.children == null) {
+                break;
+            }
+            node = node.children[(int) (ipv4 >>> shift) & 0xFF];
+        }
+        return result;
+    }
+
+    /**
+     * Parses the given address as a dotted IPv4 address, the same way {@link org.opennms.core.utils.IPLike} does.
+     *
+     * @return the address as an unsigned 32-bit value, or -1 if the address can not be parsed
+     */
+    static long parseIPv4(String address) {
+        if (address == null) {
+            return -1;
+        }
+
+        long value = 0;
+        int octets = 0;
+        int current = -1;
+        for (int i = 0; i < address.length(); i++) {
+            final char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                current = (current < 0 ? 0 : current * 10) + (c - '0');
+                if (current > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && current >= 0 && octets < 3) {
+                value = (value << 8) | current;
+                octets++;
+                current = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (current < 0 || octets != 3) {
+            return -1;
+        }
+        return (value << 8) | current;
+    }
+
+    /**
+     * Expands the given wildcard expression into prefixes.
+     *
+     * @return the octets of each prefix, or null if the expression can not be expressed as prefixes
+     */
+    static List<int[]> compile(String expression) {
+        if (expression.indexOf(':') >= 0) {
+            return null;
+        }
+
+        final String[] fields = expression.split("\\.", 0);
+        if (fields.length != 4) {
+            return null;
+        }
+
+        // Trailing wildcards are covered by the length of the prefix
+        int length = fields.length;
+        while (length > 0 && "*".equals(fields[length - 1])) {
+            length--;
+        }
+
+        List<int[]> prefixes = Collections.singletonList(new int[0]);
+        for (int i = 0; i < length; i++) {
+            final SortedSet<Integer> octets = parseOctets(fields[i]);
+            if (octets == null || prefixes.size() * octets.size() > MAX_PREFIXES) {
+                return null;
+            }
+
+            final List<int[]> expanded = new ArrayList<>(prefixes.size() * octets.size());
+            for (int[] prefix : prefixes) {
+                for (int octet : octets) {
+                    final int[] next = new int[i + 1];
+                    System.arraycopy(prefix, 0, next, 0, i);
+                    next[i] = octet;
+                    expanded.add(next);
+                }
+            }
+            prefixes = expanded;
+        }
+        return prefixes;
+    }
+
+    private static SortedSet<Integer> parseOctets(String field) {
+        final SortedSet<Integer> octets = new TreeSet<>();
+        if ("*".equals(field)) {
+            for (int i = 0; i <= 255; i++) {
+                octets.add(i);
+            }
+            return octets;
+        }
+
+        for (String element : field.split(",", 0)) {
+            final String[] range = element.split("-", -1);
+            if (range.length > 2) {
+                return null;
+            }
+            final int start = parseOctet(range[0]);
+            final int end = range.length == 1 ? start : parseOctet(range[1]);
+            if (start < 0 || end < 0) {
+                return null;
+            }
+            for (int i = start; i <= end; i++) {
+                octets.add(i);
+            }
+        }
+        return octets;
+    }
+
+    private static int parseOctet(String value) {
+        if (value.isEmpty() || value.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        final int octet = Integer.parseInt(value);
+        return octet <= 255 ? octet : -1;
+    }
+
+    static class Builder {
+        private final BitSet any = new BitSet();
+        private final Map<String, BitSet> exact = new HashMap<>();
+        private final BitSet residual = new BitSet();
+        private final BitSet prefixed = new BitSet();
+        private final Node root = new Node();
+
+        /**
+         * Adds a rule accepting the given address expression, or any address if no expression is defined.
+         *
+         * @return how the expression was indexed
+         */
+        Kind add(int rule, String expression) {
+            final StringValue value = new StringValue(expression);
+            if (value.isNullOrEmpty() || value.isWildcard()) {
+                any.set(rule);
+                return Kind.ANY;
+            }
+            if (!value.hasWildcard()) {
+                exact.computeIfAbsent(expression, key -> new BitSet()).set(rule);
+                return Kind.EXACT;
+            }
+
+            final List<int[]> prefixes = compile(expression);
+            if (prefixes == null) {
+                residual.set(rule);
+                return Kind.RESIDUAL;
+            }
+            for (int[] prefix : prefixes) {
+                insert(prefix, rule);
+            }
+            prefixed.set(rule);
+            return Kind.PREFIX;
+        }
+
+        private void insert(int[] prefix, int rule) {
+            Node node = root;
+            for (int octet : prefix) {
+                if (node.children == null) {
+                    node.children = new Node[256];
+                }
+                if (node.children[octet] == null) {
+                    node.children[octet] = new Node();
+                }
+                node = node.children[octet];
+            }
+            if (node.rules == null) {
+                node.rules = new BitSet();
+            }
+            node.rules.set(rule);
+        }
+
+        AddressIndex build() {
+            return new AddressIndex(this);
+        }
+    }
+}
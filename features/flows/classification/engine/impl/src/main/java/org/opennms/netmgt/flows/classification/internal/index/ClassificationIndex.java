@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.matcher.DstAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.FilterMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.Matcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.SrcAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+
+/**
+ * Immutable index over a set of classification rules.
+ *
+ * The rules are ordered using the {@link RulePriorityComparator} (rules with the same priority keep the order
+ * in which they were provided) and each rule is identified by its position in that order.
+ * A request is classified by narrowing down the set of candidate rules by protocol, then by destination and
+ * source port and finally by destination and source address. The first candidate which also passes the
+ * remaining checks (exporter filters and address expressions which could not be indexed) wins.
+ */
+public class ClassificationIndex {
+
+    public static final ClassificationIndex EMPTY = compile(Collections.emptyList(), FilterService.NOOP);
+
+    private static class CompiledRule {
+        private final String name;
+
+        // Matchers which are not covered by the index
+        private final List<Matcher> matchers = new ArrayList<>();
+
+        // Matchers for the address expressions, only required if the address of the request can not be parsed
+        private Matcher srcAddressMatcher;
+        private Matcher dstAddressMatcher;
+
+        private CompiledRule(String name) {
+            this.name = name;
+        }
+
+        private boolean matches(ClassificationRequest request, boolean srcIndexed, boolean dstIndexed) {
+            if (!srcIndexed && srcAddressMatcher != null && !srcAddressMatcher.matches(request)) {
+                return false;
+            }
+            if (!dstIndexed && dstAddressMatcher != null && !dstAddressMatcher.matches(request)) {
+                return false;
+            }
+            for (Matcher matcher : matchers) {
+                if (!matcher.matches(request)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final CompiledRule[] rules;
+    private final BitSet anyProtocol;
+    private final Map<Integer, BitSet> protocols;
+    private final PortIntervalIndex srcPorts;
+    private final PortIntervalIndex dstPorts;
+    private final AddressIndex srcAddresses;
+    private final AddressIndex dstAddresses;
+
+    private ClassificationIndex(CompiledRule[] rules, BitSet anyProtocol, Map<Integer, BitSet> protocols,
+                                PortIntervalIndex srcPorts, PortIntervalIndex dstPorts,
+                                AddressIndex srcAddresses, AddressIndex dstAddresses) {
+        this.rules = rules;
+        this.anyProtocol = anyProtocol;
+        this.protocols = protocols;
+        this.srcPorts = srcPorts;
+        this.dstPorts = dstPorts;
+        this.srcAddresses = srcAddresses;
+        this.dstAddresses = dstAddresses;
+    }
+
+    public static ClassificationIndex compile(List<Rule> rules, FilterService filterService) {
+        Objects.requireNonNull(filterService);
+
+        // Sort rules by priority, List.sort() is stable
+        final List<Rule> sortedRules = new ArrayList<>(rules);
+        sortedRules.sort(new RulePriorityComparator());
+
+        final CompiledRule[] compiledRules = new CompiledRule[sortedRules.size()];
+        final BitSet anyProtocol = new BitSet();
+        final Map<Integer, BitSet> protocols = new HashMap<>();
+        final PortIntervalIndex.Builder srcPorts = new PortIntervalIndex.Builder();
+        final PortIntervalIndex.Builder dstPorts = new PortIntervalIndex.Builder();
+        final AddressIndex.Builder srcAddresses = new AddressIndex.Builder();
+        final AddressIndex.Builder dstAddresses = new AddressIndex.Builder();
+
+        for (int i = 0; i < compiledRules.length; i++) {
+            final Rule rule = sortedRules.get(i);
+            final CompiledRule compiledRule = new CompiledRule(rule.getName());
+            compiledRules[i] = compiledRule;
+
+            if (rule.hasProtocolDefinition()) {
+                // Protocols which are unknown are ignored, same as the ProtocolMatcher does
+                for (StringValue keyword : new StringValue(rule.getProtocol()).splitBy(",")) {
+                    final Protocol protocol = Protocols.getProtocol(keyword.getValue());
+                    if (protocol != null) {
+                        protocols.computeIfAbsent(protocol.getDecimal(), key -> new BitSet()).set(i);
+                    }
+                }
+            } else {
+                anyProtocol.set(i);
+            }
+
+            if (rule.hasSrcPortDefinition()) {
+                srcPorts.add(i, new PortValue(rule.getSrcPort()).getPorts());
+            } else {
+                srcPorts.addAny(i);
+            }
+            if (rule.hasDstPortDefinition()) {
+                dstPorts.add(i, new PortValue(rule.getDstPort()).getPorts());
+            } else {
+                dstPorts.addAny(i);
+            }
+
+            switch (srcAddresses.add(i, rule.getSrcAddress())) {
+                case PREFIX:
+                    compiledRule.srcAddressMatcher = new SrcAddressMatcher(rule.getSrcAddress());
+                    break;
+                case RESIDUAL:
+                    compiledRule.matchers.add(new SrcAddressMatcher(rule.getSrcAddress()));
+                    break;
+                default:
+                    break;
+            }
+            switch (dstAddresses.add(i, rule.getDstAddress())) {
+                case PREFIX:
+                    compiledRule.dstAddressMatcher = new DstAddressMatcher(rule.getDstAddress());
+                    break;
+                case RESIDUAL:
+                    compiledRule.matchers.add(new DstAddressMatcher(rule.getDstAddress()));
+                    break;
+                default:
+                    break;
+            }
+
+            if (rule.hasExportFilterDefinition()) {
+                compiledRule.matchers.add(new FilterMatcher(rule.getExporterFilter(), filterService));
+            }
+        }
+
+        // Rules without a protocol apply to all protocols
+        protocols.values().forEach(rulesForProtocol -> rulesForProtocol.or(anyProtocol));
+
+        return new ClassificationIndex(compiledRules, anyProtocol, protocols,
+                srcPorts.build(), dstPorts.build(),
+                srcAddresses.build(), dstAddresses.build());
+    }
+
+    public String classify(ClassificationRequest request) {
+        if (request.getProtocol() == null || request.getSrcPort() == null || request.getDstPort() == null) {
+            return null;
+        }
+
+        final BitSet candidates = (BitSet) protocols.getOrDefault(request.getProtocol().getDecimal(), anyProtocol).clone();
+        candidates.and(dstPorts.lookup(request.getDstPort()));
+        candidates.and(srcPorts.lookup(request.getSrcPort()));
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        final long dstAddress = AddressIndex.parseIPv4(request.getDstAddress());
+        candidates.and(dstAddresses.lookup(request.getDstAddress(), dstAddress));
+        final long srcAddress = AddressIndex.parseIPv4(request.getSrcAddress());
+        candidates.and(srcAddresses.lookup(request.getSrcAddress(), srcAddress));
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (rules[i].matches(request, srcAddress >= 0, dstAddress >= 0)) {
+                return rules[i].name;
+            }
+        }
+        return null;
+    }
+
+    public int getRuleCount() {
+        return rules.length;
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Maps a port to the set of rules which accept it.
+ *
+ * The ports of all rules are flattened into disjoint intervals, each of which holds the rules covering it,
+ * so that a lookup is a binary search over the interval boundaries.
+ */
+class PortIntervalIndex {
+
+    private final int[] starts;
+    private final BitSet[] segments;
+
+    private PortIntervalIndex(int[] starts, BitSet[] segments) {
+        this.starts = starts;
+        this.segments = segments;
+    }
+
+    /**
+     * @return the rules accepting the given port. The returned set must not be modified.
+     */
+    BitSet lookup(int port) {
+        int index = Arrays.binarySearch(starts, port);
+        if (index < 0) {
+            // Use the segment starting before the port
+            index = -index - 2;
+        }
+        return segments[index];
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    static class Builder {
+        private final BitSet any = new BitSet();
+        private final List<int[]> intervals = new ArrayList<>();
+
+        /**
+         * Adds a rule accepting every port.
+         */
+        void addAny(int rule) {
+            any.set(rule);
+        }
+
+        /**
+         * Adds a rule accepting the given ports.
+         */
+        void add(int rule, Set<Integer> ports) {
+            final int[] sorted = ports.stream().mapToInt(Integer::intValue).sorted().toArray();
+            int i = 0;
+            while (i < sorted.length) {
+                // Merge consecutive ports into a single interval
+                int j = i;
+                while (j + 1 < sorted.length && sorted[j + 1] == sorted[j] + 1) {
+                    j++;
+                }
+                intervals.add(new int[]{rule, sorted[i], sorted[j]});
+                i = j + 1;
+            }
+        }
+
+        PortIntervalIndex build() {
+            final TreeSet<Integer> boundaries = new TreeSet<>();
+            boundaries.add(Integer.MIN_VALUE);
+            for (int[] interval : intervals) {
+                boundaries.add(interval[1]);
+                if (interval[2] < Integer.MAX_VALUE) {
+                    boundaries.add(interval[2] + 1);
+                }
+            }
+
+            final int[] starts = boundaries.stream().mapToInt(Integer::intValue).toArray();
+            final BitSet[] segments = new BitSet[starts.length];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = (BitSet) any.clone();
+            }
+            for (int[] interval : intervals) {
+                final int first = Arrays.binarySearch(starts, interval[1]);
+                for (int i = first; i < starts.length && starts[i] <= interval[2]; i++) {
+                    segments[i].set(interval[0]);
+                }
+            }
+            return new PortIntervalIndex(starts, segments);
+        }
+    }
+}
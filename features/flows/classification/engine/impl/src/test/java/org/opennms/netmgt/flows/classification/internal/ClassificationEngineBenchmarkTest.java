@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.springframework.test.annotation.IfProfileValue;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Compares the classification engines using a large set of custom rules.
+ * The engines are wrapped in a {@link TimingClassificationEngine} to gather the timings.
+ */
+public class ClassificationEngineBenchmarkTest {
+
+    private static final int RULE_COUNT = 2000;
+
+    private static final int REQUEST_COUNT = 20000;
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkDefaultClassificationEngine() {
+        benchmark("default", (ruleProvider) -> new DefaultClassificationEngine(ruleProvider, FilterService.NOOP, false));
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkCompiledClassificationEngine() {
+        benchmark("compiled", (ruleProvider) -> new CompiledClassificationEngine(ruleProvider, FilterService.NOOP, false));
+    }
+
+    private interface EngineFactory {
+        ClassificationEngine createEngine(ClassificationRuleProvider ruleProvider);
+    }
+
+    private static void benchmark(String name, EngineFactory engineFactory) {
+        final List<Rule> rules = createRules(new Random(1));
+        final List<ClassificationRequest> requests = createRequests(new Random(2));
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final ClassificationEngine engine = new TimingClassificationEngine(metricRegistry, engineFactory.createEngine(() -> rules));
+        engine.reload();
+
+        // Warm up
+        for (ClassificationRequest request : requests) {
+            engine.classify(request);
+        }
+        final Timer classifyTimer = metricRegistry.timer("classify");
+        final long warmUpCount = classifyTimer.getCount();
+
+        int classified = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            for (ClassificationRequest request : requests) {
+                if (engine.classify(request) != null) {
+                    classified++;
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        final Snapshot snapshot = classifyTimer.getSnapshot();
+        System.out.printf("%s: reload took %d ms, classified %d/%d flows at %.0f flows/s (mean %.0f ns, p99 %.0f ns)\n",
+                name, (long) (metricRegistry.timer("reload").getSnapshot().getMax() / 1e6),
+                classified, classifyTimer.getCount() - warmUpCount, (classifyTimer.getCount() - warmUpCount) * 1e9 / elapsed,
+                snapshot.getMean(), snapshot.get99thPercentile());
+    }
+
+    private static List<Rule> createRules(Random random) {
+        final List<Rule> rules = new ArrayList<>(RULE_COUNT);
+        for (int i = 0; i < RULE_COUNT; i++) {
+            final RuleBuilder builder = new RuleBuilder().withName("rule" + i);
+            if (i % 100 == 0) {
+                // A few rules for all ports
+                builder.withDstAddress(String.format("10.%d.*.*", random.nextInt(256)));
+            } else if (i % 10 == 0) {
+                builder.withDstPort(String.format("%d-%d", 1024 + i, 1024 + i + random.nextInt(100)));
+            } else {
+                builder.withDstPort(random.nextInt(1024));
+                switch (random.nextInt(4)) {
+                    case 0:
+                        builder.withDstAddress(String.format("10.%d.%d.%d", random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+                        break;
+                    case 1:
+                        builder.withSrcAddress(String.format("192.168.%d.*", random.nextInt(256)));
+                        break;
+                    case 2:
+                        builder.withProtocol(random.nextBoolean() ? "tcp" : "udp");
+                        break;
+                    default:
+                        break;
+                }
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
+    private static List<ClassificationRequest> createRequests(Random random) {
+        final List<ClassificationRequest> requests = new ArrayList<>(REQUEST_COUNT);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            requests.add(new ClassificationRequestBuilder()
+                    .withLocation("Default")
+                    .withProtocol(random.nextBoolean() ? ProtocolType.TCP : ProtocolType.UDP)
+                    .withSrcAddress(String.format("192.168.%d.%d", random.nextInt(256), random.nextInt(256)))
+                    .withSrcPort(1024 + random.nextInt(64511))
+                    .withDstAddress(String.format("10.%d.%d.%d", random.nextInt(256), random.nextInt(256), random.nextInt(256)))
+                    .withDstPort(random.nextInt(4096))
+                    .build());
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.exception.InvalidFilterException;
+import org.opennms.netmgt.flows.classification.internal.classifier.CombinedClassifier;
+import org.opennms.netmgt.flows.classification.persistence.api.Group;
+import org.opennms.netmgt.flows.classification.persistence.api.GroupBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+
+import com.google.common.collect.Lists;
+
+public class CompiledClassificationEngineTest {
+
+    // Exporters in 10.0.0.0/8 match all filters
+    private static final FilterService FILTER_SERVICE = new FilterService() {
+        @Override
+        public void validate(String filterExpression) throws InvalidFilterException {
+
+        }
+
+        @Override
+        public boolean matches(String address, String filterExpression) {
+            return address != null && address.startsWith("10.");
+        }
+    };
+
+    @Test
+    public void verifyRuleEngineBasic() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+            Lists.newArrayList(
+                    new RuleBuilder().withName("rule1").withSrcPort(80).build(),
+                    new RuleBuilder().withName("rule2").withDstPort(443).build(),
+                    new RuleBuilder().withName("rule3").withSrcPort(8888).withDstPort(9999).build(),
+                    new RuleBuilder().withName("rule4").withSrcPort(8888).withDstPort(80).build(),
+                    new RuleBuilder().withName("rule5").build()
+            ), FilterService.NOOP);
+
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(443).withProtocol(ProtocolType.TCP).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(9999).withProtocol(ProtocolType.TCP).build()));
+        assertEquals("rule4", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(80).withProtocol(ProtocolType.TCP).build()));
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(1234).withProtocol(ProtocolType.TCP).build()));
+        assertEquals("rule5", engine.classify(new ClassificationRequestBuilder().withSrcPort(1234).withDstPort(1234).withProtocol(ProtocolType.TCP).build()));
+    }
+
+    @Test
+    public void verifyAddressExpressions() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("PREFIX").withDstAddress("192.168.1-3.*").build(),
+                new RuleBuilder().withName("SPARSE").withDstAddress("172.16.*.1").build(),
+                new RuleBuilder().withName("LIST").withDstAddress("10.0.0.1,2").build(),
+                new RuleBuilder().withName("IPV6").withDstAddress("fe80:*:*:*:*:*:*:*").build(),
+                new RuleBuilder().withName("EXACT").withDstAddress("10.0.0.1").build()
+        ), FilterService.NOOP);
+
+        assertEquals("PREFIX", engine.classify(request("192.168.2.200", 80)));
+        assertEquals(null, engine.classify(request("192.168.4.200", 80)));
+        assertEquals("SPARSE", engine.classify(request("172.16.99.1", 80)));
+        assertEquals(null, engine.classify(request("172.16.99.2", 80)));
+        assertEquals("EXACT", engine.classify(request("10.0.0.1", 80)));
+        assertEquals("IPV6", engine.classify(request("fe80:0:0:0:0:0:0:1", 80)));
+
+        // Addresses are parsed the same way IPLike does
+        assertEquals("PREFIX", engine.classify(request("192.168.002.1", 80)));
+        assertEquals("PREFIX", engine.classify(request("192.168.2.1.", 80)));
+    }
+
+    @Test
+    public void verifyReload() {
+        final List<Rule> rules = Lists.newArrayList(new RuleBuilder().withName("HTTP").withDstPort(80).build());
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> new ArrayList<>(rules), FilterService.NOOP);
+        assertEquals("HTTP", engine.classify(request("10.0.0.1", 80)));
+
+        rules.add(new RuleBuilder().withName("HTTP_CUSTOM").withDstPort(80).withDstAddress("10.0.0.1").build());
+        assertEquals("HTTP", engine.classify(request("10.0.0.1", 80)));
+
+        engine.reload();
+        assertEquals("HTTP_CUSTOM", engine.classify(request("10.0.0.1", 80)));
+    }
+
+    @Test
+    public void verifyReloadWhenInterrupted() {
+        final List<Rule> rules = Lists.newArrayList(new RuleBuilder().withName("HTTP").withDstPort(80).build());
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> new ArrayList<>(rules), FilterService.NOOP);
+
+        rules.add(new RuleBuilder().withName("HTTP_CUSTOM").withDstPort(80).withDstAddress("10.0.0.1").build());
+        Thread.currentThread().interrupt();
+        try {
+            engine.reload();
+            assertEquals("HTTP_CUSTOM", engine.classify(request("10.0.0.1", 80)));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Verifies that the index yields the same results as evaluating all of the rules in order of their priority.
+     */
+    @Test
+    public void verifyMatchesAllRulesInOrder() {
+        final Random random = new Random(42);
+        final Group[] groups = new Group[] {
+                new GroupBuilder().withName("system").withPriority(0).build(),
+                new GroupBuilder().withName("user").withPriority(10).build()
+        };
+        final String[] ports = new String[] { null, "80", "443", "8000-8100", "22,23", "53" };
+        final String[] addresses = new String[] { null, "*", "10.0.0.1", "10.0.*.*", "10.1-3.*.*", "192.168.*.5", "10.0.0.1,2", "fe80:*:*:*:*:*:*:*" };
+        final String[] protocols = new String[] { null, "tcp", "udp", "tcp,udp", "unknown" };
+
+        final List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final RuleBuilder builder = new RuleBuilder()
+                    .withName("rule" + i)
+                    .withSrcPort(pick(random, ports))
+                    .withDstPort(pick(random, ports))
+                    .withSrcAddress(pick(random, addresses))
+                    .withDstAddress(pick(random, addresses))
+                    .withProtocol(pick(random, protocols))
+                    .withGroup(pick(random, groups));
+            if (random.nextInt(10) == 0) {
+                builder.withExporterFilter("categoryName == 'Servers'");
+            }
+            rules.add(builder.build());
+        }
+
+        final List<Rule> sortedRules = new ArrayList<>(rules);
+        sortedRules.sort(new RulePriorityComparator());
+        final List<CombinedClassifier> classifiers = new ArrayList<>();
+        sortedRules.forEach(rule -> classifiers.add(new CombinedClassifier(rule, FILTER_SERVICE)));
+
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> rules, FILTER_SERVICE);
+
+        final String[] requestAddresses = new String[] { "10.0.0.1", "10.0.5.5", "10.2.1.1", "192.168.7.5", "172.16.0.1", "fe80:0:0:0:0:0:0:1" };
+        final int[] requestPorts = new int[] { 80, 443, 8050, 8100, 22, 53, 1234 };
+        for (int i = 0; i < 10000; i++) {
+            final ClassificationRequest request = new ClassificationRequestBuilder()
+                    .withProtocol(random.nextBoolean() ? ProtocolType.TCP : ProtocolType.UDP)
+                    .withSrcAddress(requestAddresses[random.nextInt(requestAddresses.length)])
+                    .withSrcPort(requestPorts[random.nextInt(requestPorts.length)])
+                    .withDstAddress(requestAddresses[random.nextInt(requestAddresses.length)])
+                    .withDstPort(requestPorts[random.nextInt(requestPorts.length)])
+                    .withExporterAddress(random.nextBoolean() ? "10.10.10.10" : "127.0.0.1")
+                    .build();
+
+            final String expected = classifiers.stream()
+                    .map(classifier -> classifier.classify(request))
+                    .filter(name -> name != null)
+                    .findFirst()
+                    .orElse(null);
+            assertEquals(expected, engine.classify(request));
+        }
+    }
+
+    /**
+     * Verifies that both engines classify randomly generated flows the same way for randomly generated rule sets.
+     *
+     * Rules of the same priority may be applied in any order, so the engines only have to agree on the priority
+     * of the rule that matched. The rules define either a source or a destination port, but not both, since the
+     * {@link DefaultClassificationEngine} only checks the source port of such rules when they are found through
+     * the source port of the flow. {@link #verifyMatchesAllRulesInOrder()} covers them.
+     */
+    @Test
+    public void verifyEquivalentToDefaultClassificationEngine() {
+        final long seed = System.currentTimeMillis();
+        final Random random = new Random(seed);
+
+        for (int round = 0; round < 5; round++) {
+            final Group[] groups = new Group[] {
+                    new GroupBuilder().withName("system").withPriority(0).build(),
+                    new GroupBuilder().withName("user").withPriority(10).build(),
+                    new GroupBuilder().withName("other").withPriority(5).build()
+            };
+            final List<Rule> rules = new ArrayList<>();
+            final int numRules = 1 + random.nextInt(100);
+            for (int i = 0; i < numRules; i++) {
+                final String ports = randomPorts(random);
+                final boolean srcPorts = random.nextBoolean();
+                final RuleBuilder builder = new RuleBuilder()
+                        .withName("rule" + i)
+                        .withSrcPort(srcPorts ? ports : null)
+                        .withDstPort(srcPorts ? null : ports)
+                        .withSrcAddress(randomAddress(random))
+                        .withDstAddress(randomAddress(random))
+                        .withProtocol(pick(random, new String[] { null, "tcp", "udp", "tcp,udp", "icmp" }))
+                        .withGroup(pick(random, groups));
+                if (random.nextInt(10) == 0) {
+                    builder.withExporterFilter("categoryName == 'Servers'");
+                }
+                rules.add(builder.build());
+            }
+
+            final Map<String, Rule> rulesByName = rules.stream().collect(Collectors.toMap(Rule::getName, Function.identity()));
+            final ClassificationEngine expectedEngine = new DefaultClassificationEngine(() -> rules, FILTER_SERVICE);
+            final ClassificationEngine engine = new CompiledClassificationEngine(() -> rules, FILTER_SERVICE);
+
+            for (int i = 0; i < 5000; i++) {
+                final ClassificationRequest request = new ClassificationRequestBuilder()
+                        .withProtocol(random.nextBoolean() ? ProtocolType.TCP : ProtocolType.UDP)
+                        .withSrcAddress(randomRequestAddress(random))
+                        .withSrcPort(randomRequestPort(random))
+                        .withDstAddress(randomRequestAddress(random))
+                        .withDstPort(randomRequestPort(random))
+                        .withExporterAddress(random.nextBoolean() ? "10.10.10.10" : "127.0.0.1")
+                        .build();
+                final String expected = expectedEngine.classify(request);
+                final String actual = engine.classify(request);
+                final String message = "Classification differs with seed " + seed + ": expected " + expected + ", got " + actual;
+                if (expected == null || actual == null) {
+                    assertEquals(message, expected, actual);
+                } else {
+                    final Rule actualRule = rulesByName.get(actual);
+                    assertEquals(message, 0, new RulePriorityComparator().compare(rulesByName.get(expected), actualRule));
+                    assertEquals(message, actual, new CombinedClassifier(actualRule, FILTER_SERVICE).classify(request));
+                }
+            }
+        }
+    }
+
+    private static final int[] PORTS = new int[] { 0, 22, 53, 80, 443, 8080, 65535 };
+
+    private static String randomPorts(Random random) {
+        switch (random.nextInt(5)) {
+            case 0:
+                return Integer.toString(PORTS[random.nextInt(PORTS.length)]);
+            case 1:
+                final int start = random.nextInt(9000);
+                return start + "-" + (start + random.nextInt(200));
+            case 2:
+                return PORTS[random.nextInt(PORTS.length)] + "," + PORTS[random.nextInt(PORTS.length)];
+            default:
+                return null;
+        }
+    }
+
+    private static int randomRequestPort(Random random) {
+        return random.nextBoolean() ? PORTS[random.nextInt(PORTS.length)] : random.nextInt(9200);
+    }
+
+    private static String randomAddress(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return "*";
+            case 1:
+                return "fe80:*:*:*:*:*:*:" + Integer.toHexString(random.nextInt(4));
+            case 2:
+            case 3:
+                final StringBuilder sb = new StringBuilder(random.nextBoolean() ? "10" : "192");
+                for (int i = 0; i < 3; i++) {
+                    sb.append('.');
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            sb.append('*');
+                            break;
+                        case 1:
+                            final int start = random.nextInt(4);
+                            sb.append(start).append('-').append(start + random.nextInt(3));
+                            break;
+                        case 2:
+                            sb.append(random.nextInt(4)).append(',').append(random.nextInt(4));
+                            break;
+                        default:
+                            sb.append(random.nextInt(4));
+                            break;
+                    }
+                }
+                return sb.toString();
+            default:
+                return null;
+        }
+    }
+
+    private static String randomRequestAddress(Random random) {
+        if (random.nextInt(10) == 0) {
+            return "fe80:0:0:0:0:0:0:" + Integer.toHexString(random.nextInt(4));
+        }
+        return (random.nextBoolean() ? "10" : "192") + "." + random.nextInt(5) + "." + random.nextInt(5) + "." + random.nextInt(5);
+    }
+
+    private static ClassificationRequest request(String dstAddress, int dstPort) {
+        return new ClassificationRequest("Default", 0, "127.0.0.1", dstPort, dstAddress, ProtocolType.TCP);
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
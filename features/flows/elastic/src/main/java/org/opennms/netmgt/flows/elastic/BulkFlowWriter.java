@@ -0,0 +1,478 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.flows.api.FlowException;
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkRequest;
+import org.opennms.plugins.elasticsearch.rest.index.IndexStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import io.searchbox.client.AbstractJestClient;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+
+/**
+ * Writes flow documents to Elasticsearch asynchronously, using bulk requests.
+ *
+ * Documents are serialized as they are submitted and collected until either the maximum number of documents
+ * or bytes per bulk is reached, or the flush interval expires. Up to {@link #setMaxInFlightBulks(int)} bulk
+ * requests are executed concurrently. Documents which failed with a transient error (429 or 5xx) are retried
+ * with the same back-off as {@link BulkRequest}, while documents which were rejected are dropped.
+ *
+ * The number of documents and bytes which are queued or in-flight is bounded. Once either limit is reached,
+ * {@link #submit(List)} blocks until there is room for the whole batch, and rejects the batch if this
+ * takes longer than {@link #setOfferTimeoutMs(long)}. A batch is either queued completely or not at all.
+ */
+public class BulkFlowWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkFlowWriter.class);
+
+    // Same settings as used by the RestClientFactory
+    private static final Gson gson = new GsonBuilder()
+            .setDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT)
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+
+    /**
+     * Approximate number of bytes used for the action line of each document in a bulk request.
+     */
+    private static final int ACTION_OVERHEAD = 64;
+
+    private static class Document {
+        private final String index;
+        private final String source;
+        private final int size;
+
+        private Document(String index, String source, int maxSize) {
+            this.index = index;
+            this.source = source;
+            this.size = Math.min(source.length() + index.length() + ACTION_OVERHEAD, maxSize);
+        }
+    }
+
+    private static class PendingBulk {
+        private List<Document> documents;
+        private int attempts = 0;
+
+        private PendingBulk(List<Document> documents) {
+            this.documents = documents;
+        }
+    }
+
+    private final JestClient client;
+    private final IndexStrategy indexStrategy;
+    private final String type;
+
+    private boolean enabled = false;
+    private int maxBulkDocuments = 1000;
+    private int maxBulkBytes = 5 * 1024 * 1024;
+    private long flushIntervalMs = 1000;
+    private int maxInFlightBulks = 4;
+    private int maxQueuedDocuments = 100000;
+    private int maxQueuedBytes = 256 * 1024 * 1024;
+    private long offerTimeoutMs = 5000;
+    private int retryCount = 5;
+
+    private final Object lock = new Object();
+    private List<Document> pending = new ArrayList<>();
+    private long pendingBytes = 0;
+    private final Deque<PendingBulk> ready = new ArrayDeque<>();
+    private int inFlight = 0;
+
+    private Semaphore queuedDocuments;
+    private Semaphore queuedBytes;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Flows/second throughput
+     */
+    private final Meter flowsPersistedMeter;
+
+    /**
+     * Flows which were rejected, because the queue was full
+     */
+    private final Meter flowsRejectedMeter;
+
+    /**
+     * Flows which were dropped, because they could not be persisted
+     */
+    private final Meter flowsFailedMeter;
+
+    /**
+     * Flows which were retried
+     */
+    private final Meter flowsRetriedMeter;
+
+    /**
+     * Time taken to execute a bulk request
+     */
+    private final Timer bulkLatencyTimer;
+
+    /**
+     * Number of flows per bulk request
+     */
+    private final Histogram flowsPerBulk;
+
+    public BulkFlowWriter(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy) {
+        this(metricRegistry, jestClient, indexStrategy, ElasticFlowRepository.TYPE);
+    }
+
+    protected BulkFlowWriter(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy, String type) {
+        this.client = Objects.requireNonNull(jestClient);
+        this.indexStrategy = Objects.requireNonNull(indexStrategy);
+        this.type = Objects.requireNonNull(type);
+
+        flowsPersistedMeter = metricRegistry.meter("flowsPersisted");
+        flowsRejectedMeter = metricRegistry.meter("bulkFlowsRejected");
+        flowsFailedMeter = metricRegistry.meter("bulkFlowsFailed");
+        flowsRetriedMeter = metricRegistry.meter("bulkFlowsRetried");
+        bulkLatencyTimer = metricRegistry.timer("bulkLatency");
+        flowsPerBulk = metricRegistry.histogram("flowsPerBulk");
+        metricRegistry.register("bulkQueuedFlows", (Gauge<Integer>) () -> queuedDocuments == null ? 0 : maxQueuedDocuments - queuedDocuments.availablePermits());
+        metricRegistry.register("bulkQueuedBytes", (Gauge<Integer>) () -> queuedBytes == null ? 0 : maxQueuedBytes - queuedBytes.availablePermits());
+        metricRegistry.register("bulkInFlight", (Gauge<Integer>) () -> {
+            synchronized (lock) {
+                return inFlight;
+            }
+        });
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        // Fair, so that large batches are not starved by smaller ones
+        queuedDocuments = new Semaphore(maxQueuedDocuments, true);
+        queuedBytes = new Semaphore(maxQueuedBytes, true);
+
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("flow-bulk-writer-%d")
+                .setDaemon(true)
+                .build();
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() throws InterruptedException {
+        if (scheduler == null) {
+            return;
+        }
+
+        // Give the queued documents a chance to be written
+        flush();
+        final long deadline = System.currentTimeMillis() + offerTimeoutMs;
+        while (queuedDocuments.availablePermits() < maxQueuedDocuments && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        final int remaining = maxQueuedDocuments - queuedDocuments.availablePermits();
+        if (remaining > 0) {
+            LOG.warn("Stopping with {} flows which were not persisted yet.", remaining);
+        }
+
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    public boolean isEnabled() {
+        return enabled && scheduler != null;
+    }
+
+    /**
+     * Queues the given documents.
+     *
+     * Either all of the documents are queued, or none of them are.
+     *
+     * @throws FlowException if the documents could not be queued within the offer timeout
+     */
+    public void submit(List<FlowDocument> flowDocuments) throws FlowException {
+        final List<Document> documents = new ArrayList<>(flowDocuments.size());
+        long bytes = 0;
+        for (FlowDocument flowDocument : flowDocuments) {
+            final String index = indexStrategy.getIndex(type, Instant.ofEpochMilli(flowDocument.getTimestamp()));
+            final Document document = new Document(index, gson.toJson(flowDocument), maxQueuedBytes);
+            documents.add(document);
+            bytes += document.size;
+        }
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        if (documents.size() > maxQueuedDocuments || bytes > maxQueuedBytes) {
+            // The batch would never fit, don't wait for it
+            flowsRejectedMeter.mark(documents.size());
+            throw new FlowException(String.format("The flow batch exceeds the queue size. Rejected %d flows (%d bytes).", documents.size(), bytes));
+        }
+
+        if (!acquire(documents.size(), (int) bytes)) {
+            flowsRejectedMeter.mark(documents.size());
+            throw new FlowException(String.format("The flow queue is full. Rejected %d flows.", documents.size()));
+        }
+        for (Document document : documents) {
+            enqueue(document);
+        }
+        send();
+    }
+
+    private boolean acquire(int count, int bytes) throws FlowException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMs);
+        try {
+            if (!queuedDocuments.tryAcquire(count, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            if (!queuedBytes.tryAcquire(bytes, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                queuedDocuments.release(count);
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowException("Interrupted while queuing flows.", e);
+        }
+    }
+
+    private void release(List<Document> documents) {
+        int bytes = 0;
+        for (Document document : documents) {
+            bytes += document.size;
+        }
+        queuedDocuments.release(documents.size());
+        queuedBytes.release(bytes);
+    }
+
+    private void enqueue(Document document) {
+        synchronized (lock) {
+            if (!pending.isEmpty() && pendingBytes + document.size > maxBulkBytes) {
+                takePending();
+            }
+            pending.add(document);
+            pendingBytes += document.size;
+            if (pending.size() >= maxBulkDocuments || pendingBytes >= maxBulkBytes) {
+                takePending();
+            }
+        }
+    }
+
+    private void takePending() {
+        ready.add(new PendingBulk(pending));
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+    }
+
+    private void flush() {
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                takePending();
+            }
+        }
+        send();
+    }
+
+    private void send() {
+        while (true) {
+            final PendingBulk bulk;
+            synchronized (lock) {
+                if (inFlight >= maxInFlightBulks || ready.isEmpty()) {
+                    return;
+                }
+                bulk = ready.poll();
+                inFlight++;
+            }
+            execute(bulk);
+        }
+    }
+
+    private void execute(PendingBulk bulk) {
+        final Bulk.Builder bulkBuilder = new Bulk.Builder();
+        for (Document document : bulk.documents) {
+            bulkBuilder.addAction(new Index.Builder(document.source)
+                    .index(document.index)
+                    .type(type)
+                    .build());
+        }
+
+        bulk.attempts++;
+        flowsPerBulk.update(bulk.documents.size());
+        final Timer.Context ctx = bulkLatencyTimer.time();
+        try {
+            client.executeAsync(bulkBuilder.build(), new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    ctx.stop();
+                    onCompleted(bulk, result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    ctx.stop();
+                    retryOrDrop(bulk, bulk.documents, ex.getMessage());
+                }
+            });
+        } catch (RuntimeException ex) {
+            ctx.stop();
+            retryOrDrop(bulk, bulk.documents, ex.getMessage());
+        }
+    }
+
+    private void onCompleted(PendingBulk bulk, BulkResult result) {
+        if (result.isSucceeded()) {
+            flowsPersistedMeter.mark(bulk.documents.size());
+            release(bulk.documents);
+            finish();
+            return;
+        }
+
+        final List<BulkResult.BulkResultItem> items = result.getItems();
+        if (items.size() != bulk.documents.size()) {
+            // The request failed as a whole
+            retryOrDrop(bulk, bulk.documents, result.getErrorMessage());
+            return;
+        }
+
+        // Only some of the documents failed
+        final List<Document> succeeded = new ArrayList<>();
+        final List<Document> retryable = new ArrayList<>();
+        final List<Document> rejected = new ArrayList<>();
+        String rejectReason = null;
+        for (int i = 0; i < items.size(); i++) {
+            final BulkResult.BulkResultItem item = items.get(i);
+            if (item.error == null || item.error.isEmpty()) {
+                succeeded.add(bulk.documents.get(i));
+            } else if (item.status == 429 || item.status >= 500) {
+                retryable.add(bulk.documents.get(i));
+            } else {
+                rejected.add(bulk.documents.get(i));
+                rejectReason = item.error;
+            }
+        }
+
+        flowsPersistedMeter.mark(succeeded.size());
+        release(succeeded);
+
+        if (!rejected.isEmpty()) {
+            LOG.warn("Dropping {} flows which were rejected by Elasticsearch: {}", rejected.size(), rejectReason);
+            flowsFailedMeter.mark(rejected.size());
+            release(rejected);
+        }
+
+        if (retryable.isEmpty()) {
+            finish();
+        } else {
+            retryOrDrop(bulk, retryable, result.getErrorMessage());
+        }
+    }
+
+    private void retryOrDrop(PendingBulk bulk, List<Document> documents, String errorMessage) {
+        LOG.info("An error occurred while executing the bulk request: {}.", errorMessage);
+
+        final ScheduledExecutorService scheduler = this.scheduler;
+        if (bulk.attempts >= retryCount || scheduler == null) {
+            LOG.warn("Dropping {} flows after {} attempts.", documents.size(), bulk.attempts);
+            flowsFailedMeter.mark(documents.size());
+            release(documents);
+            finish();
+            return;
+        }
+
+        // The bulk keeps its slot while waiting, which slows us down while Elasticsearch is struggling
+        bulk.documents = documents;
+        flowsRetriedMeter.mark(documents.size());
+        final long sleepTime = BulkRequest.getSleepTime(bulk.attempts);
+        LOG.info("Retrying {} flows in {} ms.", documents.size(), sleepTime);
+        scheduler.schedule(() -> execute(bulk), sleepTime, TimeUnit.MILLISECONDS);
+    }
+
+    private void finish() {
+        synchronized (lock) {
+            inFlight--;
+        }
+        send();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaxBulkDocuments(int maxBulkDocuments) {
+        this.maxBulkDocuments = Math.max(1, maxBulkDocuments);
+    }
+
+    public void setMaxBulkBytes(int maxBulkBytes) {
+        this.maxBulkBytes = Math.max(1, maxBulkBytes);
+    }
+
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+    }
+
+    public void setMaxInFlightBulks(int maxInFlightBulks) {
+        this.maxInFlightBulks = Math.max(1, maxInFlightBulks);
+    }
+
+    public void setMaxQueuedDocuments(int maxQueuedDocuments) {
+        this.maxQueuedDocuments = Math.max(1, maxQueuedDocuments);
+    }
+
+    public void setMaxQueuedBytes(int maxQueuedBytes) {
+        this.maxQueuedBytes = Math.max(1, maxQueuedBytes);
+    }
+
+    public void setOfferTimeoutMs(long offerTimeoutMs) {
+        this.offerTimeoutMs = Math.max(0, offerTimeoutMs);
+    }
+
+    public void setRetryCount(int retryCount) {
+        this.retryCount = Math.max(1, retryCount);
+    }
+}
@@ -45,6 +45,7 @@ import org.opennms.netmgt.flows.api.FlowSource;
 import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
 import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.elastic.cache.NodeDocumentCache;
 import org.opennms.netmgt.model.OnmsCategory;
 import org.opennms.netmgt.model.OnmsNode;
 import org.slf4j.Logger;
@@ -71,6 +72,9 @@ public class DocumentEnricher {
 
     private final Timer nodeLoadTimer;
 
+    // Preloaded alternative to the nodeInfoCache
+    private NodeDocumentCache nodeDocumentCache;
+
     public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
                             TransactionOperations transactionOperations, ClassificationEngine classificationEngine,
                             CacheConfig cacheConfig) {
@@ -146,6 +150,10 @@ public class DocumentEnricher {
     }
 
     private Optional<NodeDocument> getNodeInfoFromCache(String location, String ipAddress) {
+        if (nodeDocumentCache != null && nodeDocumentCache.isEnabled()) {
+            return nodeDocumentCache.get(location, ipAddress);
+        }
+
         final NodeInfoKey key = new NodeInfoKey(location, ipAddress);
         try {
             return nodeInfoCache.get(key);
@@ -207,6 +215,10 @@ public class DocumentEnricher {
         }
     }
 
+    public void setNodeDocumentCache(NodeDocumentCache nodeDocumentCache) {
+        this.nodeDocumentCache = nodeDocumentCache;
+    }
+
     protected static ClassificationRequest createClassificationRequest(FlowDocument document) {
         final ClassificationRequest request = new ClassificationRequest();
         request.setProtocol(document.getProtocol() == null ? null : Protocols.getProtocol(document.getProtocol()));
@@ -97,7 +97,7 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(ElasticFlowRepository.class);
 
-    private static final String TYPE = "netflow";
+    static final String TYPE = "netflow";
 
     private final JestClient client;
 
@@ -155,6 +155,11 @@ public class ElasticFlowRepository implements FlowRepository {
      */
     private final ConcurrentMap<Integer, Set<Integer>> markerCache = Maps.newConcurrentMap();
 
+    /**
+     * Used to persist the flows asynchronously, if enabled.
+     */
+    private BulkFlowWriter bulkFlowWriter;
+
     public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy,
                                  DocumentEnricher documentEnricher, ClassificationEngine classificationEngine,
                                  TransactionOperations transactionOperations, NodeDao nodeDao, SnmpInterfaceDao snmpInterfaceDao,
@@ -214,29 +219,14 @@ public class ElasticFlowRepository implements FlowRepository {
             documentEnricher.enrich(flowDocuments, source);
         }
 
-        LOG.debug("Persisting {} flow documents.", flowDocuments.size());
-        try (final Timer.Context ctx = logPersistingTimer.time()) {
-            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, flowDocuments, (documents) -> {
-                final Bulk.Builder bulkBuilder = new Bulk.Builder();
-                for (FlowDocument flowDocument : documents) {
-                   final String index = indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp()));
-                   final Index.Builder indexBuilder = new Index.Builder(flowDocument)
-                        .index(index)
-                        .type(TYPE);
-                    bulkBuilder.addAction(indexBuilder.build());
-                }
-                return new BulkWrapper(bulkBuilder);
-            }, bulkRetryCount);
-            try {
-                // the bulk request considers retries
-                bulkRequest.execute();
-            } catch (BulkException ex) {
-                throw new PersistenceException(ex.getMessage(), ex.getBulkResult().getFailedDocuments());
-            } catch (IOException ex) {
-                LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
-                throw new FlowException(ex.getMessage(), ex);
+        if (bulkFlowWriter != null && bulkFlowWriter.isEnabled()) {
+            LOG.debug("Queuing {} flow documents.", flowDocuments.size());
+            try (final Timer.Context ctx = logPersistingTimer.time()) {
+                // Queues all documents or throws, so nodes are only marked for flows which were accepted
+                bulkFlowWriter.submit(flowDocuments);
             }
-            flowsPersistedMeter.mark(flowDocuments.size());
+        } else {
+            persistFlows(flowDocuments);
         }
 
         // Mark nodes and interfaces as having associated flows
@@ -284,6 +274,37 @@ public class ElasticFlowRepository implements FlowRepository {
         }
     }
 
+    private void persistFlows(final List<FlowDocument> flowDocuments) throws FlowException {
+        LOG.debug("Persisting {} flow documents.", flowDocuments.size());
+        try (final Timer.Context ctx = logPersistingTimer.time()) {
+            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, flowDocuments, (documents) -> {
+                final Bulk.Builder bulkBuilder = new Bulk.Builder();
+                for (FlowDocument flowDocument : documents) {
+                   final String index = indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp()));
+                   final Index.Builder indexBuilder = new Index.Builder(flowDocument)
+                        .index(index)
+                        .type(TYPE);
+                    bulkBuilder.addAction(indexBuilder.build());
+                }
+                return new BulkWrapper(bulkBuilder);
+            }, bulkRetryCount);
+            try {
+                // the bulk request considers retries
+                bulkRequest.execute();
+            } catch (BulkException ex) {
+                throw new PersistenceException(ex.getMessage(), ex.getBulkResult().getFailedDocuments());
+            } catch (IOException ex) {
+                LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
+                throw new FlowException(ex.getMessage(), ex);
+            }
+            flowsPersistedMeter.mark(flowDocuments.size());
+        }
+    }
+
+    public void setBulkFlowWriter(BulkFlowWriter bulkFlowWriter) {
+        this.bulkFlowWriter = bulkFlowWriter;
+    }
+
     @Override
     public CompletableFuture<Long> getFlowCount(List<Filter> filters) {
         final String query = searchQueryProvider.getFlowCountQuery(filters);
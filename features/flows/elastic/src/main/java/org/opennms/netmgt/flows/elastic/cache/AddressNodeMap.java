@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.flows.elastic.cache;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from a (location, IP address) pair to a node ID.
+ *
+ * Keys are made of an integer tag, which identifies the location and the
+ * address family, and the 128 bits of the address. IPv4 addresses only use
+ * the low bits. Collisions are resolved by linear probing and entries are
+ * removed by shifting the following entries back, so no tombstones are left
+ * behind.
+ *
+ * This class is not thread-safe. Lookups may race with updates as long as
+ * the caller validates the result afterwards, since the slot arrays are
+ * always swapped as a whole.
+ */
+class AddressNodeMap {
+
+    /**
+     * Returned by lookups for keys which are not in the map. Node IDs are always positive.
+     */
+    static final int NO_NODE = 0;
+
+    private static final int FREE = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Slots {
+        private final int[] tags;
+        private final long[] highs;
+        private final long[] lows;
+        private final int[] nodeIds;
+
+        private Slots(int capacity) {
+            tags = new int[capacity];
+            highs = new long[capacity];
+            lows = new long[capacity];
+            nodeIds = new int[capacity];
+            Arrays.fill(tags, FREE);
+        }
+    }
+
+    private Slots slots;
+
+    private int size;
+
+    AddressNodeMap() {
+        this(MIN_CAPACITY);
+    }
+
+    AddressNodeMap(int expectedSize) {
+        slots = new Slots(capacityFor(expectedSize));
+    }
+
+    static int tag(int locationId, boolean ipv6) {
+        return (locationId << 1) | (ipv6 ? 1 : 0);
+    }
+
+    int get(int tag, long high, long low) {
+        final Slots s = slots;
+        final int mask = s.tags.length - 1;
+        int i = hash(tag, high, low) & mask;
+        for (int n = 0; n <= mask; n++) {
+            final int t = s.tags[i];
+            if (t == FREE) {
+                return NO_NODE;
+            }
+            if (t == tag && s.highs[i] == high && s.lows[i] == low) {
+                return s.nodeIds[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Associates the key with the given node.
+     *
+     * @return the node previously associated with the key, or {@link #NO_NODE}
+     */
+    int put(int tag, long high, long low, int nodeId) {
+        if (tag < 0 || nodeId <= 0) {
+            throw new IllegalArgumentException("Invalid key or node ID: " + tag + "/" + nodeId);
+        }
+        if ((size + 1) * 2 > slots.tags.length) {
+            resize(slots.tags.length * 2);
+        }
+
+        final Slots s = slots;
+        final int mask = s.tags.length - 1;
+        int i = hash(tag, high, low) & mask;
+        while (true) {
+            final int t = s.tags[i];
+            if (t == FREE) {
+                s.highs[i] = high;
+                s.lows[i] = low;
+                s.nodeIds[i] = nodeId;
+                s.tags[i] = tag;
+                size++;
+                return NO_NODE;
+            }
+            if (t == tag && s.highs[i] == high && s.lows[i] == low) {
+                final int previous = s.nodeIds[i];
+                s.nodeIds[i] = nodeId;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes the key from the map.
+     *
+     * @return the node previously associated with the key, or {@link #NO_NODE}
+     */
+    int remove(int tag, long high, long low) {
+        final Slots s = slots;
+        final int mask = s.tags.length - 1;
+        int i = hash(tag, high, low) & mask;
+        while (true) {
+            final int t = s.tags[i];
+            if (t == FREE) {
+                return NO_NODE;
+            }
+            if (t == tag && s.highs[i] == high && s.lows[i] == low) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+
+        final int previous = s.nodeIds[i];
+        size--;
+
+        // Shift back the entries of the cluster which would no longer be reachable
+        int free = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (s.tags[j] == FREE) {
+                break;
+            }
+            final int home = hash(s.tags[j], s.highs[j], s.lows[j]) & mask;
+            final boolean reachable = free <= j ? (free < home && home <= j) : (free < home || home <= j);
+            if (!reachable) {
+                s.highs[free] = s.highs[j];
+                s.lows[free] = s.lows[j];
+                s.nodeIds[free] = s.nodeIds[j];
+                s.tags[free] = s.tags[j];
+                free = j;
+            }
+        }
+        s.tags[free] = FREE;
+        return previous;
+    }
+
+    void clear() {
+        slots = new Slots(MIN_CAPACITY);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return slots.tags.length;
+    }
+
+    /**
+     * @return the number of bytes used by the slot arrays
+     */
+    long sizeInBytes() {
+        // 4 array headers and 4 + 8 + 8 + 4 bytes per slot
+        return 4 * 16 + (long) slots.tags.length * 24;
+    }
+
+    private void resize(int capacity) {
+        final Slots old = slots;
+        final Slots s = new Slots(capacity);
+        final int mask = capacity - 1;
+        for (int k = 0; k < old.tags.length; k++) {
+            if (old.tags[k] == FREE) {
+                continue;
+            }
+            int i = hash(old.tags[k], old.highs[k], old.lows[k]) & mask;
+            while (s.tags[i] != FREE) {
+                i = (i + 1) & mask;
+            }
+            s.highs[i] = old.highs[k];
+            s.lows[i] = old.lows[k];
+            s.nodeIds[i] = old.nodeIds[k];
+            s.tags[i] = old.tags[k];
+        }
+        slots = s;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        return Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2) - 1) << 1;
+    }
+
+    private static int hash(int tag, long high, long low) {
+        long h = low * 0x9E3779B97F4A7C15L + high * 0xC2B2AE3D27D4EB4FL + tag;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
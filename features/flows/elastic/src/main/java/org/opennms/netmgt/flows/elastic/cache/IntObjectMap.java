@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.flows.elastic.cache;
+
+/**
+ * Open-addressing hash map from a positive integer key to an object.
+ *
+ * Same layout and concurrency rules as {@link AddressNodeMap}.
+ */
+class IntObjectMap<V> {
+
+    private static final int FREE = 0;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Slots {
+        private final int[] keys;
+        private final Object[] values;
+
+        private Slots(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+        }
+    }
+
+    private Slots slots;
+
+    private int size;
+
+    IntObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    IntObjectMap(int expectedSize) {
+        slots = new Slots(Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2) - 1) << 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        final Slots s = slots;
+        final int mask = s.keys.length - 1;
+        int i = hash(key) & mask;
+        for (int n = 0; n <= mask; n++) {
+            final int k = s.keys[i];
+            if (k == FREE) {
+                return null;
+            }
+            if (k == key) {
+                return (V) s.values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (key <= 0 || value == null) {
+            throw new IllegalArgumentException("Invalid key or value: " + key + "/" + value);
+        }
+        if ((size + 1) * 2 > slots.keys.length) {
+            resize(slots.keys.length * 2);
+        }
+
+        final Slots s = slots;
+        final int mask = s.keys.length - 1;
+        int i = hash(key) & mask;
+        while (true) {
+            final int k = s.keys[i];
+            if (k == FREE) {
+                s.values[i] = value;
+                s.keys[i] = key;
+                size++;
+                return null;
+            }
+            if (k == key) {
+                final V previous = (V) s.values[i];
+                s.values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        final Slots s = slots;
+        final int mask = s.keys.length - 1;
+        int i = hash(key) & mask;
+        while (true) {
+            final int k = s.keys[i];
+            if (k == FREE) {
+                return null;
+            }
+            if (k == key) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+
+        final V previous = (V) s.values[i];
+        size--;
+
+        // Shift back the entries of the cluster which would no longer be reachable
+        int free = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (s.keys[j] == FREE) {
+                break;
+            }
+            final int home = hash(s.keys[j]) & mask;
+            final boolean reachable = free <= j ? (free < home && home <= j) : (free < home || home <= j);
+            if (!reachable) {
+                s.values[free] = s.values[j];
+                s.keys[free] = s.keys[j];
+                free = j;
+            }
+        }
+        s.keys[free] = FREE;
+        s.values[free] = null;
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes used by the slot arrays, excluding the values themselves
+     */
+    long sizeInBytes() {
+        // 2 array headers and 4 bytes per key plus a (compressed) reference per value
+        return 3 * 16 + (long) slots.keys.length * 8;
+    }
+
+    private void resize(int capacity) {
+        final Slots old = slots;
+        final Slots s = new Slots(capacity);
+        final int mask = capacity - 1;
+        for (int k = 0; k < old.keys.length; k++) {
+            if (old.keys[k] == FREE) {
+                continue;
+            }
+            int i = hash(old.keys[k]) & mask;
+            while (s.keys[i] != FREE) {
+                i = (i + 1) & mask;
+            }
+            s.values[i] = old.values[k];
+            s.keys[i] = old.keys[k];
+        }
+        slots = s;
+    }
+
+    private static int hash(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
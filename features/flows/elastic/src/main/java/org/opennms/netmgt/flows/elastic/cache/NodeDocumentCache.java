@@ -0,0 +1,590 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.flows.elastic.cache;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.core.criteria.Fetch.FetchType;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.flows.elastic.NodeDocument;
+import org.opennms.netmgt.model.OnmsCategory;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Resolves the node documents used to enrich flows.
+ *
+ * All of the (non-deleted) interfaces of all nodes are loaded in bulk when
+ * the cache is started, and individual nodes are reloaded when events
+ * indicate that their interfaces, categories or identity changed. Addresses
+ * are keyed by location and packed IP address in primitive maps, so lookups
+ * for IPv4 addresses do not allocate.
+ *
+ * Addresses which are not found are checked against the
+ * {@link InterfaceToNodeCache}, which remains the authority on which node
+ * owns an address, and are remembered as unknown until the next node or
+ * interface change.
+ */
+public class NodeDocumentCache implements EventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(NodeDocumentCache.class);
+
+    private static final List<String> UEIS = ImmutableList.of(
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI);
+
+    private final NodeDao nodeDao;
+
+    private final InterfaceToNodeCache interfaceToNodeCache;
+
+    private final TransactionOperations transactionOperations;
+
+    // Guards the maps below. Lookups are optimistic and only fall back to the read lock if an update raced with them.
+    private final StampedLock lock = new StampedLock();
+
+    private AddressNodeMap addresses = new AddressNodeMap();
+
+    private IntObjectMap<NodeEntry> nodes = new IntObjectMap<>();
+
+    private AddressNodeMap unknownAddresses = new AddressNodeMap();
+
+    private long entriesSizeInBytes;
+
+    private final Map<String, Integer> locationIds = new ConcurrentHashMap<>();
+
+    private int nextLocationId = 0;
+
+    private final Meter hits;
+
+    private final Meter misses;
+
+    private final Timer nodeLoadTimer;
+
+    private final Timer preloadTimer;
+
+    private boolean enabled = false;
+
+    private int maximumUnknownAddresses = 100000;
+
+    /**
+     * The interfaces and document of a single node.
+     */
+    private static class NodeEntry {
+        private final int nodeId;
+        private final String location;
+        private final int locationId;
+        private final Optional<NodeDocument> document;
+        private final long sizeInBytes;
+
+        // Packed addresses, see AddressNodeMap
+        private int count;
+        private int[] tags;
+        private long[] highs;
+        private long[] lows;
+
+        private NodeEntry(int nodeId, String location, int locationId, NodeDocument document, int expectedAddresses) {
+            this.nodeId = nodeId;
+            this.location = location;
+            this.locationId = locationId;
+            this.document = Optional.of(document);
+            this.tags = new int[expectedAddresses];
+            this.highs = new long[expectedAddresses];
+            this.lows = new long[expectedAddresses];
+            this.sizeInBytes = estimateSizeInBytes(document);
+        }
+
+        private void add(int tag, long high, long low) {
+            for (int i = 0; i < count; i++) {
+                if (tags[i] == tag && highs[i] == high && lows[i] == low) {
+                    return;
+                }
+            }
+            if (count == tags.length) {
+                final int capacity = Math.max(2, count * 2);
+                tags = Arrays.copyOf(tags, capacity);
+                highs = Arrays.copyOf(highs, capacity);
+                lows = Arrays.copyOf(lows, capacity);
+            }
+            tags[count] = tag;
+            highs[count] = high;
+            lows[count] = low;
+            count++;
+        }
+
+        private long sizeInBytes() {
+            return sizeInBytes + 3 * 16 + (long) tags.length * 20;
+        }
+    }
+
+    public NodeDocumentCache(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
+                             TransactionOperations transactionOperations) {
+        this.nodeDao = Objects.requireNonNull(nodeDao);
+        this.interfaceToNodeCache = Objects.requireNonNull(interfaceToNodeCache);
+        this.transactionOperations = Objects.requireNonNull(transactionOperations);
+
+        this.hits = metricRegistry.meter("nodeCacheHits");
+        this.misses = metricRegistry.meter("nodeCacheMisses");
+        this.nodeLoadTimer = metricRegistry.timer("nodeLoadTime");
+        this.preloadTimer = metricRegistry.timer("nodeCachePreloadTime");
+        metricRegistry.register("nodeCacheHitRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                final long hitCount = hits.getCount();
+                return Ratio.of(hitCount, hitCount + misses.getCount());
+            }
+        });
+        metricRegistry.register("nodeCacheAddresses", (Gauge<Integer>) () -> addresses.size());
+        metricRegistry.register("nodeCacheUnknownAddresses", (Gauge<Integer>) () -> unknownAddresses.size());
+        metricRegistry.register("nodeCacheNodes", (Gauge<Integer>) () -> nodes.size());
+        metricRegistry.register("nodeCacheSizeInBytes", (Gauge<Long>) this::sizeInBytes);
+    }
+
+    public void start() {
+        if (enabled) {
+            preload();
+        }
+    }
+
+    public void stop() {
+        final long stamp = lock.writeLock();
+        try {
+            addresses = new AddressNodeMap();
+            nodes = new IntObjectMap<>();
+            unknownAddresses = new AddressNodeMap();
+            entriesSizeInBytes = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Loads all nodes and their interfaces, replacing the current content of the cache.
+     */
+    public void preload() {
+        try (Timer.Context ctx = preloadTimer.time()) {
+            final List<NodeEntry> entries = transactionOperations.execute(status -> {
+                final CriteriaBuilder builder = new CriteriaBuilder(OnmsNode.class)
+                        .ne("type", String.valueOf(OnmsNode.NodeType.DELETED.value()))
+                        .fetch("location", FetchType.EAGER)
+                        .fetch("ipInterfaces", FetchType.EAGER)
+                        .fetch("categories", FetchType.EAGER);
+
+                // The joins yield one row per interface and category, skip the repeated nodes
+                final IntObjectMap<NodeEntry> loaded = new IntObjectMap<>();
+                final List<NodeEntry> result = new ArrayList<>();
+                for (final OnmsNode node : nodeDao.findMatching(builder.toCriteria())) {
+                    if (loaded.get(node.getId()) == null) {
+                        final NodeEntry entry = toNodeEntry(node);
+                        loaded.put(node.getId(), entry);
+                        result.add(entry);
+                    }
+                }
+                return result;
+            });
+
+            final AddressNodeMap newAddresses = new AddressNodeMap(entries.stream().mapToInt(e -> e.count).sum());
+            final IntObjectMap<NodeEntry> newNodes = new IntObjectMap<>(entries.size());
+            long newEntriesSizeInBytes = 0;
+            for (final NodeEntry entry : entries) {
+                add(newAddresses, newNodes, entry);
+                newEntriesSizeInBytes += entry.sizeInBytes();
+            }
+
+            final long stamp = lock.writeLock();
+            try {
+                addresses = newAddresses;
+                nodes = newNodes;
+                unknownAddresses = new AddressNodeMap();
+                entriesSizeInBytes = newEntriesSizeInBytes;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            LOG.info("Preloaded {} addresses of {} nodes.", newAddresses.size(), newNodes.size());
+        }
+    }
+
+    /**
+     * Retrieves the document of the node which owns the given address.
+     *
+     * The caller is expected to hold a transaction, as nodes which are not cached yet are loaded from the database.
+     */
+    public Optional<NodeDocument> get(final String location, final String ipAddress) {
+        if (location == null || ipAddress == null) {
+            return Optional.empty();
+        }
+        final int locationId = getLocationId(location);
+
+        // Pack the address, avoiding the InetAddress for dotted quads
+        final int tag;
+        final long high;
+        final long low;
+        final long ipv4 = parseIPv4(ipAddress);
+        if (ipv4 >= 0) {
+            tag = AddressNodeMap.tag(locationId, false);
+            high = 0;
+            low = ipv4;
+        } else {
+            final InetAddress inetAddress = InetAddressUtils.addr(ipAddress);
+            if (inetAddress == null) {
+                return Optional.empty();
+            }
+            final byte[] bytes = inetAddress.getAddress();
+            tag = AddressNodeMap.tag(locationId, bytes.length != 4);
+            high = bytes.length == 16 ? toLong(bytes, 0) : 0;
+            low = bytes.length == 16 ? toLong(bytes, 8) : toLong(bytes, 0) & 0xFFFFFFFFL;
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        Optional<NodeDocument> document = find(tag, high, low);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                document = find(tag, high, low);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (document != null) {
+            hits.mark();
+            return document;
+        }
+
+        misses.mark();
+        return load(location, locationId, tag, high, low);
+    }
+
+    private Optional<NodeDocument> find(int tag, long high, long low) {
+        final int nodeId = addresses.get(tag, high, low);
+        if (nodeId != AddressNodeMap.NO_NODE) {
+            final NodeEntry entry = nodes.get(nodeId);
+            if (entry != null) {
+                return entry.document;
+            }
+        } else if (unknownAddresses.get(tag, high, low) != AddressNodeMap.NO_NODE) {
+            return Optional.empty();
+        }
+        return null;
+    }
+
+    private Optional<NodeDocument> load(String location, int locationId, int tag, long high, long low) {
+        final Optional<Integer> nodeId = interfaceToNodeCache.getFirstNodeId(location, toInetAddress(tag, high, low));
+        final NodeEntry entry = nodeId.isPresent() ? loadNodeEntry(nodeId.get()) : null;
+
+        final boolean owned = entry != null && entry.locationId == locationId;
+        if (owned) {
+            // The interface to node cache may know the address before the interface was persisted
+            entry.add(tag, high, low);
+        }
+
+        final long stamp = lock.writeLock();
+        try {
+            if (entry != null) {
+                replace(entry.nodeId, entry);
+            }
+            if (owned) {
+                addresses.put(tag, high, low, entry.nodeId);
+                return entry.document;
+            }
+
+            if (unknownAddresses.size() >= maximumUnknownAddresses) {
+                unknownAddresses = new AddressNodeMap();
+            }
+            unknownAddresses.put(tag, high, low, 1);
+            return Optional.empty();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private NodeEntry loadNodeEntry(int nodeId) {
+        try (Timer.Context ctx = nodeLoadTimer.time()) {
+            return transactionOperations.execute(status -> {
+                final OnmsNode node = nodeDao.get(nodeId);
+                if (node == null || node.getType() == OnmsNode.NodeType.DELETED) {
+                    LOG.debug("Node with id: {} was not found in the database.", nodeId);
+                    return null;
+                }
+                return toNodeEntry(node);
+            });
+        }
+    }
+
+    private void refresh(int nodeId) {
+        final NodeEntry entry = loadNodeEntry(nodeId);
+        final long stamp = lock.writeLock();
+        try {
+            replace(nodeId, entry);
+            // Any of the unknown addresses may now belong to this node
+            unknownAddresses = new AddressNodeMap();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Must be called with the write lock held
+    private void replace(int nodeId, NodeEntry entry) {
+        final NodeEntry existing = nodes.remove(nodeId);
+        if (existing != null) {
+            for (int i = 0; i < existing.count; i++) {
+                // Leave the addresses which were won by another node alone
+                if (addresses.get(existing.tags[i], existing.highs[i], existing.lows[i]) == nodeId) {
+                    addresses.remove(existing.tags[i], existing.highs[i], existing.lows[i]);
+                }
+            }
+            entriesSizeInBytes -= existing.sizeInBytes();
+        }
+        if (entry != null) {
+            add(addresses, nodes, entry);
+            entriesSizeInBytes += entry.sizeInBytes();
+        }
+    }
+
+    private void add(AddressNodeMap addresses, IntObjectMap<NodeEntry> nodes, NodeEntry entry) {
+        nodes.put(entry.nodeId, entry);
+        for (int i = 0; i < entry.count; i++) {
+            final int tag = entry.tags[i];
+            final long high = entry.highs[i];
+            final long low = entry.lows[i];
+            final int existing = addresses.get(tag, high, low);
+            if (existing == AddressNodeMap.NO_NODE || existing == entry.nodeId) {
+                addresses.put(tag, high, low, entry.nodeId);
+            } else {
+                // The address is shared by multiple nodes, let the interface to node cache pick one
+                final Optional<Integer> owner = interfaceToNodeCache.getFirstNodeId(entry.location, toInetAddress(tag, high, low));
+                if (owner.isPresent() && owner.get() == entry.nodeId) {
+                    addresses.put(tag, high, low, entry.nodeId);
+                }
+            }
+        }
+    }
+
+    private NodeEntry toNodeEntry(OnmsNode node) {
+        final NodeDocument document = new NodeDocument();
+        document.setForeignSource(node.getForeignSource());
+        document.setForeignId(node.getForeignId());
+        document.setNodeId(node.getId());
+        document.setCategories(node.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
+
+        final String location = node.getLocation().getLocationName();
+        final NodeEntry entry = new NodeEntry(node.getId(), location, getLocationId(location), document, node.getIpInterfaces().size());
+        for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+            // Skip deleted interfaces
+            if ("D".equals(iface.getIsManaged()) || iface.getIpAddress() == null) {
+                continue;
+            }
+            final byte[] bytes = iface.getIpAddress().getAddress();
+            if (bytes.length == 4) {
+                entry.add(AddressNodeMap.tag(entry.locationId, false), 0, toLong(bytes, 0) & 0xFFFFFFFFL);
+            } else {
+                entry.add(AddressNodeMap.tag(entry.locationId, true), toLong(bytes, 0), toLong(bytes, 8));
+            }
+        }
+        return entry;
+    }
+
+    private int getLocationId(String location) {
+        final Integer locationId = locationIds.get(location);
+        if (locationId != null) {
+            return locationId;
+        }
+        synchronized (locationIds) {
+            return locationIds.computeIfAbsent(location, l -> nextLocationId++);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getName();
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        if (!enabled) {
+            return;
+        }
+        if (EventConstants.INTERFACE_REPARENTED_EVENT_UEI.equals(e.getUei())) {
+            refresh(e, EventConstants.PARM_OLD_NODEID);
+            refresh(e, EventConstants.PARM_NEW_NODEID);
+        } else if (e.hasNodeid()) {
+            refresh(e.getNodeid().intValue());
+        } else {
+            LOG.warn("Received {} event without node ID: {}", e.getUei(), e);
+        }
+    }
+
+    private void refresh(Event e, String parmName) {
+        final Parm parm = e.getParm(parmName);
+        if (parm == null || parm.getValue() == null) {
+            LOG.warn("Received {} event without {} parameter: {}", e.getUei(), parmName, e);
+            return;
+        }
+        try {
+            refresh(Integer.parseInt(parm.getValue().getContent()));
+        } catch (NumberFormatException ex) {
+            LOG.warn("Received {} event with invalid {} parameter: {}", e.getUei(), parmName, e);
+        }
+    }
+
+    public void onBind(EventSubscriptionService eventSubscriptionService, Map<?, ?> properties) {
+        if (eventSubscriptionService != null) {
+            eventSubscriptionService.addEventListener(this, UEIS);
+        }
+    }
+
+    public void onUnbind(EventSubscriptionService eventSubscriptionService, Map<?, ?> properties) {
+        if (eventSubscriptionService != null) {
+            eventSubscriptionService.removeEventListener(this, UEIS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaximumUnknownAddresses(int maximumUnknownAddresses) {
+        this.maximumUnknownAddresses = maximumUnknownAddresses;
+    }
+
+    /**
+     * @return an estimate of the heap used by the cache
+     */
+    public long sizeInBytes() {
+        final long stamp = lock.readLock();
+        try {
+            return addresses.sizeInBytes() + nodes.sizeInBytes() + unknownAddresses.sizeInBytes() + entriesSizeInBytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static long estimateSizeInBytes(NodeDocument document) {
+        // Entry and document objects, the optional and the category list
+        long size = 64 + 32 + 16 + 40;
+        size += estimateSizeInBytes(document.getForeignSource());
+        size += estimateSizeInBytes(document.getForeignId());
+        for (final String category : document.getCategories()) {
+            size += 4 + estimateSizeInBytes(category);
+        }
+        return size;
+    }
+
+    private static long estimateSizeInBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    /**
+     * Parses a dotted quad without allocating.
+     *
+     * @return the address as an unsigned integer, or -1 if the value is not a dotted quad
+     */
+    static long parseIPv4(String value) {
+        long address = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                address = (address << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            return -1;
+        }
+        return (address << 8) | octet;
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < Math.min(offset + 8, bytes.length); i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static InetAddress toInetAddress(int tag, long high, long low) {
+        final byte[] bytes;
+        if ((tag & 1) == 0) {
+            bytes = new byte[] {(byte) (low >>> 24), (byte) (low >>> 16), (byte) (low >>> 8), (byte) low};
+        } else {
+            bytes = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (high >>> (56 - 8 * i));
+                bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+            }
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.flows.api.FlowException;
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkRequest;
+import org.opennms.plugins.elasticsearch.rest.index.IndexStrategy;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+
+public class BulkFlowWriterTest {
+
+    private final Gson gson = new Gson();
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final List<Bulk> bulks = new CopyOnWriteArrayList<>();
+
+    private final List<JestResultHandler<BulkResult>> handlers = new CopyOnWriteArrayList<>();
+
+    private long[] sleepTime;
+
+    private BulkFlowWriter writer;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        sleepTime = BulkRequest.SLEEP_TIME;
+        BulkRequest.SLEEP_TIME = new long[]{ 0 };
+
+        final JestClient client = mock(JestClient.class);
+        doAnswer(invocation -> {
+            bulks.add((Bulk) invocation.getArguments()[0]);
+            handlers.add((JestResultHandler<BulkResult>) invocation.getArguments()[1]);
+            return null;
+        }).when(client).executeAsync(any(), any());
+
+        writer = new BulkFlowWriter(metricRegistry, client, IndexStrategy.MONTHLY);
+        writer.setEnabled(true);
+        writer.setMaxBulkDocuments(2);
+        writer.setFlushIntervalMs(TimeUnit.MINUTES.toMillis(1));
+        writer.setMaxInFlightBulks(2);
+        writer.setMaxQueuedDocuments(6);
+        writer.setOfferTimeoutMs(100);
+        writer.setRetryCount(3);
+        writer.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        BulkRequest.SLEEP_TIME = sleepTime;
+        writer.setOfferTimeoutMs(0);
+        writer.stop();
+    }
+
+    @Test
+    public void verifyBulksAreLimitedInFlight() throws FlowException {
+        writer.submit(createDocuments(6));
+
+        // Two full bulks are in-flight, the third one is waiting for a slot
+        assertEquals(2, bulks.size());
+        assertThat(bulkSizes(), contains(2, 2));
+
+        complete(0, 201, 201);
+        assertEquals(3, bulks.size());
+        assertEquals(2, metricRegistry.meter("flowsPersisted").getCount());
+        assertEquals(4, metricRegistry.getGauges().get("bulkQueuedFlows").getValue());
+    }
+
+    @Test
+    public void verifyOnlyFailedDocumentsAreRetried() throws FlowException {
+        writer.submit(createDocuments(2));
+        assertEquals(1, bulks.size());
+
+        // One document is retried, the other one is dropped
+        complete(0, 201, 429);
+        awaitBulks(2);
+        assertThat(bulkSizes(), contains(2, 1));
+        assertEquals(1, metricRegistry.meter("bulkFlowsRetried").getCount());
+
+        complete(1, 201);
+        assertEquals(2, metricRegistry.meter("flowsPersisted").getCount());
+        assertEquals(0, metricRegistry.meter("bulkFlowsFailed").getCount());
+    }
+
+    @Test
+    public void verifyRejectedDocumentsAreDropped() throws FlowException {
+        writer.submit(createDocuments(2));
+
+        complete(0, 400, 201);
+        assertEquals(1, bulks.size());
+        assertEquals(1, metricRegistry.meter("flowsPersisted").getCount());
+        assertEquals(1, metricRegistry.meter("bulkFlowsFailed").getCount());
+        assertEquals(0, metricRegistry.getGauges().get("bulkQueuedFlows").getValue());
+    }
+
+    @Test
+    public void verifyDocumentsAreDroppedAfterRetries() throws FlowException {
+        writer.submit(createDocuments(2));
+        for (int i = 0; i < 3; i++) {
+            awaitBulks(i + 1);
+            handlers.get(i).failed(new RuntimeException("Connection refused"));
+        }
+        assertEquals(3, bulks.size());
+        assertEquals(2, metricRegistry.meter("bulkFlowsFailed").getCount());
+        assertEquals(0, metricRegistry.getGauges().get("bulkQueuedFlows").getValue());
+    }
+
+    @Test
+    public void verifyBackPressure() throws FlowException {
+        writer.submit(createDocuments(4));
+        try {
+            writer.submit(createDocuments(3));
+            fail("The queue should be full");
+        } catch (FlowException e) {
+            // expected
+        }
+        // The whole batch was rejected, nothing of it was queued
+        assertEquals(3, metricRegistry.meter("bulkFlowsRejected").getCount());
+        assertEquals(4, metricRegistry.getGauges().get("bulkQueuedFlows").getValue());
+        assertThat(bulkSizes(), contains(2, 2));
+
+        // Room becomes available once the documents are persisted
+        complete(0, 201, 201);
+        writer.submit(createDocuments(2));
+        assertEquals(3, metricRegistry.meter("bulkFlowsRejected").getCount());
+        assertEquals(4, metricRegistry.getGauges().get("bulkQueuedFlows").getValue());
+    }
+
+    @Test
+    public void verifyOversizedBatchIsRejected() throws FlowException {
+        try {
+            writer.submit(createDocuments(7));
+            fail("The batch should not fit into the queue");
+        } catch (FlowException e) {
+            // expected
+        }
+        assertEquals(7, metricRegistry.meter("bulkFlowsRejected").getCount());
+        assertEquals(0, metricRegistry.getGauges().get("bulkQueuedFlows").getValue());
+        assertEquals(0, bulks.size());
+    }
+
+    private void complete(int bulk, int... statuses) {
+        final JsonArray items = new JsonArray();
+        for (int status : statuses) {
+            final JsonObject action = new JsonObject();
+            action.addProperty("_index", "netflow");
+            action.addProperty("_type", "netflow");
+            action.addProperty("_id", "id");
+            action.addProperty("status", status);
+            if (status >= 300) {
+                final JsonObject error = new JsonObject();
+                error.addProperty("type", "error");
+                error.addProperty("reason", "status " + status);
+                action.add("error", error);
+            }
+            final JsonObject item = new JsonObject();
+            item.add("index", action);
+            items.add(item);
+        }
+        final JsonObject json = new JsonObject();
+        json.add("items", items);
+
+        final BulkResult result = new BulkResult(gson);
+        result.setJsonObject(json);
+        result.setSucceeded(IntStream.of(statuses).allMatch(status -> status < 300));
+        handlers.get(bulk).completed(result);
+    }
+
+    private List<Integer> bulkSizes() {
+        return bulks.stream()
+                .map(bulk -> bulk.getData(gson).split("\n").length / 2)
+                .collect(Collectors.toList());
+    }
+
+    private void awaitBulks(int count) {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (bulks.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertThat(bulks.size(), equalTo(count));
+    }
+
+    private static List<FlowDocument> createDocuments(int count) {
+        final List<FlowDocument> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final FlowDocument document = new FlowDocument();
+            document.setTimestamp(System.currentTimeMillis());
+            document.setSrcAddr("10.0.0.1");
+            document.setDstAddr("10.0.0.2");
+            documents.add(document);
+        }
+        return Collections.unmodifiableList(documents);
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.flows.elastic.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class AddressNodeMapTest {
+
+    @Test
+    public void canPutGetAndRemove() {
+        final AddressNodeMap map = new AddressNodeMap();
+        final int v4 = AddressNodeMap.tag(0, false);
+        final int v6 = AddressNodeMap.tag(0, true);
+        final int otherLocation = AddressNodeMap.tag(1, false);
+
+        assertEquals(AddressNodeMap.NO_NODE, map.put(v4, 0, 0x0A000001L, 1));
+        assertEquals(AddressNodeMap.NO_NODE, map.put(v6, 0, 0x0A000001L, 2));
+        assertEquals(AddressNodeMap.NO_NODE, map.put(otherLocation, 0, 0x0A000001L, 3));
+        assertEquals(3, map.size());
+
+        // Same address, but different family or location
+        assertEquals(1, map.get(v4, 0, 0x0A000001L));
+        assertEquals(2, map.get(v6, 0, 0x0A000001L));
+        assertEquals(3, map.get(otherLocation, 0, 0x0A000001L));
+        assertEquals(AddressNodeMap.NO_NODE, map.get(v4, 0, 0x0A000002L));
+
+        assertEquals(1, map.put(v4, 0, 0x0A000001L, 4));
+        assertEquals(4, map.get(v4, 0, 0x0A000001L));
+        assertEquals(3, map.size());
+
+        assertEquals(4, map.remove(v4, 0, 0x0A000001L));
+        assertEquals(AddressNodeMap.NO_NODE, map.remove(v4, 0, 0x0A000001L));
+        assertEquals(AddressNodeMap.NO_NODE, map.get(v4, 0, 0x0A000001L));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void verifyAgainstHashMap() {
+        final Random random = new Random(42);
+        final AddressNodeMap map = new AddressNodeMap();
+        final Map<List<Long>, Integer> expected = new HashMap<>();
+
+        // Use a small key space to exercise collisions, resizing and removals within clusters
+        for (int i = 0; i < 200000; i++) {
+            final int tag = AddressNodeMap.tag(random.nextInt(3), random.nextBoolean());
+            final long high = (tag & 1) == 0 ? 0 : random.nextInt(4);
+            final long low = random.nextInt(5000);
+            final List<Long> key = Lists.newArrayList((long) tag, high, low);
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    final int nodeId = 1 + random.nextInt(1000);
+                    assertEquals(expected.getOrDefault(key, AddressNodeMap.NO_NODE).intValue(), map.put(tag, high, low, nodeId));
+                    expected.put(key, nodeId);
+                    break;
+                case 1:
+                    assertEquals(expected.getOrDefault(key, AddressNodeMap.NO_NODE).intValue(), map.remove(tag, high, low));
+                    expected.remove(key);
+                    break;
+                default:
+                    assertEquals(expected.getOrDefault(key, AddressNodeMap.NO_NODE).intValue(), map.get(tag, high, low));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (Map.Entry<List<Long>, Integer> entry : expected.entrySet()) {
+            final List<Long> key = entry.getKey();
+            assertEquals(entry.getValue().intValue(), map.get(key.get(0).intValue(), key.get(1), key.get(2)));
+        }
+    }
+}
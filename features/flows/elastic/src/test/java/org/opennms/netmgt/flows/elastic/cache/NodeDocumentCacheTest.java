@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.flows.elastic.cache;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.criteria.Criteria;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.flows.elastic.NodeDocument;
+import org.opennms.netmgt.model.OnmsCategory;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.model.monitoringLocations.OnmsMonitoringLocation;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class NodeDocumentCacheTest {
+
+    private final Map<Integer, OnmsNode> database = new HashMap<>();
+
+    private NodeDao nodeDao;
+    private InterfaceToNodeCache interfaceToNodeCache;
+    private MetricRegistry metricRegistry;
+    private NodeDocumentCache cache;
+
+    @Before
+    public void setUp() {
+        database.put(1, createNode(1, "Default", "10.0.0.1", "10.0.0.2"));
+        database.put(2, createNode(2, "Default", "10.0.0.3", "fe80::1"));
+        database.put(3, createNode(3, "Remote", "10.0.0.1"));
+
+        nodeDao = mock(NodeDao.class);
+        when(nodeDao.findMatching(any(Criteria.class))).thenAnswer(invocation -> {
+            // Emulate the repeated rows of the joins
+            return Arrays.asList(database.get(1), database.get(1), database.get(2), database.get(3));
+        });
+        when(nodeDao.get(anyInt())).thenAnswer(invocation -> database.get((Integer) invocation.getArguments()[0]));
+
+        interfaceToNodeCache = mock(InterfaceToNodeCache.class);
+        when(interfaceToNodeCache.getFirstNodeId(anyString(), any())).thenReturn(Optional.empty());
+
+        final TransactionOperations transactionOperations = mock(TransactionOperations.class);
+        when(transactionOperations.execute(any())).thenAnswer(invocation ->
+                ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(mock(TransactionStatus.class)));
+
+        metricRegistry = new MetricRegistry();
+        cache = new NodeDocumentCache(metricRegistry, nodeDao, interfaceToNodeCache, transactionOperations);
+        cache.setEnabled(true);
+        cache.start();
+    }
+
+    @Test
+    public void verifyPreloadedNodesAreResolvedWithoutDatabase() {
+        assertEquals(Integer.valueOf(1), cache.get("Default", "10.0.0.1").get().getNodeId());
+        assertEquals(Integer.valueOf(1), cache.get("Default", "10.0.0.2").get().getNodeId());
+        assertEquals(Integer.valueOf(2), cache.get("Default", "10.0.0.3").get().getNodeId());
+        assertEquals(Integer.valueOf(2), cache.get("Default", "fe80:0:0:0:0:0:0:1").get().getNodeId());
+        assertEquals(Integer.valueOf(3), cache.get("Remote", "10.0.0.1").get().getNodeId());
+
+        final NodeDocument document = cache.get("Default", "10.0.0.1").get();
+        assertEquals("fs", document.getForeignSource());
+        assertEquals("1", document.getForeignId());
+        assertThat(document.getCategories(), contains("Servers"));
+
+        verify(nodeDao, times(1)).findMatching(any(Criteria.class));
+        verify(nodeDao, times(0)).get(anyInt());
+        assertEquals(6, metricRegistry.meter("nodeCacheHits").getCount());
+        assertEquals(0, metricRegistry.meter("nodeCacheMisses").getCount());
+        assertEquals(5, metricRegistry.getGauges().get("nodeCacheAddresses").getValue());
+        assertEquals(3, metricRegistry.getGauges().get("nodeCacheNodes").getValue());
+        assertTrue((Long) metricRegistry.getGauges().get("nodeCacheSizeInBytes").getValue() > 0);
+    }
+
+    @Test
+    public void verifyUnknownAddressesAreRemembered() {
+        assertFalse(cache.get("Default", "192.168.0.1").isPresent());
+        assertFalse(cache.get("Default", "192.168.0.1").isPresent());
+        assertFalse(cache.get("Other", "10.0.0.1").isPresent());
+
+        verify(interfaceToNodeCache, times(2)).getFirstNodeId(anyString(), any());
+        assertEquals(1, metricRegistry.meter("nodeCacheHits").getCount());
+        assertEquals(2, metricRegistry.meter("nodeCacheMisses").getCount());
+    }
+
+    @Test
+    public void verifyMissingAddressesAreLoaded() {
+        // The interface is known to the interface to node cache, but was not yet preloaded
+        database.get(2).addIpInterface(new OnmsIpInterface("10.0.0.4", database.get(2)));
+        when(interfaceToNodeCache.getFirstNodeId("Default", InetAddressUtils.addr("10.0.0.4"))).thenReturn(Optional.of(2));
+
+        assertEquals(Integer.valueOf(2), cache.get("Default", "10.0.0.4").get().getNodeId());
+        assertEquals(Integer.valueOf(2), cache.get("Default", "10.0.0.4").get().getNodeId());
+        verify(nodeDao, times(1)).get(2);
+    }
+
+    @Test
+    public void verifyNodesAreUpdatedFromEvents() {
+        // Interface moves from node 1 to node 2
+        database.put(1, createNode(1, "Default", "10.0.0.1"));
+        database.put(2, createNode(2, "Default", "10.0.0.2", "10.0.0.3", "fe80::1"));
+        cache.onEvent(new EventBuilder(EventConstants.INTERFACE_REPARENTED_EVENT_UEI, "test")
+                .setInterface(InetAddressUtils.addr("10.0.0.2"))
+                .addParam(EventConstants.PARM_OLD_NODEID, "1")
+                .addParam(EventConstants.PARM_NEW_NODEID, "2")
+                .getEvent());
+        assertEquals(Integer.valueOf(2), cache.get("Default", "10.0.0.2").get().getNodeId());
+
+        // Categories change
+        database.get(1).getCategories().clear();
+        cache.onEvent(new EventBuilder(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI, "test")
+                .setNodeid(1)
+                .getEvent());
+        assertTrue(cache.get("Default", "10.0.0.1").get().getCategories().isEmpty());
+
+        // Node is removed
+        database.remove(1);
+        cache.onEvent(new EventBuilder(EventConstants.NODE_DELETED_EVENT_UEI, "test")
+                .setNodeid(1)
+                .getEvent());
+        assertFalse(cache.get("Default", "10.0.0.1").isPresent());
+        assertEquals(4, metricRegistry.getGauges().get("nodeCacheAddresses").getValue());
+        assertEquals(2, metricRegistry.getGauges().get("nodeCacheNodes").getValue());
+    }
+
+    @Test
+    public void canParseIPv4() {
+        assertEquals(0x0A000001L, NodeDocumentCache.parseIPv4("10.0.0.1"));
+        assertEquals(0xFFFFFFFFL, NodeDocumentCache.parseIPv4("255.255.255.255"));
+        assertEquals(-1, NodeDocumentCache.parseIPv4("256.0.0.1"));
+        assertEquals(-1, NodeDocumentCache.parseIPv4("10.0.0"));
+        assertEquals(-1, NodeDocumentCache.parseIPv4("10.0.0.1."));
+        assertEquals(-1, NodeDocumentCache.parseIPv4("10..0.1"));
+        assertEquals(-1, NodeDocumentCache.parseIPv4("::1"));
+    }
+
+    private static OnmsNode createNode(int nodeId, String location, String... addresses) {
+        final OnmsNode node = new OnmsNode(new OnmsMonitoringLocation(location, location));
+        node.setId(nodeId);
+        node.setForeignSource("fs");
+        node.setForeignId(Integer.toString(nodeId));
+        node.addCategory(new OnmsCategory("Servers"));
+        for (String address : addresses) {
+            new OnmsIpInterface(address, node);
+        }
+        return node;
+    }
+}
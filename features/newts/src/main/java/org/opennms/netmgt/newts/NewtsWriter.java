@@ -28,10 +28,17 @@
 
 package org.opennms.netmgt.newts;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -40,7 +47,10 @@ import javax.inject.Named;
 
 import org.joda.time.Duration;
 import org.opennms.core.logging.Logging;
+import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.newts.support.NewtsUtils;
+import org.opennms.netmgt.newts.support.ResourceIndexFilter;
+import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.search.Indexer;
@@ -70,6 +80,17 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * When enabled, the samples are grouped by Cassandra partition (context,
+ * resource and time shard) before being inserted, so that every batch only
+ * targets a single partition and can be routed directly to its replicas.
+ *
+ * Batches that fail to be inserted are kept in a bounded retry buffer and
+ * retried periodically, instead of being dropped right away. When the buffer
+ * is full, the oldest samples are dropped first.
+ *
+ * Index updates for resources that were recently indexed are skipped by the
+ * {@link ResourceIndexFilter}.
+ *
  * @author jwhite
  */
 public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
@@ -81,12 +102,23 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
             .maxRate(5).every(Duration.standardSeconds(30))
             .build();
 
+    public static final String GROUP_BY_PARTITION_PROPERTY = "org.opennms.newts.config.group_by_partition";
+
+    public static final String RETRY_BUFFER_SIZE_PROPERTY = "org.opennms.newts.config.retry_buffer_size";
+
+    public static final String RETRY_INTERVAL_PROPERTY = "org.opennms.newts.config.retry_interval_ms";
+
+    private static final long RESOURCE_SHARD_MS = TimeUnit.SECONDS.toMillis(SystemProperties.getLong("org.opennms.newts.config.resource_shard", 604800L));
+
     @Autowired
     private SampleRepository m_sampleRepository;
 
     @Autowired
     private Indexer m_indexer;
 
+    @Autowired(required = false)
+    private ResourceIndexFilter m_indexFilter = new ResourceIndexFilter(0, 0);
+
     private WorkerPool<SampleBatchEvent> m_workerPool;
 
     private RingBuffer<SampleBatchEvent> m_ringBuffer;
@@ -99,6 +131,23 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final Meter m_droppedSamples;
 
+    private boolean m_groupByPartition = Boolean.getBoolean(GROUP_BY_PARTITION_PROPERTY);
+
+    private final long m_maxRetryBufferSize;
+
+    /**
+     * Batches of samples that failed to be inserted, oldest first.
+     */
+    private final ConcurrentLinkedDeque<List<Sample>> m_retryBuffer = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong m_numSamplesInRetryBuffer = new AtomicLong();
+
+    private final Meter m_retriedSamples;
+
+    private final Meter m_droppedRetrySamples;
+
+    private final ScheduledExecutorService m_retryExecutor;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
@@ -136,7 +185,27 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
 
-        LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
+        m_maxRetryBufferSize = SystemProperties.getLong(RETRY_BUFFER_SIZE_PROPERTY, 65536L);
+        registry.register(MetricRegistry.name("retry-buffer", "size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_numSamplesInRetryBuffer.get();
+                    }
+                });
+        m_retriedSamples = registry.meter(MetricRegistry.name("retry-buffer", "retried-samples"));
+        m_droppedRetrySamples = registry.meter(MetricRegistry.name("retry-buffer", "dropped-samples"));
+
+        if (m_maxRetryBufferSize > 0) {
+            final long retryIntervalMs = Math.max(1L, SystemProperties.getLong(RETRY_INTERVAL_PROPERTY, 5000L));
+            m_retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("NewtsWriter-Retry-%d").setDaemon(true).build());
+            m_retryExecutor.scheduleWithFixedDelay(this::retryFailedInserts, retryIntervalMs, retryIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            m_retryExecutor = null;
+        }
+
+        LOG.debug("Using max_batch_size: {}, ring_buffer_size: {} and retry_buffer_size: {}", maxBatchSize, m_ringBufferSize, m_maxRetryBufferSize);
         setUpWorkerPool();
     }
 
@@ -168,6 +237,14 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
         }
+        if (m_retryExecutor != null) {
+            m_retryExecutor.shutdown();
+            // Give the samples in the retry buffer one last chance
+            retryFailedInserts();
+            if (m_numSamplesInRetryBuffer.get() > 0) {
+                LOG.warn("{} samples in the retry buffer were not inserted.", m_numSamplesInRetryBuffer.get());
+            }
+        }
     }
 
     public void insert(List<Sample> samples) {
@@ -209,27 +286,145 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
-            try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
-                    LOG.debug("Indexing {} samples", batch.size());
-                    m_indexer.update(batch);
-                } else {
-                    LOG.debug("Inserting {} samples", batch.size());
-                    m_sampleRepository.insert(batch);
-                }
+        if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
+            updateIndex(samples);
+        } else {
+            // Partition the samples into collections smaller then max_batch_size
+            for (List<Sample> batch : partition(samples)) {
+                insertOrRetryLater(batch);
+            }
+        }
+    }
 
-                if (LOG.isDebugEnabled()) {
-                    String uniqueResourceIds = batch.stream()
-                        .map(s -> s.getResource().getId())
-                        .distinct()
-                        .collect(Collectors.joining(", "));
-                    LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
-                }
+    private void updateIndex(List<Sample> samples) {
+        final List<Sample> samplesToIndex = m_indexFilter.filter(samples);
+        for (List<Sample> batch : Lists.partition(samplesToIndex, m_maxBatchSize)) {
+            try {
+                LOG.debug("Indexing {} samples", batch.size());
+                m_indexer.update(batch);
+                m_indexFilter.markIndexed(batch);
             } catch (Throwable t) {
+                RATE_LIMITED_LOGGER.error("An error occurred while indexing samples. The resources will be indexed again on their next update.", t);
+            }
+        }
+    }
+
+    private void insertOrRetryLater(List<Sample> batch) {
+        try {
+            LOG.debug("Inserting {} samples", batch.size());
+            m_sampleRepository.insert(batch);
+
+            if (LOG.isDebugEnabled()) {
+                String uniqueResourceIds = batch.stream()
+                    .map(s -> s.getResource().getId())
+                    .distinct()
+                    .collect(Collectors.joining(", "));
+                LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+            }
+        } catch (Throwable t) {
+            if (m_retryExecutor == null) {
                 RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+                return;
             }
+            RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. {} samples will be retried.", batch.size(), t);
+            addToRetryBuffer(batch, false);
+        }
+    }
+
+    /**
+     * Splits the samples into batches no larger than max_batch_size. When
+     * grouping by partition, every batch only contains samples that are
+     * stored in the same Cassandra partition.
+     */
+    private List<List<Sample>> partition(List<Sample> samples) {
+        if (!m_groupByPartition) {
+            return Lists.partition(samples, m_maxBatchSize);
+        }
+        final Map<PartitionKey, List<Sample>> samplesByPartition = new LinkedHashMap<>();
+        for (Sample sample : samples) {
+            samplesByPartition.computeIfAbsent(new PartitionKey(sample), k -> new ArrayList<>()).add(sample);
+        }
+        final List<List<Sample>> batches = new ArrayList<>();
+        for (List<Sample> samplesInPartition : samplesByPartition.values()) {
+            batches.addAll(Lists.partition(samplesInPartition, m_maxBatchSize));
+        }
+        return batches;
+    }
+
+    private void addToRetryBuffer(List<Sample> batch, boolean first) {
+        if (batch.size() > m_maxRetryBufferSize) {
+            m_droppedRetrySamples.mark(batch.size());
+            return;
+        }
+        // Make room by dropping the oldest samples
+        while (m_numSamplesInRetryBuffer.get() + batch.size() > m_maxRetryBufferSize) {
+            final List<Sample> oldest = m_retryBuffer.pollFirst();
+            if (oldest == null) {
+                break;
+            }
+            m_numSamplesInRetryBuffer.addAndGet(-oldest.size());
+            m_droppedRetrySamples.mark(oldest.size());
+            RATE_LIMITED_LOGGER.error("The retry buffer is full. {} samples will be dropped.", oldest.size());
+        }
+        if (first) {
+            m_retryBuffer.offerFirst(batch);
+        } else {
+            m_retryBuffer.offerLast(batch);
+        }
+        m_numSamplesInRetryBuffer.addAndGet(batch.size());
+    }
+
+    @VisibleForTesting
+    void retryFailedInserts() {
+        List<Sample> batch;
+        while ((batch = m_retryBuffer.pollFirst()) != null) {
+            m_numSamplesInRetryBuffer.addAndGet(-batch.size());
+            try {
+                m_sampleRepository.insert(batch);
+                m_retriedSamples.mark(batch.size());
+            } catch (Throwable t) {
+                // Still unavailable, put the batch back and try again later
+                RATE_LIMITED_LOGGER.warn("Failed to insert samples from the retry buffer. {} samples are waiting to be inserted.",
+                        m_numSamplesInRetryBuffer.get() + batch.size(), t);
+                addToRetryBuffer(batch, true);
+                return;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    long getNumSamplesInRetryBuffer() {
+        return m_numSamplesInRetryBuffer.get();
+    }
+
+    /**
+     * Identifies the Cassandra partition in which a sample is stored.
+     */
+    private static class PartitionKey {
+        private final Context context;
+        private final String resourceId;
+        private final long shard;
+
+        private PartitionKey(Sample sample) {
+            context = sample.getContext();
+            resourceId = sample.getResource().getId();
+            shard = sample.getTimestamp().asMillis() / RESOURCE_SHARD_MS;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, resourceId, shard);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PartitionKey)) {
+                return false;
+            }
+            final PartitionKey other = (PartitionKey) obj;
+            return shard == other.shard
+                    && Objects.equals(resourceId, other.resourceId)
+                    && Objects.equals(context, other.context);
         }
     }
 
@@ -256,4 +451,12 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void setIndexer(Indexer indexer) {
         m_indexer = indexer;
     }
+
+    public void setIndexFilter(ResourceIndexFilter indexFilter) {
+        m_indexFilter = Objects.requireNonNull(indexFilter);
+    }
+
+    public void setGroupByPartition(boolean groupByPartition) {
+        m_groupByPartition = groupByPartition;
+    }
 }
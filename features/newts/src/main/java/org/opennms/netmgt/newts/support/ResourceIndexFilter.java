@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Sample;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the resources, attributes and metrics that were recently indexed
+ * so that samples for resources that haven't changed can skip the indexer.
+ *
+ * The filter is disabled when the maximum number of entries is 0, in which
+ * case all of the samples are passed through.
+ */
+public class ResourceIndexFilter {
+
+    public static final String MAX_ENTRIES_PROPERTY = "org.opennms.newts.config.index_filter.max_entries";
+
+    public static final String EXPIRY_PROPERTY = "org.opennms.newts.config.index_filter.expiry_seconds";
+
+    private final Cache<IndexKey, Boolean> m_indexed;
+
+    public ResourceIndexFilter() {
+        this(SystemProperties.getLong(MAX_ENTRIES_PROPERTY, 0L), SystemProperties.getLong(EXPIRY_PROPERTY, 3600L));
+    }
+
+    public ResourceIndexFilter(long maxEntries, long expirySeconds) {
+        if (maxEntries > 0) {
+            m_indexed = CacheBuilder.newBuilder()
+                    .maximumSize(maxEntries)
+                    .expireAfterWrite(expirySeconds, TimeUnit.SECONDS)
+                    .build();
+        } else {
+            m_indexed = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return m_indexed != null;
+    }
+
+    /**
+     * Returns the samples that need to be indexed, keeping a single sample
+     * for every resource and metric.
+     */
+    public List<Sample> filter(Collection<Sample> samples) {
+        if (m_indexed == null) {
+            return samples instanceof List ? (List<Sample>)samples : new ArrayList<>(samples);
+        }
+        final Set<IndexKey> seen = new HashSet<>();
+        final List<Sample> toIndex = new ArrayList<>();
+        for (Sample sample : samples) {
+            final IndexKey key = new IndexKey(sample);
+            if (m_indexed.getIfPresent(key) == null && seen.add(key)) {
+                toIndex.add(sample);
+            }
+        }
+        return toIndex;
+    }
+
+    /**
+     * Marks the given samples as indexed. Should only be called once the
+     * indexer has successfully processed them.
+     */
+    public void markIndexed(Collection<Sample> samples) {
+        if (m_indexed == null) {
+            return;
+        }
+        for (Sample sample : samples) {
+            m_indexed.put(new IndexKey(sample), Boolean.TRUE);
+        }
+    }
+
+    public long size() {
+        return m_indexed != null ? m_indexed.size() : 0L;
+    }
+
+    private static class IndexKey {
+        private final Context context;
+        private final String resourceId;
+        private final String name;
+        private final Map<String, String> attributes;
+        private final int hashCode;
+
+        private IndexKey(Sample sample) {
+            context = sample.getContext();
+            resourceId = sample.getResource().getId();
+            name = sample.getName();
+            attributes = sample.getResource().getAttributes().orNull();
+            hashCode = Objects.hash(context, resourceId, name, attributes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IndexKey)) {
+                return false;
+            }
+            final IndexKey other = (IndexKey) obj;
+            return hashCode == other.hashCode
+                    && Objects.equals(resourceId, other.resourceId)
+                    && Objects.equals(name, other.name)
+                    && Objects.equals(context, other.context)
+                    && Objects.equals(attributes, other.attributes);
+        }
+    }
+}
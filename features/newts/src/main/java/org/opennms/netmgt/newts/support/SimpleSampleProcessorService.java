@@ -30,6 +30,7 @@ package org.opennms.netmgt.newts.support;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -42,13 +43,23 @@ import org.opennms.newts.api.SampleProcessorService;
  * A simple sample processing service that executes the sample processors
  * serially in the caller's thread.
  *
+ * Samples for resources and metrics that were recently processed are
+ * skipped by the given {@link ResourceIndexFilter}.
+ *
  * @author jwhite
  */
 public class SimpleSampleProcessorService implements SampleProcessorService {
 
     private final Set<SampleProcessor> m_processors;
 
+    private final ResourceIndexFilter m_indexFilter;
+
     public SimpleSampleProcessorService(Set<SampleProcessor> processors) {
+        this(processors, new ResourceIndexFilter(0, 0));
+    }
+
+    public SimpleSampleProcessorService(Set<SampleProcessor> processors, ResourceIndexFilter indexFilter) {
+        m_indexFilter = Objects.requireNonNull(indexFilter);
         if (NewtsUtils.DISABLE_INDEXING) {
             // Currently the only processor is the indexing processor so
             // we always use an empty set of processors when indexing is disabled
@@ -60,7 +71,15 @@ public class SimpleSampleProcessorService implements SampleProcessorService {
 
     @Override
     public void submit(Collection<Sample> samples) {
-        m_processors.stream().forEach(p -> p.submit(samples));
+        if (m_processors.isEmpty()) {
+            return;
+        }
+        final List<Sample> samplesToProcess = m_indexFilter.filter(samples);
+        if (samplesToProcess.isEmpty()) {
+            return;
+        }
+        m_processors.stream().forEach(p -> p.submit(samplesToProcess));
+        m_indexFilter.markIndexed(samplesToProcess);
     }
 
     @Override
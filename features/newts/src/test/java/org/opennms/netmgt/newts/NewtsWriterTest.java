@@ -29,14 +29,18 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
+import org.opennms.netmgt.newts.support.ResourceIndexFilter;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Counter;
 import org.opennms.newts.api.Duration;
@@ -49,6 +53,7 @@ import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.SampleSelectCallback;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.search.Indexer;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
@@ -119,6 +124,107 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Verifies that the samples are grouped by resource when grouping by
+     * partition is enabled.
+     */
+    @Test
+    public void canGroupSamplesByPartition() throws Exception {
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository();
+        NewtsWriter writer = new NewtsWriter(4, 1024, 1, new MetricRegistry());
+        writer.setSampleRepository(sampleRepo);
+        writer.setGroupByPartition(true);
+
+        List<Sample> samples = Lists.newArrayList();
+        for (int i = 0; i < 6; i++) {
+            Resource r = new Resource(i % 2 == 0 ? "x" : "y");
+            samples.add(new Sample(Timestamp.now(), r, "m" + i, MetricType.COUNTER, new Counter(i)));
+        }
+        writer.insert(samples);
+        writer.destroy();
+
+        // 3 samples for each resource, in a single batch each
+        assertEquals(2, sampleRepo.batches.size());
+        for (List<Sample> batch : sampleRepo.batches) {
+            assertEquals(3, batch.size());
+            assertEquals(1, batch.stream().map(s -> s.getResource().getId()).distinct().count());
+        }
+    }
+
+    /**
+     * Verifies that samples that fail to be inserted are kept in the
+     * retry buffer until they can be inserted.
+     */
+    @Test
+    public void failedInsertsAreRetried() throws Exception {
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository();
+        sampleRepo.failing = true;
+        NewtsWriter writer = new NewtsWriter(1, 1024, 1, new MetricRegistry());
+        writer.setSampleRepository(sampleRepo);
+
+        Resource x = new Resource("x");
+        for (int i = 0; i < 4; i++) {
+            writer.insert(Lists.newArrayList(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i))));
+        }
+        while (writer.getNumSamplesInRetryBuffer() < 4) {
+            Thread.sleep(10);
+        }
+
+        // Still failing
+        writer.retryFailedInserts();
+        assertEquals(4, writer.getNumSamplesInRetryBuffer());
+        assertTrue(sampleRepo.batches.isEmpty());
+
+        sampleRepo.failing = false;
+        writer.retryFailedInserts();
+        assertEquals(0, writer.getNumSamplesInRetryBuffer());
+        assertEquals(4, sampleRepo.batches.size());
+        writer.destroy();
+    }
+
+    /**
+     * Verifies that resources that were already indexed are not
+     * indexed again.
+     */
+    @Test
+    public void indexUpdatesAreFiltered() throws Exception {
+        List<Collection<Sample>> updates = new ArrayList<>();
+        NewtsWriter writer = new NewtsWriter(16, 1024, 1, new MetricRegistry());
+        writer.setIndexer(new Indexer() {
+            @Override
+            public synchronized void update(Collection<Sample> samples) {
+                updates.add(samples);
+            }
+
+            @Override
+            public void delete(Context context, Resource resource) {
+                // pass
+            }
+        });
+        writer.setIndexFilter(new ResourceIndexFilter(1024, 3600));
+
+        Resource x = new Resource("x");
+        for (int i = 0; i < 3; i++) {
+            writer.index(Lists.newArrayList(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i))));
+        }
+        writer.destroy();
+
+        assertEquals(1, updates.size());
+    }
+
+    private static class RecordingSampleRepository extends MockSampleRepository {
+        private final List<List<Sample>> batches = new ArrayList<>();
+        private volatile boolean failing = false;
+
+        @Override
+        public synchronized void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            if (failing) {
+                throw new IllegalStateException("Cassandra is unavailable.");
+            }
+            batches.add(new ArrayList<>(samples));
+        }
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -30,10 +30,12 @@ package org.opennms.netmgt.poller.client.rpc;
 
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.poller.ServiceMonitorRegistry;
@@ -68,6 +70,25 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
             return CompletableFuture.completedFuture(new PollerResponseDTO(PollStatus.unknown("No monitor found with class name '" + className + "'.")));
         }
 
+        if (monitor instanceof AsyncServiceMonitor) {
+            // Don't tie up one of the threads while waiting for the response
+            CompletableFuture<PollStatus> future;
+            try {
+                future = ((AsyncServiceMonitor)monitor).pollAsync(request, request.getMonitorParameters());
+            } catch (RuntimeException e) {
+                future = CompletableFuture.completedFuture(PollStatus.unknown(e.getMessage()));
+            }
+            // Hand the result over to the poller executor, so that neither the response nor the adaptors
+            // applied by the caller are handled on the I/O thread which completed the poll
+            return future.handleAsync((pollStatus, e) -> {
+                if (e != null) {
+                    final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    pollStatus = PollStatus.unknown(cause.getMessage());
+                }
+                return new PollerResponseDTO(pollStatus);
+            }, executor);
+        }
+
         return CompletableFuture.supplyAsync(new Supplier<PollerResponseDTO>() {
             @Override
             public PollerResponseDTO get() {
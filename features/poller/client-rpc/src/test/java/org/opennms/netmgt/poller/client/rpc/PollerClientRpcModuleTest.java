@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.client.rpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.ServiceMonitor;
+import org.opennms.netmgt.poller.ServiceMonitorRegistry;
+import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+
+public class PollerClientRpcModuleTest {
+
+    private final ExecutorService pollerExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "poller"));
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "io"));
+
+    private final CompletableFuture<PollStatus> pollStatus = new CompletableFuture<>();
+
+    private final AsyncMonitor monitor = new AsyncMonitor();
+
+    private class AsyncMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
+        @Override
+        public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+            return pollStatus;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pollerExecutor.shutdownNow();
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * Verifies that the adaptors, which the {@link PollerRequestBuilderImpl} applies to the response,
+     * don't run on the I/O thread which completed the asynchronous poll.
+     */
+    @Test(timeout=30*1000)
+    public void verifyAsyncPollsAreHandledOnPollerExecutor() throws Exception {
+        final CompletableFuture<String> adaptorThread = execute().thenApply(response -> {
+            assertEquals(PollStatus.SERVICE_AVAILABLE, response.getPollStatus().getStatusCode());
+            return Thread.currentThread().getName();
+        });
+
+        ioExecutor.execute(() -> pollStatus.complete(PollStatus.up()));
+        assertEquals("poller", adaptorThread.get());
+    }
+
+    @Test(timeout=30*1000)
+    public void verifyFailedAsyncPollsAreHandledOnPollerExecutor() throws Exception {
+        final CompletableFuture<String> adaptorThread = execute().thenApply(response -> {
+            assertEquals(PollStatus.SERVICE_UNKNOWN, response.getPollStatus().getStatusCode());
+            assertEquals("Socket closed", response.getPollStatus().getReason());
+            return Thread.currentThread().getName();
+        });
+
+        ioExecutor.execute(() -> pollStatus.completeExceptionally(new IllegalStateException("Socket closed")));
+        assertNotEquals("io", adaptorThread.get());
+    }
+
+    private CompletableFuture<PollerResponseDTO> execute() {
+        final PollerClientRpcModule module = new PollerClientRpcModule();
+        module.setExecutor(pollerExecutor);
+        module.setServiceMonitorRegistry(new ServiceMonitorRegistry() {
+            @Override
+            public ServiceMonitor getMonitorByClassName(String className) {
+                return monitor;
+            }
+
+            @Override
+            public Set<String> getMonitorClassNames() {
+                return Collections.singleton(AsyncMonitor.class.getCanonicalName());
+            }
+        });
+
+        final PollerRequestDTO request = new PollerRequestDTO();
+        request.setClassName(AsyncMonitor.class.getCanonicalName());
+        return module.execute(request);
+    }
+}
@@ -29,14 +29,16 @@
 package org.opennms.netmgt.poller.monitors;
 
 import java.net.InetAddress;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.PropertiesUtils;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.DistributionContext;
 import org.opennms.netmgt.poller.MonitoredService;
@@ -64,7 +66,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable(DistributionContext.DAEMON)
-public class SnmpMonitor extends SnmpMonitorStrategy {
+public class SnmpMonitor extends SnmpMonitorStrategy implements AsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(SnmpMonitor.class);
 
@@ -90,7 +92,21 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
      */
     @Override
     public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
-        PollStatus status = PollStatus.unavailable();
+        return pollAsync(svc, parameters).join();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>
+     * Issues the SNMP GET, or the walk, without waiting for the response,
+     * and checks the values against the criteria once they are received.
+     * </P>
+     * @exception RuntimeException
+     *                Thrown for any unrecoverable errors.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
         InetAddress ipaddr = svc.getAddress();
 
         // Retrieve this interface's SNMP peer object
@@ -100,15 +116,15 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
 
         // Get configuration parameters
         //
-        String oid = ParameterMap.getKeyedString(parameters, "oid", DEFAULT_OBJECT_IDENTIFIER);
-        String operator = ParameterMap.getKeyedString(parameters, "operator", null);
-        String operand = ParameterMap.getKeyedString(parameters, "operand", null);
-        String walkstr = ParameterMap.getKeyedString(parameters, "walk", "false");
-        String matchstr = ParameterMap.getKeyedString(parameters, "match-all", "true");
-        int countMin = ParameterMap.getKeyedInteger(parameters, "minimum", 0);
-        int countMax = ParameterMap.getKeyedInteger(parameters, "maximum", 0);
+        final String oid = ParameterMap.getKeyedString(parameters, "oid", DEFAULT_OBJECT_IDENTIFIER);
+        final String operator = ParameterMap.getKeyedString(parameters, "operator", null);
+        final String operand = ParameterMap.getKeyedString(parameters, "operand", null);
+        final String walkstr = ParameterMap.getKeyedString(parameters, "walk", "false");
+        final String matchstr = ParameterMap.getKeyedString(parameters, "match-all", "true");
+        final int countMin = ParameterMap.getKeyedInteger(parameters, "minimum", 0);
+        final int countMax = ParameterMap.getKeyedInteger(parameters, "maximum", 0);
         String reasonTemplate = ParameterMap.getKeyedString(parameters, "reason-template", DEFAULT_REASON_TEMPLATE);
-        String hexstr = ParameterMap.getKeyedString(parameters, "hex", "false");
+        final String hexstr = ParameterMap.getKeyedString(parameters, "hex", "false");
 
         hex = "true".equalsIgnoreCase(hexstr);
         // set timeout and retries on SNMP peer object
@@ -118,7 +134,7 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
         agentConfig.setPort(ParameterMap.getKeyedInteger(parameters, "port", agentConfig.getPort()));
 
         // Squirrel the configuration parameters away in a Properties for later expansion if service is down
-        Properties svcParams = new Properties();
+        final Properties svcParams = new Properties();
         svcParams.setProperty("oid", oid);
         svcParams.setProperty("operator", String.valueOf(operator));
         svcParams.setProperty("operand", String.valueOf(operand));
@@ -136,9 +152,10 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
 
         // Establish SNMP session with interface
         //
+        CompletableFuture<PollStatus> future;
         try {
 
-            TimeoutTracker tracker = new TimeoutTracker(parameters, agentConfig.getRetries(), agentConfig.getTimeout());
+            final TimeoutTracker tracker = new TimeoutTracker(parameters, agentConfig.getRetries(), agentConfig.getTimeout());
             tracker.reset();
             tracker.startAttempt();
 
@@ -151,48 +168,54 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
                 if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
                     reasonTemplate = "Value: ${matchCount} outside of range Min: ${minimum} to Max: ${maximum}";
                 }
-                int matchCount = 0;
-                List<SnmpValue> results = SnmpUtils.getColumns(agentConfig, "snmpPoller", snmpObjectId);
-                for(SnmpValue result : results) {
+                final String template = reasonTemplate;
+                future = SnmpUtils.getColumnsAsync(agentConfig, "snmpPoller", snmpObjectId).thenApply(results -> {
+                    hex = "true".equalsIgnoreCase(hexstr);
+                    int matchCount = 0;
+                    for(SnmpValue result : results) {
 
-                    if (result != null) {
-                        LOG.debug("poll: SNMPwalk poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
-                        if (meetsCriteria(result, operator, operand)) {
-                            matchCount++;
+                        if (result != null) {
+                            LOG.debug("poll: SNMPwalk poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
+                            if (meetsCriteria(result, operator, operand)) {
+                                matchCount++;
+                            }
                         }
                     }
-                }
-                svcParams.setProperty("matchCount", String.valueOf(matchCount));
-                LOG.debug("poll: SNMPwalk count succeeded, total={} min={} max={}", matchCount, countMin, countMax);
-                if ((countMin <= matchCount) && (matchCount <= countMax)) {
-                    status = PollStatus.available(tracker.elapsedTimeInMillis());
-                } else {
-                    String reason = PropertiesUtils.substitute(reasonTemplate, svcParams);
-                    LOG.debug(reason);
-                    status = PollStatus.unavailable(reason);
-                    return status;
-                }
+                    svcParams.setProperty("matchCount", String.valueOf(matchCount));
+                    LOG.debug("poll: SNMPwalk count succeeded, total={} min={} max={}", matchCount, countMin, countMax);
+                    if ((countMin <= matchCount) && (matchCount <= countMax)) {
+                        return PollStatus.available(tracker.elapsedTimeInMillis());
+                    } else {
+                        String reason = PropertiesUtils.substitute(template, svcParams);
+                        LOG.debug(reason);
+                        return PollStatus.unavailable(reason);
+                    }
+                });
             } else if ("true".equals(walkstr)) {
                 if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
                     reasonTemplate = "SNMP poll failed, addr=${ipaddr} oid=${oid}";
                 }
-                List<SnmpValue> results = SnmpUtils.getColumns(agentConfig, "snmpPoller", snmpObjectId);
-                for(SnmpValue result : results) {
-                    if (result != null) {
-                        svcParams.setProperty("observedValue", getStringValue(result));
-                        if (meetsCriteria(result, operator, operand)) {
-                            status = PollStatus.available(tracker.elapsedTimeInMillis());
-                            if ("false".equals(matchstr)) {
-                                return status;
+                final String template = reasonTemplate;
+                future = SnmpUtils.getColumnsAsync(agentConfig, "snmpPoller", snmpObjectId).thenApply(results -> {
+                    hex = "true".equalsIgnoreCase(hexstr);
+                    PollStatus status = PollStatus.unavailable();
+                    for(SnmpValue result : results) {
+                        if (result != null) {
+                            svcParams.setProperty("observedValue", getStringValue(result));
+                            if (meetsCriteria(result, operator, operand)) {
+                                status = PollStatus.available(tracker.elapsedTimeInMillis());
+                                if ("false".equals(matchstr)) {
+                                    return status;
+                                }
+                            } else if ("true".equals(matchstr)) {
+                                String reason = PropertiesUtils.substitute(template, svcParams);
+                                LOG.debug(reason);
+                                return PollStatus.unavailable(reason);
                             }
-                        } else if ("true".equals(matchstr)) {
-                            String reason = PropertiesUtils.substitute(reasonTemplate, svcParams);
-                            LOG.debug(reason);
-                            status = PollStatus.unavailable(reason);
-                            return status;
                         }
                     }
-                }
+                    return status;
+                });
 
             } else {
                 if (DEFAULT_REASON_TEMPLATE.equals(reasonTemplate)) {
@@ -202,40 +225,53 @@ public class SnmpMonitor extends SnmpMonitorStrategy {
                         reasonTemplate = "Observed value '${observedValue}' was null";
                     }
                 }
+                final String template = reasonTemplate;
+                future = SnmpUtils.getAsync(agentConfig, new SnmpObjId[] { snmpObjectId }).exceptionally(t -> {
+                    // Treat errors like SnmpUtils.get() does
+                    LOG.error(t.getMessage(), t);
+                    return null;
+                }).thenApply(results -> {
+                    hex = "true".equalsIgnoreCase(hexstr);
+                    SnmpValue result = results == null || results.length < 1 ? null : results[0];
 
-                SnmpValue result = SnmpUtils.get(agentConfig, snmpObjectId);
+                    if (result != null) {
+                        svcParams.setProperty("observedValue", getStringValue(result));
+                        LOG.debug("poll: SNMP poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
 
-                if (result != null) {
-                    svcParams.setProperty("observedValue", getStringValue(result));
-                    LOG.debug("poll: SNMP poll succeeded, addr={} oid={} value={}", hostAddress, oid, result);
-                    
-                    if (meetsCriteria(result, operator, operand)) {
-                        status = PollStatus.available(tracker.elapsedTimeInMillis());
+                        if (meetsCriteria(result, operator, operand)) {
+                            return PollStatus.available(tracker.elapsedTimeInMillis());
+                        } else {
+                            return PollStatus.unavailable(PropertiesUtils.substitute(template, svcParams));
+                        }
                     } else {
-                        status = PollStatus.unavailable(PropertiesUtils.substitute(reasonTemplate, svcParams));
+                        String reason = "SNMP poll failed, addr=" + hostAddress + " oid=" + oid;
+                        LOG.debug(reason);
+                        return PollStatus.unavailable(reason);
                     }
-                } else {
-                    String reason = "SNMP poll failed, addr=" + hostAddress + " oid=" + oid;
-                    LOG.debug(reason);
-                    status = PollStatus.unavailable(reason);
-                }
+                });
             }
 
-        } catch (NumberFormatException e) {
-            String reason = "Number operator used on a non-number " + e.getMessage();
-            LOG.debug(reason);
-            status = PollStatus.unavailable(reason);
-        } catch (IllegalArgumentException e) {
-            String reason = "Invalid SNMP Criteria: " + e.getMessage();
-            LOG.debug(reason);
-            status = PollStatus.unavailable(reason);
         } catch (Throwable t) {
-            String reason = "Unexpected exception during SNMP poll of interface " + hostAddress;
-            LOG.debug(reason, t);
-            status = PollStatus.unavailable(reason);
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
         }
 
-        return status;
+        return future.exceptionally(e -> {
+            final Throwable t = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (t instanceof NumberFormatException) {
+                String reason = "Number operator used on a non-number " + t.getMessage();
+                LOG.debug(reason);
+                return PollStatus.unavailable(reason);
+            } else if (t instanceof IllegalArgumentException) {
+                String reason = "Invalid SNMP Criteria: " + t.getMessage();
+                LOG.debug(reason);
+                return PollStatus.unavailable(reason);
+            } else {
+                String reason = "Unexpected exception during SNMP poll of interface " + hostAddress;
+                LOG.debug(reason, t);
+                return PollStatus.unavailable(reason);
+            }
+        });
     }
 
 }
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.poller.monitors;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
@@ -37,11 +38,23 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
@@ -61,7 +74,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-final public class TcpMonitor extends AbstractServiceMonitor {
+final public class TcpMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
 
     public static final Logger LOG = LoggerFactory.getLogger(TcpMonitor.class);
 
@@ -82,6 +95,20 @@ final public class TcpMonitor extends AbstractServiceMonitor {
     private static final int DEFAULT_TIMEOUT = 3000; // 3 second timeout on
                                                         // read()
 
+    /**
+     * Upper bound on the length of the banner read by {@link #pollAsync(MonitoredService, Map)}.
+     */
+    private static final int MAX_BANNER_LENGTH = 8192;
+
+    /**
+     * Times out the pending connections and delays the retries of the asynchronous polls.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "TcpMonitor-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public static final String PARAMETER_BANNER = "banner";
     public static final String PARAMETER_PORT = "port";
 
@@ -213,4 +240,214 @@ final public class TcpMonitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+
+    /**
+     * {@inheritDoc}
+     *
+     * Same as {@link #poll(MonitoredService, Map)}, but the connection is
+     * established and the banner is read using an asynchronous socket
+     * channel, so no thread is held while waiting on the remote host.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+
+        int port = ParameterMap.getKeyedInteger(parameters, PARAMETER_PORT, DEFAULT_PORT);
+        if (port == DEFAULT_PORT) {
+            throw new RuntimeException("TcpMonitor: required parameter 'port' is not present in supplied properties.");
+        }
+
+        final String strBannerMatch = ParameterMap.getKeyedString(parameters, PARAMETER_BANNER, null);
+        final boolean strictTimeouts = ParameterMap.getKeyedBoolean(parameters, "strict-timeout", false);
+        final InetAddress ipAddr = svc.getAddress();
+
+        LOG.debug("poll: address = {}, port = {}, {}", InetAddressUtils.str(ipAddr), port, tracker);
+
+        final AsyncPoll poll = new AsyncPoll(tracker, new InetSocketAddress(ipAddr, port), strBannerMatch, strictTimeouts);
+        tracker.reset();
+        poll.attempt();
+        return poll.future;
+    }
+
+    /**
+     * The state of a poll made with {@link TcpMonitor#pollAsync(MonitoredService, Map)}.
+     *
+     * Every attempt is driven by the completion handlers of the channel, and
+     * the next attempt is only started once the previous one is over.
+     */
+    private static class AsyncPoll {
+        private final CompletableFuture<PollStatus> future = new CompletableFuture<>();
+        private final TimeoutTracker tracker;
+        private final InetSocketAddress address;
+        private final String strBannerMatch;
+        private final boolean strictTimeouts;
+        private volatile PollStatus serviceStatus = PollStatus.unavailable();
+        private volatile long attemptStartedAt;
+
+        private AsyncPoll(TimeoutTracker tracker, InetSocketAddress address, String strBannerMatch, boolean strictTimeouts) {
+            this.tracker = tracker;
+            this.address = address;
+            this.strBannerMatch = strBannerMatch;
+            this.strictTimeouts = strictTimeouts;
+        }
+
+        private void attempt() {
+            if (!tracker.shouldRetry() || serviceStatus.isAvailable()) {
+                future.complete(serviceStatus);
+                return;
+            }
+            if (strictTimeouts && tracker.getAttempt() > 0) {
+                // Wait for the previous attempt to time out without sleeping, like startAttempt() would
+                final long delay = attemptStartedAt + TimeUnit.MILLISECONDS.toNanos(tracker.getTimeoutInMillis()) - System.nanoTime();
+                if (delay > 0) {
+                    TIMER.schedule(this::connect, delay, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            connect();
+        }
+
+        private void nextAttempt() {
+            tracker.nextAttempt();
+            attempt();
+        }
+
+        private void connect() {
+            tracker.startAttempt();
+            attemptStartedAt = System.nanoTime();
+
+            final AsynchronousSocketChannel channel;
+            try {
+                channel = AsynchronousSocketChannel.open();
+            } catch (IOException e) {
+                onError(e);
+                return;
+            }
+
+            // Closing the channel fails the pending connect
+            final ScheduledFuture<?> connectTimeout = TIMER.schedule(() -> closeQuietly(channel), tracker.getConnectionTimeout(), TimeUnit.MILLISECONDS);
+            channel.connect(address, null, new CompletionHandler<Void, Void>() {
+                @Override
+                public void completed(Void result, Void attachment) {
+                    if (!connectTimeout.cancel(false)) {
+                        closeQuietly(channel);
+                        onError(new InterruptedByTimeoutException());
+                        return;
+                    }
+                    LOG.debug("TcpMonitor: connected to host: {} on port: {}", address.getAddress(), address.getPort());
+
+                    // We're connected, so upgrade status to unresponsive
+                    serviceStatus = PollStatus.unresponsive();
+
+                    if (strBannerMatch == null || strBannerMatch.length() == 0 || strBannerMatch.equals("*")) {
+                        closeQuietly(channel);
+                        serviceStatus = PollStatus.available(tracker.elapsedTimeInMillis());
+                        future.complete(serviceStatus);
+                        return;
+                    }
+
+                    readLine(channel, ByteBuffer.allocate(1024), new ByteArrayOutputStream());
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    connectTimeout.cancel(false);
+                    closeQuietly(channel);
+                    onError(exc);
+                }
+            });
+        }
+
+        private void readLine(AsynchronousSocketChannel channel, ByteBuffer buffer, ByteArrayOutputStream line) {
+            channel.read(buffer, tracker.getSoTimeout(), TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer count, Void attachment) {
+                    if (count < 0) {
+                        closeQuietly(channel);
+                        onBanner(line.size() > 0 ? new String(line.toByteArray(), Charset.defaultCharset()) : null);
+                        return;
+                    }
+
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        final byte b = buffer.get();
+                        if (b == '\n' || b == '\r' || line.size() >= MAX_BANNER_LENGTH) {
+                            closeQuietly(channel);
+                            onBanner(new String(line.toByteArray(), Charset.defaultCharset()));
+                            return;
+                        }
+                        line.write(b);
+                    }
+                    buffer.clear();
+                    readLine(channel, buffer, line);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    closeQuietly(channel);
+                    onError(exc);
+                }
+            });
+        }
+
+        private void onBanner(String response) {
+            double responseTime = tracker.elapsedTimeInMillis();
+
+            if (response == null) {
+                nextAttempt();
+                return;
+            }
+            LOG.debug("poll: banner = {}", response);
+            LOG.debug("poll: responseTime= {}ms", responseTime);
+
+            //Could it be a regex?
+            if (strBannerMatch.charAt(0)=='~'){
+                if (!response.matches(strBannerMatch.substring(1)))
+                    serviceStatus = PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
+                else
+                    serviceStatus = PollStatus.available(responseTime);
+            }
+            else {
+                if (response.indexOf(strBannerMatch) > -1) {
+                    serviceStatus = PollStatus.available(responseTime);
+                }
+                else {
+                    serviceStatus = PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
+                }
+            }
+            nextAttempt();
+        }
+
+        private void onError(Throwable e) {
+            if (e instanceof NoRouteToHostException) {
+                String reason = "No route to host exception for address " + InetAddressUtils.str(address.getAddress());
+                LOG.debug(reason, e);
+                serviceStatus = PollStatus.unavailable(reason);
+                future.complete(serviceStatus);
+                return;
+            } else if (e instanceof InterruptedByTimeoutException || e instanceof AsynchronousCloseException) {
+                String reason = "did not connect to host with " + tracker;
+                LOG.debug(reason);
+                serviceStatus = PollStatus.unavailable(reason);
+            } else if (e instanceof ConnectException) {
+                String reason = "Connection exception for address: " + address.getAddress();
+                LOG.debug(reason, e);
+                serviceStatus = PollStatus.unavailable(reason);
+            } else {
+                String reason = "IOException while polling address: " + address.getAddress();
+                LOG.debug(reason, e);
+                serviceStatus = PollStatus.unavailable(reason);
+            }
+            nextAttempt();
+        }
+    }
+
+    private static void closeQuietly(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("poll: Error closing socket.", e);
+        }
+    }
+
 }
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MonitorTestUtils;
+
+/**
+ * Verifies the asynchronous poll of the {@link TcpMonitor} against a local
+ * server socket.
+ */
+public class TcpMonitorAsyncTest {
+
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    final OutputStream out = socket.getOutputStream();
+                    out.write("220 OpenNMS Test Server\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } catch (IOException e) {
+                    // The server socket was closed
+                }
+            }
+        }, "TcpMonitorAsyncTest-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        acceptor.join(5000);
+    }
+
+    @Test
+    public void canPollAsync() throws Exception {
+        final PollStatus status = new TcpMonitor().pollAsync(getService(), getParameters(serverSocket.getLocalPort())).get();
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        assertNotNull(status.getResponseTime());
+    }
+
+    @Test
+    public void canMatchBannerAsync() throws Exception {
+        final Map<String, Object> parameters = getParameters(serverSocket.getLocalPort());
+        parameters.put(TcpMonitor.PARAMETER_BANNER, "OpenNMS");
+        PollStatus status = new TcpMonitor().pollAsync(getService(), parameters).get();
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+
+        parameters.put(TcpMonitor.PARAMETER_BANNER, "~^SSH.*");
+        status = new TcpMonitor().pollAsync(getService(), parameters).get();
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+    }
+
+    @Test
+    public void canDetectClosedPortAsync() throws Exception {
+        final int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        acceptor.join(5000);
+
+        final PollStatus status = new TcpMonitor().pollAsync(getService(), getParameters(port)).get();
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertNotNull(status.getReason());
+    }
+
+    private static MonitoredService getService() throws IOException {
+        final InetAddress addr = InetAddress.getLoopbackAddress();
+        return MonitorTestUtils.getMonitoredService(1, addr, "TCP");
+    }
+
+    private static Map<String, Object> getParameters(int port) {
+        final Map<String, Object> parameters = new ConcurrentSkipListMap<String, Object>();
+        parameters.put("port", Integer.toString(port));
+        parameters.put("retry", "1");
+        parameters.put("timeout", "2000");
+        return parameters;
+    }
+}
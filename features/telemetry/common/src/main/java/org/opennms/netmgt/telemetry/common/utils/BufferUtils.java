@@ -68,6 +68,14 @@ public class BufferUtils {
     }
 
     public static UnsignedLong uint(final ByteBuffer buffer, final int octets) {
+        return UnsignedLong.fromLongBits(uintBits(buffer, octets));
+    }
+
+    /**
+     * Same as {@link #uint(ByteBuffer, int)}, but returns the raw bits of the value
+     * without wrapping them.
+     */
+    public static long uintBits(final ByteBuffer buffer, final int octets) {
         Preconditions.checkArgument(0 <= octets && octets <= 8);
 
         long result = 0;
@@ -76,7 +84,7 @@ public class BufferUtils {
             result = (result << 8L) | (buffer.get() & 0xFFL);
         }
 
-        return UnsignedLong.fromLongBits(result);
+        return result;
     }
 
     public static Long sint(final ByteBuffer buffer, final int octets) {
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.uint16;
+import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.uint8;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Field;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A set of data records which are decoded straight from the received buffer when they are serialized,
+ * instead of being parsed to {@link Value}s up front.
+ *
+ * Parsing the set only locates the records. When a record is written, its fields are read in place through a
+ * single view of the buffer, which is positioned using the field lengths of the template.
+ */
+public final class FlatDataSet {
+
+    public static final int VARIABLE_SIZED = 0xFFFF;
+    public static final int VARIABLE_SIZED_EXTENDED = 0xFF;
+
+    public final Template template;
+
+    private final Session.Resolver resolver;
+
+    private final boolean variableLength;
+
+    private final ByteBuffer view;
+
+    private final int end;
+
+    private final int[] offsets;
+
+    private final int count;
+
+    private final List<Value<?>> options;
+
+    private final List<List<Value<?>>> recordOptions;
+
+    /**
+     * @param template the template of the records
+     * @param resolver used to resolve the templates and options of the session
+     * @param buffer the payload of the set
+     * @param variableLength whether fields with a length of {@link #VARIABLE_SIZED} are prefixed by their actual length
+     * @param options the options shared by all of the records in the set, or empty if the options must be looked up
+     *                using the fields of each record
+     */
+    public FlatDataSet(final Template template,
+                       final Session.Resolver resolver,
+                       final ByteBuffer buffer,
+                       final boolean variableLength,
+                       final Optional<List<Value<?>>> options) throws InvalidPacketException {
+        this.template = Objects.requireNonNull(template);
+        this.resolver = Objects.requireNonNull(resolver);
+        this.variableLength = variableLength;
+        this.view = buffer.duplicate();
+        this.end = buffer.limit();
+
+        final int minimumRecordLength = minimumRecordLength(template, variableLength);
+        if (minimumRecordLength <= 0) {
+            throw new InvalidPacketException(buffer, "Template %d has no data", template.id);
+        }
+
+        // Every record spans at least the minimum length, so this is an upper bound
+        final int[] offsets = new int[buffer.remaining() / minimumRecordLength];
+        int count = 0;
+        while (buffer.remaining() >= minimumRecordLength) {
+            offsets[count++] = buffer.position();
+            for (final Field field : template.fields) {
+                final int length = this.fieldLength(field, buffer);
+                if (length > buffer.remaining()) {
+                    throw new InvalidPacketException(buffer, "Field exceeds set: %d > %d", length, buffer.remaining());
+                }
+                buffer.position(buffer.position() + length);
+            }
+        }
+
+        if (count == 0) {
+            throw new InvalidPacketException(buffer, "Empty set");
+        }
+
+        this.offsets = offsets;
+        this.count = count;
+
+        if (options.isPresent()) {
+            this.options = options.get();
+            this.recordOptions = null;
+        } else if (resolver.hasOptions()) {
+            // Fall back to parsing the records, as the options are keyed by values
+            this.options = Collections.emptyList();
+            this.recordOptions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                this.recordOptions.add(resolver.lookupOptions(this.parseFields(i)));
+            }
+        } else {
+            this.options = Collections.emptyList();
+            this.recordOptions = null;
+        }
+    }
+
+    /**
+     * Returns the sum of the lengths of the fields of the template, or <code>0</code> if the template only
+     * contains empty fields.
+     */
+    public static int minimumRecordLength(final Template template, final boolean variableLength) {
+        // For variable length fields we assume at least the length value (1 byte) to be present
+        return template.stream()
+                .mapToInt(f -> variableLength && f.length() == VARIABLE_SIZED ? 1 : f.length())
+                .sum();
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Writes the fields and options of the given record to the document.
+     */
+    public void write(final int index, final BsonWriter writer) throws InvalidPacketException {
+        int position = this.offsets[index];
+        for (final Field field : this.template.fields) {
+            this.select(field, position);
+            field.write(this.resolver, this.view, writer);
+            position = this.view.limit();
+        }
+
+        final List<Value<?>> options = this.recordOptions != null ? this.recordOptions.get(index) : this.options;
+        if (!options.isEmpty()) {
+            final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer);
+            for (final Value<?> option : options) {
+                option.visit(visitor);
+            }
+        }
+    }
+
+    /**
+     * Parses the fields of the given record.
+     */
+    public List<Value<?>> parseFields(final int index) throws InvalidPacketException {
+        final List<Value<?>> fields = new ArrayList<>(this.template.fields.size());
+        int position = this.offsets[index];
+        for (final Field field : this.template.fields) {
+            this.select(field, position);
+            fields.add(field.parse(this.resolver, this.view));
+            position = this.view.limit();
+        }
+        return fields;
+    }
+
+    /**
+     * Parses the records of the set, with their options.
+     */
+    public Stream<List<Value<?>>> parseRecords() {
+        return IntStream.range(0, this.count).mapToObj(i -> {
+            final List<Value<?>> record;
+            try {
+                record = this.parseFields(i);
+            } catch (final InvalidPacketException e) {
+                throw new IllegalStateException(e);
+            }
+            record.addAll(this.recordOptions != null ? this.recordOptions.get(i) : this.options);
+            return record;
+        });
+    }
+
+    /**
+     * Restricts the view to the value of the field starting at the given position.
+     */
+    private void select(final Field field, final int position) {
+        this.view.limit(this.end).position(position);
+        final int length = this.fieldLength(field, this.view);
+        this.view.limit(this.view.position() + length);
+    }
+
+    private int fieldLength(final Field field, final ByteBuffer buffer) {
+        int length = field.length();
+        if (this.variableLength && length == VARIABLE_SIZED) {
+            length = uint8(buffer);
+            if (length == VARIABLE_SIZED_EXTENDED) {
+                length = uint16(buffer);
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("templateId", this.template.id)
+                .add("records", this.count)
+                .toString();
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import org.bson.BsonBinary;
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.BooleanValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.FloatValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv4AddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv6AddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.ListValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.MacAddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.NullValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.OctetArrayValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.SignedValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.StringValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UndeclaredValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+
+/**
+ * Writes the visited values to a BSON document.
+ */
+public class FlowBuilderVisitor implements Value.Visitor {
+    // TODO: Really use ordinal for enums?
+
+    private final BsonWriter writer;
+
+    public FlowBuilderVisitor(final BsonWriter writer) {
+        this.writer = writer;
+    }
+
+    public static void writeDateTime(final BsonWriter writer, final String name, final long epochSecond, final int nanos) {
+        writer.writeStartDocument(name);
+        writer.writeInt64("epoch", epochSecond);
+        if (nanos != 0) {
+            writer.writeInt64("nanos", nanos);
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public void accept(final NullValue value) {
+        this.writer.writeNull(value.getName());
+    }
+
+    @Override
+    public void accept(final BooleanValue value) {
+        this.writer.writeBoolean(value.getName(), value.getValue());
+    }
+
+    @Override
+    public void accept(final DateTimeValue value) {
+        writeDateTime(this.writer, value.getName(), value.getValue().getEpochSecond(), value.getValue().getNano());
+    }
+
+    @Override
+    public void accept(final FloatValue value) {
+        this.writer.writeDouble(value.getName(), value.getValue());
+    }
+
+    @Override
+    public void accept(final IPv4AddressValue value) {
+        // TODO: Transport as binary?
+        this.writer.writeString(value.getName(), value.getValue().getHostAddress());
+    }
+
+    @Override
+    public void accept(final IPv6AddressValue value) {
+        // TODO: Transport as binary?
+        this.writer.writeString(value.getName(), value.getValue().getHostAddress());
+    }
+
+    @Override
+    public void accept(final MacAddressValue value) {
+        this.writer.writeStartDocument(value.getName());
+        value.getSemantics().ifPresent(semantics -> {
+            this.writer.writeInt32("s", semantics.ordinal());
+        });
+        this.writer.writeBinaryData("v", new BsonBinary(value.getValue()));
+        this.writer.writeEndDocument();
+    }
+
+    @Override
+    public void accept(final OctetArrayValue value) {
+        this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
+    }
+
+    @Override
+    public void accept(final SignedValue value) {
+        this.writer.writeInt64(value.getName(), value.getValue());
+    }
+
+    @Override
+    public void accept(final StringValue value) {
+        this.writer.writeString(value.getName(), value.getValue());
+    }
+
+    @Override
+    public void accept(final ListValue value) {
+        this.writer.writeStartDocument(value.getName());
+        this.writer.writeInt32("semantic", value.getSemantic().ordinal());
+        this.writer.writeStartArray("values");
+        for (int i = 0; i < value.getValue().size(); i++) {
+            this.writer.writeStartDocument();
+            for (int j = 0; j < value.getValue().get(i).size(); j++) {
+                value.getValue().get(i).get(j).visit(this);
+            }
+            this.writer.writeEndDocument();
+        }
+        this.writer.writeEndArray();
+        this.writer.writeEndDocument();
+    }
+
+    @Override
+    public void accept(final UnsignedValue value) {
+        // TODO: Mark this as unsigned?
+        this.writer.writeInt64(value.getName(), value.getValue().longValue());
+    }
+
+    @Override
+    public void accept(final UndeclaredValue value) {
+        this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
+    }
+}
@@ -62,7 +62,7 @@ public class IpfixTcpParser extends ParserBase implements TcpParser {
 
         return buffer -> {
             final Header header = new Header(slice(buffer, Header.SIZE));
-            final Packet packet = new Packet(session, header, buffer);
+            final Packet packet = new Packet(session, header, buffer, this.isFlatRecords());
 
             return this.transmit(packet, remoteAddress);
         };
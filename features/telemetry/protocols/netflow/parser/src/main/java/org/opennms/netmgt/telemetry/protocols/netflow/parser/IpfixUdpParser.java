@@ -53,7 +53,7 @@ public class IpfixUdpParser extends UdpParserBase implements UdpParser, Dispatch
     protected RecordProvider parse(final Session session,
                                    final ByteBuffer buffer) throws Exception {
         final Header header = new Header(slice(buffer, Header.SIZE));
-        final Packet packet = new Packet(session, header, buffer);
+        final Packet packet = new Packet(session, header, buffer, this.isFlatRecords());
 
         return packet;
     }
@@ -51,7 +51,7 @@ public class Netflow9UdpParser extends UdpParserBase implements UdpParser, Dispa
     @Override
     protected RecordProvider parse(Session session, ByteBuffer buffer) throws Exception {
         final Header header = new Header(slice(buffer, Header.SIZE));
-        final Packet packet = new Packet(session, header, buffer);
+        final Packet packet = new Packet(session, header, buffer, this.isFlatRecords());
 
         return packet;
     }
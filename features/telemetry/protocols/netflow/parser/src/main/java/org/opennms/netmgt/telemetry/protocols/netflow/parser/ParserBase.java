@@ -34,7 +34,6 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.IntFunction;
 
-import org.bson.BsonBinary;
 import org.bson.BsonBinaryWriter;
 import org.bson.BsonWriter;
 import org.bson.io.BasicOutputBuffer;
@@ -42,19 +41,6 @@ import org.opennms.core.ipc.sink.api.AsyncDispatcher;
 import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.BooleanValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.FloatValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv4AddressValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv6AddressValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.ListValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.MacAddressValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.NullValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.OctetArrayValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.SignedValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.StringValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UndeclaredValue;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +53,8 @@ public class ParserBase {
 
     private final AsyncDispatcher<TelemetryMessage> dispatcher;
 
+    private boolean flatRecords = false;
+
     public ParserBase(final Protocol protocol,
                       final String name,
                       final AsyncDispatcher<TelemetryMessage> dispatcher) {
@@ -79,13 +67,22 @@ public class ParserBase {
         return this.name;
     }
 
+    /**
+     * Whether data records are encoded straight from the received buffers, without being parsed to values first.
+     */
+    public boolean isFlatRecords() {
+        return this.flatRecords;
+    }
+
+    public void setFlatRecords(final boolean flatRecords) {
+        this.flatRecords = flatRecords;
+    }
+
     protected CompletableFuture<?> transmit(final RecordProvider packet, final InetSocketAddress remoteAddress) throws Exception {
         LOG.trace("Got packet: {}", packet);
 
         // Return a future which completes when message is parsed and all records are transmitted
-        return CompletableFuture.allOf(packet.getRecords().map(record -> {
-            final ByteBuffer buffer = serialize(this.protocol, record);
-
+        return CompletableFuture.allOf(packet.serializeRecords(this.protocol).stream().map(buffer -> {
             // Build the message to dispatch
             final TelemetryMessage msg = new TelemetryMessage(remoteAddress, buffer);
 
@@ -113,102 +110,26 @@ public class ParserBase {
         return output.getByteBuffers().get(0).asNIO();
     }
 
-    private static class FlowBuilderVisitor implements Value.Visitor {
-        // TODO: Really use ordinal for enums?
-
-        private final BsonWriter writer;
-
-        public FlowBuilderVisitor(final BsonWriter writer) {
-            this.writer = writer;
-        }
-
-        @Override
-        public void accept(final NullValue value) {
-            this.writer.writeNull(value.getName());
-        }
-
-        @Override
-        public void accept(final BooleanValue value) {
-            this.writer.writeBoolean(value.getName(), value.getValue());
-        }
-
-        @Override
-        public void accept(final DateTimeValue value) {
-            this.writer.writeStartDocument(value.getName());
-            this.writer.writeInt64("epoch", value.getValue().getEpochSecond());
-            if (value.getValue().getNano() != 0) {
-                this.writer.writeInt64("nanos", value.getValue().getNano());
-            }
-            this.writer.writeEndDocument();
-        }
-
-        @Override
-        public void accept(final FloatValue value) {
-            this.writer.writeDouble(value.getName(), value.getValue());
-        }
-
-        @Override
-        public void accept(final IPv4AddressValue value) {
-            // TODO: Transport as binary?
-            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
-        }
-
-        @Override
-        public void accept(final IPv6AddressValue value) {
-            // TODO: Transport as binary?
-            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
-        }
-
-        @Override
-        public void accept(final MacAddressValue value) {
-            this.writer.writeStartDocument(value.getName());
-            value.getSemantics().ifPresent(semantics -> {
-                this.writer.writeInt32("s", semantics.ordinal());
-            });
-            this.writer.writeBinaryData("v", new BsonBinary(value.getValue()));
-            this.writer.writeEndDocument();
-        }
-
-        @Override
-        public void accept(final OctetArrayValue value) {
-            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
-        }
-
-        @Override
-        public void accept(final SignedValue value) {
-            this.writer.writeInt64(value.getName(), value.getValue());
-        }
+    public static ByteBuffer serialize(final Protocol protocol, final DocumentWriter record) throws InvalidPacketException {
+        // Build BSON document straight from the data
+        final BasicOutputBuffer output = new BasicOutputBuffer();
+        try (final BsonBinaryWriter writer = new BsonBinaryWriter(output)) {
+            writer.writeStartDocument();
+            writer.writeInt32("@version", protocol.version);
 
-        @Override
-        public void accept(final StringValue value) {
-            this.writer.writeString(value.getName(), value.getValue());
-        }
+            record.write(writer);
 
-        @Override
-        public void accept(final ListValue value) {
-            this.writer.writeStartDocument(value.getName());
-            this.writer.writeInt32("semantic", value.getSemantic().ordinal());
-            this.writer.writeStartArray("values");
-            for (int i = 0; i < value.getValue().size(); i++) {
-                this.writer.writeStartDocument();
-                for (int j = 0; j < value.getValue().get(i).size(); j++) {
-                    value.getValue().get(i).get(j).visit(this);
-                }
-                this.writer.writeEndDocument();
-            }
-            this.writer.writeEndArray();
-            this.writer.writeEndDocument();
+            writer.writeEndDocument();
         }
 
-        @Override
-        public void accept(final UnsignedValue value) {
-            // TODO: Mark this as unsigned?
-            this.writer.writeInt64(value.getName(), value.getValue().longValue());
-        }
+        return output.getByteBuffers().get(0).asNIO();
+    }
 
-        @Override
-        public void accept(final UndeclaredValue value) {
-            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
-        }
+    /**
+     * Writes the content of a flow document.
+     */
+    @FunctionalInterface
+    public interface DocumentWriter {
+        void write(final BsonWriter writer) throws InvalidPacketException;
     }
 }
@@ -31,9 +31,14 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
@@ -42,6 +47,9 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.UdpSessionManager;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public abstract class UdpParserBase extends ParserBase {
     public final static long HOUSEKEEPING_INTERVAL = 60000;
 
@@ -50,6 +58,14 @@ public abstract class UdpParserBase extends ParserBase {
     private ScheduledFuture<?> housekeepingFuture;
     private Duration templateTimeout = Duration.ofMinutes(30);
 
+    private int threads = 1;
+    private int queueSize = 1000;
+
+    // One single-threaded worker per shard of the session manager, or null if packets are parsed on the receiving thread
+    private ExecutorService[] workers;
+
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
     public UdpParserBase(Protocol protocol, String name, AsyncDispatcher<TelemetryMessage> dispatcher) {
         super(protocol, name, dispatcher);
     }
@@ -59,6 +75,31 @@ public abstract class UdpParserBase extends ParserBase {
     public final CompletableFuture<?> parse(final ByteBuffer buffer,
                                             final InetSocketAddress remoteAddress,
                                             final InetSocketAddress localAddress) throws Exception {
+        if (this.workers == null) {
+            return this.parseAndTransmit(buffer, remoteAddress, localAddress);
+        }
+
+        // Packets of the same exporter are always handled by the same worker to keep them in order
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        this.workers[this.sessionManager.getShard(remoteAddress)].execute(() -> {
+            try {
+                this.parseAndTransmit(buffer, remoteAddress, localAddress).whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        future.completeExceptionally(ex);
+                    } else {
+                        future.complete(result);
+                    }
+                });
+            } catch (final Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<?> parseAndTransmit(final ByteBuffer buffer,
+                                                  final InetSocketAddress remoteAddress,
+                                                  final InetSocketAddress localAddress) throws Exception {
         final Session session = this.sessionManager.getSession(remoteAddress, localAddress);
 
         try {
@@ -70,15 +111,43 @@ public abstract class UdpParserBase extends ParserBase {
     }
 
     public void start(final ScheduledExecutorService executorService) {
-        this.sessionManager = new UdpSessionManager(this.templateTimeout);
+        this.sessionManager = new UdpSessionManager(this.templateTimeout, this.threads, this.metricRegistry, this.getName());
         this.housekeepingFuture = executorService.scheduleAtFixedRate(this.sessionManager::doHousekeeping,
                 HOUSEKEEPING_INTERVAL,
                 HOUSEKEEPING_INTERVAL,
                 TimeUnit.MILLISECONDS);
+
+        if (this.threads > 1) {
+            this.workers = new ExecutorService[this.sessionManager.getShardCount()];
+            for (int i = 0; i < this.workers.length; i++) {
+                this.workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(this.queueSize),
+                        new ThreadFactoryBuilder().setNameFormat("udp-parser-" + this.getName() + "-" + i).build(),
+                        (runnable, executor) -> {
+                            // Slow down the receiving thread instead of dropping or reordering packets
+                            if (executor.isShutdown()) {
+                                throw new RejectedExecutionException("Parser " + this.getName() + " is stopped");
+                            }
+                            try {
+                                executor.getQueue().put(runnable);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new RejectedExecutionException(e);
+                            }
+                        });
+            }
+        }
     }
 
     public void stop() {
         this.housekeepingFuture.cancel(false);
+
+        if (this.workers != null) {
+            for (final ExecutorService worker : this.workers) {
+                worker.shutdown();
+            }
+            this.workers = null;
+        }
     }
 
     public Duration getTemplateTimeout() {
@@ -88,4 +157,34 @@ public abstract class UdpParserBase extends ParserBase {
     public void setTemplateTimeout(final Duration templateTimeout) {
         this.templateTimeout = templateTimeout;
     }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * The number of threads used to parse packets. If set to 1, packets are parsed on the receiving thread.
+     */
+    public void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    /**
+     * The number of packets waiting for each of the parsing threads.
+     */
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return this.metricRegistry;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = Objects.requireNonNull(metricRegistry);
+    }
 }
@@ -40,10 +40,14 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.IpfixUdpParser;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.PropertyAccessorFactory;
 
+import com.codahale.metrics.MetricRegistry;
+
 public class IpfixUdpParserFactory implements ParserFactory {
 
     private final TelemetryRegistry telemetryRegistry;
 
+    private MetricRegistry metricRegistry;
+
     public IpfixUdpParserFactory(TelemetryRegistry telemetryRegistry) {
         this.telemetryRegistry = Objects.requireNonNull(telemetryRegistry);
     }
@@ -57,8 +61,15 @@ public class IpfixUdpParserFactory implements ParserFactory {
     public Parser createBean(ParserDefinition parserDefinition) {
         final AsyncDispatcher<TelemetryMessage> dispatcher = telemetryRegistry.getDispatcher(parserDefinition.getQueueName());
         final IpfixUdpParser parser = new IpfixUdpParser(parserDefinition.getName(), dispatcher);
+        if (metricRegistry != null) {
+            parser.setMetricRegistry(metricRegistry);
+        }
         final BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(parser);
         wrapper.setPropertyValues(parserDefinition.getParameterMap());
         return parser;
     }
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
 }
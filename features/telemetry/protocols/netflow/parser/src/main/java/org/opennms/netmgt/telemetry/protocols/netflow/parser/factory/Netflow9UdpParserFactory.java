@@ -40,10 +40,14 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.Netflow9UdpParser;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.PropertyAccessorFactory;
 
+import com.codahale.metrics.MetricRegistry;
+
 public class Netflow9UdpParserFactory implements ParserFactory  {
 
     private final TelemetryRegistry telemetryRegistry;
 
+    private MetricRegistry metricRegistry;
+
     public Netflow9UdpParserFactory(TelemetryRegistry telemetryRegistry) {
         this.telemetryRegistry = Objects.requireNonNull(telemetryRegistry);
     }
@@ -57,10 +61,17 @@ public class Netflow9UdpParserFactory implements ParserFactory  {
     public Parser createBean(ParserDefinition parserDefinition) {
         final AsyncDispatcher<TelemetryMessage> dispatcher = telemetryRegistry.getDispatcher(parserDefinition.getQueueName());
         final Netflow9UdpParser parser = new Netflow9UdpParser(parserDefinition.getName(), dispatcher);
+        if (metricRegistry != null) {
+            parser.setMetricRegistry(metricRegistry);
+        }
         if (!parserDefinition.getParameterMap().isEmpty()) {
             final BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(parser);
             wrapper.setPropertyValues(parserDefinition.getParameterMap());
         }
         return parser;
     }
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
 }
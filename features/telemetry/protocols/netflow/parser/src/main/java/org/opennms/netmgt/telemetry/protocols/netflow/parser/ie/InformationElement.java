@@ -30,6 +30,8 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
 
 import java.nio.ByteBuffer;
 
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
@@ -38,6 +40,18 @@ public interface InformationElement {
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuffer buffer) throws InvalidPacketException;
 
+    /**
+     * Decodes the value from the buffer and writes it to the given BSON document.
+     *
+     * The result must be the same as visiting the parsed value with a {@link FlowBuilderVisitor}, which is what
+     * this default implementation does. Elements override this to skip building the intermediate value.
+     */
+    default void write(final Session.Resolver resolver,
+                       final ByteBuffer buffer,
+                       final BsonWriter writer) throws InvalidPacketException {
+        this.parse(resolver, buffer).visit(new FlowBuilderVisitor(writer));
+    }
+
     String getName();
 
     int getMinimumFieldLength();
@@ -28,8 +28,27 @@
 
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ParserBase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
+
 public interface RecordProvider {
     Stream<Iterable<Value<?>>> getRecords();
+
+    /**
+     * Serializes all of the records to BSON documents.
+     *
+     * Providers which are able to encode the records straight from the received buffer override this to skip
+     * building the intermediate values.
+     */
+    default List<ByteBuffer> serializeRecords(final Protocol protocol) throws InvalidPacketException {
+        return this.getRecords()
+                .map(record -> ParserBase.serialize(protocol, record))
+                .collect(Collectors.toList());
+    }
 }
@@ -29,10 +29,12 @@
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values;
 
 import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.uint;
+import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.uintBits;
 
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -65,6 +67,11 @@ public class FloatValue extends Value<Double> {
                 return new FloatValue(name, semantics, Float.intBitsToFloat(uint(buffer, buffer.remaining()).intValue()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeDouble(name, Float.intBitsToFloat((int) uintBits(buffer, buffer.remaining())));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -89,6 +96,11 @@ public class FloatValue extends Value<Double> {
                 return new FloatValue(name, semantics, Double.longBitsToDouble(uint(buffer, buffer.remaining()).longValue()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeDouble(name, Double.longBitsToDouble(uintBits(buffer, buffer.remaining())));
+            }
+
             @Override
             public String getName() {
                 return name;
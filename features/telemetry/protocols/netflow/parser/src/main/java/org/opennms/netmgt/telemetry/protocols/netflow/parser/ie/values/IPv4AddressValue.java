@@ -35,6 +35,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
@@ -72,6 +73,11 @@ public class IPv4AddressValue extends Value<Inet4Address> {
                 }
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeString(name, toHostAddress(buffer));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -89,6 +95,18 @@ public class IPv4AddressValue extends Value<Inet4Address> {
         };
     }
 
+    /**
+     * Formats the next four bytes of the buffer the same way as {@link Inet4Address#getHostAddress()}.
+     */
+    public static String toHostAddress(final ByteBuffer buffer) {
+        return new StringBuilder(15)
+                .append(buffer.get() & 0xFF).append('.')
+                .append(buffer.get() & 0xFF).append('.')
+                .append(buffer.get() & 0xFF).append('.')
+                .append(buffer.get() & 0xFF)
+                .toString();
+    }
+
     @Override
     public Inet4Address getValue() {
         return this.value;
@@ -36,6 +36,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
@@ -73,6 +74,16 @@ public class IPv6AddressValue extends Value<Inet6Address> {
                 }
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+                if (isIPv4Mapped(buffer)) {
+                    // Not an IPv6 address as far as InetAddress is concerned, let the parser deal with it
+                    InformationElement.super.write(resolver, buffer, writer);
+                    return;
+                }
+                writer.writeString(name, toHostAddress(buffer));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -90,6 +101,30 @@ public class IPv6AddressValue extends Value<Inet6Address> {
         };
     }
 
+    private static boolean isIPv4Mapped(final ByteBuffer buffer) {
+        final int position = buffer.position();
+        for (int i = 0; i < 10; i++) {
+            if (buffer.get(position + i) != 0) {
+                return false;
+            }
+        }
+        return buffer.get(position + 10) == (byte) 0xFF && buffer.get(position + 11) == (byte) 0xFF;
+    }
+
+    /**
+     * Formats the next sixteen bytes of the buffer the same way as {@link Inet6Address#getHostAddress()}.
+     */
+    public static String toHostAddress(final ByteBuffer buffer) {
+        final StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i > 0) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF)));
+        }
+        return sb.toString();
+    }
+
     @Override
     public Inet6Address getValue() {
         return this.value;
@@ -29,10 +29,12 @@
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values;
 
 import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.uint;
+import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.uintBits;
 
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -71,6 +73,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
                 return new UnsignedValue(name, semantics, uint(buffer, 1));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, uintBits(buffer, 1));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -95,6 +102,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
                 return new UnsignedValue(name, semantics, uint(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, uintBits(buffer, buffer.remaining()));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -119,6 +131,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
                 return new UnsignedValue(name, semantics, uint(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, uintBits(buffer, buffer.remaining()));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -143,6 +160,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
                 return new UnsignedValue(name, semantics, uint(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, uintBits(buffer, buffer.remaining()));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -167,6 +189,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
                 return new UnsignedValue(name, semantics, uint(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, uintBits(buffer, buffer.remaining()));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -31,14 +31,20 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto;
 import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.slice;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Stream;
 
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.FlatDataSet;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ParserBase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
@@ -71,15 +77,28 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public final List<TemplateSet> templateSets;
     public final List<OptionsTemplateSet> optionTemplateSets;
     public final List<DataSet> dataSets;
+    public final List<FlatDataSet> flatDataSets;
 
     public Packet(final Session session,
                   final Header header,
                   final ByteBuffer buffer) throws InvalidPacketException {
+        this(session, header, buffer, false);
+    }
+
+    /**
+     * @param flat if set, the data records are not parsed but decoded straight from the buffer when serialized
+     */
+    public Packet(final Session session,
+                  final Header header,
+                  final ByteBuffer buffer,
+                  final boolean flat) throws InvalidPacketException {
         this.header = Objects.requireNonNull(header);
 
         final List<TemplateSet> templateSets = new LinkedList();
         final List<OptionsTemplateSet> optionTemplateSets = new LinkedList();
         final List<DataSet> dataSets = new LinkedList();
+        final List<FlatDataSet> flatDataSets = new LinkedList<>();
+        long dataRecords = 0;
 
         while (buffer.hasRemaining()) {
             final ByteBuffer headerBuffer = slice(buffer, FlowSetHeader.SIZE);
@@ -144,7 +163,22 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
                 case DATA_SET: {
                     final Session.Resolver resolver = session.getResolver(header.observationDomainId);
+
+                    if (flat) {
+                        final Optional<Template> template = resolver.lookupTemplate(setHeader.setId);
+                        if (template.isPresent()
+                                && template.get().type == Template.Type.TEMPLATE
+                                && FlatDataSet.minimumRecordLength(template.get(), true) > 0) {
+                            // The options are looked up using the fields of each record
+                            final FlatDataSet flatDataSet = new FlatDataSet(template.get(), resolver, payloadBuffer, true, Optional.empty());
+                            flatDataSets.add(flatDataSet);
+                            dataRecords += flatDataSet.size();
+                            break;
+                        }
+                    }
+
                     final DataSet dataSet = new DataSet(this, setHeader, resolver, payloadBuffer);
+                    dataRecords += dataSet.records.size();
 
                     if (dataSet.template.type == Template.Type.OPTIONS_TEMPLATE) {
                         for (final DataRecord record : dataSet) {
@@ -163,9 +197,13 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
             }
         }
 
+        // The sequence number counts the data records, including the options
+        session.verifySequenceNumber(this.header.observationDomainId, this.header.sequenceNumber, dataRecords);
+
         this.templateSets = Collections.unmodifiableList(templateSets);
         this.optionTemplateSets = Collections.unmodifiableList(optionTemplateSets);
         this.dataSets = Collections.unmodifiableList(dataSets);
+        this.flatDataSets = Collections.unmodifiableList(flatDataSets);
     }
 
     @Override
@@ -177,21 +215,57 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
     @Override
     public Stream<Iterable<Value<?>>> getRecords() {
-        final int recordCount = this.dataSets.stream()
-                .mapToInt(s -> s.records.size())
-                .sum();
-
-        return this.dataSets.stream()
-                .flatMap(s -> s.records.stream())
-                .map(r -> Iterables.concat(
-                        ImmutableList.of(
-                                new UnsignedValue("@recordCount", recordCount),
-                                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
-                                new UnsignedValue("@exportTime", this.header.exportTime),
-                                new UnsignedValue("@observationDomainId", this.header.observationDomainId)),
-                        r.fields,
-                        r.options
-                ));
+        final List<Value<?>> headerValues = this.headerValues();
+
+        return Stream.concat(
+                this.dataSets.stream()
+                        .flatMap(s -> s.records.stream())
+                        .map(r -> Iterables.concat(headerValues, r.fields, r.options)),
+                this.flatDataSets.stream()
+                        .flatMap(FlatDataSet::parseRecords)
+                        .map(r -> Iterables.concat(headerValues, r)));
+    }
+
+    @Override
+    public List<ByteBuffer> serializeRecords(final Protocol protocol) throws InvalidPacketException {
+        if (this.flatDataSets.isEmpty()) {
+            return RecordProvider.super.serializeRecords(protocol);
+        }
+
+        final List<Value<?>> headerValues = this.headerValues();
+
+        final List<ByteBuffer> records = new ArrayList<>(this.recordCount());
+        for (final DataSet set : this.dataSets) {
+            for (final DataRecord record : set) {
+                records.add(ParserBase.serialize(protocol, Iterables.concat(headerValues, record.fields, record.options)));
+            }
+        }
+        for (final FlatDataSet set : this.flatDataSets) {
+            for (int i = 0; i < set.size(); i++) {
+                final int index = i;
+                records.add(ParserBase.serialize(protocol, writer -> {
+                    final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer);
+                    for (final Value<?> value : headerValues) {
+                        value.visit(visitor);
+                    }
+                    set.write(index, writer);
+                }));
+            }
+        }
+        return records;
+    }
+
+    private int recordCount() {
+        return this.dataSets.stream().mapToInt(s -> s.records.size()).sum()
+                + this.flatDataSets.stream().mapToInt(FlatDataSet::size).sum();
+    }
+
+    private List<Value<?>> headerValues() {
+        return ImmutableList.of(
+                new UnsignedValue("@recordCount", this.recordCount()),
+                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
+                new UnsignedValue("@exportTime", this.header.exportTime),
+                new UnsignedValue("@observationDomainId", this.header.observationDomainId));
     }
 
     @Override
@@ -201,6 +275,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 .add("templateSets", this.templateSets)
                 .add("optionTemplateSets", this.optionTemplateSets)
                 .add("dataTemplateSets", this.dataSets)
+                .add("flatDataSets", this.flatDataSets)
                 .toString();
     }
 }
@@ -33,6 +33,7 @@ import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.uint16;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
@@ -88,6 +89,11 @@ public final class FieldSpecifier implements Field {
         return this.informationElement.parse(resolver, buffer);
     }
 
+    @Override
+    public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+        this.informationElement.write(resolver, buffer, writer);
+    }
+
     @Override
     public int length() {
         return this.fieldLength;
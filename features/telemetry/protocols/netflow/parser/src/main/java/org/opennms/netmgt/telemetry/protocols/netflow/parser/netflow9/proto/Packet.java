@@ -31,14 +31,20 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto;
 import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.slice;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Stream;
 
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.FlatDataSet;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ParserBase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
@@ -67,15 +73,27 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public final List<TemplateSet> templateSets;
     public final List<OptionsTemplateSet> optionTemplateSets;
     public final List<DataSet> dataSets;
+    public final List<FlatDataSet> flatDataSets;
 
     public Packet(final Session session,
                   final Header header,
                   final ByteBuffer buffer) throws InvalidPacketException {
+        this(session, header, buffer, false);
+    }
+
+    /**
+     * @param flat if set, the data records are not parsed but decoded straight from the buffer when serialized
+     */
+    public Packet(final Session session,
+                  final Header header,
+                  final ByteBuffer buffer,
+                  final boolean flat) throws InvalidPacketException {
         this.header = Objects.requireNonNull(header);
 
         final List<TemplateSet> templateSets = new LinkedList<>();
         final List<OptionsTemplateSet> optionTemplateSets = new LinkedList<>();
         final List<DataSet> dataSets = new LinkedList<>();
+        final List<FlatDataSet> flatDataSets = new LinkedList<>();
         while (buffer.hasRemaining()) {
             // We ignore header.counter here, because different exporters interpret it as flowset count or record count
 
@@ -128,6 +146,19 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
                 case DATA_FLOWSET: {
                     final Session.Resolver resolver = session.getResolver(header.sourceId);
+
+                    if (flat) {
+                        final Optional<Template> template = resolver.lookupTemplate(setHeader.setId);
+                        if (template.isPresent()
+                                && template.get().type == Template.Type.TEMPLATE
+                                && FlatDataSet.minimumRecordLength(template.get(), false) > 0) {
+                            // The options only depend on the source and the template, so they are shared by all records
+                            final List<Value<?>> options = resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(this.header.sourceId, template.get().id));
+                            flatDataSets.add(new FlatDataSet(template.get(), resolver, payloadBuffer, false, Optional.of(options)));
+                            break;
+                        }
+                    }
+
                     final DataSet dataSet = new DataSet(this, setHeader, resolver, payloadBuffer);
 
                     if (dataSet.template.type == Template.Type.OPTIONS_TEMPLATE) {
@@ -147,9 +178,13 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
             }
         }
 
+        // The sequence number counts the export packets
+        session.verifySequenceNumber(this.header.sourceId, this.header.sequenceNumber, 1);
+
         this.templateSets = Collections.unmodifiableList(templateSets);
         this.optionTemplateSets = Collections.unmodifiableList(optionTemplateSets);
         this.dataSets = Collections.unmodifiableList(dataSets);
+        this.flatDataSets = Collections.unmodifiableList(flatDataSets);
     }
 
     @Override
@@ -161,22 +196,58 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
     @Override
     public Stream<Iterable<Value<?>>> getRecords() {
-        final int recordCount = this.dataSets.stream()
-                .mapToInt(s -> s.records.size())
-                .sum();
-
-        return this.dataSets.stream()
-                .flatMap(s -> s.records.stream())
-                .map(r -> Iterables.concat(
-                        ImmutableList.of(
-                                new UnsignedValue("@recordCount", recordCount),
-                                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
-                                new UnsignedValue("@sysUpTime", this.header.sysUpTime),
-                                new UnsignedValue("@unixSecs", this.header.unixSecs),
-                                new UnsignedValue("@sourceId", this.header.sourceId)),
-                        r.fields,
-                        r.options
-                ));
+        final List<Value<?>> headerValues = this.headerValues();
+
+        return Stream.concat(
+                this.dataSets.stream()
+                        .flatMap(s -> s.records.stream())
+                        .map(r -> Iterables.concat(headerValues, r.fields, r.options)),
+                this.flatDataSets.stream()
+                        .flatMap(FlatDataSet::parseRecords)
+                        .map(r -> Iterables.concat(headerValues, r)));
+    }
+
+    @Override
+    public List<ByteBuffer> serializeRecords(final Protocol protocol) throws InvalidPacketException {
+        if (this.flatDataSets.isEmpty()) {
+            return RecordProvider.super.serializeRecords(protocol);
+        }
+
+        final List<Value<?>> headerValues = this.headerValues();
+
+        final List<ByteBuffer> records = new ArrayList<>(this.recordCount());
+        for (final DataSet set : this.dataSets) {
+            for (final DataRecord record : set) {
+                records.add(ParserBase.serialize(protocol, Iterables.concat(headerValues, record.fields, record.options)));
+            }
+        }
+        for (final FlatDataSet set : this.flatDataSets) {
+            for (int i = 0; i < set.size(); i++) {
+                final int index = i;
+                records.add(ParserBase.serialize(protocol, writer -> {
+                    final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer);
+                    for (final Value<?> value : headerValues) {
+                        value.visit(visitor);
+                    }
+                    set.write(index, writer);
+                }));
+            }
+        }
+        return records;
+    }
+
+    private int recordCount() {
+        return this.dataSets.stream().mapToInt(s -> s.records.size()).sum()
+                + this.flatDataSets.stream().mapToInt(FlatDataSet::size).sum();
+    }
+
+    private List<Value<?>> headerValues() {
+        return ImmutableList.of(
+                new UnsignedValue("@recordCount", this.recordCount()),
+                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
+                new UnsignedValue("@sysUpTime", this.header.sysUpTime),
+                new UnsignedValue("@unixSecs", this.header.unixSecs),
+                new UnsignedValue("@sourceId", this.header.sourceId));
     }
 
     @Override
@@ -186,6 +257,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 .add("templateSets", this.templateSets)
                 .add("optionTemplateSets", this.optionTemplateSets)
                 .add("dataTemplateSets", this.dataSets)
+                .add("flatDataSets", this.flatDataSets)
                 .toString();
     }
 }
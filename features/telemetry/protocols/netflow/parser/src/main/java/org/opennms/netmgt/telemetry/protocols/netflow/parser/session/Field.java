@@ -30,6 +30,8 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 
 import java.nio.ByteBuffer;
 
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 
@@ -38,4 +40,10 @@ public interface Field {
 
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuffer buffer) throws InvalidPacketException;
+
+    default void write(final Session.Resolver resolver,
+                       final ByteBuffer buffer,
+                       final BsonWriter writer) throws InvalidPacketException {
+        this.parse(resolver, buffer).visit(new FlowBuilderVisitor(writer));
+    }
 }
@@ -39,6 +39,14 @@ public interface Session {
     interface Resolver {
         Optional<Template> lookupTemplate(final int templateId);
         List<Value<?>> lookupOptions(final List<Value<?>> values);
+
+        /**
+         * Returns <code>false</code> if no options were received for the observation domain, in which case
+         * {@link #lookupOptions(List)} always returns an empty list.
+         */
+        default boolean hasOptions() {
+            return true;
+        }
     }
 
     void addTemplate(final long observationDomainId, final Template template);
@@ -54,4 +62,13 @@ public interface Session {
 
     Resolver getResolver(final long observationDomainId);
 
+    /**
+     * Checks the sequence number of a packet against the one announced by the previous packet of the observation
+     * domain.
+     *
+     * @param increment the difference between the sequence numbers of this packet and the next one
+     */
+    default void verifySequenceNumber(final long observationDomainId, final long sequenceNumber, final long increment) {
+    }
+
 }
@@ -28,13 +28,13 @@
 
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -42,44 +42,72 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.net.InetAddresses;
 
+/**
+ * Keeps track of the templates and options received from exporters over UDP.
+ *
+ * Sessions are sharded by the address of the exporter, so that all packets of an exporter map to the same shard. This
+ * allows the packets of each shard to be parsed on a dedicated thread while the packets of each exporter stay in
+ * order. The templates and options are owned by their session and kept in concurrent maps, so lookups do not lock.
+ *
+ * The rate of packets, template misses and sequence number gaps of every exporter are tracked in the given
+ * {@link MetricRegistry}.
+ */
 public class UdpSessionManager {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSessionManager.class);
+
     private final class UdpSession implements Session {
         private final class Resolver implements Session.Resolver {
             private final long observationDomainId;
 
+            private boolean missed = false;
+
             private Resolver(final long observationDomainId) {
                 this.observationDomainId = observationDomainId;
             }
 
-            private Key key(final int templateId) {
-                return new Key(UdpSession.this.remoteAddress, UdpSession.this.localAddress, this.observationDomainId, templateId);
-            }
-
             @Override
             public Optional<Template> lookupTemplate(final int templateId) {
-                return Optional.ofNullable(UdpSessionManager.this.templates.get(key(templateId))).map(v -> v.template);
+                final TemplateWrapper wrapper = UdpSession.this.templates.get(key(this.observationDomainId, templateId));
+                if (wrapper == null) {
+                    // The set is usually looked up more than once before it is given up on
+                    if (!this.missed) {
+                        this.missed = true;
+                        UdpSession.this.exporter.templateMisses.mark();
+                    }
+                    return Optional.empty();
+                }
+                return Optional.of(wrapper.template);
             }
 
             @Override
             public List<Value<?>> lookupOptions(final List<Value<?>> values) {
-                final LinkedHashMap<String, Value<?>> options = new LinkedHashMap();
+                final LinkedHashMap<String, Value<?>> options = new LinkedHashMap<>();
 
                 final Set<String> scoped = values.stream().map(Value::getName).collect(Collectors.toSet());
 
-                for (final Map.Entry<Key, Map<Set<Value<?>>, List<Value<?>>>> e : Iterables.filter(UdpSessionManager.this.options.entrySet(),
-                                                                                                   e -> Objects.equals(e.getKey().localAddress, UdpSession.this.localAddress) &&
-                                                                                                        Objects.equals(e.getKey().remoteAddress, UdpSession.this.remoteAddress) &&
-                                                                                                        Objects.equals(e.getKey().observationDomainId, this.observationDomainId))) {
-                    final Template template = UdpSessionManager.this.templates.get(e.getKey()).template;
+                for (final Map.Entry<Long, Map<Set<Value<?>>, List<Value<?>>>> e : UdpSession.this.options.entrySet()) {
+                    if (observationDomainId(e.getKey()) != this.observationDomainId) {
+                        continue;
+                    }
+
+                    final TemplateWrapper wrapper = UdpSession.this.templates.get(e.getKey());
+                    if (wrapper == null) {
+                        // The option template expired
+                        continue;
+                    }
 
-                    final Set<String> scopes = template.scopes.stream().map(Scope::getName).collect(Collectors.toSet());
+                    final Set<String> scopes = wrapper.template.scopes.stream().map(Scope::getName).collect(Collectors.toSet());
 
                     if (scoped.containsAll(scopes)) {
                         // Found option template where scoped fields is subset of actual data fields
@@ -94,33 +122,43 @@ public class UdpSessionManager {
                     }
                 }
 
-                return new ArrayList(options.values());
+                return new ArrayList<>(options.values());
+            }
+
+            @Override
+            public boolean hasOptions() {
+                return UdpSession.this.options.keySet().stream()
+                        .anyMatch(k -> observationDomainId(k) == this.observationDomainId);
             }
         }
 
-        private final InetSocketAddress remoteAddress;
-        private final InetSocketAddress localAddress;
+        private final Exporter exporter;
 
-        public UdpSession(InetSocketAddress remoteAddress, InetSocketAddress localAddress) {
-            this.remoteAddress = remoteAddress;
-            this.localAddress = localAddress;
+        private final Map<Long, TemplateWrapper> templates = new ConcurrentHashMap<>();
+        private final Map<Long, Map<Set<Value<?>>, List<Value<?>>>> options = new ConcurrentHashMap<>();
+
+        // The sequence number expected next, per observation domain
+        private final Map<Long, Long> sequenceNumbers = new ConcurrentHashMap<>();
+
+        private volatile long lastPacket;
+
+        private UdpSession(final Exporter exporter) {
+            this.exporter = Objects.requireNonNull(exporter);
         }
 
         @Override
         public void addTemplate(final long observationDomainId, final Template template) {
-            final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, template.id);
-            UdpSessionManager.this.templates.put(key, new TemplateWrapper(template));
+            this.templates.put(key(observationDomainId, template.id), new TemplateWrapper(template));
         }
 
         @Override
         public void removeTemplate(final long observationDomainId, final int templateId) {
-            final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, templateId);
-            UdpSessionManager.this.templates.remove(key);
+            this.templates.remove(key(observationDomainId, templateId));
         }
 
         @Override
         public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
-            UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().template.type == type);
+            this.templates.entrySet().removeIf(e -> observationDomainId(e.getKey()) == observationDomainId && e.getValue().template.type == type);
         }
 
         @Override
@@ -132,47 +170,77 @@ public class UdpSessionManager {
                 return;
             }
 
-            final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, templateId);
-            UdpSessionManager.this.options.computeIfAbsent(key, (k) -> new HashMap()).put(new HashSet(scopes), values);
+            this.options.computeIfAbsent(key(observationDomainId, templateId), (k) -> new ConcurrentHashMap<>()).put(new HashSet<>(scopes), values);
         }
 
         @Override
         public Session.Resolver getResolver(final long observationDomainId) {
             return new Resolver(observationDomainId);
         }
+
+        @Override
+        public void verifySequenceNumber(final long observationDomainId, final long sequenceNumber, final long increment) {
+            final Long expected = this.sequenceNumbers.put(observationDomainId, (sequenceNumber + increment) & 0xFFFFFFFFL);
+            if (expected != null && expected != sequenceNumber) {
+                LOG.debug("Sequence gap from {}: expected {} but got {}", this.exporter.address, expected, sequenceNumber);
+                this.exporter.sequenceGaps.mark();
+            }
+        }
     }
 
-    private final static class Key {
+    /**
+     * The sessions and metrics of all sockets sending from the same address.
+     */
+    private final class Exporter {
+        private final InetAddress address;
+
+        private final Map<SessionKey, UdpSession> sessions = new ConcurrentHashMap<>();
+
+        private final Meter packets;
+        private final Meter templateMisses;
+        private final Meter sequenceGaps;
+
+        private Exporter(final InetAddress address) {
+            this.address = Objects.requireNonNull(address);
+            this.packets = UdpSessionManager.this.metricRegistry.meter(metricName(address, "packets"));
+            this.templateMisses = UdpSessionManager.this.metricRegistry.meter(metricName(address, "templateMisses"));
+            this.sequenceGaps = UdpSessionManager.this.metricRegistry.meter(metricName(address, "sequenceGaps"));
+        }
+
+        private void removeMetrics() {
+            UdpSessionManager.this.metricRegistry.remove(metricName(this.address, "packets"));
+            UdpSessionManager.this.metricRegistry.remove(metricName(this.address, "templateMisses"));
+            UdpSessionManager.this.metricRegistry.remove(metricName(this.address, "sequenceGaps"));
+        }
+    }
+
+    private final class Shard {
+        private final Map<InetAddress, Exporter> exporters = new ConcurrentHashMap<>();
+    }
+
+    private final static class SessionKey {
         public final InetSocketAddress remoteAddress;
         public final InetSocketAddress localAddress;
-        public final long observationDomainId;
-        public final int templateId;
 
-        Key(final InetSocketAddress remoteAddress,
-            final InetSocketAddress localAddress,
-            final long observationDomainId,
-            final int templateId) {
+        SessionKey(final InetSocketAddress remoteAddress,
+                   final InetSocketAddress localAddress) {
             this.remoteAddress = Objects.requireNonNull(remoteAddress);
             this.localAddress = Objects.requireNonNull(localAddress);
-            this.observationDomainId = observationDomainId;
-            this.templateId = templateId;
         }
 
         @Override
         public boolean equals(final Object o) {
             if (this == o) return true;
-            if (!(o instanceof Key)) return false;
+            if (!(o instanceof SessionKey)) return false;
 
-            final Key that = (Key) o;
-            return this.observationDomainId == that.observationDomainId &&
-                    this.templateId == that.templateId &&
-                    Objects.equals(this.remoteAddress, that.remoteAddress) &&
+            final SessionKey that = (SessionKey) o;
+            return Objects.equals(this.remoteAddress, that.remoteAddress) &&
                     Objects.equals(this.localAddress, that.localAddress);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(this.remoteAddress, this.localAddress, this.observationDomainId, this.templateId);
+            return Objects.hash(this.remoteAddress, this.localAddress);
         }
     }
 
@@ -186,25 +254,107 @@ public class UdpSessionManager {
         }
     }
 
-    private final Map<Key, TemplateWrapper> templates = Maps.newHashMap();
-    private final Map<Key, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
+    private final Shard[] shards;
 
     private final Duration timeout;
 
+    private final MetricRegistry metricRegistry;
+
+    private final String metricPrefix;
+
     public UdpSessionManager(final Duration timeout) {
-        this.timeout = timeout;
+        this(timeout, 1, new MetricRegistry(), "udp");
+    }
+
+    /**
+     * @param timeout the time after which templates expire and idle exporters are forgotten
+     * @param shards the number of shards the exporters are distributed over
+     * @param metricRegistry the registry holding the metrics of the exporters
+     * @param metricPrefix the prefix of the metric names
+     */
+    public UdpSessionManager(final Duration timeout, final int shards, final MetricRegistry metricRegistry, final String metricPrefix) {
+        this.timeout = Objects.requireNonNull(timeout);
+        this.metricRegistry = Objects.requireNonNull(metricRegistry);
+        this.metricPrefix = Objects.requireNonNull(metricPrefix);
+
+        this.shards = new Shard[Math.max(1, shards)];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard();
+        }
     }
 
     public void doHousekeeping() {
         final Instant timeout = Instant.now().minus(this.timeout);
-        UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getValue().insertionTime.isBefore(timeout));
+        for (final Shard shard : this.shards) {
+            shard.exporters.values().removeIf(exporter -> {
+                exporter.sessions.values().removeIf(session -> {
+                    session.templates.values().removeIf(e -> e.insertionTime.isBefore(timeout));
+                    return session.lastPacket < timeout.toEpochMilli();
+                });
+
+                if (exporter.sessions.isEmpty()) {
+                    exporter.removeMetrics();
+                    return true;
+                }
+                return false;
+            });
+        }
     }
 
+    /**
+     * Returns the session for a received packet and accounts for the packet in the metrics of the exporter.
+     */
     public Session getSession(final InetSocketAddress remoteAddress, final InetSocketAddress localAddress) {
-        return new UdpSession(remoteAddress, localAddress);
+        final Shard shard = this.shards[getShard(remoteAddress)];
+
+        Exporter exporter = shard.exporters.get(remoteAddress.getAddress());
+        if (exporter == null) {
+            exporter = shard.exporters.computeIfAbsent(remoteAddress.getAddress(), Exporter::new);
+        }
+
+        final SessionKey key = new SessionKey(remoteAddress, localAddress);
+        UdpSession session = exporter.sessions.get(key);
+        if (session == null) {
+            final Exporter owner = exporter;
+            session = exporter.sessions.computeIfAbsent(key, k -> new UdpSession(owner));
+        }
+
+        session.lastPacket = System.currentTimeMillis();
+        exporter.packets.mark();
+        return session;
     }
 
     public void drop(final InetSocketAddress remoteAddress, final InetSocketAddress localAddress) {
-        this.templates.entrySet().removeIf(e -> Objects.equals(e.getKey().remoteAddress, remoteAddress) && Objects.equals(e.getKey().localAddress, localAddress));
+        final Exporter exporter = this.shards[getShard(remoteAddress)].exporters.get(remoteAddress.getAddress());
+        if (exporter != null) {
+            exporter.sessions.remove(new SessionKey(remoteAddress, localAddress));
+        }
+    }
+
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Returns the shard of the given exporter. Packets from the same exporter always map to the same shard.
+     */
+    public int getShard(final InetSocketAddress remoteAddress) {
+        if (this.shards.length == 1) {
+            return 0;
+        }
+        final int h = remoteAddress.getAddress().hashCode() * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % this.shards.length;
+    }
+
+    private String metricName(final InetAddress address, final String name) {
+        return MetricRegistry.name(this.metricPrefix, "exporters", InetAddresses.toAddrString(address), name);
+    }
+
+    private static long key(final long observationDomainId, final int templateId) {
+        return (observationDomainId << 16) | (templateId & 0xFFFFL);
+    }
+
+    private static long observationDomainId(final long key) {
+        return key >>> 16;
     }
 }
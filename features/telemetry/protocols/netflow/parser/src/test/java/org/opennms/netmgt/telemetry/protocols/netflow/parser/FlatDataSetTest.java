@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TcpSession;
+import org.springframework.test.annotation.IfProfileValue;
+
+/**
+ * Verifies that the records encoded straight from the buffers are the same as those built from the parsed values.
+ */
+public class FlatDataSetTest {
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    @Test
+    public void testNetflow9() throws Exception {
+        int flatRecords = 0;
+        for (final Object[] files : org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.BlackboxTest.data()) {
+            flatRecords += verify(Protocol.NETFLOW9, (List<String>) files[0]);
+        }
+        assertThat(flatRecords, greaterThan(0));
+    }
+
+    @Test
+    public void testIpfix() throws Exception {
+        int flatRecords = 0;
+        for (final Object[] files : org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.BlackboxTest.data()) {
+            flatRecords += verify(Protocol.IPFIX, (List<String>) files[0]);
+        }
+        assertThat(flatRecords, greaterThan(0));
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmark() throws Exception {
+        benchmark(Protocol.NETFLOW9, org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.BlackboxTest.data());
+        benchmark(Protocol.IPFIX, org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.BlackboxTest.data());
+    }
+
+    /**
+     * Measures the time spent serializing the captured packets which only contain data sets, once the
+     * templates are known.
+     */
+    private static void benchmark(final Protocol protocol, final Iterable<Object[]> data) throws Exception {
+        // The captures of different exporters can re-use the same template IDs, so each one gets its own session
+        final List<Map.Entry<ByteBuffer, Session>> packets = new ArrayList<>();
+        for (final Object[] files : data) {
+            final Session session = new TcpSession();
+            for (final String file : (List<String>) files[0]) {
+                final ByteBuffer buffer = read(file);
+                do {
+                    final ByteBuffer packet = buffer.duplicate();
+                    final RecordProvider provider = parse(protocol, session, buffer, false);
+                    packet.limit(buffer.position());
+                    if (provider.getRecords().count() > 0 && !hasTemplates(provider)) {
+                        packets.add(new AbstractMap.SimpleImmutableEntry<>(packet, session));
+                    }
+                } while (buffer.hasRemaining());
+            }
+        }
+
+        for (final boolean flat : new boolean[] { false, true, false, true }) {
+            final int iterations = 500;
+            int records = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (final Map.Entry<ByteBuffer, Session> packet : packets) {
+                    records += parse(protocol, packet.getValue(), packet.getKey().duplicate(), flat).serializeRecords(protocol).size();
+                }
+            }
+            final long elapsed = System.nanoTime() - start;
+            System.out.printf("%s (%s): %d records in %d ms (%.0f records/s)\n",
+                    protocol, flat ? "flat" : "values", records, elapsed / 1_000_000, records * 1e9 / elapsed);
+        }
+    }
+
+    /**
+     * @return the number of records which were encoded straight from the buffers
+     */
+    private static int verify(final Protocol protocol, final List<String> files) throws Exception {
+        int flatCount = 0;
+
+        final Session session = new TcpSession();
+        final Session flatSession = new TcpSession();
+
+        for (final String file : files) {
+            final ByteBuffer buffer = read(file);
+
+            final List<RecordProvider> packets = parseAll(protocol, session, buffer.duplicate(), false);
+            final List<RecordProvider> flatPackets = parseAll(protocol, flatSession, buffer.duplicate(), true);
+            assertThat(file, flatPackets.size(), is(packets.size()));
+
+            for (int i = 0; i < packets.size(); i++) {
+                final List<ByteBuffer> records = packets.get(i).serializeRecords(protocol);
+                final List<ByteBuffer> flatRecords = flatPackets.get(i).serializeRecords(protocol);
+                assertThat(file, flatRecords, is(records));
+
+                // The values can still be retrieved from flat records
+                assertThat(file, flatPackets.get(i).getRecords()
+                        .map(r -> ParserBase.serialize(protocol, r))
+                        .collect(Collectors.toList()), is(records));
+
+                flatCount += getFlatDataSets(flatPackets.get(i)).stream().mapToInt(FlatDataSet::size).sum();
+            }
+        }
+
+        return flatCount;
+    }
+
+    private static List<FlatDataSet> getFlatDataSets(final RecordProvider packet) {
+        if (packet instanceof org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet) {
+            return ((org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet) packet).flatDataSets;
+        } else {
+            return ((org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet) packet).flatDataSets;
+        }
+    }
+
+    private static List<RecordProvider> parseAll(final Protocol protocol, final Session session, final ByteBuffer buffer, final boolean flat) throws Exception {
+        final List<RecordProvider> packets = new ArrayList<>();
+        do {
+            packets.add(parse(protocol, session, buffer, flat));
+        } while (buffer.hasRemaining());
+        return packets;
+    }
+
+    private static RecordProvider parse(final Protocol protocol, final Session session, final ByteBuffer buffer, final boolean flat) throws Exception {
+        if (protocol == Protocol.NETFLOW9) {
+            final org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header header =
+                    new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header.SIZE));
+            return new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet(session, header, buffer, flat);
+        } else {
+            final org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header header =
+                    new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header.SIZE));
+            return new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet(session, header, slice(buffer, header.length - org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header.SIZE), flat);
+        }
+    }
+
+    private static boolean hasTemplates(final RecordProvider packet) {
+        if (packet instanceof org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet) {
+            final org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet netflow9 = (org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet) packet;
+            return !netflow9.templateSets.isEmpty() || !netflow9.optionTemplateSets.isEmpty();
+        } else {
+            final org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet ipfix = (org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet) packet;
+            return !ipfix.templateSets.isEmpty() || !ipfix.optionTemplateSets.isEmpty();
+        }
+    }
+
+    private static ByteBuffer read(final String file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer);
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+
+public class UdpParserBaseTest {
+
+    /**
+     * Records the order in which the packets of each exporter are parsed.
+     */
+    private static class OrderRecordingParser extends UdpParserBase {
+        private final Map<Session, List<Integer>> parsed = new ConcurrentHashMap<>();
+
+        @SuppressWarnings("unchecked")
+        private OrderRecordingParser() {
+            super(Protocol.NETFLOW9, "test", mock(AsyncDispatcher.class));
+        }
+
+        @Override
+        protected RecordProvider parse(final Session session, final ByteBuffer buffer) throws Exception {
+            if (buffer.getInt(0) < 0) {
+                throw new InvalidPacketException(buffer, "Negative");
+            }
+            // Only a single thread may handle the packets of a session
+            this.parsed.computeIfAbsent(session, s -> Collections.synchronizedList(new ArrayList<>())).add(buffer.getInt(0));
+            return Stream::empty;
+        }
+    }
+
+    @Test
+    public void verifyPacketsOfExporterStayInOrder() throws Exception {
+        final OrderRecordingParser parser = new OrderRecordingParser();
+        parser.setThreads(4);
+        parser.setQueueSize(16);
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        parser.start(executor);
+        try {
+            final InetSocketAddress local = new InetSocketAddress("127.0.0.1", 4738);
+            final List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                for (int exporter = 1; exporter <= 20; exporter++) {
+                    final ByteBuffer buffer = ByteBuffer.allocate(4).putInt(0, i);
+                    futures.add(parser.parse(buffer, new InetSocketAddress("10.0.0." + exporter, 50000), local));
+                }
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+            assertEquals(20, parser.parsed.size());
+            for (final List<Integer> packets : parser.parsed.values()) {
+                assertEquals(1000, packets.size());
+                for (int i = 0; i < packets.size(); i++) {
+                    assertEquals(i, packets.get(i).intValue());
+                }
+            }
+
+            // Errors are propagated through the future
+            final CompletableFuture<?> failed = parser.parse(ByteBuffer.allocate(4).putInt(0, -1), new InetSocketAddress("10.0.0.1", 50000), local);
+            try {
+                failed.get(30, TimeUnit.SECONDS);
+                fail("Expected the parsing to fail");
+            } catch (final ExecutionException e) {
+                assertEquals(InvalidPacketException.class, e.getCause().getClass());
+            }
+        } finally {
+            parser.stop();
+            executor.shutdown();
+        }
+    }
+}
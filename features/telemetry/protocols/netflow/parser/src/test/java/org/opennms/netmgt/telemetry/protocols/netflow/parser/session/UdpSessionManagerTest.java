@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class UdpSessionManagerTest {
+
+    private static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 4738);
+    private static final InetSocketAddress EXPORTER_A = new InetSocketAddress("10.0.0.1", 50000);
+    private static final InetSocketAddress EXPORTER_B = new InetSocketAddress("10.0.0.2", 50000);
+
+    private MetricRegistry metricRegistry;
+    private UdpSessionManager sessionManager;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        sessionManager = new UdpSessionManager(Duration.ofMinutes(30), 4, metricRegistry, "test");
+    }
+
+    @Test
+    public void verifyTemplatesAreScopedToExporter() {
+        final Session a = sessionManager.getSession(EXPORTER_A, LOCAL);
+        final Session b = sessionManager.getSession(EXPORTER_B, LOCAL);
+
+        a.addTemplate(0, template(256, Template.Type.TEMPLATE));
+        a.addTemplate(1, template(256, Template.Type.TEMPLATE));
+        b.addTemplate(0, template(256, Template.Type.TEMPLATE));
+
+        assertTrue(sessionManager.getSession(EXPORTER_A, LOCAL).getResolver(0).lookupTemplate(256).isPresent());
+        assertTrue(sessionManager.getSession(EXPORTER_A, LOCAL).getResolver(1).lookupTemplate(256).isPresent());
+        assertFalse(sessionManager.getSession(EXPORTER_A, LOCAL).getResolver(2).lookupTemplate(256).isPresent());
+
+        // Withdrawing all templates of one exporter must not affect the others
+        a.removeAllTemplate(0, Template.Type.TEMPLATE);
+        assertFalse(a.getResolver(0).lookupTemplate(256).isPresent());
+        assertTrue(a.getResolver(1).lookupTemplate(256).isPresent());
+        assertTrue(b.getResolver(0).lookupTemplate(256).isPresent());
+
+        sessionManager.drop(EXPORTER_B, LOCAL);
+        assertFalse(sessionManager.getSession(EXPORTER_B, LOCAL).getResolver(0).lookupTemplate(256).isPresent());
+    }
+
+    @Test
+    public void verifyExporterMetrics() {
+        final Session session = sessionManager.getSession(EXPORTER_A, LOCAL);
+        sessionManager.getSession(EXPORTER_A, LOCAL);
+        assertEquals(2, metricRegistry.meter("test.exporters.10.0.0.1.packets").getCount());
+
+        // Misses are counted once per set
+        final Session.Resolver resolver = session.getResolver(0);
+        resolver.lookupTemplate(256);
+        resolver.lookupTemplate(256);
+        session.getResolver(0).lookupTemplate(256);
+        assertEquals(2, metricRegistry.meter("test.exporters.10.0.0.1.templateMisses").getCount());
+
+        session.verifySequenceNumber(0, 10, 1);
+        session.verifySequenceNumber(0, 11, 5);
+        session.verifySequenceNumber(0, 16, 1);
+        session.verifySequenceNumber(1, 100, 1);
+        assertEquals(0, metricRegistry.meter("test.exporters.10.0.0.1.sequenceGaps").getCount());
+
+        session.verifySequenceNumber(0, 20, 1);
+        assertEquals(1, metricRegistry.meter("test.exporters.10.0.0.1.sequenceGaps").getCount());
+
+        // Jumping ahead is a gap, wrapping around is not
+        session.verifySequenceNumber(1, 0xFFFFFFFFL, 1);
+        session.verifySequenceNumber(1, 0, 1);
+        assertEquals(2, metricRegistry.meter("test.exporters.10.0.0.1.sequenceGaps").getCount());
+    }
+
+    @Test
+    public void verifyIdleExportersAreForgotten() {
+        final UdpSessionManager expiring = new UdpSessionManager(Duration.ZERO, 4, metricRegistry, "test");
+        final Session session = expiring.getSession(EXPORTER_A, LOCAL);
+        session.addTemplate(0, template(256, Template.Type.TEMPLATE));
+        assertTrue(metricRegistry.getMeters().containsKey("test.exporters.10.0.0.1.packets"));
+
+        expiring.doHousekeeping();
+
+        assertFalse(metricRegistry.getMeters().containsKey("test.exporters.10.0.0.1.packets"));
+        assertNotEquals(session, expiring.getSession(EXPORTER_A, LOCAL));
+        assertFalse(expiring.getSession(EXPORTER_A, LOCAL).getResolver(0).lookupTemplate(256).isPresent());
+    }
+
+    @Test
+    public void verifyExportersStayOnTheirShard() {
+        // Different ports of the same exporter share a shard
+        final int shard = sessionManager.getShard(EXPORTER_A);
+        assertEquals(shard, sessionManager.getShard(new InetSocketAddress("10.0.0.1", 60000)));
+
+        // And exporters are spread over the shards
+        final boolean[] used = new boolean[sessionManager.getShardCount()];
+        for (int i = 1; i < 100; i++) {
+            used[sessionManager.getShard(new InetSocketAddress("10.0.1." + i, 50000))] = true;
+        }
+        for (boolean u : used) {
+            assertTrue(u);
+        }
+
+        assertSame(sessionManager.getSession(EXPORTER_A, LOCAL), sessionManager.getSession(EXPORTER_A, LOCAL));
+        assertNull(new UdpSessionManager(Duration.ofMinutes(1)).getSession(EXPORTER_A, LOCAL).getResolver(0).lookupTemplate(1).orElse(null));
+    }
+
+    private static Template template(final int id, final Template.Type type) {
+        return Template.builder(id, type).withFields(Collections.emptyList()).build();
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd.api;
+
+import java.util.List;
+import java.util.Set;
+
+import org.opennms.netmgt.model.OnmsAlarm;
+
+/**
+ * An {@link AlarmLifecycleListener} that can synchronize its state from the
+ * alarms that changed since the last snapshot, instead of requiring the
+ * complete set of alarms every time.
+ *
+ * When incremental snapshots are enabled, these listeners receive a delta
+ * on most snapshots, and a complete set of alarms, split into chunks, only
+ * every so often. The {@link #preHandleAlarmSnapshot()} and
+ * {@link #postHandleAlarmSnapshot()} callbacks are issued around both kinds of
+ * snapshot, in the same way they are for {@link #handleAlarmSnapshot(List)}.
+ */
+public interface IncrementalAlarmLifecycleListener extends AlarmLifecycleListener {
+
+    /**
+     * Called with the current state of the alarms that were created, updated
+     * or deleted since the last snapshot.
+     *
+     * Alarms with an ID in the given set, but without a match in the given list
+     * were deleted from the database.
+     *
+     * This method will be called while the related session & transaction used
+     * to load the alarms are still open, and may be called more than once for
+     * the same snapshot.
+     *
+     * @param alarmIds the IDs of the alarms that changed since the last snapshot
+     * @param alarms the alarms with one of the given IDs that are still in the database
+     */
+    void handleAlarmSnapshotDelta(Set<Integer> alarmIds, List<OnmsAlarm> alarms);
+
+    /**
+     * Called with the next chunk of the complete set of alarms in the database.
+     *
+     * The last chunk of the snapshot, which may be empty, is flagged as such.
+     * Only then is the complete set of alarms known, and should alarms missing
+     * from the snapshot be removed.
+     *
+     * This method will be called while the related session & transaction used
+     * to load the alarms are still open. The session may be cleared between
+     * chunks, so any lazy associations must be initialized before returning.
+     *
+     * @param alarms the next chunk of alarms
+     * @param last true if this is the last chunk of the snapshot
+     */
+    void handleAlarmSnapshotChunk(List<OnmsAlarm> alarms, boolean last);
+
+}
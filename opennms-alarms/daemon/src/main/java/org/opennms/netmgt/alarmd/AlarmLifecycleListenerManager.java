@@ -28,18 +28,29 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
+import org.opennms.netmgt.alarmd.api.IncrementalAlarmLifecycleListener;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.AlarmEntityListener;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -55,8 +66,30 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+/**
+ * Issues the {@link AlarmLifecycleListener} callbacks and periodically
+ * sends a snapshot of the alarms to the listeners.
+ *
+ * By default, every snapshot contains the complete set of alarms. When
+ * incremental snapshots are enabled, the {@link IncrementalAlarmLifecycleListener}s
+ * only receive the current state of the alarms that changed since the last
+ * snapshot. The complete set of alarms is then only loaded for them every
+ * {@link #FULL_SNAPSHOT_INTERVAL_MS_SYS_PROP} ms, and is streamed to them in chunks.
+ * Other listeners keep receiving the complete set of alarms at every interval.
+ *
+ * Created and updated alarms are found using the last modified time of the
+ * alarms, which is maintained by the database, so that changes made outside
+ * of the DAO (i.e. by Vacuumd automations or SQL) are included as well. Since
+ * a transaction may commit after a later one, the alarms modified within
+ * {@link #DELTA_OVERLAP_MS_SYS_PROP} ms of the latest change that was seen are
+ * checked again, but only sent again if they changed in the meantime.
+ * Alarms deleted through the DAO are tracked in memory, while other deletions
+ * are only seen on the next complete snapshot.
+ */
 public class AlarmLifecycleListenerManager implements AlarmEntityListener, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(AlarmLifecycleListenerManager.class);
@@ -64,9 +97,36 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     public static final String ALARM_SNAPSHOT_INTERVAL_MS_SYS_PROP = "org.opennms.alarms.snapshot.sync.ms";
     public static final long ALARM_SNAPSHOT_INTERVAL_MS = SystemProperties.getLong(ALARM_SNAPSHOT_INTERVAL_MS_SYS_PROP, TimeUnit.MINUTES.toMillis(2));
 
+    public static final String INCREMENTAL_SNAPSHOTS_SYS_PROP = "org.opennms.alarms.snapshot.incremental";
+    public static final String FULL_SNAPSHOT_INTERVAL_MS_SYS_PROP = "org.opennms.alarms.snapshot.full.sync.ms";
+    public static final String SNAPSHOT_CHUNK_SIZE_SYS_PROP = "org.opennms.alarms.snapshot.chunk.size";
+    public static final String DELTA_OVERLAP_MS_SYS_PROP = "org.opennms.alarms.snapshot.delta.overlap.ms";
+
     private final Set<AlarmLifecycleListener> listeners = Sets.newConcurrentHashSet();
     private Timer timer;
 
+    private boolean incrementalSnapshots = Boolean.getBoolean(INCREMENTAL_SNAPSHOTS_SYS_PROP);
+    private long fullSnapshotIntervalMs = SystemProperties.getLong(FULL_SNAPSHOT_INTERVAL_MS_SYS_PROP, TimeUnit.MINUTES.toMillis(30));
+    private int snapshotChunkSize = Math.max(1, SystemProperties.getInteger(SNAPSHOT_CHUNK_SIZE_SYS_PROP, 1000));
+    private long deltaOverlapMs = SystemProperties.getLong(DELTA_OVERLAP_MS_SYS_PROP, TimeUnit.MINUTES.toMillis(1));
+
+    /**
+     * IDs of the alarms that were deleted since the last snapshot, mapped to the
+     * sequence number of their deletion, so that deletions made while a
+     * snapshot is being processed are kept for the next one.
+     */
+    private final Map<Integer, Long> deletedAlarmIds = new ConcurrentHashMap<>();
+    private final AtomicLong deleteSequence = new AtomicLong(0);
+    private long lastFullSnapshotMillis = -1;
+
+    /**
+     * The latest last modified time of the alarms sent to the incremental listeners,
+     * and the last modified time of the alarms sent within the overlap before it.
+     * Only used by the snapshot thread.
+     */
+    private Date lastModifiedWatermark;
+    private final Map<Integer, Date> recentlySentAlarms = new HashMap<>();
+
     @Autowired
     private AlarmDao alarmDao;
 
@@ -101,26 +161,82 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
             return;
         }
 
+        if (!incrementalSnapshots) {
+            doFullSnapshot(listeners, Collections.emptyList());
+            return;
+        }
+
+        final List<AlarmLifecycleListener> legacyListeners = listeners.stream()
+                .filter(l -> !(l instanceof IncrementalAlarmLifecycleListener))
+                .collect(Collectors.toList());
+        final List<IncrementalAlarmLifecycleListener> incrementalListeners = listeners.stream()
+                .filter(l -> l instanceof IncrementalAlarmLifecycleListener)
+                .map(l -> (IncrementalAlarmLifecycleListener)l)
+                .collect(Collectors.toList());
+
+        final long now = System.currentTimeMillis();
+        if (lastFullSnapshotMillis < 0 || now - lastFullSnapshotMillis >= fullSnapshotIntervalMs) {
+            lastFullSnapshotMillis = now;
+            // Any deletions made up until now are covered by the full snapshot
+            final Map<Integer, Long> deletions = new HashMap<>(deletedAlarmIds);
+            doFullSnapshot(legacyListeners, incrementalListeners);
+            deletions.forEach(deletedAlarmIds::remove);
+        } else {
+            // Listeners that don't support deltas keep getting the complete set at every interval
+            doFullSnapshot(legacyListeners, Collections.emptyList());
+            doDeltaSnapshot(incrementalListeners);
+        }
+    }
+
+    private void doFullSnapshot(Collection<? extends AlarmLifecycleListener> legacyListeners, Collection<IncrementalAlarmLifecycleListener> incrementalListeners) {
+        final List<AlarmLifecycleListener> allListeners = Lists.newArrayList(Iterables.concat(legacyListeners, incrementalListeners));
+        if (allListeners.isEmpty()) {
+            return;
+        }
+
+        if (!incrementalListeners.isEmpty()) {
+            // The alarms sent before are all part of this snapshot
+            recentlySentAlarms.clear();
+        }
+
         final AtomicLong numAlarms = new AtomicLong(-1);
         final long systemMillisBeforeSnasphot = System.currentTimeMillis();
         final AtomicLong systemMillisAfterLoad = new AtomicLong(-1);
         try {
-            forEachListener(AlarmLifecycleListener::preHandleAlarmSnapshot);
+            forEachListener(allListeners, AlarmLifecycleListener::preHandleAlarmSnapshot);
             template.execute(new TransactionCallbackWithoutResult() {
                 @Override
                 protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    if (legacyListeners.isEmpty()) {
+                        // Only stream the alarms when all of the listeners support it
+                        numAlarms.set(streamAlarms(incrementalListeners));
+                        systemMillisAfterLoad.set(System.currentTimeMillis());
+                        return;
+                    }
+
                     final List<OnmsAlarm> allAlarms = alarmDao.findAll();
                     numAlarms.set(allAlarms.size());
                     // Save the timestamp after the load, so we can differentiate between how long it took
                     // to load the alarms and how long it took to invoke the callbacks
                     systemMillisAfterLoad.set(System.currentTimeMillis());
-                    forEachListener(l -> {
+                    forEachListener(legacyListeners, l -> {
                         LOG.debug("Calling handleAlarmSnapshot on listener: {}", l);
                         l.handleAlarmSnapshot(allAlarms);
                         LOG.debug("Done calling listener.");
                     });
+                    final List<List<OnmsAlarm>> chunks = allAlarms.isEmpty() ? Collections.singletonList(Collections.emptyList())
+                            : Lists.partition(allAlarms, snapshotChunkSize);
+                    for (int i = 0; i < chunks.size(); i++) {
+                        final List<OnmsAlarm> chunk = chunks.get(i);
+                        final boolean last = i == chunks.size() - 1;
+                        forEachListener(incrementalListeners, l -> l.handleAlarmSnapshotChunk(chunk, last));
+                        if (!incrementalListeners.isEmpty()) {
+                            chunk.forEach(AlarmLifecycleListenerManager.this::recordSentAlarm);
+                        }
+                    }
                 }
             });
+            pruneSentAlarms();
         } finally {
             if (LOG.isDebugEnabled()) {
                 final long now = System.currentTimeMillis();
@@ -130,7 +246,151 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
                         systemMillisAfterLoad.get() - systemMillisBeforeSnasphot,
                         now - systemMillisBeforeSnasphot);
             }
-            forEachListener(AlarmLifecycleListener::postHandleAlarmSnapshot);
+            forEachListener(allListeners, AlarmLifecycleListener::postHandleAlarmSnapshot);
+        }
+    }
+
+    /**
+     * Loads all of the alarms in chunks, using the last ID of the previous chunk
+     * as the lower bound of the next one, and clears the session between chunks
+     * so that the alarms can be garbage collected.
+     *
+     * @return the number of alarms that were loaded
+     */
+    private long streamAlarms(Collection<IncrementalAlarmLifecycleListener> incrementalListeners) {
+        long numAlarms = 0;
+        Integer lastAlarmId = null;
+        while (true) {
+            final CriteriaBuilder builder = new CriteriaBuilder(OnmsAlarm.class)
+                    .orderBy("id").asc()
+                    .limit(snapshotChunkSize);
+            if (lastAlarmId != null) {
+                builder.gt("id", lastAlarmId);
+            }
+            final List<OnmsAlarm> chunk = alarmDao.findMatching(builder.toCriteria());
+            final boolean last = chunk.size() < snapshotChunkSize;
+            numAlarms += chunk.size();
+            forEachListener(incrementalListeners, l -> {
+                LOG.debug("Calling handleAlarmSnapshotChunk with {} alarms on listener: {}", chunk.size(), l);
+                l.handleAlarmSnapshotChunk(chunk, last);
+            });
+            chunk.forEach(this::recordSentAlarm);
+            if (last) {
+                return numAlarms;
+            }
+            lastAlarmId = chunk.get(chunk.size() - 1).getId();
+            // Nothing was changed, so the session can be cleared without flushing it
+            alarmDao.clear();
+        }
+    }
+
+    private void doDeltaSnapshot(Collection<IncrementalAlarmLifecycleListener> incrementalListeners) {
+        if (incrementalListeners.isEmpty()) {
+            return;
+        }
+
+        final Map<Integer, Long> deletions = new HashMap<>(deletedAlarmIds);
+        final Date modifiedSince = lastModifiedWatermark == null ? null : new Date(lastModifiedWatermark.getTime() - deltaOverlapMs);
+        final AtomicLong numAlarms = new AtomicLong(0);
+        final AtomicBoolean started = new AtomicBoolean(false);
+        // Only issue the pre and post callbacks if there is something to send
+        final BiConsumer<Set<Integer>, List<OnmsAlarm>> sendDelta = (alarmIds, alarms) -> {
+            if (started.compareAndSet(false, true)) {
+                forEachListener(incrementalListeners, AlarmLifecycleListener::preHandleAlarmSnapshot);
+            }
+            numAlarms.addAndGet(alarmIds.size());
+            forEachListener(incrementalListeners, l -> {
+                LOG.debug("Calling handleAlarmSnapshotDelta with {} alarms on listener: {}", alarmIds.size(), l);
+                l.handleAlarmSnapshotDelta(alarmIds, alarms);
+            });
+        };
+
+        final long systemMillisBeforeSnasphot = System.currentTimeMillis();
+        try {
+            template.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    // Alarms that were created or updated since the last snapshot, by whomever
+                    Integer lastAlarmId = null;
+                    while (true) {
+                        final CriteriaBuilder builder = new CriteriaBuilder(OnmsAlarm.class)
+                                .orderBy("id").asc()
+                                .limit(snapshotChunkSize);
+                        if (modifiedSince != null) {
+                            builder.ge("lastModifiedTime", modifiedSince);
+                        }
+                        if (lastAlarmId != null) {
+                            builder.gt("id", lastAlarmId);
+                        }
+                        final List<OnmsAlarm> chunk = alarmDao.findMatching(builder.toCriteria());
+                        final List<OnmsAlarm> changed = chunk.stream()
+                                .filter(a -> !wasSent(a))
+                                .collect(Collectors.toList());
+                        if (!changed.isEmpty()) {
+                            sendDelta.accept(changed.stream().map(OnmsAlarm::getId).collect(Collectors.toSet()), changed);
+                            changed.forEach(AlarmLifecycleListenerManager.this::recordSentAlarm);
+                        }
+                        if (chunk.size() < snapshotChunkSize) {
+                            break;
+                        }
+                        lastAlarmId = chunk.get(chunk.size() - 1).getId();
+                        alarmDao.clear();
+                    }
+
+                    // Alarms that were deleted through the DAO, which are gone unless the deletion was rolled back
+                    for (List<Integer> alarmIds : Iterables.partition(deletions.keySet(), snapshotChunkSize)) {
+                        final Set<Integer> alarmIdsInChunk = Collections.unmodifiableSet(new HashSet<>(alarmIds));
+                        final List<OnmsAlarm> alarms = alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class)
+                                .in("id", alarmIdsInChunk)
+                                .toCriteria());
+                        sendDelta.accept(alarmIdsInChunk, alarms);
+                        alarmDao.clear();
+                    }
+                }
+            });
+            // Only forget about the deletions once they were handled
+            deletions.forEach(deletedAlarmIds::remove);
+            pruneSentAlarms();
+        } finally {
+            if (started.get()) {
+                LOG.debug("Alarm snapshot delta for {} alarms completed in {}ms.",
+                        numAlarms.get(), System.currentTimeMillis() - systemMillisBeforeSnasphot);
+                forEachListener(incrementalListeners, AlarmLifecycleListener::postHandleAlarmSnapshot);
+            }
+        }
+    }
+
+    private void recordSentAlarm(OnmsAlarm alarm) {
+        final Date lastModifiedTime = alarm.getLastModifiedTime();
+        if (lastModifiedTime == null) {
+            return;
+        }
+        if (lastModifiedWatermark == null || lastModifiedTime.after(lastModifiedWatermark)) {
+            lastModifiedWatermark = lastModifiedTime;
+        }
+        recentlySentAlarms.put(alarm.getId(), lastModifiedTime);
+    }
+
+    private boolean wasSent(OnmsAlarm alarm) {
+        return alarm.getLastModifiedTime() != null && Objects.equals(recentlySentAlarms.get(alarm.getId()), alarm.getLastModifiedTime());
+    }
+
+    /**
+     * Forgets about the alarms which are no longer within the overlap, and
+     * will hence not be returned by the next delta query.
+     */
+    private void pruneSentAlarms() {
+        if (lastModifiedWatermark == null) {
+            recentlySentAlarms.clear();
+            return;
+        }
+        final long cutoff = lastModifiedWatermark.getTime() - deltaOverlapMs;
+        recentlySentAlarms.values().removeIf(lastModifiedTime -> lastModifiedTime.getTime() < cutoff);
+    }
+
+    private void trackDeletion(OnmsAlarm alarm) {
+        if (incrementalSnapshots && alarm.getId() != null) {
+            deletedAlarmIds.put(alarm.getId(), deleteSequence.incrementAndGet());
         }
     }
 
@@ -145,6 +405,7 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
 
     @Override
     public void onAlarmDeleted(OnmsAlarm alarm) {
+        trackDeletion(alarm);
         forEachListener(l -> l.handleDeletedAlarm(alarm.getId(), alarm.getReductionKey()));
     }
 
@@ -204,7 +465,11 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     }
 
     private void forEachListener(Consumer<AlarmLifecycleListener> callback) {
-        for (AlarmLifecycleListener listener : listeners) {
+        forEachListener(listeners, callback);
+    }
+
+    private static <T extends AlarmLifecycleListener> void forEachListener(Collection<T> listeners, Consumer<? super T> callback) {
+        for (T listener : listeners) {
             try {
                 callback.accept(listener);
             } catch (Exception e) {
@@ -231,6 +496,22 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
         this.template = template;
     }
 
+    public void setIncrementalSnapshots(boolean incrementalSnapshots) {
+        this.incrementalSnapshots = incrementalSnapshots;
+    }
+
+    public void setFullSnapshotIntervalMs(long fullSnapshotIntervalMs) {
+        this.fullSnapshotIntervalMs = fullSnapshotIntervalMs;
+    }
+
+    public void setSnapshotChunkSize(int snapshotChunkSize) {
+        this.snapshotChunkSize = Math.max(1, snapshotChunkSize);
+    }
+
+    public void setDeltaOverlapMs(long deltaOverlapMs) {
+        this.deltaOverlapMs = Math.max(0, deltaOverlapMs);
+    }
+
     @Override
     public void afterPropertiesSet() {
         start();
@@ -29,17 +29,26 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.alarmd.api.AlarmPersisterExtension;
 import org.opennms.netmgt.dao.api.AlarmDao;
@@ -55,20 +64,39 @@ import org.opennms.netmgt.xml.event.UpdateField;
 import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Striped;
 
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * When write-behind is enabled, events that only increment the counter and
+ * update the last event of an existing alarm are not applied right away.
+ * They are merged by reduction key and applied in batches every
+ * {@link #WRITE_BEHIND_WINDOW_MS} ms. The alarms that can be reduced this way are
+ * tracked in an index keyed by reduction key, which is verified against the
+ * database when the reductions are applied. Any other event with the same
+ * reduction or clear key first applies the pending reductions, so the events
+ * for a given alarm are still handled in order.
+ *
+ * The pending reductions are applied one lock stripe at a time, so that only
+ * the events which share a stripe with them are blocked meanwhile. They are
+ * only forgotten once the transaction that applied them was committed, and
+ * are dropped after {@link #WRITE_BEHIND_MAX_ATTEMPTS} failed attempts.
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     public static final String RELATED_REDUCTION_KEY_PREFIX = "related-reductionKey";
@@ -76,6 +104,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
     protected static final Integer NUM_STRIPE_LOCKS = SystemProperties.getInteger("org.opennms.alarmd.stripe.locks", Alarmd.THREADS * 4);
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
+    protected static final boolean WRITE_BEHIND = Boolean.getBoolean("org.opennms.alarmd.writeBehind");
+    protected static final Long WRITE_BEHIND_WINDOW_MS = SystemProperties.getLong("org.opennms.alarmd.writeBehind.windowMs", 250);
+    protected static final Integer WRITE_BEHIND_BATCH_SIZE = Math.max(1, SystemProperties.getInteger("org.opennms.alarmd.writeBehind.batchSize", 500));
+    protected static final Long REDUCTION_KEY_INDEX_SIZE = SystemProperties.getLong("org.opennms.alarmd.writeBehind.indexSize", 100000);
+    protected static final Integer WRITE_BEHIND_MAX_ATTEMPTS = Math.max(1, SystemProperties.getInteger("org.opennms.alarmd.writeBehind.maxAttempts", 3));
 
     @Autowired
     private AlarmDao m_alarmDao;
@@ -100,6 +133,125 @@ public class AlarmPersisterImpl implements AlarmPersister {
     
     private boolean m_legacyAlarmState = LEGACY_ALARM_STATE;
 
+    private boolean m_writeBehind = WRITE_BEHIND;
+
+    /**
+     * IDs of the alarms that can be reduced without being loaded first, by reduction key.
+     */
+    private final Cache<String, Integer> m_reducibleAlarmIds = CacheBuilder.newBuilder()
+            .maximumSize(REDUCTION_KEY_INDEX_SIZE)
+            .build();
+
+    /**
+     * Reductions that were deferred, by reduction key.
+     *
+     * The entry for a given key is only modified while holding the lock for that key.
+     */
+    private final Map<String, PendingReductions> m_pendingReductions = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService m_writeBehindExecutor;
+
+    private static class PendingReductions {
+        private final String reductionKey;
+        private final int alarmId;
+        private final List<Event> events = new ArrayList<>();
+        private int failedAttempts = 0;
+
+        private PendingReductions(String reductionKey, int alarmId) {
+            this.reductionKey = reductionKey;
+            this.alarmId = alarmId;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_writeBehind) {
+            m_writeBehindExecutor = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("AlarmPersister-WriteBehind", 1));
+            m_writeBehindExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    flushPendingReductions();
+                } catch (Exception e) {
+                    LOG.error("Error while applying the pending alarm reductions.", e);
+                }
+            }, WRITE_BEHIND_WINDOW_MS, WRITE_BEHIND_WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (m_writeBehindExecutor != null) {
+            m_writeBehindExecutor.shutdown();
+            m_writeBehindExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            m_writeBehindExecutor = null;
+        }
+        flushPendingReductions();
+    }
+
+    /**
+     * Applies all of the reductions that were deferred so far.
+     *
+     * The keys are grouped by lock stripe, and every group is applied in its own
+     * transactions while holding the lock of that stripe only.
+     */
+    protected void flushPendingReductions() {
+        final Map<Lock, List<String>> reductionKeysByStripe = new LinkedHashMap<>();
+        for (String reductionKey : m_pendingReductions.keySet()) {
+            reductionKeysByStripe.computeIfAbsent(lockStripes.get(reductionKey), l -> new ArrayList<>()).add(reductionKey);
+        }
+        reductionKeysByStripe.forEach((lock, reductionKeys) -> {
+            for (List<String> batch : Lists.partition(reductionKeys, WRITE_BEHIND_BATCH_SIZE)) {
+                if (!flushPendingReductions(lock, batch, batch.size() == 1) && batch.size() > 1) {
+                    // Retry the keys one by one, so that a single failing alarm does not hold back the others
+                    batch.forEach(reductionKey -> flushPendingReductions(lock, Collections.singletonList(reductionKey), true));
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the pending reductions for the given keys in a single transaction.
+     *
+     * @return true if the transaction was committed
+     */
+    private boolean flushPendingReductions(Lock lock, List<String> reductionKeys, boolean countFailure) {
+        lock.lock();
+        try {
+            final List<PendingReductions> applied = new ArrayList<>(reductionKeys.size());
+            m_transactionOperations.execute((action) -> {
+                reductionKeys.forEach(reductionKey -> applyPendingReductions(reductionKey, applied));
+                return null;
+            });
+            forgetPendingReductions(applied);
+            return true;
+        } catch (RuntimeException e) {
+            if (!countFailure) {
+                LOG.warn("Failed to apply the pending reductions for {} alarms, retrying them one by one.", reductionKeys.size(), e);
+                return false;
+            }
+            for (String reductionKey : reductionKeys) {
+                final PendingReductions pending = m_pendingReductions.get(reductionKey);
+                if (pending != null && ++pending.failedAttempts >= WRITE_BEHIND_MAX_ATTEMPTS) {
+                    LOG.error("Dropping {} events for alarm with reductionKey: {} after {} failed attempts.", pending.events.size(), reductionKey, pending.failedAttempts, e);
+                    m_pendingReductions.remove(reductionKey, pending);
+                } else {
+                    LOG.warn("Failed to apply the pending reductions for alarm with reductionKey: {}. They will be retried.", reductionKey, e);
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets about the given reductions, once the transaction that applied them was committed.
+     *
+     * Must be called while holding the locks for their keys, so that no events were added in the meantime.
+     */
+    private void forgetPendingReductions(List<PendingReductions> applied) {
+        applied.forEach(pending -> m_pendingReductions.remove(pending.reductionKey, pending));
+    }
+
     @Override
     public OnmsAlarm persist(Event event) {
         Objects.requireNonNull(event, "Cannot create alarm from null event.");
@@ -118,8 +270,17 @@ public class AlarmPersisterImpl implements AlarmPersister {
         final OnmsAlarm alarm;
         try {
             locks.forEach(Lock::lock);
+            if (deferReduction(event)) {
+                return null;
+            }
             // Process the alarm inside a transaction
-            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event));
+            final List<PendingReductions> applied = new ArrayList<>(2);
+            alarm = m_transactionOperations.execute((action) -> {
+                // Apply the deferred reductions for the same keys first, so that they are handled in order
+                getLockKeys(event).forEach(key -> applyPendingReductions(key, applied));
+                return addOrReduceEventAsAlarm(event);
+            });
+            forgetPendingReductions(applied);
         } finally {
             locks.forEach(Lock::unlock);
         }
@@ -203,9 +364,127 @@ public class AlarmPersisterImpl implements AlarmPersister {
 
             m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
         }
+        updateReductionKeyIndex(alarm);
         return alarm;
     }
 
+    /**
+     * Queues the given event for a later reduction if it only needs to increment
+     * the counter and update the last event of a known alarm.
+     *
+     * Must be called while holding the locks for the event's keys.
+     *
+     * @return true if the event was queued
+     */
+    private boolean deferReduction(Event event) {
+        if (!m_writeBehind || !extensions.isEmpty()) {
+            return false;
+        }
+        final String reductionKey = event.getAlarmData().getReductionKey();
+        if (reductionKey == null
+                || isResolutionEvent(event)
+                || event.getAlarmData().hasUpdateFields()
+                || (event.getParmCollection() != null && event.getParmCollection().stream().anyMatch(AlarmPersisterImpl::isRelatedReductionKeyWithContent))) {
+            return false;
+        }
+        final Integer alarmId = m_reducibleAlarmIds.getIfPresent(reductionKey);
+        if (alarmId == null) {
+            return false;
+        }
+        m_pendingReductions.computeIfAbsent(reductionKey, k -> new PendingReductions(k, alarmId)).events.add(event);
+        return true;
+    }
+
+    /**
+     * Applies the deferred reductions for the given key, merging them into
+     * a single update of the alarm.
+     *
+     * Must be called inside a transaction, while holding the lock for the key.
+     * The reductions are added to the given list, and must only be forgotten
+     * once the transaction was committed, so that they are retried otherwise.
+     */
+    private void applyPendingReductions(String reductionKey, List<PendingReductions> applied) {
+        final PendingReductions pending = m_pendingReductions.get(reductionKey);
+        if (pending == null || applied.contains(pending)) {
+            return;
+        }
+        applied.add(pending);
+
+        final OnmsAlarm alarm = m_alarmDao.get(pending.alarmId);
+        if (alarm == null || !reductionKey.equals(alarm.getReductionKey()) || !isReducible(alarm) || !extensions.isEmpty()) {
+            // The alarm was changed by someone else since the events were queued, handle them one by one instead
+            LOG.debug("applyPendingReductions: alarm with reductionKey: {} changed, processing {} events individually.", reductionKey, pending.events.size());
+            m_reducibleAlarmIds.invalidate(reductionKey);
+            for (Event event : pending.events) {
+                try {
+                    addOrReduceEventAsAlarm(event);
+                } catch (IllegalStateException e) {
+                    LOG.warn("applyPendingReductions: {}", e.getMessage());
+                }
+            }
+            return;
+        }
+
+        final Map<Integer, OnmsEvent> persistedEventsById = m_eventDao.findMatching(new CriteriaBuilder(OnmsEvent.class)
+                .in("id", pending.events.stream().map(Event::getDbid).collect(Collectors.toList()))
+                .toCriteria()).stream()
+                .collect(Collectors.toMap(OnmsEvent::getId, Function.identity()));
+
+        // Only the last event that requests it needs to clean up the previous events
+        Event lastAutoCleanEvent = null;
+        for (Event event : pending.events) {
+            if (event.getAlarmData().isAutoClean() && persistedEventsById.containsKey(event.getDbid())) {
+                lastAutoCleanEvent = event;
+            }
+        }
+
+        int numReduced = 0;
+        for (Event event : pending.events) {
+            final OnmsEvent persistedEvent = persistedEventsById.get(event.getDbid());
+            if (persistedEvent == null) {
+                LOG.warn("applyPendingReductions: event with id {} was deleted before we could reduce it to an alarm.", event.getDbid());
+                continue;
+            }
+            reduceEvent(persistedEvent, alarm, event);
+            m_eventDao.update(persistedEvent);
+            numReduced++;
+            if (event == lastAutoCleanEvent) {
+                m_eventDao.flush();
+                m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), persistedEvent);
+            }
+        }
+        if (numReduced < 1) {
+            return;
+        }
+
+        LOG.debug("applyPendingReductions: reduced {} events to alarm with reductionKey: {}", numReduced, reductionKey);
+        m_alarmDao.update(alarm);
+        m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+        updateReductionKeyIndex(alarm);
+    }
+
+    private void updateReductionKeyIndex(OnmsAlarm alarm) {
+        if (!m_writeBehind || alarm.getReductionKey() == null) {
+            return;
+        }
+        if (alarm.getId() != null && isReducible(alarm)) {
+            m_reducibleAlarmIds.put(alarm.getReductionKey(), alarm.getId());
+        } else {
+            m_reducibleAlarmIds.invalidate(alarm.getReductionKey());
+        }
+    }
+
+    /**
+     * Events which are not resolutions, and have neither update fields nor related
+     * alarms only increment the counter and update the last event of these alarms.
+     */
+    private boolean isReducible(OnmsAlarm alarm) {
+        return alarm.getAlarmType() != null
+                && !isResolvedAlarm(alarm)
+                && alarm.getRelatedAlarmIds().isEmpty()
+                && !(m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity()));
+    }
+
     private void reduceEvent(OnmsEvent persistedEvent, OnmsAlarm alarm, Event event) {
         // Always set these
         alarm.setLastEvent(persistedEvent);
@@ -527,4 +806,12 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    public boolean isWriteBehind() {
+        return m_writeBehind;
+    }
+
+    public void setWriteBehind(boolean writeBehind) {
+        m_writeBehind = writeBehind;
+    }
 }
@@ -30,24 +30,28 @@ package org.opennms.netmgt.alarmd.drools;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import org.hibernate.Hibernate;
-import org.kie.api.runtime.KieSession;
 import org.kie.api.runtime.rule.FactHandle;
+import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.core.utils.ConfigFileConstants;
 import org.opennms.netmgt.alarmd.Alarmd;
 import org.opennms.netmgt.alarmd.api.AlarmCallbackStateTracker;
 import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
+import org.opennms.netmgt.alarmd.api.IncrementalAlarmLifecycleListener;
 import org.opennms.netmgt.dao.api.AcknowledgmentDao;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.model.AckAction;
@@ -61,6 +65,9 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
 
@@ -72,11 +79,20 @@ import com.google.common.collect.Sets;
  * We use a lock updating alarms in the context in order to avoid triggering the rules while an incomplete
  * view of the alarms is present in the working memory.
  *
+ * When batching is enabled, the callbacks are queued and coalesced by alarm ID instead of being applied
+ * to the working memory right away. The queued changes are applied while holding the lock, just before
+ * the rules are fired, so that an alarm which is reduced many times between two firings only replaces
+ * its facts once.
+ *
  * @author jwhite
  */
-public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLifecycleListener {
+public class DroolsAlarmContext extends ManagedDroolsContext implements IncrementalAlarmLifecycleListener {
     private static final Logger LOG = LoggerFactory.getLogger(DroolsAlarmContext.class);
 
+    public static final String BATCH_PROPERTY = "org.opennms.alarmd.drools.batch";
+
+    public static final String BATCH_WINDOW_MS_PROPERTY = "org.opennms.alarmd.drools.batch.windowMs";
+
     @Autowired
     private AlarmService alarmService;
 
@@ -98,14 +114,47 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
 
     private final Map<Integer, AlarmAcknowledgementAndFact> acknowledgementsByAlarmId = new HashMap<>();
 
+    /**
+     * IDs of the alarms seen in the chunks of the snapshot that is being processed.
+     */
+    private final Set<Integer> alarmIdsInSnapshot = new HashSet<>();
+
     private final Map<Integer, Map<Integer, AlarmAssociationAndFact>> alarmAssociationById = new HashMap<>();
 
+    private boolean batching = Boolean.getBoolean(BATCH_PROPERTY);
+
+    /**
+     * Alarm changes that have yet to be applied to the working memory, keyed by alarm ID.
+     */
+    private final Map<Integer, PendingAlarmChange> pendingChangesById = new LinkedHashMap<>();
+
+    private final Meter factInserts;
+
+    private final Meter factUpdates;
+
+    private final Meter factDeletes;
+
     public DroolsAlarmContext() {
         this(getDefaultRulesFolder());
     }
 
     public DroolsAlarmContext(File rulesFolder) {
         super(rulesFolder, Alarmd.NAME, "DroolsAlarmContext");
+        if (batching) {
+            setFireIntervalMs(SystemProperties.getLong(BATCH_WINDOW_MS_PROPERTY, TimeUnit.SECONDS.toMillis(1)));
+        }
+        final MetricRegistry metrics = getMetrics();
+        factInserts = metrics.meter(MetricRegistry.name(getKSessionName(), "factInserts"));
+        factUpdates = metrics.meter(MetricRegistry.name(getKSessionName(), "factUpdates"));
+        factDeletes = metrics.meter(MetricRegistry.name(getKSessionName(), "factDeletes"));
+        metrics.register(MetricRegistry.name(getKSessionName(), "pendingChanges"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                synchronized (pendingChangesById) {
+                    return pendingChangesById.size();
+                }
+            }
+        });
         setOnNewKiewSessionCallback(kieSession -> {
             kieSession.setGlobal("alarmService", alarmService);
             kieSession.insert(alarmTicketerService);
@@ -179,6 +228,8 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
     public void preHandleAlarmSnapshot() {
         getLock().lock();
         try {
+            // Apply any queued changes first, so that they don't override the snapshot
+            applyPendingChanges();
             // Start tracking alarm callbacks via the state tracker
             // Do this while holding on a lock to make sure that we don't miss a callback that's in flight
             stateTracker.startTrackingAlarms();
@@ -199,10 +250,75 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         // before the session & transaction were closed, which can cause Hibernate related exceptions.
         getLock().lock();
         LOG.debug("Handling snapshot for {} alarms.", alarms.size());
-        final Map<Integer, OnmsAlarm> alarmsInDbById = alarms.stream()
+        final Map<Integer, OnmsAlarm> alarmsInDbById = getAlarmsById(alarms);
+        handleSnapshotChanges(alarmsInDbById, getAlarmIdsToRemove(alarmsById.keySet(), alarmsInDbById.keySet()));
+        LOG.debug("Done handling snapshot.");
+    }
+
+    @Override
+    public void handleAlarmSnapshotDelta(Set<Integer> alarmIds, List<OnmsAlarm> alarms) {
+        if (!isStarted()) {
+            LOG.debug("Ignoring alarm snapshot delta. Drools session is stopped.");
+            return;
+        }
+
+        // Hold the lock until {@link #postHandleAlarmSnapshot}, as we do for complete snapshots
+        lockForSnapshot();
+        LOG.debug("Handling snapshot delta for {} alarms.", alarmIds.size());
+        final Map<Integer, OnmsAlarm> alarmsInDbById = getAlarmsById(alarms);
+        // Only the alarms that changed since the last snapshot are candidates for removal
+        final Set<Integer> alarmIdsInWorkingMem = Sets.intersection(alarmIds, alarmsById.keySet());
+        handleSnapshotChanges(alarmsInDbById, getAlarmIdsToRemove(alarmIdsInWorkingMem, alarmsInDbById.keySet()));
+        LOG.debug("Done handling snapshot delta.");
+    }
+
+    @Override
+    public void handleAlarmSnapshotChunk(List<OnmsAlarm> alarms, boolean last) {
+        if (!isStarted()) {
+            LOG.debug("Ignoring alarm snapshot chunk. Drools session is stopped.");
+            return;
+        }
+
+        // Hold the lock until {@link #postHandleAlarmSnapshot}, as we do for complete snapshots
+        lockForSnapshot();
+        LOG.debug("Handling snapshot chunk for {} alarms.", alarms.size());
+        final Map<Integer, OnmsAlarm> alarmsInDbById = getAlarmsById(alarms);
+        alarmIdsInSnapshot.addAll(alarmsInDbById.keySet());
+        // Alarms can only be removed once we've seen all of the chunks
+        final Set<Integer> alarmIdsToRemove = last ? getAlarmIdsToRemove(alarmsById.keySet(), alarmIdsInSnapshot) : Collections.emptySet();
+        handleSnapshotChanges(alarmsInDbById, alarmIdsToRemove);
+        if (last) {
+            alarmIdsInSnapshot.clear();
+            LOG.debug("Done handling snapshot chunks.");
+        }
+    }
+
+    private void lockForSnapshot() {
+        final ReentrantLock lock = getLock();
+        if (!lock.isHeldByCurrentThread()) {
+            lock.lock();
+        }
+    }
+
+    private static Map<Integer, OnmsAlarm> getAlarmsById(List<OnmsAlarm> alarms) {
+        return alarms.stream()
                 .filter(a -> a.getId() != null)
                 .collect(Collectors.toMap(OnmsAlarm::getId, a -> a));
+    }
+
+    private Set<Integer> getAlarmIdsToRemove(Set<Integer> alarmIdsInWorkingMem, Set<Integer> alarmIdsInDb) {
+        return Sets.difference(alarmIdsInWorkingMem, alarmIdsInDb).stream()
+                // We have an alarm in working memory that is not contained in the snapshot.
+                // Only remove it from memory if the fact we have dates before the snapshot.
+                .filter(alarmId -> !stateTracker.wasAlarmWithIdUpdated(alarmId))
+                .collect(Collectors.toSet());
+    }
 
+    /**
+     * Updates the working memory with the given alarms from the database, and removes
+     * the alarms with the given IDs.
+     */
+    private void handleSnapshotChanges(Map<Integer, OnmsAlarm> alarmsInDbById, Set<Integer> alarmIdsToRemove) {
         final Set<Integer> alarmIdsInDb = alarmsInDbById.keySet();
         final Set<Integer> alarmIdsInWorkingMem = alarmsById.keySet();
 
@@ -213,11 +329,6 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
                 // delete the alarm after the snapshot was taken.
                 .filter(alarmId -> !stateTracker.wasAlarmWithIdDeleted(alarmId))
                 .collect(Collectors.toSet());
-        final Set<Integer> alarmIdsToRemove = Sets.difference(alarmIdsInWorkingMem, alarmIdsInDb).stream()
-                // We have an alarm in working memory that is not contained in the snapshot.
-                // Only remove it from memory if the fact we have dates before the snapshot.
-                .filter(alarmId -> !stateTracker.wasAlarmWithIdUpdated(alarmId))
-                .collect(Collectors.toSet());
         final Set<Integer> alarmIdsToUpdate = Sets.intersection(alarmIdsInWorkingMem, alarmIdsInDb).stream()
                 // This stream contains the set of all alarms which are both in the snapshot
                 // and in working memory
@@ -261,13 +372,12 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         handleNewOrUpdatedAlarms(Sets.union(alarmIdsToAdd, alarmIdsToUpdate).stream()
                 .map(alarmsInDbById::get)
                 .collect(Collectors.toSet()));
-
-        LOG.debug("Done handling snapshot.");
     }
 
     @Override
     public void postHandleAlarmSnapshot() {
         stateTracker.resetStateAndStopTrackingAlarms();
+        alarmIdsInSnapshot.clear();
         // If an error occurred while preparing the snapshot, it is possible that
         // this post function is called  without having handled the snapshot.
         // To avoid an IllegalMonitorStateException in this case, we only
@@ -297,6 +407,14 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             LOG.debug("Ignoring new/updated alarm. Drools session is stopped.");
             return;
         }
+        if (batching) {
+            // Initialize the related objects and fetch the ack while the caller's session is still open
+            initializeAlarm(alarm);
+            final OnmsAcknowledgment ack = fetchAcks(Collections.singleton(alarm)).get(alarm.getId());
+            stateTracker.trackNewOrUpdatedAlarm(alarm.getId(), alarm.getReductionKey());
+            queueChange(new PendingAlarmChange(alarm.getId(), alarm.getReductionKey(), alarm, ack));
+            return;
+        }
         getLock().lock();
         try {
             handleNewOrUpdatedAlarms(Collections.singleton(alarm));
@@ -356,38 +474,97 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
     }
 
     private void handleNewOrUpdatedAlarmNoLock(OnmsAlarm alarm) {
-        final KieSession kieSession = getKieSession();
-        // Initialize any related objects that are needed for rule execution
-        Hibernate.initialize(alarm.getAssociatedAlarms());
-        if (alarm.getLastEvent() != null) {
-            // The last event may be null in unit tests
-            Hibernate.initialize(alarm.getLastEvent().getEventParameters());
-        }
+        initializeAlarm(alarm);
         final AlarmAndFact alarmAndFact = alarmsById.get(alarm.getId());
         if (alarmAndFact == null) {
             LOG.debug("Inserting alarm into session: {}", alarm);
-            final FactHandle fact = getKieSession().insert(alarm);
+            final FactHandle fact = insertFact(alarm);
             alarmsById.put(alarm.getId(), new AlarmAndFact(alarm, fact));
         } else {
             // Updating the fact doesn't always give us to expected results so we resort to deleting it
             // and adding it again instead
             LOG.trace("Deleting alarm from session (for re-insertion): {}", alarm);
-            kieSession.delete(alarmAndFact.getFact());
+            deleteFact(alarmAndFact.getFact());
             // Reinsert
             LOG.trace("Re-inserting alarm into session: {}", alarm);
-            final FactHandle fact = kieSession.insert(alarm);
+            final FactHandle fact = insertFact(alarm);
             alarmsById.put(alarm.getId(), new AlarmAndFact(alarm, fact));
         }
         handleRelatedAlarms(alarm);
         stateTracker.trackNewOrUpdatedAlarm(alarm.getId(), alarm.getReductionKey());
     }
 
+    private static void initializeAlarm(OnmsAlarm alarm) {
+        // Initialize any related objects that are needed for rule execution
+        Hibernate.initialize(alarm.getAssociatedAlarms());
+        if (alarm.getLastEvent() != null) {
+            // The last event may be null in unit tests
+            Hibernate.initialize(alarm.getLastEvent().getEventParameters());
+        }
+    }
+
+    private void queueChange(PendingAlarmChange change) {
+        synchronized (pendingChangesById) {
+            // Only the latest change for any given alarm is kept
+            pendingChangesById.put(change.alarmId, change);
+        }
+    }
+
+    @Override
+    protected void beforeFireAllRules() {
+        applyPendingChanges();
+    }
+
+    /**
+     * Applies the queued alarm changes to the working memory.
+     * Must be called while holding the lock.
+     */
+    private void applyPendingChanges() {
+        final List<PendingAlarmChange> changes;
+        synchronized (pendingChangesById) {
+            if (pendingChangesById.isEmpty()) {
+                return;
+            }
+            changes = new ArrayList<>(pendingChangesById.values());
+            pendingChangesById.clear();
+        }
+        LOG.debug("Applying {} queued alarm changes.", changes.size());
+        for (PendingAlarmChange change : changes) {
+            if (change.alarm == null) {
+                handleDeletedAlarmNoLock(change.alarmId, change.reductionKey);
+            } else {
+                handleNewOrUpdatedAlarmNoLock(change.alarm);
+                handleAlarmAcknowledgements(change.alarm, change.ack);
+            }
+        }
+    }
+
+    private FactHandle insertFact(Object object) {
+        factInserts.mark();
+        return getKieSession().insert(object);
+    }
+
+    private void updateFact(FactHandle fact, Object object) {
+        factUpdates.mark();
+        getKieSession().update(fact, object);
+    }
+
+    private void deleteFact(FactHandle fact) {
+        factDeletes.mark();
+        getKieSession().delete(fact);
+    }
+
     @Override
     public void handleDeletedAlarm(int alarmId, String reductionKey) {
         if (!isStarted()) {
             LOG.debug("Ignoring deleted alarm. Drools session is stopped.");
             return;
         }
+        if (batching) {
+            stateTracker.trackDeletedAlarm(alarmId, reductionKey);
+            queueChange(new PendingAlarmChange(alarmId, reductionKey, null, null));
+            return;
+        }
         getLock().lock();
         try {
             handleDeletedAlarmNoLock(alarmId, reductionKey);
@@ -406,12 +583,12 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             AlarmAssociationAndFact assocationFact = associationFacts.get(alarmId);
             if (assocationFact == null) {
                 LOG.debug("Inserting alarm association into session: {}", association);
-                final FactHandle fact = getKieSession().insert(association);
+                final FactHandle fact = insertFact(association);
                 associationFacts.put(alarmId, new AlarmAssociationAndFact(association, fact));
             } else {
                 FactHandle fact = assocationFact.getFact();
                 LOG.trace("Updating alarm assocation in session: {}", assocationFact);
-                getKieSession().update(fact, association);
+                updateFact(fact, association);
                 associationFacts.put(alarmId, new AlarmAssociationAndFact(association, fact)); 
             }
         }
@@ -424,7 +601,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             final AlarmAssociationAndFact associationAndFact = associationFacts.remove(alarmId);
             if (associationAndFact != null) {
                 LOG.debug("Deleting AlarmAssociationAndFact from session: {}", associationAndFact.getAlarmAssociation());
-                getKieSession().delete(associationAndFact.getFact());
+                deleteFact(associationAndFact.getFact());
             }
         });
     }
@@ -433,12 +610,12 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         final AlarmAcknowledgementAndFact acknowledgmentFact = acknowledgementsByAlarmId.get(alarm.getId());
         if (acknowledgmentFact == null) {
             LOG.debug("Inserting first alarm acknowledgement into session: {}", ack);
-            final FactHandle fact = getKieSession().insert(ack);
+            final FactHandle fact = insertFact(ack);
             acknowledgementsByAlarmId.put(alarm.getId(), new AlarmAcknowledgementAndFact(ack, fact));
         } else {
             FactHandle fact = acknowledgmentFact.getFact();
             LOG.trace("Updating acknowledgment in session: {}", ack);
-            getKieSession().update(fact, ack);
+            updateFact(fact, ack);
             acknowledgementsByAlarmId.put(alarm.getId(), new AlarmAcknowledgementAndFact(ack, fact));
         }
     }
@@ -447,7 +624,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         final AlarmAndFact alarmAndFact = alarmsById.remove(alarmId);
         if (alarmAndFact != null) {
             LOG.debug("Deleting alarm from session: {}", alarmAndFact.getAlarm());
-            getKieSession().delete(alarmAndFact.getFact());
+            deleteFact(alarmAndFact.getFact());
         }
         deleteAlarmAcknowledgement(alarmId);
         deleteAlarmAssociations(alarmId);
@@ -458,7 +635,7 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         final AlarmAcknowledgementAndFact acknowledgmentFact = acknowledgementsByAlarmId.remove(alarmId);
         if (acknowledgmentFact != null) {
             LOG.debug("Deleting ack from session: {}", acknowledgmentFact.getAcknowledgement());
-            getKieSession().delete(acknowledgmentFact.getFact());
+            deleteFact(acknowledgmentFact.getFact());
         }
     }
 
@@ -471,11 +648,19 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
             AlarmAssociationAndFact assocationFact = associationFacts.get(association);
             if (assocationFact != null) {
                 LOG.debug("Deleting association from session: {}", assocationFact.getAlarmAssociation());
-                getKieSession().delete(assocationFact.getFact());
+                deleteFact(assocationFact.getFact());
             }
         }
     }
 
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
     public void setAlarmService(AlarmService alarmService) {
         this.alarmService = alarmService;
     }
@@ -500,4 +685,22 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
     public void setAlarmDao(AlarmDao alarmDao) {
         this.alarmDao = alarmDao;
     }
+
+    /**
+     * The latest change for an alarm that has yet to be applied to the working memory.
+     * The alarm is null when the alarm was deleted.
+     */
+    private static class PendingAlarmChange {
+        private final int alarmId;
+        private final String reductionKey;
+        private final OnmsAlarm alarm;
+        private final OnmsAcknowledgment ack;
+
+        private PendingAlarmChange(int alarmId, String reductionKey, OnmsAlarm alarm, OnmsAcknowledgment ack) {
+            this.alarmId = alarmId;
+            this.reductionKey = reductionKey;
+            this.alarm = alarm;
+            this.ack = ack;
+        }
+    }
 }
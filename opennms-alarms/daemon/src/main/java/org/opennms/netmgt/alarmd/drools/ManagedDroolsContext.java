@@ -63,6 +63,10 @@ import org.kie.internal.io.ResourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * This class focuses on providing a Drools context which loads a set of rules
  * from the filesystem and can be dynamically reloaded.
@@ -74,6 +78,8 @@ import org.slf4j.LoggerFactory;
 public class ManagedDroolsContext {
     private static final Logger LOG = LoggerFactory.getLogger(DroolsAlarmContext.class);
 
+    private static final String JMX_DOMAIN = "org.opennms.netmgt.alarmd.drools";
+
     private final File rulesFolder;
     private final String kbaseName;
     private final String kSessionName;
@@ -84,6 +90,8 @@ public class ManagedDroolsContext {
 
     private boolean useManualTick = false;
 
+    private long fireIntervalMs = TimeUnit.SECONDS.toMillis(1);
+
     private ReleaseId releaseIdForContainerUsedByKieSession;
 
     private KieContainer kieContainer;
@@ -101,10 +109,20 @@ public class ManagedDroolsContext {
 
     private Consumer<KieSession> onNewKiewSessionCallback;
 
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private final com.codahale.metrics.Timer fireAllRulesTimer;
+
+    private final Histogram rulesFired;
+
+    private JmxReporter reporter;
+
     public ManagedDroolsContext(File rulesFolder, String kbaseName, String kSessionSuffixName) {
         this.rulesFolder = Objects.requireNonNull(rulesFolder);
         this.kbaseName = Objects.requireNonNull(kbaseName);
         this.kSessionName = String.format("%s-%s", kbaseName, Objects.requireNonNull(kSessionSuffixName));
+        this.fireAllRulesTimer = metrics.timer(MetricRegistry.name(kSessionName, "fireAllRules"));
+        this.rulesFired = metrics.histogram(MetricRegistry.name(kSessionName, "rulesFired"));
     }
 
     public synchronized void start() {
@@ -150,6 +168,13 @@ public class ManagedDroolsContext {
         // Allow the base classes to seed the context before we start ticking
         onStart();
 
+        if (reporter == null) {
+            reporter = JmxReporter.forRegistry(metrics)
+                    .inDomain(JMX_DOMAIN)
+                    .build();
+            reporter.start();
+        }
+
         if (!useManualTick) {
             timer = new Timer();
             timer.scheduleAtFixedRate(new TimerTask() {
@@ -158,14 +183,30 @@ public class ManagedDroolsContext {
                     lock.lock();
                     try {
                         LOG.debug("Firing rules.");
-                        kieSession.fireAllRules();
+                        fireAllRules();
                     } catch (Exception e) {
                         LOG.error("Error occurred while firing rules.", e);
                     } finally {
                         lock.unlock();
                     }
                 }
-            }, TimeUnit.SECONDS.toMillis(1), TimeUnit.SECONDS.toMillis(1));
+            }, fireIntervalMs, fireIntervalMs);
+        }
+    }
+
+    /**
+     * Called while holding the lock, right before the rules are fired.
+     *
+     * This can be used to apply any changes to the facts that were deferred until then.
+     */
+    protected void beforeFireAllRules() {
+        // pass
+    }
+
+    private void fireAllRules() {
+        beforeFireAllRules();
+        try (com.codahale.metrics.Timer.Context ctx = fireAllRulesTimer.time()) {
+            rulesFired.update(kieSession.fireAllRules());
         }
     }
 
@@ -274,7 +315,7 @@ public class ManagedDroolsContext {
     public void tick() {
         lock.lock();
         try {
-            kieSession.fireAllRules();
+            fireAllRules();
         } finally {
             lock.unlock();
         }
@@ -296,6 +337,10 @@ public class ManagedDroolsContext {
             kieContainer.dispose();
             kieContainer = null;
         }
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
         started = false;
     }
 
@@ -315,6 +360,22 @@ public class ManagedDroolsContext {
         this.useManualTick = useManualTick;
     }
 
+    /**
+     * Sets the interval at which the rules are fired, when not using manual ticks.
+     * Must be set before the context is started.
+     */
+    public void setFireIntervalMs(long fireIntervalMs) {
+        this.fireIntervalMs = fireIntervalMs;
+    }
+
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
+    public String getKSessionName() {
+        return kSessionName;
+    }
+
     public void setOnNewKiewSessionCallback(Consumer<KieSession> onNewKiewSessionCallback) {
         this.onNewKiewSessionCallback = onNewKiewSessionCallback;
     }
@@ -29,18 +29,31 @@
 package org.opennms.netmgt.alarmd;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
+import org.opennms.core.criteria.Criteria;
 import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
+import org.opennms.netmgt.alarmd.api.IncrementalAlarmLifecycleListener;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.mock.MockTransactionTemplate;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -139,4 +152,182 @@ public class AlarmLifecycleListenerManagerSnapshotTest {
         assertThat(newUpdateOrDeleteAfterSnapshot.get(), equalTo(0));
         assertThat(newUpdateOrDeleteDuringSnapshot.get(), equalTo(2));
     }
+
+    /**
+     * Verifies that the first snapshot streams all of the alarms in chunks, and that
+     * the following snapshots only contain the alarms that changed in the meantime.
+     */
+    @Test
+    public void canIssueIncrementalSnapshots() {
+        final AlarmDao alarmDao = mock(AlarmDao.class);
+        final List<OnmsAlarm> alarmsInDb = new ArrayList<>(Arrays.asList(createAlarm(1), createAlarm(2), createAlarm(3)));
+        when(alarmDao.findMatching(any(Criteria.class))).thenReturn(alarmsInDb.subList(0, 2), alarmsInDb.subList(2, 3));
+
+        final AlarmLifecycleListenerManager alm = createIncrementalManager(alarmDao);
+        final RecordingListener listener = new RecordingListener();
+        alm.onListenerRegistered(listener, Maps.newHashMap());
+
+        // The first snapshot is complete, and is made of two chunks
+        alm.doSnapshot();
+        assertThat(listener.chunks, hasSize(2));
+        assertThat(listener.chunks.get(0), hasSize(2));
+        assertThat(listener.chunks.get(1), hasSize(1));
+        assertThat(listener.lastChunks, equalTo(1));
+        assertThat(listener.deltas, empty());
+        verify(alarmDao, never()).findAll();
+
+        // Nothing changed, so no delta is issued, even though the alarms are within the overlap
+        when(alarmDao.findMatching(any(Criteria.class))).thenReturn(alarmsInDb.subList(0, 2), alarmsInDb.subList(2, 3));
+        alm.doSnapshot();
+        assertThat(listener.deltas, empty());
+        assertThat(listener.preCount, equalTo(1));
+
+        // Update one alarm and delete another
+        alarmsInDb.get(0).setLastModifiedTime(new Date(4000));
+        alm.onAlarmCreated(alarmsInDb.get(0));
+        alm.onAlarmDeleted(alarmsInDb.get(2));
+        when(alarmDao.findMatching(any(Criteria.class))).thenReturn(alarmsInDb.subList(0, 2), Collections.emptyList());
+
+        alm.doSnapshot();
+        assertThat(listener.deltas, hasSize(2));
+        assertThat(listener.deltas.get(0), contains(1));
+        assertThat(listener.deltaAlarms.get(0), contains(alarmsInDb.get(0)));
+        assertThat(listener.deltas.get(1), contains(3));
+        assertThat(listener.deltaAlarms.get(1), empty());
+        assertThat(listener.preCount, equalTo(2));
+        assertThat(listener.postCount, equalTo(2));
+
+        // The changes were handled, so the next snapshot is empty
+        when(alarmDao.findMatching(any(Criteria.class))).thenReturn(alarmsInDb.subList(0, 2), Collections.emptyList());
+        alm.doSnapshot();
+        assertThat(listener.deltas, hasSize(2));
+
+        // The snapshots are read-only
+        verify(alarmDao, never()).flush();
+    }
+
+    /**
+     * Verifies that alarms which were updated without going through the DAO,
+     * i.e. by a Vacuumd automation, are part of the next delta.
+     */
+    @Test
+    public void canIncludeOutOfBandUpdatesInDeltas() {
+        final AlarmDao alarmDao = mock(AlarmDao.class);
+        final List<OnmsAlarm> alarmsInDb = Arrays.asList(createAlarm(1), createAlarm(2));
+        when(alarmDao.findMatching(any(Criteria.class))).thenReturn(alarmsInDb, Collections.emptyList());
+
+        final AlarmLifecycleListenerManager alm = createIncrementalManager(alarmDao);
+        final RecordingListener listener = new RecordingListener();
+        alm.onListenerRegistered(listener, Maps.newHashMap());
+        alm.doSnapshot();
+        assertThat(listener.chunks, hasSize(2));
+
+        // No callback is issued for the update
+        alarmsInDb.get(1).setLastModifiedTime(new Date(5000));
+        when(alarmDao.findMatching(any(Criteria.class))).thenReturn(alarmsInDb, Collections.emptyList());
+        alm.doSnapshot();
+        assertThat(listener.deltas, hasSize(1));
+        assertThat(listener.deltas.get(0), contains(2));
+        assertThat(listener.deltaAlarms.get(0), contains(alarmsInDb.get(1)));
+    }
+
+    /**
+     * Verifies that listeners which do not support incremental snapshots
+     * still get the complete set of alarms at every interval.
+     */
+    @Test
+    public void canIssueFullSnapshotsToLegacyListeners() {
+        final AlarmDao alarmDao = mock(AlarmDao.class);
+        final List<OnmsAlarm> alarmsInDb = Arrays.asList(createAlarm(1), createAlarm(2), createAlarm(3));
+        when(alarmDao.findAll()).thenReturn(alarmsInDb);
+        when(alarmDao.findMatching(any(Criteria.class))).thenReturn(alarmsInDb.subList(0, 1));
+
+        final AlarmLifecycleListenerManager alm = createIncrementalManager(alarmDao);
+        final AlarmLifecycleListener legacyListener = mock(AlarmLifecycleListener.class);
+        final RecordingListener listener = new RecordingListener();
+        alm.onListenerRegistered(legacyListener, Maps.newHashMap());
+        alm.onListenerRegistered(listener, Maps.newHashMap());
+
+        alm.doSnapshot();
+        verify(legacyListener, times(1)).handleAlarmSnapshot(alarmsInDb);
+        assertThat(listener.chunks, hasSize(2));
+        assertThat(listener.lastChunks, equalTo(1));
+
+        alarmsInDb.get(0).setLastModifiedTime(new Date(4000));
+        alm.doSnapshot();
+        verify(legacyListener, times(2)).handleAlarmSnapshot(alarmsInDb);
+        verify(legacyListener, times(2)).preHandleAlarmSnapshot();
+        verify(legacyListener, times(2)).postHandleAlarmSnapshot();
+        assertThat(listener.chunks, hasSize(2));
+        assertThat(listener.deltas, hasSize(1));
+        verify(alarmDao, times(2)).findAll();
+    }
+
+    private static AlarmLifecycleListenerManager createIncrementalManager(AlarmDao alarmDao) {
+        final AlarmLifecycleListenerManager alm = new AlarmLifecycleListenerManager();
+        alm.setAlarmDao(alarmDao);
+        final MockTransactionTemplate mockTransactionTemplate = new MockTransactionTemplate();
+        mockTransactionTemplate.afterPropertiesSet();
+        alm.setTransactionTemplate(mockTransactionTemplate);
+        alm.setIncrementalSnapshots(true);
+        alm.setFullSnapshotIntervalMs(Long.MAX_VALUE);
+        alm.setSnapshotChunkSize(2);
+        return alm;
+    }
+
+    private static OnmsAlarm createAlarm(int id) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setReductionKey("alarm-" + id);
+        alarm.setLastModifiedTime(new Date(id * 1000));
+        return alarm;
+    }
+
+    private static class RecordingListener implements IncrementalAlarmLifecycleListener {
+        private final List<List<OnmsAlarm>> chunks = new ArrayList<>();
+        private final List<Set<Integer>> deltas = new ArrayList<>();
+        private final List<List<OnmsAlarm>> deltaAlarms = new ArrayList<>();
+        private int lastChunks = 0;
+        private int preCount = 0;
+        private int postCount = 0;
+
+        @Override
+        public void handleAlarmSnapshotDelta(Set<Integer> alarmIds, List<OnmsAlarm> alarms) {
+            deltas.add(alarmIds);
+            deltaAlarms.add(alarms);
+        }
+
+        @Override
+        public void handleAlarmSnapshotChunk(List<OnmsAlarm> alarms, boolean last) {
+            chunks.add(alarms);
+            if (last) {
+                lastChunks++;
+            }
+        }
+
+        @Override
+        public void handleAlarmSnapshot(List<OnmsAlarm> alarms) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void preHandleAlarmSnapshot() {
+            preCount++;
+        }
+
+        @Override
+        public void postHandleAlarmSnapshot() {
+            postCount++;
+        }
+
+        @Override
+        public void handleNewOrUpdatedAlarm(OnmsAlarm alarm) {
+            // pass
+        }
+
+        @Override
+        public void handleDeletedAlarm(int alarmId, String reductionKey) {
+            // pass
+        }
+    }
 }
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.criteria.Criteria;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Verifies that reductions are deferred and merged when write-behind is enabled.
+ */
+public class AlarmPersisterWriteBehindTest {
+
+    private static final String REDUCTION_KEY = "uei.opennms.org/test/problem:1";
+
+    private AlarmPersisterImpl alarmPersister;
+    private AlarmDao alarmDao;
+    private AlarmEntityNotifier alarmEntityNotifier;
+    private final Map<Integer, OnmsEvent> eventsById = new HashMap<>();
+    private EventDao eventDao;
+    private OnmsAlarm alarmInDb;
+    private int nextAlarmId = 10;
+
+    @Before
+    public void setUp() {
+        alarmDao = mock(AlarmDao.class);
+        when(alarmDao.save(any(OnmsAlarm.class))).thenAnswer(invocation -> {
+            final OnmsAlarm alarm = (OnmsAlarm)invocation.getArguments()[0];
+            alarm.setId(nextAlarmId++);
+            alarmInDb = alarm;
+            return alarm.getId();
+        });
+        when(alarmDao.findByReductionKey(REDUCTION_KEY)).thenAnswer(invocation -> alarmInDb);
+        when(alarmDao.get(anyInt())).thenAnswer(invocation -> alarmInDb != null && alarmInDb.getId().equals(invocation.getArguments()[0]) ? alarmInDb : null);
+
+        eventDao = mock(EventDao.class);
+        when(eventDao.get(anyInt())).thenAnswer(invocation -> eventsById.get(invocation.getArguments()[0]));
+        when(eventDao.findMatching(any(Criteria.class))).thenAnswer(invocation -> eventsById.values().stream()
+                .filter(e -> e.getAlarm() == null)
+                .collect(Collectors.toList()));
+
+        final TransactionOperations transactionOperations = mock(TransactionOperations.class);
+        when(transactionOperations.execute(any())).thenAnswer(invocation -> {
+            return ((TransactionCallback<?>)invocation.getArguments()[0]).doInTransaction(mock(TransactionStatus.class));
+        });
+
+        alarmEntityNotifier = mock(AlarmEntityNotifier.class);
+
+        alarmPersister = new AlarmPersisterImpl();
+        alarmPersister.setAlarmDao(alarmDao);
+        alarmPersister.setEventDao(eventDao);
+        alarmPersister.setTransactionOperations(transactionOperations);
+        alarmPersister.setAlarmChangeListener(alarmEntityNotifier);
+        alarmPersister.setWriteBehind(true);
+    }
+
+    @Test
+    public void canMergeReductions() {
+        assertThat(alarmPersister.persist(createEvent(1, OnmsAlarm.PROBLEM_TYPE)), notNullValue());
+        verify(alarmEntityNotifier, times(1)).didCreateAlarm(alarmInDb);
+
+        // These are only queued
+        assertThat(alarmPersister.persist(createEvent(2, OnmsAlarm.PROBLEM_TYPE)), nullValue());
+        assertThat(alarmPersister.persist(createEvent(3, OnmsAlarm.PROBLEM_TYPE)), nullValue());
+        verify(alarmDao, never()).update(any(OnmsAlarm.class));
+        assertThat(alarmInDb.getCounter(), equalTo(1));
+
+        // And applied with a single update
+        alarmPersister.flushPendingReductions();
+        verify(alarmDao, times(1)).update(alarmInDb);
+        verify(alarmEntityNotifier, times(1)).didUpdateAlarmWithReducedEvent(alarmInDb);
+        assertThat(alarmInDb.getCounter(), equalTo(3));
+        assertThat(alarmInDb.getLastEvent().getId(), equalTo(3));
+        assertThat(eventsById.get(2).getAlarm(), equalTo(alarmInDb));
+    }
+
+    @Test
+    public void canApplyPendingReductionsBeforeClear() {
+        alarmPersister.persist(createEvent(1, OnmsAlarm.PROBLEM_TYPE));
+        alarmPersister.persist(createEvent(2, OnmsAlarm.PROBLEM_TYPE));
+
+        // The clear is processed right away, after the pending reduction
+        final Event clear = createEvent(3, OnmsAlarm.RESOLUTION_TYPE);
+        clear.getAlarmData().setReductionKey("uei.opennms.org/test/resolution:1");
+        clear.getAlarmData().setClearKey(REDUCTION_KEY);
+        final OnmsAlarm alarm = alarmPersister.persist(clear);
+
+        assertThat(alarm, equalTo(alarmInDb));
+        assertThat(alarm.getCounter(), equalTo(2));
+        assertThat(alarm.getSeverity(), equalTo(OnmsSeverity.CLEARED));
+        assertThat(alarm.getLastEvent().getId(), equalTo(3));
+    }
+
+    @Test
+    public void canHandleAlarmDeletedWhileReductionIsPending() {
+        alarmPersister.persist(createEvent(1, OnmsAlarm.PROBLEM_TYPE));
+        final OnmsAlarm firstAlarm = alarmInDb;
+        alarmPersister.persist(createEvent(2, OnmsAlarm.PROBLEM_TYPE));
+
+        // Delete the alarm behind the persister's back
+        alarmInDb = null;
+        alarmPersister.flushPendingReductions();
+
+        // A new alarm was created for the pending event
+        assertThat(alarmInDb, notNullValue());
+        assertThat(alarmInDb.getId(), equalTo(firstAlarm.getId() + 1));
+        assertThat(alarmInDb.getCounter(), equalTo(1));
+        verify(alarmEntityNotifier, never()).didUpdateAlarmWithReducedEvent(any(OnmsAlarm.class));
+    }
+
+    @Test
+    public void canRetryReductionsAfterRollback() {
+        alarmPersister.persist(createEvent(1, OnmsAlarm.PROBLEM_TYPE));
+        alarmPersister.persist(createEvent(2, OnmsAlarm.PROBLEM_TYPE));
+
+        // The transaction fails before the alarm was updated, so the reduction is kept
+        when(eventDao.findMatching(any(Criteria.class))).thenThrow(new RuntimeException("connection lost")).thenAnswer(invocation -> eventsById.values().stream()
+                .filter(e -> e.getAlarm() == null)
+                .collect(Collectors.toList()));
+        alarmPersister.flushPendingReductions();
+        verify(alarmDao, never()).update(any(OnmsAlarm.class));
+        assertThat(alarmInDb.getCounter(), equalTo(1));
+
+        alarmPersister.flushPendingReductions();
+        verify(alarmDao, times(1)).update(alarmInDb);
+        assertThat(alarmInDb.getCounter(), equalTo(2));
+
+        // And only applied once
+        alarmPersister.flushPendingReductions();
+        verify(alarmDao, times(1)).update(alarmInDb);
+    }
+
+    @Test
+    public void canDropReductionsAfterFailedAttempts() {
+        alarmPersister.persist(createEvent(1, OnmsAlarm.PROBLEM_TYPE));
+        alarmPersister.persist(createEvent(2, OnmsAlarm.PROBLEM_TYPE));
+
+        when(eventDao.findMatching(any(Criteria.class))).thenThrow(new RuntimeException("bad event"));
+        for (int i = 0; i < AlarmPersisterImpl.WRITE_BEHIND_MAX_ATTEMPTS; i++) {
+            alarmPersister.flushPendingReductions();
+        }
+        verify(eventDao, times(AlarmPersisterImpl.WRITE_BEHIND_MAX_ATTEMPTS)).findMatching(any(Criteria.class));
+
+        // The reduction was dropped, so it is not attempted again
+        alarmPersister.flushPendingReductions();
+        verify(eventDao, times(AlarmPersisterImpl.WRITE_BEHIND_MAX_ATTEMPTS)).findMatching(any(Criteria.class));
+        verify(alarmDao, never()).update(any(OnmsAlarm.class));
+    }
+
+    private Event createEvent(int dbid, int alarmType) {
+        final EventBuilder builder = new EventBuilder("uei.opennms.org/test/problem", "test");
+        builder.setTime(new Date(dbid * 1000L));
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(alarmType);
+        alarmData.setReductionKey(REDUCTION_KEY);
+        builder.setAlarmData(alarmData);
+        final Event event = builder.getEvent();
+        event.setDbid(dbid);
+
+        final OnmsEvent persistedEvent = new OnmsEvent();
+        persistedEvent.setId(dbid);
+        persistedEvent.setEventUei(event.getUei());
+        persistedEvent.setEventTime(event.getTime());
+        persistedEvent.setEventSeverity(OnmsSeverity.MAJOR.getId());
+        persistedEvent.setEventLogMsg("test");
+        eventsById.put(dbid, persistedEvent);
+        return event;
+    }
+}
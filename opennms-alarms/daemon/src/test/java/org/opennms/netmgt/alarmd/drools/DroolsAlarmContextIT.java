@@ -75,6 +75,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.test.context.ContextConfiguration;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Sets;
 
 /**
@@ -201,6 +203,42 @@ public class DroolsAlarmContextIT {
         assertThat(gotDelete.get(), equalTo(true));
     }
 
+    @Test
+    public void canCoalesceAlarmChangesWhenBatching() {
+        dac.setBatching(true);
+        final Meter factInserts = dac.getMetrics().meter(MetricRegistry.name(dac.getKSessionName(), "factInserts"));
+        final Meter factDeletes = dac.getMetrics().meter(MetricRegistry.name(dac.getKSessionName(), "factDeletes"));
+        final long insertsBefore = factInserts.getCount();
+
+        final OnmsAlarm trigger = new OnmsAlarm();
+        trigger.setId(1);
+        trigger.setAlarmType(1);
+        trigger.setSeverity(OnmsSeverity.WARNING);
+        trigger.setReductionKey("n1:oops");
+        when(alarmDao.get(trigger.getId())).thenReturn(trigger);
+
+        // Reduce the same alarm many times before the rules fire
+        for (int i = 1; i <= 10; i++) {
+            trigger.setCounter(i);
+            trigger.setLastEventTime(new Date(100 + i));
+            dac.handleNewOrUpdatedAlarm(trigger);
+        }
+        // Nothing is applied to the working memory until the rules fire
+        assertThat(factInserts.getCount(), equalTo(insertsBefore));
+
+        dac.tick();
+        // The alarm and its ack are only inserted once
+        assertThat(factInserts.getCount(), equalTo(insertsBefore + 2));
+
+        // A delete supersedes any pending update
+        final long deletesBefore = factDeletes.getCount();
+        dac.handleNewOrUpdatedAlarm(trigger);
+        dac.handleDeletedAlarm(trigger.getId(), trigger.getReductionKey());
+        dac.tick();
+        assertThat(factInserts.getCount(), equalTo(insertsBefore + 2));
+        assertThat(factDeletes.getCount(), equalTo(deletesBefore + 2));
+    }
+
     @Test
     public void canDeleteAcknowledgedAlarm() {
         final OnmsAlarm toDelete = new OnmsAlarm();
@@ -36,7 +36,16 @@ public class EnterpriseIdPartition implements Partition {
 
 	@Override
 	public List<String> group(Event eventConf) {
-		return eventConf.getMaskElementValues("id");
+		List<String> keys = eventConf.getMaskElementValues("id");
+		if (keys == null) return null;
+		for(String key : keys) {
+		    // if this issue is a wildcard issue we need to test against
+		    // all events so return null here so it isn't pigeon-holed into
+		    // a particular partition
+		    if (key.endsWith("%")) return null;
+		    if (key.startsWith("~")) return null;
+		}
+		return keys;
 	}
 
 	@Override
@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup structure for the event definitions of an {@link Events} element
+ * and of the event files it loaded.
+ *
+ * The definitions are stored in a tree with one level per indexed field: the
+ * partition key (the enterprise ID), the generic trap number and the specific
+ * trap number. At each level, a definition is stored under every exact value
+ * of the corresponding mask element, or under the wildcard branch when the
+ * element is missing or uses a prefix or regular expression match.
+ *
+ * Definitions without any mask elements only match events with the same UEI,
+ * so these are kept apart and only considered for events with that UEI.
+ *
+ * Looking up an event follows at most two branches per level and merges the
+ * definitions found in the leaves by event file, and then by priority, so that
+ * the mask matchers are only evaluated for the definitions that may match the
+ * event, and in the same order as {@link Events#findFirstMatchingEvent} would
+ * if it searched every event file in turn.
+ *
+ * When none of the definitions considered for an event without a UEI look at
+ * anything other than the enterprise ID, generic and specific trap numbers,
+ * the result only depends on these three values and is remembered, so that
+ * further traps with the same identity are resolved by a single lookup.
+ */
+final class EventDefinitionIndex {
+    private static final int PARTITION_LEVEL = 0;
+    private static final int NUM_LEVELS = 3;
+
+    private static final String[] MASK_ELEMENTS = { null, TAG_SNMP_GENERIC, TAG_SNMP_SPECIFIC };
+    private static final Field[] FIELDS = { null, EventMatchers.field(TAG_SNMP_GENERIC), EventMatchers.field(TAG_SNMP_SPECIFIC) };
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /**
+     * Upper bound on the number of trap identities for which the result is remembered.
+     */
+    static final int MAX_IDENTITY_MATCHES = 65536;
+
+    private final Partition m_partition;
+    private final Node m_root;
+    private final Node m_ueiOnly;
+    private final Map<String, Entry> m_eventsByUei;
+    private final Map<List<String>, Optional<Event>> m_identityMatches = new ConcurrentHashMap<>();
+
+    /**
+     * An event definition, along with the position of the event file it was found in.
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final int m_file;
+        private final Event m_event;
+        private final boolean m_identityOnly;
+
+        private Entry(final int file, final Event event) {
+            m_file = file;
+            m_event = event;
+            m_identityOnly = isIdentityOnly(event);
+        }
+
+        @Override
+        public int compareTo(final Entry o) {
+            if (m_file != o.m_file) {
+                return m_file < o.m_file ? -1 : 1;
+            }
+            return m_event.compareTo(o.m_event);
+        }
+    }
+
+    private static class Node {
+        private final Map<String, Node> m_byValue = new HashMap<>();
+        private Node m_anyValue;
+        private List<Entry> m_entryList = new ArrayList<>();
+        private Entry[] m_entries = NO_ENTRIES;
+
+        private Node getOrCreate(final String value) {
+            if (value == null) {
+                if (m_anyValue == null) {
+                    m_anyValue = new Node();
+                }
+                return m_anyValue;
+            }
+            return m_byValue.computeIfAbsent(value, v -> new Node());
+        }
+
+        private void compile() {
+            if (m_entryList != null) {
+                // Place the event definitions in search order
+                Collections.sort(m_entryList);
+                m_entries = m_entryList.toArray(new Entry[m_entryList.size()]);
+                m_entryList = null;
+            }
+            m_byValue.values().forEach(Node::compile);
+            if (m_anyValue != null) {
+                m_anyValue.compile();
+            }
+        }
+    }
+
+    private EventDefinitionIndex(final Partition partition, final Node root, final Node ueiOnly, final Map<String, Entry> eventsByUei) {
+        m_partition = partition;
+        m_root = root;
+        m_ueiOnly = ueiOnly;
+        m_eventsByUei = eventsByUei;
+    }
+
+    public static Builder builder(final Partition partition) {
+        return new Builder(partition);
+    }
+
+    public static class Builder {
+        private final Partition m_partition;
+        private final Node m_root = new Node();
+        private final Node m_ueiOnly = new Node();
+        private final Map<String, Entry> m_eventsByUei = new HashMap<>();
+
+        private Builder(final Partition partition) {
+            m_partition = partition;
+        }
+
+        /**
+         * Adds an event definition from the given event file to the index.
+         *
+         * Definitions with a priority are considered for every event, in
+         * addition to the ones in their partition.
+         */
+        public Builder add(final int file, final Event event) {
+            final Entry entry = new Entry(file, event);
+            if (event.getMask() == null || event.getMask().getMaskelements().isEmpty()) {
+                // Matched by UEI alone, see Event.constructMatcher()
+                if (event.getUei() != null) {
+                    m_ueiOnly.getOrCreate(event.getUei()).m_entryList.add(entry);
+                }
+                return this;
+            }
+            add(m_root, 0, m_partition.group(event), entry);
+            if (event.getPriority() > 0) {
+                add(m_root, 0, null, entry);
+            }
+            return this;
+        }
+
+        /**
+         * Adds the definitions that are matched by UEI alone in the given event file.
+         * These take precedence over the definitions from the following event files.
+         */
+        public Builder addEventsByUei(final int file, final Map<String, Event> eventsByUei) {
+            eventsByUei.forEach((uei, event) -> m_eventsByUei.putIfAbsent(uei, new Entry(file, event)));
+            return this;
+        }
+
+        private static void add(final Node node, final int level, final List<String> keys, final Entry entry) {
+            if (level == NUM_LEVELS) {
+                node.m_entryList.add(entry);
+                return;
+            }
+            final List<String> nextKeys = level + 1 < NUM_LEVELS ? getExactValues(entry.m_event, MASK_ELEMENTS[level + 1]) : null;
+            if (keys == null) {
+                add(node.getOrCreate(null), level + 1, nextKeys, entry);
+            } else {
+                for (final String key : keys) {
+                    add(node.getOrCreate(key), level + 1, nextKeys, entry);
+                }
+            }
+        }
+
+        public EventDefinitionIndex build() {
+            m_root.compile();
+            m_ueiOnly.compile();
+            return new EventDefinitionIndex(m_partition, m_root, m_ueiOnly, m_eventsByUei);
+        }
+    }
+
+    /**
+     * Returns the values of the given mask element if all of them are exact
+     * matches, or null if the definition may match any value.
+     */
+    private static List<String> getExactValues(final Event event, final String maskElement) {
+        final List<String> values = event.getMaskElementValues(maskElement);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        for (final String value : values) {
+            if (value == null || value.startsWith("~") || value.endsWith("%")) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns true if the definition only matches on the enterprise ID,
+     * generic and specific trap numbers.
+     */
+    private static boolean isIdentityOnly(final Event event) {
+        final Mask mask = event.getMask();
+        if (mask == null || !mask.getVarbinds().isEmpty()) {
+            return false;
+        }
+        for (final Maskelement element : mask.getMaskelements()) {
+            final String name = element.getMename();
+            if (!TAG_SNMP_EID.equals(name) && !TAG_SNMP_GENERIC.equals(name) && !TAG_SNMP_SPECIFIC.equals(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first event definition that matches the given event.
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        // The definitions matched by UEI end the search once their event file is reached
+        final Entry ueiMatch = matchingEvent.getUei() == null ? null : m_eventsByUei.get(matchingEvent.getUei());
+        final int lastFile = ueiMatch == null ? Integer.MAX_VALUE : ueiMatch.m_file;
+
+        final String[] values = new String[NUM_LEVELS];
+        values[PARTITION_LEVEL] = m_partition.group(matchingEvent);
+        for (int level = PARTITION_LEVEL + 1; level < NUM_LEVELS; level++) {
+            values[level] = FIELDS[level].get(matchingEvent);
+        }
+
+        // The partition key is the enterprise ID, so the values identify the trap
+        final List<String> identity = matchingEvent.getUei() == null && m_partition instanceof EnterpriseIdPartition ? Arrays.asList(values) : null;
+        if (identity != null) {
+            final Optional<Event> match = m_identityMatches.get(identity);
+            if (match != null) {
+                return match.orElse(null);
+            }
+        }
+
+        final Entry[][] candidates = new Entry[(1 << NUM_LEVELS) + 1][];
+        int numCandidates = collect(m_root, 0, values, candidates, 0);
+        if (matchingEvent.getUei() != null) {
+            final Node ueiOnly = m_ueiOnly.m_byValue.get(matchingEvent.getUei());
+            if (ueiOnly != null) {
+                candidates[numCandidates++] = ueiOnly.m_entries;
+            }
+        }
+
+        // Merge the candidates of every leaf in search order
+        final int[] positions = new int[numCandidates];
+        boolean identityOnly = identity != null;
+        Event previous = null;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < numCandidates; i++) {
+                if (positions[i] < candidates[i].length
+                        && (next < 0 || candidates[i][positions[i]].compareTo(candidates[next][positions[next]]) < 0)) {
+                    next = i;
+                }
+            }
+            if (next < 0 || candidates[next][positions[next]].m_file >= lastFile) {
+                final Event event = ueiMatch == null ? null : ueiMatch.m_event;
+                if (identityOnly) {
+                    rememberIdentityMatch(identity, event);
+                }
+                return event;
+            }
+            final Entry entry = candidates[next][positions[next]++];
+            identityOnly &= entry.m_identityOnly;
+            final Event event = entry.m_event;
+            // Prioritized definitions are found in more than one leaf
+            if (event != previous && event.matches(matchingEvent)) {
+                if (identityOnly) {
+                    rememberIdentityMatch(identity, event);
+                }
+                return event;
+            }
+            previous = event;
+        }
+    }
+
+    /**
+     * Returns the number of trap identities for which the result is remembered.
+     */
+    int getIdentityMatchCount() {
+        return m_identityMatches.size();
+    }
+
+    private void rememberIdentityMatch(final List<String> identity, final Event event) {
+        if (m_identityMatches.size() < MAX_IDENTITY_MATCHES) {
+            m_identityMatches.put(identity, Optional.ofNullable(event));
+        }
+    }
+
+    private static int collect(final Node node, final int level, final String[] values, final Entry[][] candidates, int numCandidates) {
+        if (level == NUM_LEVELS) {
+            if (node.m_entries.length > 0) {
+                candidates[numCandidates++] = node.m_entries;
+            }
+            return numCandidates;
+        }
+        if (values[level] != null) {
+            final Node child = node.m_byValue.get(values[level]);
+            if (child != null) {
+                numCandidates = collect(child, level + 1, values, candidates, numCandidates);
+            }
+        }
+        if (node.m_anyValue != null) {
+            numCandidates = collect(node.m_anyValue, level + 1, values, candidates, numCandidates);
+        }
+        return numCandidates;
+    }
+}
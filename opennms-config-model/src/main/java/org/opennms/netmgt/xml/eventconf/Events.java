@@ -38,11 +38,11 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -50,7 +50,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -103,16 +102,13 @@ public class Events implements Serializable {
     private Map<String, Events> m_loadedEventFiles = new LinkedHashMap<>();
 
     @XmlTransient
-    private Partition m_partition;
+    private transient volatile EventDefinitionIndex m_index;
 
     @XmlTransient
-    private Map<String, List<Event>> m_partitionedEvents;
+    private volatile Map<String, Event> m_eventsByUei = new HashMap<>();
 
     @XmlTransient
-    private List<Event> m_nullPartitionedEvents;
-
-    @XmlTransient
-    private Map<String, Event> m_eventsByUei = new HashMap<>();
+    private volatile Map<String, List<Event>> m_allEventsByUei;
 
     @XmlTransient
     private List<Event> m_wildcardEvents;
@@ -250,65 +246,31 @@ public class Events implements Serializable {
         return m_global == null ? false : m_global.isSecureTag(tag);
     }
 
-    private void partitionEvents(final Partition partition) {
-        m_partition = partition;
-
-        m_partitionedEvents = new LinkedHashMap<String, List<Event>>();
-        m_nullPartitionedEvents = new ArrayList<Event>();
-
-        for(final Event event : m_events) {
-            final List<String> keys = partition.group(event);
-            if (keys == null) {
-                m_nullPartitionedEvents.add(event);
-            } else {
-                for(final String key : keys) {
-                    List<Event> events = m_partitionedEvents.computeIfAbsent(key, k -> new ArrayList<Event>());
-                    events.add(event);
-                }
+    private void addToIndex(final EventDefinitionIndex.Builder index, final int file) {
+        // Prioritized event definitions may have been rolled up more than once
+        final Set<Event> added = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final Event event : m_events) {
+            if (added.add(event)) {
+                index.add(file, event);
             }
         }
-        // Place all the partitioned and nullPartitioned event definitions in priority order.
-        m_partitionedEvents.values().stream().forEach(l -> Collections.sort(l));
-        Collections.sort(m_nullPartitionedEvents);
+        index.addEventsByUei(file, m_eventsByUei);
     }
 
-
-
     public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-        // Atempt to match the event definition by UEI
-        final String ueiToMatch = matchingEvent.getUei();
-        if (ueiToMatch != null) {
-            final Event matchedEvent = m_eventsByUei.get(ueiToMatch);
-            if (matchedEvent != null) {
-                return matchedEvent;
-            }
-        }
-
-        // If the UEI match failed, fallback to searching with the matchers through the partitions
-        final String key = m_partition.group(matchingEvent);
-        Collection<Event> potentialMatches = m_nullPartitionedEvents;
-        if (key != null) {
-            final List<Event> events = m_partitionedEvents.get(key);
-            if (events != null) {
-                potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
-                potentialMatches.addAll(events);
-            }
-        }
-
-        for (final Event event : potentialMatches) {
-            if (event.matches(matchingEvent)) {
-                return event;
-            }
-        }
-
-        for (Events subEvents : m_loadedEventFiles.values()) {
-            final Event event = subEvents.findFirstMatchingEvent(matchingEvent);
-            if (event != null) {
-                return event;
-            }
-        }
+        // Match the event definition by UEI, or with the matchers of the definitions
+        // in this element and in the loaded event files, through the index
+        final EventDefinitionIndex index = m_index;
+        return index == null ? null : index.findFirstMatchingEvent(matchingEvent);
+    }
 
-        return null;
+    /**
+     * Returns the number of trap identities for which the matching event
+     * definition is remembered by the index.
+     */
+    public int getIdentityMatchCount() {
+        final EventDefinitionIndex index = m_index;
+        return index == null ? 0 : index.getIdentityMatchCount();
     }
 
     public Event findFirstMatchingEvent(final EventCriteria criteria) {
@@ -353,8 +315,6 @@ public class Events implements Serializable {
             event.initialize(m_ordering.next());
         }
 
-        partitionEvents(partition);
-
         for (final Events events : m_loadedEventFiles.values()) {
             events.initialize(partition, m_ordering.subsequence());
         }
@@ -364,11 +324,49 @@ public class Events implements Serializable {
         List<Event> prioritizedEvents = getPrioritizedEvents();
         m_events.addAll(prioritizedEvents);
         m_events.sort(Comparator.naturalOrder());
-        // Also add to unpartitioned events for first crack when not using a UEI match
-        m_nullPartitionedEvents.addAll(prioritizedEvents);
-        m_nullPartitionedEvents.sort(Comparator.naturalOrder());
 
         indexEventsByUei();
+
+        // Compile the event definitions of this element and of the loaded event
+        // files, which are searched in turn, into a single index
+        final EventDefinitionIndex.Builder index = EventDefinitionIndex.builder(partition);
+        addToIndex(index, 0);
+        int file = 1;
+        for (final Events events : m_loadedEventFiles.values()) {
+            events.addToIndex(index, file++);
+        }
+        m_index = index.build();
+    }
+
+    /**
+     * Returns the event definitions with the given UEI, including the ones
+     * from the loaded event files, in the order in which they are searched.
+     *
+     * The definitions are looked up in the index built by {@link #initialize}.
+     * Since the definitions can still be modified in place, the ones that no
+     * longer have this UEI are skipped, and the definitions are searched
+     * directly when none are left.
+     */
+    public List<Event> getEventsByUei(final String uei) {
+        final Map<String, List<Event>> allEventsByUei = m_allEventsByUei;
+        if (allEventsByUei != null) {
+            final List<Event> events = allEventsByUei.get(uei);
+            if (events != null) {
+                if (events.stream().allMatch(e -> uei.equals(e.getUei()))) {
+                    return events;
+                }
+                final List<Event> matchingEvents = events.stream().filter(e -> uei.equals(e.getUei())).collect(Collectors.toList());
+                if (!matchingEvents.isEmpty()) {
+                    return matchingEvents;
+                }
+            }
+        }
+        return forEachEvent(new ArrayList<Event>(), (accum, event) -> {
+            if (uei.equals(event.getUei())) {
+                accum.add(event);
+            }
+            return accum;
+        });
     }
 
     // Recurse through the configuration and return Event Definitions with priority > 0
@@ -382,7 +380,8 @@ public class Events implements Serializable {
     }
 
     private void indexEventsByUei() {
-        m_eventsByUei.clear();
+        // Build the new indexes on the side, so that concurrent lookups see either the old or the new ones
+        final Map<String, Event> eventsByUei = new HashMap<>();
 
         final Set<String> ueisWithManyEventDefinitions = new HashSet<>();
 
@@ -394,14 +393,14 @@ public class Events implements Serializable {
                 return;
             }
 
-            if (m_eventsByUei.putIfAbsent(uei, e) != null) {
+            if (eventsByUei.putIfAbsent(uei, e) != null) {
                 // Keep trap of the UEIs that have many event definitions
                 ueisWithManyEventDefinitions.add(uei);
             }
         });
 
         // Remove UEIs for which there are many event definitions
-        ueisWithManyEventDefinitions.forEach(m_eventsByUei::remove);
+        ueisWithManyEventDefinitions.forEach(eventsByUei::remove);
 
         // Now remove event definitions from the index if any
         // mask elements from any other event definitions match
@@ -429,7 +428,7 @@ public class Events implements Serializable {
         // 2) Remove event definition from the index if they are matched
         // by any of the known UEI matchers.
         if (matchers.size() >= 1) {
-            events: for(Iterator<Entry<String, Event>> it = m_eventsByUei.entrySet().iterator(); it.hasNext(); ) {
+            events: for(Iterator<Entry<String, Event>> it = eventsByUei.entrySet().iterator(); it.hasNext(); ) {
                 final Entry<String, Event> entry = it.next();
                 for (EventMatcher matcher : matchers) {
                     // Build an event instance
@@ -444,6 +443,17 @@ public class Events implements Serializable {
                 }
             }
         }
+        m_eventsByUei = eventsByUei;
+
+        // Map every UEI to all of its event definitions, in search order
+        final Map<String, List<Event>> allEventsByUei = forEachEvent(new HashMap<String, List<Event>>(), (accum, event) -> {
+            if (event.getUei() != null) {
+                accum.computeIfAbsent(event.getUei(), uei -> new ArrayList<>(1)).add(event);
+            }
+            return accum;
+        });
+        allEventsByUei.replaceAll((uei, events) -> Collections.unmodifiableList(events));
+        m_allEventsByUei = allEventsByUei;
     }
 
     public Events getLoadEventsByFile(final String relativePath) {
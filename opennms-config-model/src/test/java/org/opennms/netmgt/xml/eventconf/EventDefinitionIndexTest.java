@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.event.Value;
+
+public class EventDefinitionIndexTest {
+
+    @Test
+    public void canMatchDefinitionsInOrder() {
+        final Events events = new Events();
+        events.addEvent(createTrapDefinition("specific1", ".1.2.3", "6", "1"));
+        events.addEvent(createTrapDefinition("anySpecific", ".1.2.3", "6", null));
+        events.addEvent(createTrapDefinition("specific2", ".1.2.3", "6", "2"));
+        events.addEvent(createTrapDefinition("regexSpecific", ".1.2.3", "6", "~^[0-9]+$"));
+        events.addEvent(createTrapDefinition("generic0", ".1.2.3", "0", null));
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertEquals("specific1", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 1)).getUei());
+        // The wildcard definition comes before the more specific one
+        assertEquals("anySpecific", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 2)).getUei());
+        assertEquals("anySpecific", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 3)).getUei());
+        assertEquals("generic0", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 0, 0)).getUei());
+        assertNull(events.findFirstMatchingEvent(createTrap(null, ".1.2.4", 6, 1)));
+        assertNull(events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 1, 0)));
+    }
+
+    @Test
+    public void canMatchPrioritizedDefinitionsFromEventFiles() {
+        final Events events = new Events();
+        events.addEvent(createTrapDefinition("root", ".1.2.3", "6", "1"));
+
+        final Events file = new Events();
+        file.addEvent(createTrapDefinition("file", ".1.2.3", "6", "2"));
+        final Event prioritized = createTrapDefinition("prioritized", ".1.2.3", "6", "1");
+        prioritized.setPriority(10);
+        file.addEvent(prioritized);
+        events.addLoadedEventFile("file.events.xml", file);
+
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertEquals("prioritized", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 1)).getUei());
+        assertEquals("file", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 2)).getUei());
+        assertNull(events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 3)));
+    }
+
+    @Test
+    public void canMatchDefinitionsByUei() {
+        final Events events = new Events();
+        final Event withoutMask = new Event();
+        withoutMask.setUei("uei.opennms.org/test/withoutMask");
+        events.addEvent(withoutMask);
+
+        final Events file = new Events();
+        file.addEvent(createTrapDefinition("uei.opennms.org/test/trap", ".1.2.3", "6", "1"));
+        file.addEvent(createTrapDefinition("uei.opennms.org/test/trap", ".1.2.3", "6", "2"));
+        events.addLoadedEventFile("file.events.xml", file);
+
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertEquals(withoutMask, events.findFirstMatchingEvent(createTrap("uei.opennms.org/test/withoutMask", ".1.2.3", 6, 1)));
+        assertNull(events.findFirstMatchingEvent(createTrap("uei.opennms.org/test/unknown", ".1.2.4", 6, 1)));
+        // The UEI is defined more than once, so the masks are used
+        assertEquals(file.getEvents().get(1), events.findFirstMatchingEvent(createTrap("uei.opennms.org/test/trap", ".1.2.3", 6, 2)));
+        assertEquals(2, events.getEventsByUei("uei.opennms.org/test/trap").size());
+    }
+
+    @Test
+    public void canRememberMatchesByTrapIdentity() {
+        final Events events = new Events();
+        final Event withVarbind = createTrapDefinition("withVarbind", ".1.2.3", "6", "1");
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(1);
+        varbind.addVbvalue("up");
+        withVarbind.getMask().addVarbind(varbind);
+        events.addEvent(withVarbind);
+        events.addEvent(createTrapDefinition("specific1", ".1.2.3", "6", "1"));
+        events.addEvent(createTrapDefinition("specific2", ".1.2.3", "6", "2"));
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        // The definition with the varbind is considered first, so the result depends on the varbinds
+        for (int i = 0; i < 2; i++) {
+            assertEquals("withVarbind", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 1, "up")).getUei());
+            assertEquals("specific1", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 1, "down")).getUei());
+        }
+        // Both the matches and the misses for the other identities are remembered
+        for (int i = 0; i < 2; i++) {
+            assertEquals("specific2", events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 2, "up")).getUei());
+            assertNull(events.findFirstMatchingEvent(createTrap(null, ".1.2.3", 6, 3, "up")));
+        }
+    }
+
+    private static Event createTrapDefinition(String uei, String id, String generic, String specific) {
+        final Mask mask = new Mask();
+        mask.addMaskelement(createMaskelement(Maskelement.TAG_SNMP_EID, id));
+        mask.addMaskelement(createMaskelement(Maskelement.TAG_SNMP_GENERIC, generic));
+        if (specific != null) {
+            mask.addMaskelement(createMaskelement(Maskelement.TAG_SNMP_SPECIFIC, specific));
+        }
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static Maskelement createMaskelement(String name, String value) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        element.addMevalue(value);
+        return element;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createTrap(String uei, String id, int generic, int specific) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(id);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setUei(uei);
+        event.setSnmp(snmp);
+        return event;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createTrap(String uei, String id, int generic, int specific, String value) {
+        final org.opennms.netmgt.xml.event.Event event = createTrap(uei, id, generic, specific);
+        final Value parmValue = new Value();
+        parmValue.setContent(value);
+        final Parm parm = new Parm();
+        parm.setParmName(".1.2.3.4");
+        parm.setValue(parmValue);
+        event.addParm(parm);
+        return event;
+    }
+}
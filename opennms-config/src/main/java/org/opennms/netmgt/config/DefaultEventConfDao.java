@@ -43,14 +43,12 @@ import java.util.stream.Collectors;
 import org.opennms.core.config.api.ConfigReloadContainer;
 import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.xml.eventconf.EnterpriseIdPartition;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.netmgt.xml.eventconf.EventLabelComparator;
-import org.opennms.netmgt.xml.eventconf.EventMatchers;
 import org.opennms.netmgt.xml.eventconf.EventOrdering;
 import org.opennms.netmgt.xml.eventconf.Events;
 import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
-import org.opennms.netmgt.xml.eventconf.Events.EventCriteria;
-import org.opennms.netmgt.xml.eventconf.Field;
 import org.opennms.netmgt.xml.eventconf.Partition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,7 +67,10 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
      */
     private String m_programmaticStoreRelativePath = DEFAULT_PROGRAMMATIC_STORE_RELATIVE_PATH;
 
-	private Events m_events;
+	/**
+	 * Replaced as a whole on reload, along with the indexes built by {@link Events#initialize}.
+	 */
+	private volatile Events m_events;
 
 	private Resource m_configResource;
 
@@ -102,18 +103,8 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public List<Event> getEvents(final String uei) {
-		List<Event> events = m_events.forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
-
-			@Override
-			public List<Event> process(List<Event> accum, Event event) {
-				if (uei.equals(event.getUei())) {
-					accum.add(event);
-				}
-				return accum;
-			}
-		});
-
-		return events.isEmpty() ? null : events;
+		final List<Event> events = m_events.getEventsByUei(uei);
+		return events.isEmpty() ? null : new ArrayList<Event>(events);
 	}
 
 	@Override
@@ -226,11 +217,8 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	    if (uei == null) {
 	        return null;
 	    }
-	    return m_events.findFirstMatchingEvent(new EventCriteria() {
-	        @Override public boolean matches(final Event e) {
-	            return uei.equals(e.getUei());
-	        }
-	    });
+	    final List<Event> events = m_events.getEventsByUei(uei);
+	    return events.isEmpty() ? null : events.get(0);
 	}
 
 	@Override
@@ -253,31 +241,6 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
         initExtensions();
 	}
 
-	private static class EnterpriseIdPartition implements Partition {
-
-		private Field m_field = EventMatchers.field("id");
-
-		@Override
-		public List<String> group(Event eventConf) {
-			List<String> keys = eventConf.getMaskElementValues("id");
-			if (keys == null) return null;
-			for(String key : keys) {
-			    // if this issue is a wildcard issue we need to test against
-			    // all events so return null here so it isn't pigeon-holed into
-			    // a particular partition
-			    if (key.endsWith("%")) return null;
-			    if (key.startsWith("~")) return null;
-			}
-			return keys;
-		}
-
-		@Override
-		public String group(org.opennms.netmgt.xml.event.Event matchingEvent) {
-			return m_field.get(matchingEvent);
-		}
-
-	}
-
     private synchronized void reloadConfig() throws DataAccessException {
         try {
             // Load the root event file
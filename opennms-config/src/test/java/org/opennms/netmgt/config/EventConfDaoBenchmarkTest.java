@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.annotation.IfProfileValue;
+
+/**
+ * Measures the rate at which events are matched to their definitions, and
+ * definitions are looked up by UEI, with the default event configuration.
+ *
+ * The trap events are built from the enterprise ID, generic and specific
+ * values of every definition that has them.
+ */
+public class EventConfDaoBenchmarkTest {
+
+    private static final int ITERATIONS = 5;
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkLookups() throws Exception {
+        final DefaultEventConfDao eventConfDao = new DefaultEventConfDao();
+        eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        eventConfDao.afterPropertiesSet();
+
+        final List<org.opennms.netmgt.xml.event.Event> traps = new ArrayList<>();
+        final List<String> ueis = new ArrayList<>();
+        for (final Event eventConf : eventConfDao.getAllEvents()) {
+            ueis.add(eventConf.getUei());
+            final List<String> ids = eventConf.getMaskElementValues("id");
+            final List<String> generics = eventConf.getMaskElementValues("generic");
+            final List<String> specifics = eventConf.getMaskElementValues("specific");
+            if (ids == null || generics == null || specifics == null) {
+                continue;
+            }
+            try {
+                final EventBuilder bldr = new EventBuilder(null, "trapd");
+                bldr.setEnterpriseId(ids.get(0).replace("%", ""));
+                bldr.setGeneric(Integer.parseInt(generics.get(0)));
+                bldr.setSpecific(Integer.parseInt(specifics.get(0)));
+                traps.add(bldr.getEvent());
+            } catch (final NumberFormatException e) {
+                // Not a trap definition
+            }
+        }
+
+        long start = System.nanoTime();
+        int hash = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (final org.opennms.netmgt.xml.event.Event trap : traps) {
+                final Event eventConf = eventConfDao.findByEvent(trap);
+                assertNotNull(eventConf);
+                hash = 31 * hash + eventConf.getUei().hashCode();
+            }
+        }
+        printRate("findByEvent", traps.size() * ITERATIONS, System.nanoTime() - start);
+        // The same definitions must be found before and after changes to the lookups
+        System.out.printf("findByEvent: %d traps matched, UEI hash %08x%n", traps.size(), hash);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (final String uei : ueis) {
+                assertNotNull(eventConfDao.getEventLabel(uei));
+            }
+        }
+        printRate("getEventLabel", ueis.size() * ITERATIONS, System.nanoTime() - start);
+    }
+
+    private static void printRate(final String name, final int count, final long elapsedNanos) {
+        System.out.printf("%s: %d lookups in %d ms (%.0f lookups/s)%n", name, count,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), count / (elapsedNanos / 1e9));
+    }
+}
@@ -107,4 +107,23 @@ public class EventConfPriorityTest {
         Assert.assertEquals("ROOT3 CONFIG", event.getEventLabel());
     }
 
+    @Test
+    public void canRememberMatchesByTrapIdentity() throws Exception {
+        eventConfDao.setConfigResource(new FileSystemResource(new File("src/test/resources/priority/eventconf.xml")));
+        eventConfDao.afterPropertiesSet();
+
+        // Traps are matched without a UEI
+        EventBuilder eb = new EventBuilder(null, "JUnit");
+        eb.setEnterpriseId(".1.3.6.1.4.1.43.29.10");
+        eb.setGeneric(6);
+        eb.setSpecific(6);
+
+        for (int i = 0; i < 2; i++) {
+            Event event = eventConfDao.findByEvent(eb.getEvent());
+            Assert.assertNotNull(event);
+            Assert.assertEquals("FILE1 CONFIG", event.getEventLabel());
+        }
+        Assert.assertEquals(1, eventConfDao.getRootEvents().getIdentityMatchCount());
+    }
+
 }
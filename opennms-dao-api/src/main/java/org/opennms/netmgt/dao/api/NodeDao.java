@@ -112,6 +112,15 @@ public interface NodeDao extends LegacyOnmsDao<OnmsNode, Integer> {
      * @return a {@link java.util.Map} object.
      */
     Map<String, Integer> getForeignIdToNodeIdMap(String foreignSource);
+
+    /**
+     * Returns the foreign IDs of the nodes with the given foreign source
+     * that have a parent or a path element.
+     *
+     * @param foreignSource a {@link java.lang.String} object.
+     * @return a {@link java.util.Set} object.
+     */
+    Set<String> getForeignIdsWithParentOrPathElement(String foreignSource);
     
     /**
      * <p>getForeignIdsPerForeignSourceMap</p>
@@ -34,6 +34,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -205,6 +206,17 @@ public class MockNodeDao extends AbstractMockDao<OnmsNode, Integer> implements N
         return nodes;
     }
 
+    @Override
+    public Set<String> getForeignIdsWithParentOrPathElement(final String foreignSource) {
+        final Set<String> foreignIds = new HashSet<>();
+        for (final OnmsNode node : findAll()) {
+            if (foreignSource.equals(node.getForeignSource()) && (node.getParent() != null || node.getPathElement() != null)) {
+                foreignIds.add(node.getForeignId());
+            }
+        }
+        return foreignIds;
+    }
+
     @Override
     public List<OnmsNode> findAllByVarCharAssetColumn(final String columnName, final String columnValue) {
         final CriteriaBuilder builder = new CriteriaBuilder(OnmsNode.class);
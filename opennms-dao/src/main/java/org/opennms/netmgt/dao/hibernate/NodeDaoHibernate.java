@@ -36,6 +36,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -392,6 +393,14 @@ public class NodeDaoHibernate extends AbstractDaoHibernate<OnmsNode, Integer> im
         return Collections.unmodifiableMap(foreignIdMap);
     }
 
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getForeignIdsWithParentOrPathElement(String foreignSource) {
+        List<String> foreignIds = (List<String>)getHibernateTemplate().find("select n.foreignId from OnmsNode n where n.foreignSource = ? and (n.parent is not null or n.pathElement.ipAddress is not null)", foreignSource);
+        return Collections.unmodifiableSet(new HashSet<String>(foreignIds));
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<OnmsNode> findByForeignSource(String foreignSource) {
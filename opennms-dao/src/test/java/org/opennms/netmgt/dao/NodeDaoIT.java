@@ -337,6 +337,27 @@ public class NodeDaoIT implements InitializingBean {
         assertEquals("1", set.iterator().next());
     }
 
+    @Test
+    @Transactional
+    public void testGetForeignIdsWithParentOrPathElement() {
+        assertEquals(0, getNodeDao().getForeignIdsWithParentOrPathElement("imported:").size());
+
+        Map<String, Integer> arMap = getNodeDao().getForeignIdToNodeIdMap("imported:");
+        OnmsNode node2 = getNodeDao().get(arMap.get("2"));
+        node2.setParent(getNodeDao().get(arMap.get("1")));
+        getNodeDao().save(node2);
+        OnmsNode node3 = getNodeDao().get(arMap.get("3"));
+        node3.setPathElement(new PathElement("192.168.7.7", "ICMP"));
+        getNodeDao().save(node3);
+        getNodeDao().flush();
+
+        Set<String> foreignIds = getNodeDao().getForeignIdsWithParentOrPathElement("imported:");
+        assertEquals(2, foreignIds.size());
+        assertTrue(foreignIds.contains("2"));
+        assertTrue(foreignIds.contains("3"));
+        assertEquals(0, getNodeDao().getForeignIdsWithParentOrPathElement("unknown").size());
+    }
+
     @Test
     @Transactional
     public void testUpdateNodeScanStamp() {
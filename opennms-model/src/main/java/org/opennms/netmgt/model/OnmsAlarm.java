@@ -140,6 +140,9 @@ public class OnmsAlarm implements Acknowledgeable, Serializable {
     /** persistent field */
     private Date m_lastAutomationTime;
 
+    /** read-only persistent field, maintained by the database */
+    private Date m_lastModifiedTime;
+
     /** nullable persistent field */
     private String m_description;
 
@@ -1026,6 +1029,25 @@ public class OnmsAlarm implements Acknowledgeable, Serializable {
     public void setLastAutomationTime(Date lastAutomationTime) {
         m_lastAutomationTime = lastAutomationTime;
     }
+
+    /**
+     * The time of the last insert or update of this alarm in the database.
+     *
+     * This is set by a trigger on every change of the row, including those
+     * made outside of Hibernate, and is never written by Hibernate.
+     *
+     * @return a {@link java.util.Date} object.
+     */
+    @XmlTransient
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name="lastModifiedTime", insertable=false, updatable=false)
+    public Date getLastModifiedTime() {
+        return m_lastModifiedTime;
+    }
+
+    public void setLastModifiedTime(Date lastModifiedTime) {
+        m_lastModifiedTime = lastModifiedTime;
+    }
     
     /**
      * <p>getDetails</p>
@@ -30,8 +30,10 @@ package org.opennms.netmgt.provision.service;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 import org.opennms.core.tasks.BatchTask;
+import org.opennms.core.tasks.Callback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,7 +48,9 @@ import org.opennms.netmgt.provision.service.lifecycle.annotations.Activity;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.ActivityProvider;
 import org.opennms.netmgt.provision.service.operations.ImportOperation;
 import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.NullUpdateOperation;
 import org.opennms.netmgt.provision.service.operations.RequisitionImport;
+import org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation;
 import org.springframework.core.io.Resource;
 
 /**
@@ -60,11 +64,20 @@ public class CoreImportActivities {
     private static final Logger LOG = LoggerFactory.getLogger(CoreImportActivities.class);
     
     private final ProvisionService m_provisionService;
+
+    private LocationRateLimiter m_rateLimiter;
     
     public CoreImportActivities(final ProvisionService provisionService) {
         m_provisionService = provisionService;
     }
 
+    /**
+     * Sets the limiter used to pace the scans of the nodes in each location.
+     */
+    public void setRateLimiter(final LocationRateLimiter rateLimiter) {
+        m_rateLimiter = rateLimiter;
+    }
+
     @Activity( lifecycle = "import", phase = "validate", schedulingHint="import")
     public RequisitionImport loadSpecFile(final Resource resource) {
         final RequisitionImport ri = new RequisitionImport();
@@ -115,7 +128,8 @@ public class CoreImportActivities {
         info("Scheduling nodes for phase {}", currentPhase);
         
         final Collection<ImportOperation> operations = opsMgr.getOperations();
-        
+        ri.beginOperations(operations.size());
+
         for(final ImportOperation op : operations) {
             final LifeCycleInstance nodeScan = currentPhase.createNestedLifeCycle("nodeImport");
 
@@ -132,7 +146,37 @@ public class CoreImportActivities {
     
     
     @Activity( lifecycle = "nodeImport", phase = "scan", schedulingHint="import" )
-    public static void scanNode(final ImportOperation operation, final RequisitionImport ri, final String rescanExisting) {
+    public void scanNode(final BatchTask currentPhase, final ImportOperation operation, final RequisitionImport ri, final String rescanExisting) {
+        if (ri.isAborted()) {
+            info("The import has been aborted, skipping scan phase nodeImport.");
+            return;
+        }
+
+        // Nodes that are inserted or updated are scanned, here or by the rescan that follows
+        // the import, so each one of them takes a single slot of its location
+        if (m_rateLimiter == null || !m_rateLimiter.isEnabled() || !(operation instanceof SaveOrUpdateOperation) || operation instanceof NullUpdateOperation) {
+            runScan(operation, ri, rescanExisting);
+            return;
+        }
+
+        // Wait for the slot without holding on to a thread of the import
+        debug("Waiting for the next scan slot of location {} for {}", ((SaveOrUpdateOperation)operation).getLocation(), operation);
+        currentPhase.add(currentPhase.getCoordinator().createTask(currentPhase, m_rateLimiter.nextSlot(((SaveOrUpdateOperation)operation).getLocation()), new Callback<Void>() {
+            @Override
+            public void accept(final Void v) {
+                currentPhase.add(() -> runScan(operation, ri, rescanExisting), "import");
+            }
+
+            @Override
+            public Void apply(final Throwable t) {
+                warn("Failed to wait for the next scan slot of {}, scanning it right away", operation, t);
+                currentPhase.add(() -> runScan(operation, ri, rescanExisting), "import");
+                return null;
+            }
+        }));
+    }
+
+    private static void runScan(final ImportOperation operation, final RequisitionImport ri, final String rescanExisting) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping scan phase nodeImport.");
             return;
@@ -157,6 +201,7 @@ public class CoreImportActivities {
 
         info("Running persist phase of {}", operation);
         operation.persist();
+        ri.completeOperation();
         info("Finished Running persist phase of {}", operation);
 
     }
@@ -171,9 +216,15 @@ public class CoreImportActivities {
         info("Running relate phase");
         
         final Requisition requisition = ri.getRequisition();
+        // Nodes that have no parent, and are not given one, are left alone
+        final Set<String> foreignIdsWithParent = m_provisionService.getForeignIdsWithParentOrPathElement(requisition.getForeignSource());
         RequisitionVisitor visitor = new AbstractRequisitionVisitor() {
             @Override
             public void visitNode(final OnmsNodeRequisition nodeReq) {
+                if (nodeReq.getParentForeignId() == null && nodeReq.getParentNodeLabel() == null && !foreignIdsWithParent.contains(nodeReq.getForeignId())) {
+                    LOG.debug("Skipping relate of node {}, since it has no parent", nodeReq);
+                    return;
+                }
                 LOG.debug("Scheduling relate of node {}", nodeReq);
                 currentPhase.add(parentSetter(m_provisionService, nodeReq, requisition.getForeignSource()));
             }
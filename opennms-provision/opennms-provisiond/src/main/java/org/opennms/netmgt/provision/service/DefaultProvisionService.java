@@ -703,6 +703,13 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         return m_nodeDao.getForeignIdToNodeIdMap(foreignSource);
     }
 
+    /** {@inheritDoc} */
+    @Transactional(readOnly=true)
+    @Override
+    public Set<String> getForeignIdsWithParentOrPathElement(final String foreignSource) {
+        return m_nodeDao.getForeignIdsWithParentOrPathElement(foreignSource);
+    }
+
     /** {@inheritDoc} */
     @Override
     @Transactional
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.tasks.Async;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+
+/**
+ * Paces the node scans that are started by an import, so that a large
+ * requisition does not send every node of a location to its Minions, or to
+ * the agents, at once.
+ *
+ * Every location gets its own budget of scans per second. Each node of the
+ * import reserves a slot with {@link #nextSlot(String)}, which completes once
+ * the slot is reached. The waiting is done by the given scheduler, so the
+ * threads of the import are free to work on the nodes whose slot has come.
+ *
+ * The rate defaults to the value of the {@value #SCANS_PER_SECOND_PROPERTY}
+ * system property. A rate of zero or less disables the limit.
+ */
+public class LocationRateLimiter {
+
+    public static final String SCANS_PER_SECOND_PROPERTY = "org.opennms.provisiond.importScansPerSecondPerLocation";
+
+    private final long m_intervalInNanos;
+
+    private final ScheduledExecutorService m_scheduler;
+
+    /**
+     * The time at which the next scan may start, per location.
+     */
+    private final Map<String, Long> m_nextSlots = new HashMap<>();
+
+    public LocationRateLimiter(final ScheduledExecutorService scheduler) {
+        this(Double.parseDouble(System.getProperty(SCANS_PER_SECOND_PROPERTY, "0")), scheduler);
+    }
+
+    public LocationRateLimiter(final double scansPerSecond, final ScheduledExecutorService scheduler) {
+        m_intervalInNanos = scansPerSecond > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / scansPerSecond) : 0;
+        m_scheduler = Objects.requireNonNull(scheduler);
+    }
+
+    public boolean isEnabled() {
+        return m_intervalInNanos > 0;
+    }
+
+    /**
+     * Reserves the next slot of the given location.
+     *
+     * @return the number of milliseconds to wait before starting the scan
+     */
+    public long reserve(final String location) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        final String key = location == null ? MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID : location;
+        final long now = System.nanoTime();
+        final long slot;
+        synchronized (m_nextSlots) {
+            final Long next = m_nextSlots.get(key);
+            slot = next == null || next - now < 0 ? now : next;
+            m_nextSlots.put(key, slot + m_intervalInNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(slot - now);
+    }
+
+    /**
+     * Reserves the next slot of the given location.
+     *
+     * @return an operation that completes once the slot is reached
+     */
+    public Async<Void> nextSlot(final String location) {
+        final long delay = reserve(location);
+        return cb -> {
+            if (delay > 0) {
+                m_scheduler.schedule(() -> cb.accept(null), delay, TimeUnit.MILLISECONDS);
+            } else {
+                cb.accept(null);
+            }
+        };
+    }
+}
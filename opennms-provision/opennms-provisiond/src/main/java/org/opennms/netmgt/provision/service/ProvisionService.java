@@ -32,6 +32,7 @@ import java.net.InetAddress;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.opennms.netmgt.model.OnmsCategory;
 import org.opennms.netmgt.model.OnmsIpInterface;
@@ -172,6 +173,13 @@ public interface ProvisionService {
     @Transactional(readOnly = true)
     Map<String, Integer> getForeignIdToNodeIdMap(String foreignSource);
 
+    /**
+     * Returns the foreignIds of the nodes with the indicated foreignSource that have a
+     * parent or a path element, so that the other nodes can be skipped when relating them.
+     */
+    @Transactional(readOnly = true)
+    Set<String> getForeignIdsWithParentOrPathElement(String foreignSource);
+
     /**
      * Sets the parent of the node and adds the relationship to the path
      * element for the node. The foreignId is used to reference the node and
@@ -28,6 +28,9 @@
 
 package org.opennms.netmgt.provision.service.operations;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.xml.bind.ValidationException;
 
 import org.slf4j.Logger;
@@ -38,6 +41,9 @@ public class RequisitionImport {
     private static final Logger LOG = LoggerFactory.getLogger(RequisitionImport.class);
     private Requisition m_requisition;
     private Throwable m_throwable;
+    private volatile int m_operationCount;
+    private volatile long m_operationsStartedAt;
+    private final AtomicInteger m_completedOperations = new AtomicInteger();
 
     public Requisition getRequisition() {
         return m_requisition;
@@ -68,6 +74,41 @@ public class RequisitionImport {
         }
     }
 
+    /**
+     * Starts tracking the progress of the node operations of this import.
+     *
+     * @param operationCount the number of nodes to delete, update or insert
+     */
+    public void beginOperations(final int operationCount) {
+        m_operationCount = operationCount;
+        m_operationsStartedAt = System.nanoTime();
+        m_completedOperations.set(0);
+    }
+
+    /**
+     * Records the completion of a node operation, and logs the progress
+     * and throughput of the import every tenth of the way.
+     */
+    public void completeOperation() {
+        final int completed = m_completedOperations.incrementAndGet();
+        final int count = m_operationCount;
+        if (count <= 0 || (completed != count && completed % Math.max(1, count / 10) != 0)) {
+            return;
+        }
+        final double elapsedInSeconds = Math.max(1, System.nanoTime() - m_operationsStartedAt) / (double)TimeUnit.SECONDS.toNanos(1);
+        LOG.info("Persisted {} of {} nodes for requisition {} in {} seconds ({} nodes/s).",
+                completed, count, m_requisition == null ? null : m_requisition.getForeignSource(),
+                String.format("%.1f", elapsedInSeconds), String.format("%.1f", completed / elapsedInSeconds));
+    }
+
+    public int getOperationCount() {
+        return m_operationCount;
+    }
+
+    public int getCompletedOperations() {
+        return m_completedOperations.get();
+    }
+
     public boolean isAborted() {
         if (m_throwable != null) return true;
         return false;
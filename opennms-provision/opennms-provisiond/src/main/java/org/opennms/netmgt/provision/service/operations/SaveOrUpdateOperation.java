@@ -180,6 +180,15 @@ public abstract class SaveOrUpdateOperation extends ImportOperation {
         return m_node;
     }
 
+    /**
+     * <p>getLocation</p>
+     *
+     * @return the name of the monitoring location of the node
+     */
+    public String getLocation() {
+        return m_node.getLocation().getLocationName();
+    }
+
     protected String getRescanExisting() {
         return m_rescanExisting;
     }
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.tasks.Async;
+import org.opennms.core.tasks.Callback;
+
+public class LocationRateLimiterTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void canPaceScansPerLocation() {
+        final LocationRateLimiter rateLimiter = new LocationRateLimiter(10, scheduler);
+        assertTrue(rateLimiter.isEnabled());
+
+        // The first scan of every location starts right away
+        assertEquals(0, rateLimiter.reserve("Default"));
+        assertEquals(0, rateLimiter.reserve("Remote"));
+
+        // The following ones are 100ms apart
+        assertTrue(rateLimiter.reserve("Default") > 50);
+        assertTrue(rateLimiter.reserve("Default") > 150);
+        assertTrue(rateLimiter.reserve("Remote") > 50);
+
+        // Nodes without a location are in the default location
+        assertTrue(rateLimiter.reserve(null) > 250);
+    }
+
+    @Test
+    public void canWaitForSlotsWithoutBlocking() throws InterruptedException {
+        final LocationRateLimiter rateLimiter = new LocationRateLimiter(10, scheduler);
+        final CountDownLatch latch = new CountDownLatch(5);
+        final Callback<Void> callback = new Callback<Void>() {
+            @Override
+            public void accept(Void v) {
+                latch.countDown();
+            }
+
+            @Override
+            public Void apply(Throwable t) {
+                throw new AssertionError(t);
+            }
+        };
+
+        final List<Async<Void>> slots = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            slots.add(rateLimiter.nextSlot("Default"));
+        }
+        slots.forEach(slot -> slot.supplyAsyncThenAccept(callback));
+        // The callers don't wait for the slots, these are handed out by the scheduler
+        assertTrue(latch.getCount() > 0);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(350));
+    }
+
+    @Test
+    public void canDisableLimit() {
+        final LocationRateLimiter rateLimiter = new LocationRateLimiter(0, scheduler);
+        assertFalse(rateLimiter.isEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, rateLimiter.reserve("Default"));
+        }
+    }
+}
@@ -96,6 +96,17 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.category: (default "queued") the log routing prefix
  * to place the statistics output in
  *
+ * org.opennms.rrd.queuing.striped: (default false) shard the pending operations
+ * by file across the write threads instead of sharing a single queue, see
+ * {@link StripedOperationQueue}
+ *
+ * org.opennms.rrd.queuing.striped.maxPendingPerShard: (default 250000) the
+ * number of operations held in memory by each shard before the updates are
+ * spilled to disk. Zero means no bound.
+ *
+ * org.opennms.rrd.queuing.striped.spillDirectory: the directory in which the
+ * spilled updates are stored
+ *
  *
  *
  * TODO: Promote files when ZeroUpdate operations can't be merged. This may be a
@@ -157,6 +168,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_writeThreadExitDelay;
 
+    private boolean m_stripedQueues;
+
+    private long m_maxPendingPerShard;
+
+    private String m_spillDirectory;
+
+    private volatile StripedOperationQueue m_stripedQueue;
+
     /**
      * <p>getWriteThreads</p>
      *
@@ -357,6 +376,60 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
+    /**
+     * <p>isStripedQueues</p>
+     *
+     * @return a boolean.
+     */
+    public boolean isStripedQueues() {
+        return m_stripedQueues;
+    }
+
+    /**
+     * <p>setStripedQueues</p>
+     *
+     * @param stripedQueues a boolean.
+     */
+    public void setStripedQueues(boolean stripedQueues) {
+        m_stripedQueues = stripedQueues;
+    }
+
+    /**
+     * <p>getMaxPendingPerShard</p>
+     *
+     * @return a long.
+     */
+    public long getMaxPendingPerShard() {
+        return m_maxPendingPerShard;
+    }
+
+    /**
+     * <p>setMaxPendingPerShard</p>
+     *
+     * @param maxPendingPerShard a long.
+     */
+    public void setMaxPendingPerShard(long maxPendingPerShard) {
+        m_maxPendingPerShard = maxPendingPerShard;
+    }
+
+    /**
+     * <p>getSpillDirectory</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getSpillDirectory() {
+        return m_spillDirectory;
+    }
+
+    /**
+     * <p>setSpillDirectory</p>
+     *
+     * @param spillDirectory a {@link java.lang.String} object.
+     */
+    public void setSpillDirectory(String spillDirectory) {
+        m_spillDirectory = spillDirectory;
+    }
+
     LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
 
     LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
@@ -682,6 +755,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
     private void addOperation(final Operation op) {
+        if (m_stripedQueues) {
+            addStripedOperation(op);
+            return;
+        }
         synchronized (this) {
             if (queueIsFull()) {
                 m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
@@ -710,6 +787,46 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     }
 
 
+    /**
+     * Add an operation to the shard for its file, without holding any locks.
+     */
+    private void addStripedOperation(final Operation op) {
+        if (queueIsFull()) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (op.isSignificant() && sigQueueIsFull()) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (!op.isSignificant() && inSigQueueIsFull()) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (getStartTime() == 0) {
+            setStartTime(System.currentTimeMillis());
+        }
+        getStripedQueue().add(op);
+    }
+
+    private StripedOperationQueue getStripedQueue() {
+        if (m_stripedQueue == null) {
+            synchronized (this) {
+                if (m_stripedQueue == null) {
+                    m_stripedQueue = new StripedOperationQueue(Math.max(1, m_writeThreads), m_maxPendingPerShard,
+                            m_spillDirectory != null ? new File(m_spillDirectory) : null,
+                            m_prioritizeSignificantUpdates, m_maxInsigUpdateSeconds,
+                            (fileName, update) -> makeUpdateOperation(fileName, "", update),
+                            this::processOperations, getClass().getSimpleName());
+                }
+            }
+        }
+        return m_stripedQueue;
+    }
+
     private boolean queueIsFull() {
         if (m_queueHighWaterMark <= 0)
             return false;
@@ -860,8 +977,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        if (m_stripedQueues) {
+            getStripedQueue().promote(rrdFiles);
+        } else {
+            synchronized (this) {
+                filesWithSignificantWork.addAll(0, rrdFiles);
+            }
+        }
         m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
@@ -1093,16 +1216,22 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * strategy
      */
     private void processPendingOperations() {
+        final LinkedList<Operation> ops = getNext();
+        if (ops != null) {
+            processOperations(ops);
+        }
+    }
+
+    /**
+     * Process the operations for a single file
+     */
+    private void processOperations(final LinkedList<Operation> ops) {
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
                 Object rrd = null;
                 String fileName = null;
 
                 try {
-                    final LinkedList<Operation> ops = getNext();
-                    if (ops == null) {
-                        return;
-                    }
                     // update stats correctly we update them even if an exception occurs
                     // while we are processing
                     for (final Operation op : ops) {
@@ -1203,6 +1332,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ", overallPrcntSignificant=" + (getSignificantOpsEnqueued() * 100.0 / Math.max(getEnqueuedOperations(), 1.0)) + "%" +
                 ", totalElapsedTime=" + ((totalElapsedMillis + 500) / 1000);
 
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        if (stripedQueue != null) {
+            stats += stripedQueue.getShardStats();
+        }
+
         lastStatsTime = now;
         lastEnqueued = getEnqueuedOperations();
         lastDequeued = getDequeuedOperations();
@@ -1297,7 +1431,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        return stripedQueue != null ? stripedQueue.getTotalOperationsPending() : m_totalOperationsPending;
     }
 
     /**
@@ -1369,7 +1504,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        return stripedQueue != null ? stripedQueue.getPromotionCount() : m_promotionCount;
     }
 
     /**
@@ -1387,7 +1523,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        return stripedQueue != null ? stripedQueue.getSignificantOpsEnqueued() : m_significantOpsEnqueued;
     }
 
     /**
@@ -1405,7 +1542,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        return stripedQueue != null ? stripedQueue.getSignificantOpsDequeued() : m_significantOpsDequeued;
     }
 
     /**
@@ -1423,7 +1561,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        return stripedQueue != null ? stripedQueue.getEnqueuedOperations() : m_enqueuedOperations;
     }
 
     /**
@@ -1441,7 +1580,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        return stripedQueue != null ? stripedQueue.getDequeuedOperations() : m_dequeuedOperations;
     }
 
     /**
@@ -1459,7 +1599,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        final StripedOperationQueue stripedQueue = m_stripedQueue;
+        return stripedQueue != null ? stripedQueue.getDequeuedItems() : m_dequeuedItems;
     }
 
     /**
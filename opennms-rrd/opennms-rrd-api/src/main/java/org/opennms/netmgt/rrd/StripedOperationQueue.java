@@ -0,0 +1,495 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation;
+import org.opennms.netmgt.rrd.QueuingRrdStrategy.UpdateOperation;
+import org.opennms.netmgt.rrd.QueuingRrdStrategy.ZeroUpdateOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the pending operations of the {@link QueuingRrdStrategy} in a fixed
+ * number of shards, each of which is drained by a single write thread.
+ *
+ * Files are assigned to shards by the hash of their path, so all of the
+ * operations for a given file are always handled by the same thread and no
+ * reservations are necessary. Within a shard, the operations are coalesced
+ * per file, and the files with work are kept in lock-free deques.
+ *
+ * When a shard holds more than the given number of operations, the updates
+ * are appended to a spill file on disk instead. Once a shard starts spilling,
+ * all of its updates go to disk until the spill file is drained back into
+ * memory, so that the updates for any given file are always written in order.
+ */
+class StripedOperationQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(StripedOperationQueue.class);
+
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+
+    private final Shard[] m_shards;
+
+    private final long m_maxPendingPerShard;
+
+    private final File m_spillDirectory;
+
+    private final boolean m_prioritizeSignificantUpdates;
+
+    private final long m_maxInsigUpdateNanos;
+
+    private final BiFunction<String, String, Operation> m_updateFactory;
+
+    private final Consumer<LinkedList<Operation>> m_processor;
+
+    private final String m_threadNamePrefix;
+
+    private final AtomicLong m_enqueuedOperations = new AtomicLong(0);
+
+    private final AtomicLong m_dequeuedOperations = new AtomicLong(0);
+
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong(0);
+
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong(0);
+
+    private final AtomicLong m_dequeuedItems = new AtomicLong(0);
+
+    private final AtomicLong m_promotionCount = new AtomicLong(0);
+
+    /**
+     * @param numShards the number of shards, and write threads
+     * @param maxPendingPerShard the number of operations each shard holds in memory before spilling to disk, 0 to never spill
+     * @param spillDirectory the directory in which the spill files are stored
+     * @param prioritizeSignificantUpdates whether files with significant updates are written first
+     * @param maxInsigUpdateSeconds the age after which files with only insignificant updates are written first, 0 to never promote them
+     * @param updateFactory used to rebuild the update operations read back from the spill files
+     * @param processor used to write the operations for a single file
+     * @param threadNamePrefix the prefix for the names of the write threads
+     */
+    StripedOperationQueue(int numShards, long maxPendingPerShard, File spillDirectory, boolean prioritizeSignificantUpdates, long maxInsigUpdateSeconds,
+            BiFunction<String, String, Operation> updateFactory, Consumer<LinkedList<Operation>> processor, String threadNamePrefix) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+        m_maxPendingPerShard = Math.max(0, maxPendingPerShard);
+        m_spillDirectory = m_maxPendingPerShard > 0 ? Objects.requireNonNull(spillDirectory) : spillDirectory;
+        m_prioritizeSignificantUpdates = prioritizeSignificantUpdates;
+        m_maxInsigUpdateNanos = TimeUnit.SECONDS.toNanos(Math.max(0, maxInsigUpdateSeconds));
+        m_updateFactory = Objects.requireNonNull(updateFactory);
+        m_processor = Objects.requireNonNull(processor);
+        m_threadNamePrefix = Objects.requireNonNull(threadNamePrefix);
+
+        m_shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            m_shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Queues the given operation.
+     *
+     * @return false if the operation was discarded
+     */
+    boolean add(final Operation op) {
+        final Shard shard = getShard(op.getFileName());
+        shard.ensureStarted();
+
+        if (!shard.addToSpill(op)) {
+            return false;
+        }
+
+        m_enqueuedOperations.incrementAndGet();
+        if (op.isSignificant()) {
+            m_significantOpsEnqueued.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Moves the given files to the front of their shards.
+     */
+    void promote(final Collection<String> fileNames) {
+        for (final String fileName : fileNames) {
+            final Shard shard = getShard(fileName);
+            if (shard.pendingByFile.containsKey(fileName)) {
+                shard.significantFiles.offerFirst(fileName);
+            }
+        }
+    }
+
+    long getTotalOperationsPending() {
+        long pending = 0;
+        for (final Shard shard : m_shards) {
+            pending += shard.pendingOps.get() + shard.spilledOps.get();
+        }
+        return pending;
+    }
+
+    long getEnqueuedOperations() {
+        return m_enqueuedOperations.get();
+    }
+
+    long getDequeuedOperations() {
+        return m_dequeuedOperations.get();
+    }
+
+    long getSignificantOpsEnqueued() {
+        return m_significantOpsEnqueued.get();
+    }
+
+    long getSignificantOpsDequeued() {
+        return m_significantOpsDequeued.get();
+    }
+
+    long getDequeuedItems() {
+        return m_dequeuedItems.get();
+    }
+
+    long getPromotionCount() {
+        return m_promotionCount.get();
+    }
+
+    int getNumShards() {
+        return m_shards.length;
+    }
+
+    /**
+     * Returns the age of the oldest file with pending operations in the given shard, in milliseconds.
+     */
+    long getOldestAgeMillis(int shardIndex) {
+        return TimeUnit.NANOSECONDS.toMillis(m_shards[shardIndex].getOldestAgeNanos());
+    }
+
+    long getPendingOperations(int shardIndex) {
+        return m_shards[shardIndex].pendingOps.get();
+    }
+
+    long getSpilledOperations(int shardIndex) {
+        return m_shards[shardIndex].spilledOps.get();
+    }
+
+    int getFilesWithWork(int shardIndex) {
+        return m_shards[shardIndex].pendingByFile.size();
+    }
+
+    /**
+     * Returns a summary of the state of each shard, for the queue statistics.
+     */
+    String getShardStats() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < m_shards.length; i++) {
+            sb.append("\nQS:\t").append("shard=").append(i)
+                .append(", operationsPending=").append(getPendingOperations(i))
+                .append(", operationsSpilled=").append(getSpilledOperations(i))
+                .append(", filesWithWork=").append(getFilesWithWork(i))
+                .append(", oldestAgeMillis=").append(getOldestAgeMillis(i));
+        }
+        return sb.toString();
+    }
+
+    private Shard getShard(final String fileName) {
+        return m_shards[(fileName.hashCode() & Integer.MAX_VALUE) % m_shards.length];
+    }
+
+    /**
+     * Returns the line used to store the given operation in a spill file,
+     * or null if the operation can't be spilled.
+     */
+    private static String toSpillLine(final Operation op) {
+        if (op instanceof ZeroUpdateOperation) {
+            return op.getFileName() + '\t' + ((ZeroUpdateOperation)op).getFirstTimeStamp() + ":0";
+        } else if (op instanceof UpdateOperation) {
+            return op.getFileName() + '\t' + op.getData();
+        }
+        return null;
+    }
+
+    /**
+     * The operations pending for a single file.
+     */
+    private static class FileWork {
+        private final long enqueuedAt = System.nanoTime();
+        private final LinkedList<Operation> ops = new LinkedList<>();
+        private boolean queuedSignificant;
+        private boolean queuedInsignificant;
+    }
+
+    private class Shard implements Runnable {
+        private final int index;
+        private final ConcurrentHashMap<String, FileWork> pendingByFile = new ConcurrentHashMap<>();
+        private final ConcurrentLinkedDeque<String> significantFiles = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedDeque<String> insignificantFiles = new ConcurrentLinkedDeque<>();
+        private final AtomicLong pendingOps = new AtomicLong(0);
+        private final AtomicLong spilledOps = new AtomicLong(0);
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private volatile Thread thread;
+
+        // Guarded by spillLock
+        private final Object spillLock = new Object();
+        private volatile boolean spilling = false;
+        private File spillFile;
+        private Writer spillWriter;
+        private BufferedReader spillReader;
+
+        private Shard(int index) {
+            this.index = index;
+        }
+
+        private void ensureStarted() {
+            if (started.compareAndSet(false, true)) {
+                final Thread t = new Thread(this, m_threadNamePrefix + "-" + index);
+                t.setDaemon(true);
+                thread = t;
+                t.start();
+            }
+        }
+
+        /**
+         * Appends the operation to the spill file if the shard is full,
+         * and keeps it in memory otherwise.
+         *
+         * @return false if the operation was discarded
+         */
+        private boolean addToSpill(final Operation op) {
+            if (m_maxPendingPerShard > 0 && (spilling || pendingOps.get() >= m_maxPendingPerShard)) {
+                final String line = toSpillLine(op);
+                if (line != null) {
+                    synchronized (spillLock) {
+                        // Check again now that we hold the lock, the spill file may have just been drained
+                        if (spilling || pendingOps.get() >= m_maxPendingPerShard) {
+                            try {
+                                spill(line);
+                                spilledOps.incrementAndGet();
+                                return true;
+                            } catch (final IOException e) {
+                                LOG.error("Failed to spill the update for file {} to disk. Discarding operation.", op.getFileName(), e);
+                                return false;
+                            }
+                        }
+                    }
+                }
+            }
+            addToMemory(op);
+            return true;
+        }
+
+        private void spill(final String line) throws IOException {
+            if (spillWriter == null) {
+                if (!m_spillDirectory.isDirectory() && !m_spillDirectory.mkdirs()) {
+                    throw new IOException("Unable to create spill directory " + m_spillDirectory);
+                }
+                spillFile = new File(m_spillDirectory, m_threadNamePrefix + "-" + index + SPILL_FILE_SUFFIX);
+                if (spillFile.exists()) {
+                    LOG.warn("Discarding the stale spill file {}.", spillFile);
+                }
+                spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile, false), StandardCharsets.UTF_8));
+                if (!spilling) {
+                    LOG.warn("Shard {} holds {} operations. Spilling updates to {}.", index, pendingOps.get(), spillFile);
+                }
+                spilling = true;
+            }
+            spillWriter.write(line);
+            spillWriter.write('\n');
+        }
+
+        private void addToMemory(final Operation op) {
+            pendingByFile.compute(op.getFileName(), (fileName, work) -> {
+                if (work == null) {
+                    work = new FileWork();
+                }
+                op.addToPendingList(work.ops);
+                if (!m_prioritizeSignificantUpdates || op.isSignificant()) {
+                    if (!work.queuedSignificant) {
+                        work.queuedSignificant = true;
+                        significantFiles.offerLast(fileName);
+                    }
+                } else if (!work.queuedSignificant && !work.queuedInsignificant) {
+                    work.queuedInsignificant = true;
+                    insignificantFiles.offerLast(fileName);
+                }
+                return work;
+            });
+            pendingOps.incrementAndGet();
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Reads back up to half of the shard's capacity from the spill file.
+         *
+         * @return true if any operations were read back
+         */
+        private boolean drainSpill() {
+            synchronized (spillLock) {
+                if (!spilling) {
+                    return false;
+                }
+                long numRead = 0;
+                try {
+                    if (spillReader == null) {
+                        spillWriter.flush();
+                        spillReader = new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), StandardCharsets.UTF_8));
+                    } else {
+                        spillWriter.flush();
+                    }
+                    final long maxToRead = Math.max(1, m_maxPendingPerShard / 2);
+                    String line;
+                    while (numRead < maxToRead && (line = spillReader.readLine()) != null) {
+                        numRead++;
+                        spilledOps.decrementAndGet();
+                        final int tab = line.lastIndexOf('\t');
+                        if (tab < 0) {
+                            LOG.warn("Ignoring malformed line in spill file {}: {}", spillFile, line);
+                            continue;
+                        }
+                        addToMemory(m_updateFactory.apply(line.substring(0, tab), line.substring(tab + 1)));
+                    }
+                    if (numRead < maxToRead) {
+                        // We've caught up with the writer
+                        closeSpill();
+                        LOG.info("Shard {} is no longer spilling updates to disk.", index);
+                    }
+                } catch (final IOException e) {
+                    LOG.error("Failed to read back the spill file {}. Discarding {} spilled operations.", spillFile, spilledOps.get(), e);
+                    closeSpill();
+                }
+                return numRead > 0;
+            }
+        }
+
+        private void closeSpill() {
+            try {
+                if (spillReader != null) {
+                    spillReader.close();
+                }
+                if (spillWriter != null) {
+                    spillWriter.close();
+                }
+            } catch (final IOException e) {
+                LOG.warn("Error closing spill file {}.", spillFile, e);
+            }
+            if (spillFile != null && !spillFile.delete()) {
+                LOG.warn("Failed to delete spill file {}.", spillFile);
+            }
+            spillReader = null;
+            spillWriter = null;
+            spillFile = null;
+            spilledOps.set(0);
+            spilling = false;
+        }
+
+        private String nextFile() {
+            // Promote the oldest file with only insignificant updates once it's been waiting for too long
+            if (m_prioritizeSignificantUpdates && m_maxInsigUpdateNanos > 0) {
+                final String fileName = insignificantFiles.peekFirst();
+                final FileWork work = fileName != null ? pendingByFile.get(fileName) : null;
+                if (work != null && System.nanoTime() - work.enqueuedAt > m_maxInsigUpdateNanos) {
+                    m_promotionCount.incrementAndGet();
+                    return insignificantFiles.pollFirst();
+                }
+            }
+            final String fileName = significantFiles.pollFirst();
+            return fileName != null ? fileName : insignificantFiles.pollFirst();
+        }
+
+        private long getOldestAgeNanos() {
+            final long now = System.nanoTime();
+            return Math.max(getAgeOfFirstNanos(significantFiles, now), getAgeOfFirstNanos(insignificantFiles, now));
+        }
+
+        private long getAgeOfFirstNanos(final ConcurrentLinkedDeque<String> files, final long now) {
+            final String fileName = files.peekFirst();
+            final FileWork work = fileName != null ? pendingByFile.get(fileName) : null;
+            return work != null ? now - work.enqueuedAt : 0;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (spilling && pendingOps.get() < m_maxPendingPerShard / 2) {
+                    drainSpill();
+                }
+
+                final String fileName = nextFile();
+                if (fileName == null) {
+                    if (!drainSpill()) {
+                        // Wait until more work is added
+                        LockSupport.park(this);
+                    }
+                    continue;
+                }
+
+                // The same file may be queued more than once, if it was promoted
+                final FileWork work = pendingByFile.remove(fileName);
+                if (work == null) {
+                    continue;
+                }
+
+                long count = 0;
+                long significant = 0;
+                for (final Operation op : work.ops) {
+                    count += op.getCount();
+                    if (op.isSignificant()) {
+                        significant += op.getCount();
+                    }
+                }
+                pendingOps.addAndGet(-count);
+                m_dequeuedOperations.addAndGet(count);
+                m_significantOpsDequeued.addAndGet(significant);
+                m_dequeuedItems.incrementAndGet();
+
+                try {
+                    m_processor.accept(work.ops);
+                } catch (final Throwable t) {
+                    LOG.warn("Unexpected error while writing the updates for file {}.", fileName, t);
+                }
+            }
+        }
+    }
+}
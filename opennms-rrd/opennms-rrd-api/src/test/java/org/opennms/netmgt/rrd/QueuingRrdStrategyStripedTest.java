@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the ordering and the bounds of the striped queues used by the {@link QueuingRrdStrategy}.
+ */
+public class QueuingRrdStrategyStripedTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final Map<String, List<String>> updatesByFile = new ConcurrentHashMap<>();
+
+    private final Map<String, Thread> threadsByFile = new ConcurrentHashMap<>();
+
+    private volatile CountDownLatch writeLatch = new CountDownLatch(0);
+
+    private QueuingRrdStrategy strategy;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        final RrdStrategy<Object, Object> delegate = (RrdStrategy<Object, Object>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RrdStrategy.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "openFile":
+                        writeLatch.await();
+                        return args[0];
+                    case "updateFile":
+                        final String fileName = (String) args[0];
+                        updatesByFile.computeIfAbsent(fileName, f -> Collections.synchronizedList(new ArrayList<>())).add((String) args[2]);
+                        final Thread previous = threadsByFile.putIfAbsent(fileName, Thread.currentThread());
+                        if (previous != null) {
+                            assertEquals("All of the updates for a file should be written by the same thread.", previous, Thread.currentThread());
+                        }
+                        return null;
+                    default:
+                        return null;
+                    }
+                });
+
+        strategy = new QueuingRrdStrategy(delegate);
+        strategy.setStripedQueues(true);
+        strategy.setWriteThreads(4);
+        strategy.setModulus(10000);
+        strategy.setSpillDirectory(tempFolder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void canWriteUpdatesInOrder() throws Exception {
+        strategy.setMaxPendingPerShard(0);
+
+        for (int i = 1; i <= 100; i++) {
+            for (int f = 0; f < 10; f++) {
+                strategy.updateFile("file" + f, "test", i + ":" + i);
+            }
+        }
+
+        waitForUpdates(10, 100);
+        for (int f = 0; f < 10; f++) {
+            assertUpdatesInOrder("file" + f, 100);
+        }
+        assertEquals(1000, strategy.getEnqueuedOperations());
+        assertEquals(1000, strategy.getDequeuedOperations());
+    }
+
+    @Test
+    public void canSpillUpdatesToDisk() throws Exception {
+        strategy.setWriteThreads(1);
+        strategy.setMaxPendingPerShard(10);
+
+        // Block the writer while we fill the queue
+        writeLatch = new CountDownLatch(1);
+        for (int i = 1; i <= 100; i++) {
+            strategy.updateFile("file0", "test", i + ":" + i);
+            strategy.updateFile("file1", "test", i + ":" + i);
+        }
+        assertEquals(200, strategy.getEnqueuedOperations());
+        assertTrue("Updates should have been spilled to disk.", Files.list(tempFolder.getRoot().toPath()).count() > 0);
+
+        writeLatch.countDown();
+        waitForUpdates(2, 100);
+        assertUpdatesInOrder("file0", 100);
+        assertUpdatesInOrder("file1", 100);
+        assertEquals(0, strategy.getTotalOperationsPending());
+        // The spill file is removed once it's drained
+        assertEquals(0, Files.list(tempFolder.getRoot().toPath()).count());
+    }
+
+    private void waitForUpdates(int numFiles, int numUpdates) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (System.currentTimeMillis() < deadline) {
+            if (updatesByFile.size() == numFiles && updatesByFile.values().stream().allMatch(u -> u.size() >= numUpdates)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertUpdatesInOrder(String fileName, int numUpdates) {
+        final List<String> updates = updatesByFile.get(fileName);
+        assertEquals(numUpdates, updates.size());
+        for (int i = 1; i <= numUpdates; i++) {
+            assertEquals(i + ":" + i, updates.get(i - 1));
+        }
+    }
+}
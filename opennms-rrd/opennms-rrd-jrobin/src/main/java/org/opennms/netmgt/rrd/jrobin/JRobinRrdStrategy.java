@@ -57,6 +57,7 @@ import org.opennms.netmgt.rrd.RrdGraphDetails;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 
 /**
@@ -64,13 +65,20 @@ import org.slf4j.LoggerFactory;
  * FILE mode (NIO is too memory consuming for the large number of files that we
  * open)
  *
+ * When org.opennms.rrd.jrobin.pool.size is set, a bounded number of files are
+ * instead kept open and memory-mapped between updates, see {@link MappedRrdDbPool}.
+ *
  * @author ranger
  * @version $Id: $
  */
-public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
+public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb>, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String POOL_SIZE_PROPERTY = "org.opennms.rrd.jrobin.pool.size";
+    private static final String POOL_SYNC_POLICY_PROPERTY = "org.opennms.rrd.jrobin.pool.syncPolicy";
+    private static final String POOL_SYNC_PERIOD_PROPERTY = "org.opennms.rrd.jrobin.pool.syncPeriod";
+    private static final int DEFAULT_POOL_SYNC_PERIOD = 300;
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -80,6 +88,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    /**
+     * Pool of open memory-mapped files, or null if the files are opened for every update.
+     */
+    private MappedRrdDbPool m_pool;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -136,17 +149,50 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+        if (m_configurationProperties != null && m_pool == null) {
+            final int poolSize = Integer.parseInt(m_configurationProperties.getProperty(POOL_SIZE_PROPERTY, "0"));
+            if (poolSize > 0) {
+                final MappedRrdDbPool.SyncPolicy syncPolicy = MappedRrdDbPool.SyncPolicy.valueOf(
+                        m_configurationProperties.getProperty(POOL_SYNC_POLICY_PROPERTY, MappedRrdDbPool.SyncPolicy.PERIODIC.name()).trim().toUpperCase());
+                final int syncPeriod = Integer.parseInt(m_configurationProperties.getProperty(POOL_SYNC_PERIOD_PROPERTY, Integer.toString(DEFAULT_POOL_SYNC_PERIOD)));
+                LOG.info("Keeping up to {} memory-mapped RRD files open with sync policy {}.", poolSize, syncPolicy);
+                m_pool = new MappedRrdDbPool(poolSize, syncPolicy, syncPeriod);
+            }
+        }
     }
 
     /**
-     * Closes the JRobin RrdDb.
+     * <p>getPool</p>
+     *
+     * @return the pool of open files, or null if pooling is disabled
+     */
+    public MappedRrdDbPool getPool() {
+        return m_pool;
+    }
+
+    /**
+     * Closes the files that are still held open by the pool.
+     */
+    @Override
+    public void destroy() {
+        if (m_pool != null) {
+            m_pool.closeAll();
+        }
+    }
+
+    /**
+     * Closes the JRobin RrdDb, or returns it to the pool.
      *
      * @param rrdFile a {@link org.jrobin.core.RrdDb} object.
      * @throws java.lang.Exception if any.
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        if (m_pool != null) {
+            m_pool.release(rrdFile);
+        } else {
+            rrdFile.close();
+        }
     }
 
     /** {@inheritDoc} */
@@ -201,6 +247,10 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        if (m_pool != null) {
+            // Don't keep updating a previous file at the same path
+            m_pool.invalidate(rrdDef.getPath());
+        }
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
     }
@@ -208,10 +258,14 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     /**
      * {@inheritDoc}
      *
-     * Opens the JRobin RrdDb by name and returns it.
+     * Opens the JRobin RrdDb by name and returns it. When pooling is enabled,
+     * the file is taken from the pool of open files instead.
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
+        if (m_pool != null) {
+            return m_pool.open(fileName);
+        }
         return new RrdDb(fileName);
     }
 
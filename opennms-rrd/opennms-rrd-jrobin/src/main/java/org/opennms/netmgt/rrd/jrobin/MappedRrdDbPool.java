@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.RrdNioBackend;
+import org.jrobin.core.RrdNioBackendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of memory-mapped {@link RrdDb} instances.
+ *
+ * The files are kept open (and mapped) between updates, so that the samples
+ * queued for a file are written to the page cache without having to reopen
+ * and re-read the file's header. The least recently used files that aren't
+ * in use are closed once the pool is full.
+ *
+ * Since the files are mapped in shared mode, the updates are visible to the
+ * readers of the file right away and survive a crash of the JVM. When the
+ * pages are forced to disk is controlled by the {@link SyncPolicy}.
+ *
+ * Files that are deleted or replaced while they are pooled are reopened,
+ * instead of updating the mapping of the unlinked file.
+ */
+public class MappedRrdDbPool {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdDbPool.class);
+
+    public enum SyncPolicy {
+        /**
+         * The pages of every open file are forced to disk at a fixed interval.
+         */
+        PERIODIC,
+        /**
+         * The pages are forced to disk every time a file is released, after
+         * each batch of updates.
+         */
+        RELEASE,
+        /**
+         * The pages are only forced to disk when a file is evicted from the
+         * pool, and left to the operating system otherwise.
+         */
+        EVICT
+    }
+
+    private final int m_maxSize;
+
+    private final SyncPolicy m_syncPolicy;
+
+    private final SyncingNioBackendFactory m_backendFactory;
+
+    /**
+     * Open files in access order, guarded by itself.
+     */
+    private final Map<String, PooledRrdDb> m_pool = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong m_hits = new AtomicLong(0);
+
+    private final AtomicLong m_misses = new AtomicLong(0);
+
+    private final AtomicLong m_evictions = new AtomicLong(0);
+
+    private static class PooledRrdDb {
+        private final RrdDb rrdDb;
+        private final Object fileKey;
+        private int references = 0;
+
+        private PooledRrdDb(RrdDb rrdDb, Object fileKey) {
+            this.rrdDb = rrdDb;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * Whether the file at the path is still the one we have open. The inode
+         * of an open file can't be reused, so a different key means that the
+         * file was replaced.
+         */
+        private boolean isCurrent() {
+            try {
+                return fileKey == null || fileKey.equals(getFileKey(rrdDb.getPath()));
+            } catch (final IOException e) {
+                // Deleted
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @param maxSize the number of files to keep open
+     * @param syncPolicy when to force the updates to disk
+     * @param syncPeriodSeconds the interval at which the updates are forced to disk with {@link SyncPolicy#PERIODIC}
+     */
+    public MappedRrdDbPool(int maxSize, SyncPolicy syncPolicy, int syncPeriodSeconds) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The pool must hold at least one file.");
+        }
+        m_maxSize = maxSize;
+        m_syncPolicy = Objects.requireNonNull(syncPolicy);
+        // The backends always schedule a sync task, so we only make it effective for the periodic policy
+        m_backendFactory = new SyncingNioBackendFactory(syncPolicy == SyncPolicy.PERIODIC ? Math.max(1, syncPeriodSeconds) : (int)TimeUnit.DAYS.toSeconds(1));
+    }
+
+    /**
+     * Returns the open database for the given file, opening it if necessary.
+     * Every call must be matched by a call to {@link #release(RrdDb)}.
+     */
+    public RrdDb open(final String fileName) throws IOException, RrdException {
+        List<PooledRrdDb> stale = null;
+        final List<PooledRrdDb> evicted;
+        final RrdDb rrdDb;
+        try {
+            synchronized (m_pool) {
+                PooledRrdDb pooled = m_pool.get(fileName);
+                if (pooled != null && !pooled.isCurrent()) {
+                    LOG.debug("RRD file {} was deleted or replaced, reopening it.", fileName);
+                    stale = remove(fileName);
+                    pooled = null;
+                }
+                if (pooled == null) {
+                    m_misses.incrementAndGet();
+                    final RrdDb opened = new RrdDb(fileName, m_backendFactory);
+                    pooled = new PooledRrdDb(opened, getFileKey(fileName));
+                    m_pool.put(fileName, pooled);
+                } else {
+                    m_hits.incrementAndGet();
+                }
+                pooled.references++;
+                rrdDb = pooled.rrdDb;
+                evicted = evictIdle();
+            }
+        } finally {
+            closeAll(stale);
+        }
+        closeAll(evicted);
+        return rrdDb;
+    }
+
+    /**
+     * Releases a database that was returned by {@link #open(String)}.
+     */
+    public void release(final RrdDb rrdDb) throws IOException {
+        // Sync while we still hold our reference, once it is dropped the file
+        // can be evicted and closed by a concurrent call to open()
+        if (m_syncPolicy == SyncPolicy.RELEASE) {
+            sync(rrdDb);
+        }
+        final List<PooledRrdDb> evicted;
+        synchronized (m_pool) {
+            final PooledRrdDb pooled = m_pool.get(rrdDb.getPath());
+            if (pooled == null || pooled.rrdDb != rrdDb) {
+                // Not one of ours, or invalidated while it was in use
+                rrdDb.close();
+                return;
+            }
+            pooled.references--;
+            evicted = evictIdle();
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Removes the given file from the pool, so that it is reopened by the
+     * next call to {@link #open(String)}. This must be called when the file
+     * is deleted or recreated. If the file is in use, it is closed once it
+     * is released.
+     */
+    public void invalidate(final String fileName) {
+        final List<PooledRrdDb> invalidated;
+        synchronized (m_pool) {
+            invalidated = remove(fileName);
+        }
+        closeAll(invalidated);
+    }
+
+    /**
+     * Closes all of the files that aren't in use.
+     */
+    public void closeAll() {
+        final List<PooledRrdDb> idle = new ArrayList<>();
+        synchronized (m_pool) {
+            for (final Iterator<PooledRrdDb> it = m_pool.values().iterator(); it.hasNext();) {
+                final PooledRrdDb pooled = it.next();
+                if (pooled.references < 1) {
+                    it.remove();
+                    idle.add(pooled);
+                }
+            }
+        }
+        closeAll(idle);
+    }
+
+    public int getSize() {
+        synchronized (m_pool) {
+            return m_pool.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return m_maxSize;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return m_syncPolicy;
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    /**
+     * Removes the least recently used files that aren't in use until the pool fits.
+     * Must be called while holding the lock on the pool.
+     */
+    private List<PooledRrdDb> evictIdle() {
+        if (m_pool.size() <= m_maxSize) {
+            return null;
+        }
+        final List<PooledRrdDb> evicted = new ArrayList<>();
+        for (final Iterator<PooledRrdDb> it = m_pool.values().iterator(); it.hasNext() && m_pool.size() > m_maxSize;) {
+            final PooledRrdDb pooled = it.next();
+            if (pooled.references < 1) {
+                it.remove();
+                evicted.add(pooled);
+            }
+        }
+        m_evictions.addAndGet(evicted.size());
+        return evicted;
+    }
+
+    /**
+     * Removes the given file from the pool, and returns it to be closed unless
+     * it is in use. Files in use are closed once they are released instead.
+     * Must be called while holding the lock on the pool.
+     */
+    private List<PooledRrdDb> remove(final String fileName) {
+        final PooledRrdDb pooled = m_pool.remove(fileName);
+        if (pooled == null || pooled.references > 0) {
+            return null;
+        }
+        return Collections.singletonList(pooled);
+    }
+
+    private static Object getFileKey(final String fileName) throws IOException {
+        return Files.readAttributes(Paths.get(fileName), BasicFileAttributes.class).fileKey();
+    }
+
+    private static void closeAll(final List<PooledRrdDb> pooledDbs) {
+        if (pooledDbs == null) {
+            return;
+        }
+        for (final PooledRrdDb pooled : pooledDbs) {
+            try {
+                // Closing the backend forces the pages to disk
+                pooled.rrdDb.close();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close RRD file {}.", pooled.rrdDb.getPath(), e);
+            }
+        }
+    }
+
+    private static void sync(final RrdDb rrdDb) {
+        final RrdBackend backend = rrdDb.getRrdBackend();
+        if (backend instanceof SyncingNioBackend) {
+            ((SyncingNioBackend)backend).force();
+        }
+    }
+
+    /**
+     * Exposes the sync of the memory-mapped backend.
+     */
+    private static class SyncingNioBackend extends RrdNioBackend {
+        private SyncingNioBackend(String path, boolean readOnly, int syncPeriod) throws IOException {
+            super(path, readOnly, syncPeriod);
+        }
+
+        private void force() {
+            sync();
+        }
+    }
+
+    private static class SyncingNioBackendFactory extends RrdNioBackendFactory {
+        private final int m_syncPeriod;
+
+        private SyncingNioBackendFactory(int syncPeriod) {
+            m_syncPeriod = syncPeriod;
+        }
+
+        @Override
+        protected RrdBackend open(String path, boolean readOnly) throws IOException {
+            return new SyncingNioBackend(path, readOnly, m_syncPeriod);
+        }
+
+        @Override
+        public String getFactoryName() {
+            return "ONMS_POOLED_NIO";
+        }
+    }
+}
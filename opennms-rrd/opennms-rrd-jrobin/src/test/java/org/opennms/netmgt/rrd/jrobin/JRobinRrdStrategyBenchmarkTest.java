@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.RrdAttributeType;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.springframework.test.annotation.IfProfileValue;
+
+/**
+ * Compares the update throughput of the {@link JRobinRrdStrategy} with and
+ * without the pool of memory-mapped files.
+ */
+public class JRobinRrdStrategyBenchmarkTest {
+
+    private static final int FILE_COUNT = 500;
+
+    private static final int UPDATE_COUNT = 20;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkFileBackend() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("org.jrobin.core.RrdBackendFactory", "FILE");
+        benchmark("file", props);
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void benchmarkPooledBackend() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("org.opennms.rrd.jrobin.pool.size", Integer.toString(FILE_COUNT));
+        benchmark("pooled", props);
+    }
+
+    private void benchmark(String name, Properties props) throws Exception {
+        final JRobinRrdStrategy strategy = new JRobinRrdStrategy();
+        strategy.setConfigurationProperties(props);
+
+        final File directory = tempFolder.newFolder(name);
+        final List<String> fileNames = new ArrayList<>(FILE_COUNT);
+        final long start = System.currentTimeMillis() / 1000 - UPDATE_COUNT * 300;
+        for (int i = 0; i < FILE_COUNT; i++) {
+            final RrdDef def = strategy.createDefinition("benchmark", directory.getAbsolutePath(), "file" + i, 300,
+                    Collections.singletonList(new RrdDataSource("ds", RrdAttributeType.GAUGE, 600, "U", "U")),
+                    Collections.singletonList("RRA:AVERAGE:0.5:1:8928"));
+            def.setStartTime(start - 300);
+            strategy.createFile(def);
+            fileNames.add(def.getPath());
+        }
+
+        final long begin = System.nanoTime();
+        for (int j = 0; j < UPDATE_COUNT; j++) {
+            for (String fileName : fileNames) {
+                final RrdDb rrdDb = strategy.openFile(fileName);
+                strategy.updateFile(rrdDb, "benchmark", (start + j * 300) + ":" + j);
+                strategy.closeFile(rrdDb);
+            }
+        }
+        final long elapsed = System.nanoTime() - begin;
+
+        if (strategy.getPool() != null) {
+            strategy.getPool().closeAll();
+        }
+        System.out.printf("%s: %d updates to %d files at %.0f updates/s\n",
+                name, FILE_COUNT * UPDATE_COUNT, FILE_COUNT, FILE_COUNT * UPDATE_COUNT * 1e9 / elapsed);
+    }
+}
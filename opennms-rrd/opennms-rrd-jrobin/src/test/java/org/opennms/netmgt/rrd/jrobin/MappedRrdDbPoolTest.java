@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRrdDbPoolTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private MappedRrdDbPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.closeAll();
+        }
+    }
+
+    @Test
+    public void canReuseOpenFiles() throws Exception {
+        pool = new MappedRrdDbPool(2, MappedRrdDbPool.SyncPolicy.RELEASE, 300);
+        final String fileName = createRrd("a");
+
+        final RrdDb rrdDb = pool.open(fileName);
+        rrdDb.createSample().setAndUpdate("1300:1");
+        pool.release(rrdDb);
+
+        final RrdDb sameRrdDb = pool.open(fileName);
+        assertSame(rrdDb, sameRrdDb);
+        sameRrdDb.createSample().setAndUpdate("1600:2");
+        pool.release(sameRrdDb);
+
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getHits());
+
+        // The updates are visible to other readers of the file
+        final RrdDb reader = new RrdDb(fileName, true);
+        try {
+            assertEquals(1600, reader.getLastUpdateTime());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void canEvictLeastRecentlyUsedFiles() throws Exception {
+        pool = new MappedRrdDbPool(2, MappedRrdDbPool.SyncPolicy.EVICT, 300);
+        final String a = createRrd("a");
+        final String b = createRrd("b");
+        final String c = createRrd("c");
+
+        final RrdDb rrdA = pool.open(a);
+        pool.release(rrdA);
+        // Keep b in use
+        final RrdDb rrdB = pool.open(b);
+        pool.release(pool.open(a));
+
+        // b is the least recently used, but it's in use, so a is evicted instead
+        pool.release(pool.open(c));
+        assertEquals(2, pool.getSize());
+        assertEquals(1, pool.getEvictions());
+        assertNotSame(rrdA, pool.open(a));
+        assertSame(rrdB, pool.open(b));
+    }
+
+    @Test
+    public void canCloseIdleFiles() throws Exception {
+        pool = new MappedRrdDbPool(2, MappedRrdDbPool.SyncPolicy.RELEASE, 300);
+        final RrdDb rrdA = pool.open(createRrd("a"));
+        pool.release(rrdA);
+        final RrdDb rrdB = pool.open(createRrd("b"));
+
+        // Only the files that aren't in use are closed
+        pool.closeAll();
+        assertEquals(1, pool.getSize());
+        assertTrue(rrdA.isClosed());
+        assertFalse(rrdB.isClosed());
+
+        pool.release(rrdB);
+        pool.closeAll();
+        assertEquals(0, pool.getSize());
+        assertTrue(rrdB.isClosed());
+    }
+
+    @Test
+    public void canReopenRecreatedFiles() throws Exception {
+        pool = new MappedRrdDbPool(2, MappedRrdDbPool.SyncPolicy.RELEASE, 300);
+        final String fileName = createRrd("a");
+        final RrdDb rrdDb = pool.open(fileName);
+        rrdDb.createSample().setAndUpdate("1300:1");
+        pool.release(rrdDb);
+
+        // Deleted and recreated behind the pool's back
+        assertTrue(new File(fileName).delete());
+        createRrd("a");
+        final RrdDb recreated = pool.open(fileName);
+        assertNotSame(rrdDb, recreated);
+        assertTrue(rrdDb.isClosed());
+        recreated.createSample().setAndUpdate("1600:2");
+        pool.release(recreated);
+        assertLastUpdateTime(fileName, 1600);
+
+        // Invalidated when recreated through the pool's owner, while in use
+        final RrdDb inUse = pool.open(fileName);
+        assertSame(recreated, inUse);
+        assertTrue(new File(fileName).delete());
+        createRrd("a");
+        pool.invalidate(fileName);
+        assertFalse(inUse.isClosed());
+        pool.release(inUse);
+        assertTrue(inUse.isClosed());
+
+        final RrdDb reopened = pool.open(fileName);
+        assertNotSame(inUse, reopened);
+        reopened.createSample().setAndUpdate("1900:3");
+        pool.release(reopened);
+        assertLastUpdateTime(fileName, 1900);
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test(expected=IOException.class)
+    public void cannotOpenDeletedFiles() throws Exception {
+        pool = new MappedRrdDbPool(2, MappedRrdDbPool.SyncPolicy.RELEASE, 300);
+        final String fileName = createRrd("a");
+        pool.release(pool.open(fileName));
+
+        assertTrue(new File(fileName).delete());
+        pool.open(fileName);
+    }
+
+    private static void assertLastUpdateTime(String fileName, long lastUpdateTime) throws Exception {
+        final RrdDb reader = new RrdDb(fileName, true);
+        try {
+            assertEquals(lastUpdateTime, reader.getLastUpdateTime());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String createRrd(String name) throws Exception {
+        final File file = new File(tempFolder.getRoot(), name + ".jrb");
+        final RrdDef def = new RrdDef(file.getAbsolutePath());
+        def.setStartTime(1000);
+        def.setStep(300);
+        def.addDatasource("ds", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("RRA:AVERAGE:0.5:1:100");
+        new RrdDb(def).close();
+        return file.getAbsolutePath();
+    }
+}
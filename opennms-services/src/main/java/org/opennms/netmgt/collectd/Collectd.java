@@ -81,6 +81,7 @@ import org.opennms.netmgt.model.events.EventUtils;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimerWheelScheduler;
 import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
@@ -329,7 +330,11 @@ public class Collectd extends AbstractServiceDaemon implements
             // Create a scheduler
             try {
                 LOG.debug("init: Creating collectd scheduler");
-                setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                if (TimerWheelScheduler.isEnabled()) {
+                    setScheduler(new TimerWheelScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                } else {
+                    setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                }
             } catch (final RuntimeException e) {
                 LOG.error("init: Failed to create collectd scheduler", e);
                 throw e;
@@ -534,8 +539,9 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Add new collectable service to the collectable service list.
                 m_collectableServices.add(cSvc);
 
-                // Schedule the collectable service for immediate collection
-                getScheduler().schedule(0, cSvc.getReadyRunnable());
+                // Schedule the collectable service for immediate collection, or
+                // spread across its interval when the scheduler supports it
+                getScheduler().schedule(getScheduler().getInitialDelay(spec::getInterval), cSvc.getReadyRunnable());
 
                 LOG.debug("scheduleInterface: {}/{} collection, scheduled", iface, svcName);
             } catch (CollectionInitializationException e) {
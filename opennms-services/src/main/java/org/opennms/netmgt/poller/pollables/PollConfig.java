@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.poller.pollables;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.scheduler.Timer;
 
@@ -47,6 +49,15 @@ public interface PollConfig extends Timer {
      */
     public PollStatus poll();
 
+    /**
+     * Polls the service without waiting for the result.
+     *
+     * @return a future that completes with the result of the poll
+     */
+    default CompletableFuture<PollStatus> pollAsync() {
+        return CompletableFuture.completedFuture(poll());
+    }
+
     /**
      * <p>getCurrentTime</p>
      *
@@ -31,13 +31,14 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.AsyncReadyRunnable;
 import org.opennms.netmgt.scheduler.PostponeNecessary;
-import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
@@ -48,7 +49,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  */
-public class PollableService extends PollableElement implements ReadyRunnable, MonitoredService {
+public class PollableService extends PollableElement implements AsyncReadyRunnable, MonitoredService {
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
@@ -70,6 +71,11 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
 
     private volatile PollConfig m_pollConfig;
     private volatile PollStatus m_oldStatus;
+    /**
+     * Result of an asynchronous poll, used in place of polling again when
+     * the status of the service is being processed.
+     */
+    private volatile PollStatus m_pendingStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
     /**
@@ -187,7 +193,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_pendingStatus;
+        if (newStatus != null) {
+            m_pendingStatus = null;
+        } else {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -391,10 +402,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private PollStatus doRun(int timeout) {
         final Map<String, String> mdc = Logging.getCopyOfContextMap();
         try {
-            Logging.putThreadContext("service", m_svcName);
-            Logging.putThreadContext("ipAddress", getIpAddr());
-            Logging.putThreadContext("nodeId", Integer.toString(getNodeId()));
-            Logging.putThreadContext("nodeLabel", getNodeLabel());
+            putThreadContext();
             long startDate = System.currentTimeMillis();
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
@@ -420,6 +428,69 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         }
     }
 
+    /**
+     * Polls the service without holding the tree lock and processes the
+     * status change once the result is available.
+     *
+     * The returned future fails with a {@link PostponeNecessary} if the tree
+     * lock could not be obtained, in which case the result is discarded and
+     * the poll is retried later on.
+     */
+    @Override
+    public CompletableFuture<Void> runAsync() {
+        final Map<String, String> mdc = Logging.getCopyOfContextMap();
+        try {
+            putThreadContext();
+            final long startDate = System.currentTimeMillis();
+            LOG.debug("Start Scheduled Poll of service {}", this);
+            return m_pollConfig.pollAsync().thenAccept(newStatus -> {
+                final Map<String, String> callerMdc = Logging.getCopyOfContextMap();
+                try {
+                    putThreadContext();
+                    processPollStatus(newStatus);
+                    LOG.debug("Finish Scheduled Poll of service {}, started at {}", this, new Date(startDate));
+                } finally {
+                    Logging.setContextMap(callerMdc);
+                }
+            });
+        } finally {
+            Logging.setContextMap(mdc);
+        }
+    }
+
+    private void processPollStatus(PollStatus newStatus) {
+        if (getContext().isNodeProcessingEnabled()) {
+            try {
+                withTreeLock(() -> {
+                    m_pendingStatus = newStatus;
+                    try {
+                        doPoll();
+                        getNode().processStatusChange(new Date());
+                    } finally {
+                        m_pendingStatus = null;
+                    }
+                }, 500);
+            } catch (LockUnavailable e) {
+                LOG.info("Postponing poll for {}", this, e);
+                throw new PostponeNecessary("LockUnavailable postpone poll");
+            }
+        }
+        else {
+            resetStatusChanged();
+            if (!newStatus.isUnknown()) {
+                updateStatus(newStatus);
+            }
+            processStatusChange(new Date());
+        }
+    }
+
+    private void putThreadContext() {
+        Logging.putThreadContext("service", m_svcName);
+        Logging.putThreadContext("ipAddress", getIpAddr());
+        Logging.putThreadContext("nodeId", Integer.toString(getNodeId()));
+        Logging.putThreadContext("nodeLabel", getNodeLabel());
+    }
+
 	/**
      * <p>delete</p>
      */
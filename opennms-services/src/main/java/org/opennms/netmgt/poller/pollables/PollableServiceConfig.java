@@ -30,8 +30,11 @@ package org.opennms.netmgt.poller.pollables;
 
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 import org.opennms.core.rpc.api.RpcExceptionHandler;
 import org.opennms.core.rpc.api.RpcExceptionUtils;
@@ -45,6 +48,7 @@ import org.opennms.netmgt.config.poller.Service;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.poller.LocationAwarePollerClient;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.PollerResponse;
 import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.scheduler.ScheduleInterval;
 import org.opennms.netmgt.scheduler.Timer;
@@ -116,53 +120,89 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     @Override
     public PollStatus poll() {
         try {
-            final String packageName = getPackageName();
-            // Use the service's configured interval as the TTL for this request
-            final Long ttlInMs = m_configService.getInterval();
-            LOG.debug("Polling {} with TTL {} using pkg {}",
-                    m_service, ttlInMs, packageName);
-
-            PollStatus result = m_locationAwarePollerClient.poll()
-                .withService(m_service)
-                .withMonitor(m_serviceMonitor)
-                .withTimeToLive(ttlInMs)
-                .withAttributes(getParameters())
-                .withAdaptor(m_latencyStoringServiceMonitorAdaptor)
-                .withAdaptor(m_invertedStatusServiceMonitorAdaptor)
-                .execute()
-                .get().getPollStatus();
-            LOG.debug("Finish polling {} using pkg {} result = {}", m_service, packageName, result);
-            return result;
+            return execute().get().getPollStatus();
         } catch (Throwable e) {
-            return RpcExceptionUtils.handleException(e, new RpcExceptionHandler<PollStatus>() {
-                @Override
-                public PollStatus onInterrupted(Throwable cause) {
-                    LOG.warn("Interrupted while invoking the poll for {}."
-                            + " Marking the service as UNKNOWN.", m_service);
-                    return PollStatus.unknown("Interrupted while invoking the poll for"+m_service+". "+e);
-                }
+            return handleException(e);
+        }
+    }
 
-                @Override
-                public PollStatus onTimedOut(Throwable cause) {
-                    LOG.warn("No response was received when remotely invoking the poll for {}."
-                            + " Marking the service as UNKNOWN.", m_service);
-                    return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
-                }
+    /**
+     * {@inheritDoc}
+     *
+     * When the timer is also an {@link Executor}, the future completes on
+     * one of its threads, instead of the one that received the response.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync() {
+        final CompletableFuture<PollerResponse> future;
+        try {
+            future = execute();
+        } catch (Throwable e) {
+            return CompletableFuture.completedFuture(handleException(e));
+        }
 
-                @Override
-                public PollStatus onRejected(Throwable cause) {
-                    LOG.warn("The request to remotely invoke the poll for {} was rejected."
-                            + " Marking the service as UNKNOWN.", m_service);
-                    return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
-                }
+        final BiFunction<PollerResponse, Throwable, PollStatus> handler = (response, e) -> {
+            if (e != null) {
+                return handleException(e);
+            }
+            return response.getPollStatus();
+        };
+        if (m_timer instanceof Executor) {
+            return future.handleAsync(handler, (Executor)m_timer);
+        }
+        return future.handle(handler);
+    }
 
-                @Override
-                public PollStatus onUnknown(Throwable cause) {
-                    LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
-                    return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
-                }
+    private CompletableFuture<PollerResponse> execute() {
+        final String packageName = getPackageName();
+        // Use the service's configured interval as the TTL for this request
+        final Long ttlInMs = m_configService.getInterval();
+        LOG.debug("Polling {} with TTL {} using pkg {}",
+                m_service, ttlInMs, packageName);
+
+        return m_locationAwarePollerClient.poll()
+            .withService(m_service)
+            .withMonitor(m_serviceMonitor)
+            .withTimeToLive(ttlInMs)
+            .withAttributes(getParameters())
+            .withAdaptor(m_latencyStoringServiceMonitorAdaptor)
+            .withAdaptor(m_invertedStatusServiceMonitorAdaptor)
+            .execute()
+            .thenApply(response -> {
+                LOG.debug("Finish polling {} using pkg {} result = {}", m_service, packageName, response.getPollStatus());
+                return response;
             });
-        }
+    }
+
+    private PollStatus handleException(Throwable e) {
+        return RpcExceptionUtils.handleException(e, new RpcExceptionHandler<PollStatus>() {
+            @Override
+            public PollStatus onInterrupted(Throwable cause) {
+                LOG.warn("Interrupted while invoking the poll for {}."
+                        + " Marking the service as UNKNOWN.", m_service);
+                return PollStatus.unknown("Interrupted while invoking the poll for"+m_service+". "+e);
+            }
+
+            @Override
+            public PollStatus onTimedOut(Throwable cause) {
+                LOG.warn("No response was received when remotely invoking the poll for {}."
+                        + " Marking the service as UNKNOWN.", m_service);
+                return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
+            }
+
+            @Override
+            public PollStatus onRejected(Throwable cause) {
+                LOG.warn("The request to remotely invoke the poll for {} was rejected."
+                        + " Marking the service as UNKNOWN.", m_service);
+                return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
+            }
+
+            @Override
+            public PollStatus onUnknown(Throwable cause) {
+                LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
+                return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
+            }
+        });
     }
 
     /**